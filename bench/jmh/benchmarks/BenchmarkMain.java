@@ -0,0 +1,26 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler, so every result comes with allocation rates.
+ * Takes the same options as the JMH runner. If -prof is given, those profilers are used instead.
+ */
+public class BenchmarkMain {
+	/**
+	 * Runs the benchmarks.
+	 * 
+	 * @param args JMH options.
+	 */
+	public static void main( String[] args ) throws Exception {
+		List< String > options = new ArrayList< String >( Arrays.asList( args ) );
+		// If no profiler was asked for, use the GC profiler.
+		if ( !options.contains( "-prof" ) && !options.contains( "-h" ) && !options.contains( "-l" ) ) {
+			options.add( "-prof" );
+			options.add( "gc" );
+		}
+		org.openjdk.jmh.Main.main( options.toArray( new String[ 0 ] ) );
+	}
+}
@@ -0,0 +1,43 @@
+package benchmarks;
+
+/**
+ * Loading and saving task files, for PersistenceBenchmark.
+ * Implemented by TaskFileWorkload.
+ */
+public interface FileWorkload {
+	/**
+	 * Writes a task file to load, and makes a heap to save.
+	 * 
+	 * @param size The number of tasks.
+	 * @param format The file format: "text" or "binary".
+	 * @throws Exception If the file cannot be written.
+	 */
+	void setUp( int size, String format ) throws Exception;
+	
+	/**
+	 * Deletes the files made by the workload.
+	 */
+	void tearDown();
+	
+	/**
+	 * Gets the size of the task file.
+	 * 
+	 * @return The size of the file, in bytes.
+	 */
+	long getFileSize();
+	
+	/**
+	 * Loads the task file into a new heap, the way Heap.loadHeap() does.
+	 * 
+	 * @return The new heap.
+	 * @throws Exception If the file cannot be read.
+	 */
+	Object load() throws Exception;
+	
+	/**
+	 * Saves the heap to the task file, the way Heap.saveHeap() does for the binary format and Heap.exportText() does for text.
+	 * 
+	 * @throws Exception If the file cannot be written.
+	 */
+	void save() throws Exception;
+}
@@ -0,0 +1,81 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Steady-state operations on a filled heap: add then remove, a mixed add/complete/postpone workload,
+ * Task.compareTo, and toString.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgsAppend = "-Xmx4g" )
+public class HeapBenchmark {
+	/**
+	 * Number of tasks in the heap.
+	 */
+	@Param( { "1000", "100000", "1000000", "10000000" } )
+	public int size;
+	
+	/**
+	 * The heap and its tasks.
+	 */
+	private HeapWorkload workload;
+	
+	/**
+	 * Fills the heap with tasks in random order.
+	 */
+	@Setup( Level.Trial )
+	public void setUp() {
+		workload = Workloads.load( HeapWorkload.class, "TaskHeapWorkload" );
+		workload.setUp( size, "random" );
+	}
+	
+	/**
+	 * Heap.addItem followed by Heap.removeItem.
+	 */
+	@Benchmark
+	public Object addRemove() {
+		return workload.addRemove();
+	}
+	
+	/**
+	 * One step of adding, completing by id, or postponing a random task.
+	 */
+	@Benchmark
+	public Object mixed() {
+		return workload.mixed();
+	}
+	
+	/**
+	 * Task.compareTo on tasks from the heap.
+	 */
+	@Benchmark
+	public int compareTo() {
+		return workload.compare();
+	}
+	
+	/**
+	 * Heap.toString, which lists every task in sorted order.
+	 */
+	@Benchmark
+	@OutputTimeUnit( TimeUnit.MILLISECONDS )
+	public String render() {
+		return workload.render();
+	}
+}
@@ -0,0 +1,62 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building a heap with addItem, one task at a time, for tasks inserted in random, sorted and reverse order.
+ * Sorted input never sifts up, and reverse input sifts every task all the way to the root.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgsAppend = "-Xmx4g" )
+public class HeapInsertBenchmark {
+	/**
+	 * Number of tasks inserted.
+	 */
+	@Param( { "1000", "100000", "1000000", "10000000" } )
+	public int size;
+	
+	/**
+	 * Order the tasks are inserted in.
+	 */
+	@Param( { "random", "sorted", "reverse" } )
+	public String order;
+	
+	/**
+	 * The tasks to insert.
+	 */
+	private HeapWorkload workload;
+	
+	/**
+	 * Makes the tasks, in the order they will be inserted.
+	 */
+	@Setup( Level.Trial )
+	public void setUp() {
+		workload = Workloads.load( HeapWorkload.class, "TaskHeapWorkload" );
+		workload.setUp( size, order );
+	}
+	
+	/**
+	 * Inserts every task into a new heap.
+	 */
+	@Benchmark
+	public Object insertAll() {
+		return workload.insertAll();
+	}
+}
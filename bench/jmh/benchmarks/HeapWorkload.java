@@ -0,0 +1,51 @@
+package benchmarks;
+
+/**
+ * Operations on a Heap of Tasks, for HeapBenchmark and HeapInsertBenchmark.
+ * Implemented by TaskHeapWorkload.
+ */
+public interface HeapWorkload {
+	/**
+	 * Makes the tasks for the workload, and fills a heap with them.
+	 * 
+	 * @param size The number of tasks.
+	 * @param order The order tasks are inserted in: "random", "sorted" or "reverse".
+	 */
+	void setUp( int size, String order );
+	
+	/**
+	 * Inserts every task, one at a time with addItem, into a new heap.
+	 * 
+	 * @return The new heap.
+	 */
+	Object insertAll();
+	
+	/**
+	 * Adds a task to the filled heap and removes the earliest one, so the size stays the same.
+	 * 
+	 * @return The removed task.
+	 */
+	Object addRemove();
+	
+	/**
+	 * Runs one step of a mix of adding, completing and postponing tasks on the filled heap.
+	 * Adds and completes are equally likely, so the size stays about the same.
+	 * 
+	 * @return The task that was added, completed or postponed.
+	 */
+	Object mixed();
+	
+	/**
+	 * Converts the filled heap to a String.
+	 * 
+	 * @return The String.
+	 */
+	String render();
+	
+	/**
+	 * Compares two tasks from the filled heap, moving on to the next pair on every call.
+	 * 
+	 * @return The result of compareTo.
+	 */
+	int compare();
+}
@@ -0,0 +1,102 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading and saving task files in the text and binary formats.
+ * Besides the operation rate, each benchmark reports a "megabytes" counter, which is the throughput in MB/s.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgsAppend = "-Xmx4g" )
+public class PersistenceBenchmark {
+	/**
+	 * Number of tasks in the file.
+	 */
+	@Param( { "100000", "1000000" } )
+	public int size;
+	
+	/**
+	 * The file format.
+	 */
+	@Param( { "text", "binary" } )
+	public String format;
+	
+	/**
+	 * The task file and the heap saved to it.
+	 */
+	private FileWorkload workload;
+	
+	/**
+	 * Writes the task file.
+	 */
+	@Setup( Level.Trial )
+	public void setUp() throws Exception {
+		workload = Workloads.load( FileWorkload.class, "TaskFileWorkload" );
+		workload.setUp( size, format );
+	}
+	
+	/**
+	 * Deletes the task file.
+	 */
+	@TearDown( Level.Trial )
+	public void tearDown() {
+		workload.tearDown();
+	}
+	
+	/**
+	 * Reads the task file into a new heap.
+	 */
+	@Benchmark
+	public Object load( Bytes bytes ) throws Exception {
+		bytes.megabytes += workload.getFileSize() / 1e6;
+		return workload.load();
+	}
+	
+	/**
+	 * Writes the heap to the task file.
+	 */
+	@Benchmark
+	public void save( Bytes bytes ) throws Exception {
+		workload.save();
+		bytes.megabytes += workload.getFileSize() / 1e6;
+	}
+	
+	/**
+	 * Counts the megabytes read or written. JMH reports it as a rate, in MB/s.
+	 */
+	@State( Scope.Thread )
+	@AuxCounters( AuxCounters.Type.OPERATIONS )
+	public static class Bytes {
+		/**
+		 * Megabytes read or written in this iteration.
+		 */
+		public double megabytes;
+		
+		/**
+		 * Resets the counter before each iteration.
+		 */
+		@Setup( Level.Iteration )
+		public void reset() {
+			megabytes = 0;
+		}
+	}
+}
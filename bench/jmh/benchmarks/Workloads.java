@@ -0,0 +1,31 @@
+package benchmarks;
+
+/**
+ * Loads the workload implementations.
+ * The application classes are in the default package, which code in a named package cannot refer to, and JMH
+ * only accepts benchmarks in a named package. So each benchmark drives its workload through an interface in
+ * this package, implemented by a class in the default package that is loaded by name. The interface call is
+ * made on a single implementation, so the JIT inlines it and it does not show up in the results.
+ */
+final class Workloads {
+	/**
+	 * Private constructor. This class only has static methods.
+	 */
+	private Workloads() {
+	}
+	
+	/**
+	 * Creates a workload.
+	 * 
+	 * @param type The workload interface.
+	 * @param className The name of the class in the default package that implements it.
+	 * @return A new instance of the class.
+	 */
+	static < W > W load( Class< W > type, String className ) {
+		try {
+			return type.cast( Class.forName( className ).getDeclaredConstructor().newInstance() );
+		} catch ( ReflectiveOperationException e ) {
+			throw new IllegalStateException( "Cannot load workload " + className, e );
+		}
+	}
+}
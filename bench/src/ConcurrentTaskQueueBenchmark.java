@@ -0,0 +1,137 @@
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how the throughput of ConcurrentTaskQueue scales with the number of threads,
+ * compared to a Heap guarded by a single lock.
+ * Each thread repeatedly offers a task and polls the earliest one, on a queue prefilled with tasks.
+ * 
+ * Usage: java ConcurrentTaskQueueBenchmark [seconds per run] [prefilled tasks]
+ */
+public class ConcurrentTaskQueueBenchmark {
+	/**
+	 * Number of tasks made ahead of time for each thread, so the timed loop does not allocate them.
+	 */
+	private static final int TASKS_PER_THREAD = 1 << 16;
+	
+	/**
+	 * Runs the benchmark for 1 thread and every power of 2 up to the number of cores.
+	 * 
+	 * @param args Seconds per run, then the number of prefilled tasks.
+	 */
+	public static void main( String[] args ) throws Exception {
+		double seconds = args.length > 0 ? Double.parseDouble( args[ 0 ] ) : 2;
+		int prefill = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 100000;
+		int cores = Runtime.getRuntime().availableProcessors();
+		System.out.printf( "%8s %20s %20s%n", "threads", "skip list ops/s", "locked heap ops/s" );
+		for ( int threads = 1; threads <= cores; threads = threads < cores && threads * 2 > cores ? cores : threads * 2 ) {
+			double queue = run( new QueueTarget(), threads, seconds, prefill );
+			double heap = run( new LockedHeapTarget(), threads, seconds, prefill );
+			System.out.printf( "%8d %20.0f %20.0f%n", threads, queue, heap );
+			if ( threads == cores ) {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Runs one measurement.
+	 * 
+	 * @param target The queue being measured.
+	 * @param threads The number of threads.
+	 * @param seconds How long to run for.
+	 * @param prefill The number of tasks to fill the queue with first.
+	 * @return The number of offer and poll operations per second, across every thread.
+	 */
+	private static double run( Target target, int threads, double seconds, int prefill ) throws InterruptedException {
+		Random r = new Random( 42 );
+		for ( int i = 0; i < prefill; i++ ) {
+			target.offer( new Task( "prefill", r.nextInt( 1 << 24 ) ) );
+		}
+		Task[][] work = new Task[ threads ][ TASKS_PER_THREAD ];
+		for ( int t = 0; t < threads; t++ ) {
+			for ( int i = 0; i < TASKS_PER_THREAD; i++ ) {
+				work[ t ][ i ] = new Task( "task" + ( i % 16 ), r.nextInt( 1 << 24 ) );
+			}
+		}
+		LongAdder ops = new LongAdder();
+		CountDownLatch start = new CountDownLatch( 1 );
+		long deadline[] = new long[ 1 ];
+		Thread[] workers = new Thread[ threads ];
+		for ( int t = 0; t < threads; t++ ) {
+			Task[] mine = work[ t ];
+			workers[ t ] = new Thread( () -> {
+				try {
+					start.await();
+				} catch ( InterruptedException e ) {
+					return;
+				}
+				long done = 0;
+				int i = 0;
+				// Offer and poll until the deadline, checking the clock every 256 pairs.
+				while ( ( done & 255 ) != 0 || System.nanoTime() < deadline[ 0 ] ) {
+					target.offer( mine[ i ] );
+					target.poll();
+					i = ( i + 1 ) & ( TASKS_PER_THREAD - 1 );
+					done += 2;
+				}
+				ops.add( done );
+			} );
+			workers[ t ].start();
+		}
+		deadline[ 0 ] = System.nanoTime() + ( long ) ( seconds * 1e9 );
+		long begin = System.nanoTime();
+		start.countDown();
+		for ( Thread w : workers ) {
+			w.join();
+		}
+		return ops.sum() / ( ( System.nanoTime() - begin ) / 1e9 );
+	}
+	
+	/**
+	 * A queue that can be measured.
+	 */
+	private interface Target {
+		void offer( Task t );
+		
+		Task poll();
+	}
+	
+	/**
+	 * Measures ConcurrentTaskQueue.
+	 */
+	private static class QueueTarget implements Target {
+		private final ConcurrentTaskQueue queue = new ConcurrentTaskQueue();
+		
+		@Override
+		public void offer( Task t ) {
+			queue.offer( t );
+		}
+		
+		@Override
+		public Task poll() {
+			return queue.poll();
+		}
+	}
+	
+	/**
+	 * Measures a Heap with every operation guarded by one lock.
+	 */
+	private static class LockedHeapTarget implements Target {
+		private final Heap< Task > heap = new Heap< Task >( false );
+		
+		@Override
+		public synchronized void offer( Task t ) {
+			// A task polled by another thread may be offered again, so skip tasks that are still in the heap.
+			if ( !heap.contains( t.getId() ) ) {
+				heap.addItem( t );
+			}
+		}
+		
+		@Override
+		public synchronized Task poll() {
+			return heap.isEmpty() ? null : heap.removeItem();
+		}
+	}
+}
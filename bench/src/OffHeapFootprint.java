@@ -0,0 +1,139 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Compares the Java heap used by a large task list, and the time a full collection takes with it loaded,
+ * between Heap and OffHeapTaskStore. Both are filled with the same tasks, then emptied in order.
+ * 
+ * Run with enough direct memory for the store, for example:
+ * java -Xmx4g -XX:MaxDirectMemorySize=2g OffHeapFootprint 10000000
+ * 
+ * Usage: java OffHeapFootprint [tasks] [distinct names]
+ */
+public class OffHeapFootprint {
+	/**
+	 * Number of tasks made at a time, so the tasks waiting to be added do not dominate the measurement.
+	 */
+	private static final int BATCH = 100000;
+	
+	/**
+	 * Fills and measures both stores, one after the other.
+	 * 
+	 * @param args The number of tasks, then the number of distinct names.
+	 */
+	public static void main( String[] args ) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 10000000;
+		int distinct = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 500;
+		
+		long base = usedHeap();
+		Heap< Task > h = new Heap< Task >( false );
+		SplittableRandom r = new SplittableRandom( 42 );
+		long start = System.nanoTime();
+		for ( int i = 0; i < count; i += BATCH ) {
+			h.addAll( batch( r, Math.min( BATCH, count - i ), distinct ) );
+		}
+		long fillNanos = System.nanoTime() - start;
+		report( "heap", h.getSize(), usedHeap() - base, fillNanos, gcMillis() );
+		start = System.nanoTime();
+		while ( !h.isEmpty() ) {
+			h.removeItem();
+		}
+		System.out.printf( "heap:    drained in %,d ms%n", ( System.nanoTime() - start ) / 1000000 );
+		h = null;
+		
+		base = usedHeap();
+		OffHeapTaskStore s = new OffHeapTaskStore( count );
+		r = new SplittableRandom( 42 );
+		start = System.nanoTime();
+		for ( int i = 0; i < count; i += BATCH ) {
+			s.addAll( batch( r, Math.min( BATCH, count - i ), distinct ) );
+		}
+		fillNanos = System.nanoTime() - start;
+		report( "offheap", s.getSize(), usedHeap() - base, fillNanos, gcMillis() );
+		System.out.printf( "offheap: %,d bytes of direct memory%n", s.getOffHeapBytes() );
+		start = System.nanoTime();
+		while ( !s.isEmpty() ) {
+			s.removeItem();
+		}
+		System.out.printf( "offheap: drained in %,d ms%n", ( System.nanoTime() - start ) / 1000000 );
+	}
+	
+	/**
+	 * Makes a batch of tasks with random names and due dates over three years.
+	 * 
+	 * @param r The random numbers to use.
+	 * @param n The number of tasks.
+	 * @param distinct The number of distinct names.
+	 * @return The tasks.
+	 */
+	private static List< Task > batch( SplittableRandom r, int n, int distinct ) {
+		long first = DueDates.toMinute( 2018, 1, 1, 0, 0 );
+		List< Task > tasks = new ArrayList< Task >( n );
+		for ( int i = 0; i < n; i++ ) {
+			tasks.add( new Task( "Task " + r.nextInt( distinct ), first + r.nextInt( 3 * 365 * 24 * 60 ) ) );
+		}
+		return tasks;
+	}
+	
+	/**
+	 * Prints the measurements for one store.
+	 * 
+	 * @param label The name of the store.
+	 * @param size The number of tasks in it.
+	 * @param bytes The Java heap it uses, in bytes.
+	 * @param fillNanos The time taken to fill it.
+	 * @param gcMillis The time a full collection took with it filled.
+	 */
+	private static void report( String label, int size, long bytes, long fillNanos, long gcMillis ) {
+		System.out.printf( "%-8s %,d tasks, %.1f heap bytes/task, filled in %,d ms, full GC %,d ms%n", label + ":", size,
+				( double ) bytes / size, fillNanos / 1000000, gcMillis );
+	}
+	
+	/**
+	 * Runs a full collection and times it, from the collectors' own counters.
+	 * 
+	 * @return The time spent collecting, in milliseconds.
+	 */
+	private static long gcMillis() {
+		long before = collectionMillis();
+		System.gc();
+		return collectionMillis() - before;
+	}
+	
+	/**
+	 * Gets the total time spent by every collector so far.
+	 * 
+	 * @return The time, in milliseconds.
+	 */
+	private static long collectionMillis() {
+		long total = 0;
+		for ( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() ) {
+			total += Math.max( 0, gc.getCollectionTime() );
+		}
+		return total;
+	}
+	
+	/**
+	 * Gets the number of bytes in use on the heap, after collecting garbage.
+	 * 
+	 * @return The used heap, in bytes.
+	 */
+	private static long usedHeap() throws InterruptedException {
+		Runtime rt = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		// Collect a few times, until the used heap stops shrinking.
+		for ( int i = 0; i < 5; i++ ) {
+			System.gc();
+			Thread.sleep( 50 );
+			long now = rt.totalMemory() - rt.freeMemory();
+			if ( now >= used ) {
+				break;
+			}
+			used = now;
+		}
+		return used;
+	}
+}
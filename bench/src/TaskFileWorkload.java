@@ -0,0 +1,82 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import benchmarks.FileWorkload;
+
+/**
+ * Task file workload for the JMH benchmarks in bench/jmh.
+ * Loads and saves a temporary file the same way the Heap loads and saves its task files,
+ * so the results do not depend on the working directory.
+ */
+public class TaskFileWorkload implements FileWorkload {
+	/**
+	 * The task file.
+	 */
+	private File file;
+	
+	/**
+	 * True for the binary format, false for text.
+	 */
+	private boolean binary;
+	
+	/**
+	 * Heap with every task from the file, for saving as text.
+	 */
+	private Heap< Task > heap;
+	
+	/**
+	 * Every task from the file, for saving as binary.
+	 */
+	private List< Task > tasks;
+	
+	@Override
+	public void setUp( int size, String format ) throws IOException {
+		// Only the text and binary formats exist.
+		if ( !format.equals( "text" ) && !format.equals( "binary" ) ) {
+			throw new IllegalArgumentException( "Unknown format: " + format );
+		}
+		binary = format.equals( "binary" );
+		file = File.createTempFile( "benchmark", binary ? ".bin" : ".txt" );
+		String[] words = { "Standup", "Invoice review", "Deploy", "Call", "Email", "Plan sprint", "Write report", "Lunch" };
+		Random r = new Random( 42 );
+		tasks = new ArrayList< Task >( size );
+		for ( int i = 0; i < size; i++ ) {
+			int n = r.nextInt( 500 );
+			tasks.add( new Task( words[ n % words.length ] + " " + n,
+					DueDates.toMinute( 2018 + r.nextInt( 3 ), 1 + r.nextInt( 12 ), 1 + r.nextInt( 28 ), r.nextInt( 24 ), r.nextInt( 60 ) ) ) );
+		}
+		heap = new Heap< Task >( false );
+		heap.addAll( tasks );
+		save();
+	}
+	
+	@Override
+	public void tearDown() {
+		file.delete();
+	}
+	
+	@Override
+	public long getFileSize() {
+		return file.length();
+	}
+	
+	@Override
+	public Object load() throws IOException {
+		Heap< Task > h = new Heap< Task >( false );
+		h.addAll( binary ? BinaryTaskFile.read( file ) : TaskFileParser.parse( file ) );
+		return h;
+	}
+	
+	@Override
+	public void save() throws IOException {
+		// If the format is binary, copy the tasks and write the copy like saveHeapAsync does. Otherwise, export the heap as text.
+		if ( binary ) {
+			BinaryTaskFile.write( file, new ArrayList< Task >( tasks ) );
+		} else {
+			heap.exportText( file );
+		}
+	}
+}
@@ -0,0 +1,150 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the heap bytes used per task by a loaded task list, before and after names were interned.
+ * "Before" loads the file the way Heap.loadHeap() used to: one split String and one Date per line.
+ * "After" loads it with TaskFileParser, which shares one NameTable entry per distinct name.
+ * "Columns" loads the same tasks into a TaskStore, which keeps them as primitive columns instead of Task objects.
+ * The names are already interned by then, so only the store's own name dictionary counts against it.
+ * 
+ * The task file has names picked with a skewed distribution from a fixed set, like a real task list
+ * where a few names such as "Standup" repeat all the time.
+ * 
+ * Usage: java TaskFootprint [tasks] [distinct names]
+ */
+public class TaskFootprint {
+	/**
+	 * Writes the task file, then measures each way of loading it.
+	 * 
+	 * @param args The number of tasks, then the number of distinct names.
+	 */
+	public static void main( String[] args ) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 1000000;
+		int distinct = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 500;
+		File file = File.createTempFile( "footprint", ".txt" );
+		file.deleteOnExit();
+		writeFile( file, count, distinct );
+		
+		long base = usedHeap();
+		List< LegacyTask > before = loadLegacy( file );
+		long beforeBytes = usedHeap() - base;
+		System.out.printf( "before: %,d tasks, %.1f bytes/task%n", before.size(), ( double ) beforeBytes / before.size() );
+		before = null;
+		
+		base = usedHeap();
+		List< Task > after = TaskFileParser.parse( file );
+		long afterBytes = usedHeap() - base;
+		System.out.printf( "after:  %,d tasks, %.1f bytes/task, %,d distinct names%n", after.size(),
+				( double ) afterBytes / after.size(), NameTable.getShared().getSize() );
+		after = null;
+		
+		base = usedHeap();
+		TaskStore columns = new TaskStore();
+		for ( Task t : TaskFileParser.parse( file ) ) {
+			columns.addItem( t );
+		}
+		long columnBytes = usedHeap() - base;
+		System.out.printf( "columns: %,d tasks, %.1f bytes/task%n", columns.getSize(), ( double ) columnBytes / columns.getSize() );
+	}
+	
+	/**
+	 * Writes a task file in the Name,M/D/YYYY H:MM format.
+	 * 
+	 * @param file The file to write.
+	 * @param count The number of tasks.
+	 * @param distinct The number of distinct names.
+	 */
+	private static void writeFile( File file, int count, int distinct ) throws IOException {
+		String[] words = { "Standup", "Invoice review", "Deploy", "Call", "Email", "Plan sprint", "Write report", "Lunch" };
+		Random r = new Random( 42 );
+		try ( PrintWriter pw = new PrintWriter( file ) ) {
+			for ( int i = 0; i < count; i++ ) {
+				// Square a uniform pick, so low name numbers are much more common than high ones.
+				double u = r.nextDouble();
+				int n = ( int ) ( u * u * distinct );
+				pw.println( words[ n % words.length ] + " " + n + "," + ( 1 + r.nextInt( 12 ) ) + "/" + ( 1 + r.nextInt( 28 ) ) + "/"
+						+ ( 2018 + r.nextInt( 3 ) ) + " " + r.nextInt( 24 ) + ":" + ( 10 + r.nextInt( 50 ) ) );
+			}
+		}
+	}
+	
+	/**
+	 * Loads a task file the way Heap.loadHeap() did before names were interned.
+	 * 
+	 * @param file The file to read.
+	 * @return The loaded tasks.
+	 */
+	private static List< LegacyTask > loadLegacy( File file ) throws IOException {
+		List< LegacyTask > tasks = new ArrayList< LegacyTask >();
+		try ( BufferedReader in = new BufferedReader( new FileReader( file ) ) ) {
+			String line;
+			long id = 0;
+			while ( ( line = in.readLine() ) != null ) {
+				String[] parts = line.split( "," );
+				long minute = DueDates.parse( parts[ 1 ] );
+				tasks.add( new LegacyTask( id++, parts[ 0 ], new Date( DueDates.toEpochMilli( minute ) ) ) );
+			}
+		}
+		return tasks;
+	}
+	
+	/**
+	 * Gets the number of bytes in use on the heap, after collecting garbage.
+	 * 
+	 * @return The used heap, in bytes.
+	 */
+	private static long usedHeap() throws InterruptedException {
+		Runtime rt = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		// Collect a few times, until the used heap stops shrinking.
+		for ( int i = 0; i < 5; i++ ) {
+			System.gc();
+			Thread.sleep( 50 );
+			long now = rt.totalMemory() - rt.freeMemory();
+			if ( now >= used ) {
+				break;
+			}
+			used = now;
+		}
+		return used;
+	}
+	
+	/**
+	 * The fields a Task held before names were interned and due dates were stored as epoch minutes.
+	 */
+	private static class LegacyTask {
+		/**
+		 * Unique id of the task.
+		 */
+		final long taskId;
+		/**
+		 * The name of the task, one String per task.
+		 */
+		final String taskName;
+		/**
+		 * The due date of the task.
+		 */
+		final Date dueDate;
+		
+		/**
+		 * Constructor for a LegacyTask.
+		 * 
+		 * @param id The id of the task.
+		 * @param name The name of the task.
+		 * @param due The due date of the task.
+		 */
+		LegacyTask( long id, String name, Date due ) {
+			this.taskId = id;
+			this.taskName = name;
+			this.dueDate = due;
+		}
+	}
+}
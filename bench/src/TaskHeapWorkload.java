@@ -0,0 +1,151 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import benchmarks.HeapWorkload;
+
+/**
+ * Heap workload for the JMH benchmarks in bench/jmh.
+ * Tasks are made ahead of time with names from a fixed set and due dates spread over a year, so the timed
+ * operations only measure the heap, apart from the new Task every add or postpone makes in the real program too.
+ */
+public class TaskHeapWorkload implements HeapWorkload {
+	/**
+	 * Number of distinct task names.
+	 */
+	private static final int NAMES = 500;
+	
+	/**
+	 * Number of minutes the due dates are spread over.
+	 */
+	private static final int SPREAD = 365 * 24 * 60;
+	
+	/**
+	 * First due date, at 1/1/2018 0:00.
+	 */
+	private static final long START = DueDates.toMinute( 2018, 1, 1, 0, 0 );
+	
+	/**
+	 * The tasks, in the order they are inserted by insertAll.
+	 */
+	private Task[] tasks;
+	
+	/**
+	 * Heap filled with every task, for the steady-state operations.
+	 */
+	private Heap< Task > heap;
+	
+	/**
+	 * Ids of the tasks in the heap, for picking one to complete or postpone.
+	 */
+	private long[] liveIds;
+	
+	/**
+	 * Number of ids in liveIds.
+	 */
+	private int liveCount;
+	
+	/**
+	 * Position of the next pair of tasks for compare.
+	 */
+	private int next;
+	
+	/**
+	 * Random numbers for the due dates and the mixed workload.
+	 */
+	private SplittableRandom random;
+	
+	@Override
+	public void setUp( int size, String order ) {
+		random = new SplittableRandom( 42 );
+		String[] names = new String[ NAMES ];
+		for ( int i = 0; i < NAMES; i++ ) {
+			names[ i ] = "Task " + i;
+		}
+		tasks = new Task[ size ];
+		for ( int i = 0; i < size; i++ ) {
+			tasks[ i ] = new Task( names[ random.nextInt( NAMES ) ], START + random.nextInt( SPREAD ) );
+		}
+		heap = new Heap< Task >( false );
+		heap.addAll( Arrays.asList( tasks ) );
+		liveIds = new long[ Math.max( 16, size * 2 ) ];
+		for ( Task t : tasks ) {
+			liveIds[ liveCount++ ] = t.getId();
+		}
+		// Put the tasks in the order insertAll will add them.
+		if ( order.equals( "sorted" ) ) {
+			Arrays.sort( tasks );
+		} else if ( order.equals( "reverse" ) ) {
+			Arrays.sort( tasks );
+			for ( int i = 0, j = size - 1; i < j; i++, j-- ) {
+				Task t = tasks[ i ];
+				tasks[ i ] = tasks[ j ];
+				tasks[ j ] = t;
+			}
+		} else if ( !order.equals( "random" ) ) {
+			throw new IllegalArgumentException( "Unknown order: " + order );
+		}
+	}
+	
+	@Override
+	public Object insertAll() {
+		Heap< Task > h = new Heap< Task >( false );
+		for ( Task t : tasks ) {
+			h.addItem( t );
+		}
+		return h;
+	}
+	
+	/**
+	 * Removes the earliest task and adds it back a year later, so the heap keeps the same size and spread of due dates.
+	 */
+	@Override
+	public Object addRemove() {
+		Task t = heap.removeItem();
+		heap.addItem( t.withDue( t.getDue() + SPREAD ) );
+		return t;
+	}
+	
+	/**
+	 * Adds a new task 40% of the time, completes a random task 40% of the time, and postpones a random task by a day 20% of the time.
+	 */
+	@Override
+	public Object mixed() {
+		int op = random.nextInt( 10 );
+		// If the heap is empty or an add was picked, add a new task.
+		if ( liveCount == 0 || op < 4 ) {
+			Task t = new Task( tasks[ random.nextInt( tasks.length ) ].getNameEntry(), START + random.nextInt( SPREAD ) );
+			heap.addItem( t );
+			// Grow the live ids if they are full.
+			if ( liveCount == liveIds.length ) {
+				liveIds = Arrays.copyOf( liveIds, liveCount * 2 );
+			}
+			liveIds[ liveCount++ ] = t.getId();
+			return t;
+		}
+		int pick = random.nextInt( liveCount );
+		long id = liveIds[ pick ];
+		// If a complete was picked, remove the task and move the last live id into its place. Otherwise, postpone the task.
+		if ( op < 8 ) {
+			liveIds[ pick ] = liveIds[ --liveCount ];
+			return heap.remove( id );
+		}
+		int handle = heap.getHandle( id );
+		heap.reschedule( handle, heap.getItemByHandle( handle ).getDue() + 24 * 60 );
+		return handle;
+	}
+	
+	@Override
+	public String render() {
+		return heap.toString();
+	}
+	
+	@Override
+	public int compare() {
+		// Wrap around before the end of the tasks.
+		if ( next >= tasks.length - 1 ) {
+			next = 0;
+		}
+		Task a = tasks[ next++ ];
+		return a.compareTo( tasks[ next ] );
+	}
+}
@@ -0,0 +1,179 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load test for TaskServer. Opens a number of keep-alive connections and sends a mix of requests on each,
+ * pipelining a number of them at a time, then reports requests per second and latency percentiles.
+ * The latency of a request is the time from when its batch was sent until its response was read.
+ * 
+ * The mix is 40% add, 20% next, 20% complete, 10% postpone and 10% range over a week.
+ * 
+ * Usage: java TaskServerLoadTest [port] [connections] [pipeline depth] [seconds]
+ * 
+ * Start the server first with: java Main --serve [port]
+ */
+public class TaskServerLoadTest {
+	/**
+	 * Runs the load test.
+	 * 
+	 * @param args The port, the number of connections, the pipeline depth, and the number of seconds to run for.
+	 */
+	public static void main( String[] args ) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : TaskServer.DEFAULT_PORT;
+		int connections = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 8;
+		int depth = args.length > 2 ? Integer.parseInt( args[ 2 ] ) : 4;
+		double seconds = args.length > 3 ? Double.parseDouble( args[ 3 ] ) : 10;
+		Histogram latency = new Histogram();
+		LongAdder requests = new LongAdder();
+		LongAdder failures = new LongAdder();
+		long end = System.nanoTime() + ( long ) ( seconds * 1e9 );
+		CountDownLatch finished = new CountDownLatch( connections );
+		long start = System.nanoTime();
+		for ( int c = 0; c < connections; c++ ) {
+			long seed = c;
+			Thread t = new Thread( () -> {
+				try {
+					runConnection( port, depth, end, new SplittableRandom( seed ), latency, requests, failures );
+				} catch ( IOException e ) {
+					System.err.println( "Connection failed: " + e.getMessage() );
+				} finally {
+					finished.countDown();
+				}
+			}, "load-" + c );
+			t.start();
+		}
+		finished.await();
+		double elapsed = ( System.nanoTime() - start ) / 1e9;
+		System.out.printf( "%d connections, pipeline depth %d%n", connections, depth );
+		System.out.printf( "%,d requests in %.1f s: %,.0f requests/s, %,d failed%n", requests.sum(), elapsed, requests.sum() / elapsed, failures.sum() );
+		System.out.printf( "latency (us): p50=%d p90=%d p99=%d p99.9=%d max=%d%n", latency.getPercentile( 50 ), latency.getPercentile( 90 ),
+				latency.getPercentile( 99 ), latency.getPercentile( 99.9 ), latency.getMax() );
+	}
+	
+	/**
+	 * Sends batches of pipelined requests on one connection until the end time.
+	 * 
+	 * @param port The port of the server.
+	 * @param depth The number of requests sent before reading their responses.
+	 * @param end When to stop, from System.nanoTime().
+	 * @param random Picks the requests.
+	 * @param latency Records the latency of each request, in microseconds.
+	 * @param requests Counts the requests answered.
+	 * @param failures Counts the requests answered with a status other than 200 or 404.
+	 * @throws IOException If the connection fails.
+	 */
+	private static void runConnection( int port, int depth, long end, SplittableRandom random, Histogram latency, LongAdder requests,
+			LongAdder failures ) throws IOException {
+		try ( Socket socket = new Socket( InetAddress.getLoopbackAddress(), port ) ) {
+			socket.setTcpNoDelay( true );
+			OutputStream out = socket.getOutputStream();
+			InputStream in = new BufferedInputStream( socket.getInputStream(), 1 << 16 );
+			StringBuilder batch = new StringBuilder();
+			// Send a batch of requests, then read every response, until the time is up.
+			while ( System.nanoTime() < end ) {
+				batch.setLength( 0 );
+				for ( int i = 0; i < depth; i++ ) {
+					appendRequest( batch, random );
+				}
+				long sent = System.nanoTime();
+				out.write( batch.toString().getBytes( StandardCharsets.US_ASCII ) );
+				out.flush();
+				for ( int i = 0; i < depth; i++ ) {
+					int status = readResponse( in );
+					latency.recordSince( sent );
+					requests.increment();
+					// A 404 just means there was no task to complete or postpone.
+					if ( status != 200 && status != 404 ) {
+						failures.increment();
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Appends a random request.
+	 * 
+	 * @param sb The requests being sent.
+	 * @param random Picks the request.
+	 */
+	private static void appendRequest( StringBuilder sb, SplittableRandom random ) {
+		int op = random.nextInt( 10 );
+		String due = DueDates.format( DueDates.toMinute( 2019, 1, 1, 0, 0 ) + random.nextInt( 365 * 24 * 60 ) ).replace( " ", "%20" );
+		if ( op < 4 ) {
+			sb.append( "POST /tasks/add?name=Load%20test%20" ).append( random.nextInt( 100 ) ).append( "&due=" ).append( due );
+		} else if ( op < 6 ) {
+			sb.append( "GET /tasks/next" );
+		} else if ( op < 8 ) {
+			sb.append( "POST /tasks/complete" );
+		} else if ( op < 9 ) {
+			sb.append( "POST /tasks/postpone?due=" ).append( due );
+		} else {
+			String to = DueDates.format( DueDates.parse( due.replace( "%20", " " ) ) + 7 * 24 * 60 ).replace( " ", "%20" );
+			sb.append( "GET /tasks/range?limit=20&from=" ).append( due ).append( "&to=" ).append( to );
+		}
+		sb.append( " HTTP/1.1\r\nHost: localhost\r\nContent-Length: 0\r\n\r\n" );
+	}
+	
+	/**
+	 * Reads one response and skips its body.
+	 * 
+	 * @param in The connection.
+	 * @return The status of the response.
+	 * @throws IOException If the connection closes or the response is malformed.
+	 */
+	private static int readResponse( InputStream in ) throws IOException {
+		String statusLine = readLine( in );
+		int status = Integer.parseInt( statusLine.substring( 9, 12 ) );
+		long length = 0;
+		String header;
+		// Read the headers until the blank line, keeping the length of the body.
+		while ( !( header = readLine( in ) ).isEmpty() ) {
+			if ( header.regionMatches( true, 0, "Content-Length:", 0, 15 ) ) {
+				length = Long.parseLong( header.substring( 15 ).trim() );
+			}
+		}
+		// Skip the body.
+		while ( length > 0 ) {
+			long skipped = in.skip( length );
+			if ( skipped <= 0 ) {
+				if ( in.read() < 0 ) {
+					throw new IOException( "Connection closed" );
+				}
+				skipped = 1;
+			}
+			length -= skipped;
+		}
+		return status;
+	}
+	
+	/**
+	 * Reads one line of a response, without its line ending.
+	 * 
+	 * @param in The connection.
+	 * @return The line.
+	 * @throws IOException If the connection closes.
+	 */
+	private static String readLine( InputStream in ) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int c;
+		// Read characters until the end of the line.
+		while ( ( c = in.read() ) != '\n' ) {
+			if ( c < 0 ) {
+				throw new IOException( "Connection closed" );
+			}
+			if ( c != '\r' ) {
+				sb.append( ( char ) c );
+			}
+		}
+		return sb.toString();
+	}
+}
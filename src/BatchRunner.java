@@ -0,0 +1,218 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Runs the task list without a window, driving a heap from a stream of commands, one per line:
+ * 
+ * add Name,M/D/YYYY H:MM [Rule]	Adds a task, which repeats by the rule if there is one, such as "every 2 weeks on mon".
+ * complete-next				Completes the current task, moving it to its next due date if it repeats.
+ * postpone M/D/YYYY H:MM		Moves the current task to a new due date.
+ * list-due [M/D/YYYY H:MM]		Prints every task due before the date, or before now, in order.
+ * export File					Writes every task to a text file in the Name,M/D/YYYY H:MM format.
+ * 
+ * Blank lines and lines starting with # are skipped. A malformed command, or one whose output cannot be written,
+ * is reported with its line number, and the rest of the commands still run. Only failing to read the commands stops the batch.
+ * 
+ * The commands run as one batch: nothing is recorded in the journal while they run, and the heap is saved once at the end.
+ * Runs of add commands are added to the heap together, so a large import is built in linear time.
+ */
+public class BatchRunner {
+	/**
+	 * Most adds collected before they are added to the heap together.
+	 */
+	private static final int MAX_PENDING_ADDS = 1 << 16;
+	
+	/**
+	 * The heap the commands are run on.
+	 */
+	private final Heap< Task > h;
+	
+	/**
+	 * Where list-due prints tasks.
+	 */
+	private final Writer out;
+	
+	/**
+	 * Tasks from add commands that have not been added to the heap yet.
+	 */
+	private final List< Task > pendingAdds;
+	
+	/**
+	 * Number of commands that failed.
+	 */
+	private int errors;
+	
+	/**
+	 * Constructor for the BatchRunner.
+	 * 
+	 * @param h The heap to run the commands on. It should already be loaded.
+	 * @param out Where list-due prints tasks.
+	 */
+	public BatchRunner( Heap< Task > h, Writer out ) {
+		this.h = h;
+		this.out = out;
+		this.pendingAdds = new ArrayList< Task >();
+	}
+	
+	/**
+	 * Loads a heap, runs the commands in a file or on standard input on it, and saves it. Tasks listed by list-due go to standard output.
+	 * 
+	 * @param h The heap to run the commands on. It is loaded from the task file first.
+	 * @param path The file to read the commands from, or "-" for standard input.
+	 * @return The exit status: 0 if every command ran, 1 if any failed.
+	 */
+	public static int runBatch( Heap< Task > h, String path ) {
+		h.loadHeap();
+		Writer out = new BufferedWriter( new OutputStreamWriter( System.out, Charset.defaultCharset() ), 1 << 16 );
+		BatchRunner runner = new BatchRunner( h, out );
+		long start = System.nanoTime();
+		int commands;
+		h.beginBatch();
+		try ( InputStream in = path.equals( "-" ) ? System.in : new FileInputStream( new File( path ) ) ) {
+			commands = runner.run( new BufferedReader( new InputStreamReader( in, Charset.defaultCharset() ), 1 << 16 ) );
+			out.flush();
+		} catch ( IOException e ) {
+			System.err.println( "Error reading commands: " + e.getMessage() );
+			return 1;
+		} finally {
+			h.endBatch();
+		}
+		System.err.printf( "%d commands, %d failed, %d tasks, %d ms%n", commands, runner.errors, h.getSize(), ( System.nanoTime() - start ) / 1000000 );
+		return runner.errors == 0 ? 0 : 1;
+	}
+	
+	/**
+	 * Runs every command from a reader.
+	 * 
+	 * @param in The commands, one per line.
+	 * @return The number of commands run, including ones that failed.
+	 * @throws IOException If the commands cannot be read.
+	 */
+	public int run( BufferedReader in ) throws IOException {
+		String command;
+		int lineNumber = 0;
+		int commands = 0;
+		// Run the commands one line at a time.
+		while ( ( command = in.readLine() ) != null ) {
+			lineNumber++;
+			// If the line is blank or a comment, skip it.
+			if ( command.isEmpty() || command.charAt( 0 ) == '#' || command.trim().isEmpty() ) {
+				continue;
+			}
+			commands++;
+			try {
+				runCommand( command );
+			} catch ( IllegalArgumentException | IllegalStateException e ) {
+				errors++;
+				System.err.println( "Line " + lineNumber + ": " + e.getMessage() );
+			} catch ( IOException e ) {
+				// If the command's output cannot be written, such as an export to a missing folder, count it and go on.
+				errors++;
+				System.err.println( "Line " + lineNumber + ": Error writing: " + e.getMessage() );
+			}
+		}
+		addPending();
+		return commands;
+	}
+	
+	/**
+	 * Runs one command.
+	 * 
+	 * @param command The command line.
+	 * @throws IOException If list-due or export cannot write.
+	 * @throws IllegalArgumentException If the command is unknown or its argument is malformed.
+	 * @throws IllegalStateException If the command needs a current task and the heap is empty.
+	 */
+	private void runCommand( String command ) throws IOException {
+		int space = command.indexOf( ' ' );
+		String name = space < 0 ? command : command.substring( 0, space );
+		int arg = space < 0 ? command.length() : space + 1;
+		// If the command adds a task, collect it with the adds around it. Every other command sees the heap with every earlier add.
+		if ( name.equals( "add" ) ) {
+			int comma = command.lastIndexOf( ',' );
+			if ( comma < arg ) {
+				throw new IllegalArgumentException( "Expected add Name,M/D/YYYY H:MM: " + command );
+			}
+			int time = command.indexOf( ' ', comma + 1 );
+			int rule = time < 0 ? -1 : command.indexOf( ' ', time + 1 );		// The rule, if any, starts after the space past the time.
+			int end = rule < 0 ? command.length() : rule;
+			pendingAdds.add( Task.recurring( command.substring( arg, comma ), DueDates.parse( command, comma + 1, end ),
+					rule < 0 ? null : Recurrence.parse( command.substring( rule + 1 ) ) ) );
+			// If enough adds have been collected, add them now so they are not held twice.
+			if ( pendingAdds.size() >= MAX_PENDING_ADDS ) {
+				addPending();
+			}
+			return;
+		}
+		addPending();
+		if ( name.equals( "complete-next" ) ) {
+			requireCurrent();
+			h.complete( h.getCurrent().getId() );
+		} else if ( name.equals( "postpone" ) ) {
+			requireCurrent();
+			h.reschedule( h.getCurrentHandle(), DueDates.parse( command, arg, command.length() ) );
+		} else if ( name.equals( "list-due" ) ) {
+			listDue( arg < command.length() ? DueDates.parse( command, arg, command.length() ) : DueDates.now() + 1 );
+		} else if ( name.equals( "export" ) ) {
+			if ( arg >= command.length() ) {
+				throw new IllegalArgumentException( "Expected export File: " + command );
+			}
+			h.exportText( new File( command.substring( arg ) ) );
+		} else {
+			throw new IllegalArgumentException( "Unknown command: " + command );
+		}
+	}
+	
+	/**
+	 * Prints every task due before a date, in order.
+	 * 
+	 * @param before The date, in epoch minutes.
+	 * @throws IOException If the tasks cannot be printed.
+	 */
+	private void listDue( long before ) throws IOException {
+		h.loadThrough( before - 1 );		// Load the partitions the date reaches, so every task due before it is listed.
+		Iterator< Task > it = h.sortedIterator();
+		// Print tasks in order until one is due at or after the date.
+		while ( it.hasNext() ) {
+			Task t = it.next();
+			if ( t.getDue() >= before ) {
+				break;
+			}
+			out.write( t.toString() );
+			out.write( System.lineSeparator() );
+		}
+	}
+	
+	/**
+	 * Adds every collected task to the heap together.
+	 */
+	private void addPending() {
+		// If there are collected tasks, add them.
+		if ( !pendingAdds.isEmpty() ) {
+			h.addAll( pendingAdds );
+			pendingAdds.clear();
+		}
+	}
+	
+	/**
+	 * Checks that there is a current task.
+	 * 
+	 * @throws IllegalStateException If the heap is empty.
+	 */
+	private void requireCurrent() {
+		if ( h.isEmpty() ) {
+			throw new IllegalStateException( "No current task" );
+		}
+	}
+}
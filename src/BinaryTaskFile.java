@@ -0,0 +1,274 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes task lists in a compact binary format.
+ * 
+ * The file holds, in order: a header of the magic number, format version, task count, name count
+ * and string table size; a string table of every distinct name as a length-prefixed UTF-8 string;
+ * a column of task ids; a column of due dates in epoch minutes; a column of indexes into the string table;
+ * the rules of the repeating tasks, as a count followed by the position and rule of each one;
+ * and a CRC32 of everything before it. Every number is big-endian.
+ * Only repeating tasks have a rule stored, so a file of tasks that do not repeat is 4 bytes larger than in version 2.
+ * Version 1 files, whose due column holds epoch milliseconds, and version 2 files, which have no rules, can still be read.
+ */
+public class BinaryTaskFile {
+	/**
+	 * First four bytes of every binary task file: "TSKB".
+	 */
+	public static final int MAGIC = 0x54534B42;
+	
+	/**
+	 * Version of the format written by this class.
+	 */
+	public static final int VERSION = 3;
+	
+	/**
+	 * Version of the format whose due column holds epoch milliseconds instead of epoch minutes.
+	 */
+	private static final int VERSION_MILLIS = 1;
+	
+	/**
+	 * Version of the format without recurrence rules.
+	 */
+	private static final int VERSION_NO_RULES = 2;
+	
+	/**
+	 * Size of a stored rule in bytes: the task's position, unit, interval, days, end date and count.
+	 */
+	private static final int RULE_SIZE = 25;
+	
+	/**
+	 * Size of the header in bytes.
+	 */
+	private static final int HEADER_SIZE = 20;
+	
+	/**
+	 * Checks if a file starts with the binary task file magic number.
+	 * 
+	 * @param file The file to check.
+	 * @return True if the file is a binary task file, false otherwise.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public static boolean isBinary( File file ) throws IOException {
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			ByteBuffer magic = ByteBuffer.allocate( 4 );
+			// Read until the magic number is filled or the file ends.
+			while ( magic.hasRemaining() && channel.read( magic ) >= 0 ) {
+			}
+			return !magic.hasRemaining() && magic.getInt( 0 ) == MAGIC;
+		}
+	}
+	
+	/**
+	 * Writes tasks to a binary task file.
+	 * The tasks are written to a temporary file first, which then replaces the file, so a failed write leaves the old file intact.
+	 * 
+	 * @param file The file to write.
+	 * @param tasks The tasks to write, in the order they should be read back.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public static void write( File file, Collection< ? extends Task > tasks ) throws IOException {
+		int count = tasks.size();
+		int[] nameIndex = new int[ count ];
+		List< byte[] > names = new ArrayList< byte[] >();
+		Map< String, Integer > nameLookup = new HashMap< String, Integer >();
+		int tableSize = 0;
+		int i = 0;
+		int repeating = 0;
+		// Build the string table, giving each distinct name one entry, and count the repeating tasks.
+		for ( Task t : tasks ) {
+			if ( t.getRecurrence() != null ) {
+				repeating++;
+			}
+			Integer index = nameLookup.get( t.getName() );
+			if ( index == null ) {
+				byte[] bytes = t.getName().getBytes( StandardCharsets.UTF_8 );
+				index = names.size();
+				names.add( bytes );
+				nameLookup.put( t.getName(), index );
+				tableSize += 4 + bytes.length;
+			}
+			nameIndex[ i++ ] = index;
+		}
+		
+		File tmp = new File( file.getPath() + ".tmp" );
+		CRC32 crc = new CRC32();
+		try ( FileOutputStream fos = new FileOutputStream( tmp ) ) {
+			DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new CheckedOutputStream( fos, crc ), 1 << 16 ) );
+			// Header.
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			out.writeInt( count );
+			out.writeInt( names.size() );
+			out.writeInt( tableSize );
+			// String table.
+			for ( byte[] bytes : names ) {
+				out.writeInt( bytes.length );
+				out.write( bytes );
+			}
+			// Id column.
+			for ( Task t : tasks ) {
+				out.writeLong( t.getId() );
+			}
+			// Due date column.
+			for ( Task t : tasks ) {
+				out.writeLong( t.getDue() );
+			}
+			// Name column.
+			for ( i = 0; i < count; i++ ) {
+				out.writeInt( nameIndex[ i ] );
+			}
+			// Rules of the repeating tasks.
+			out.writeInt( repeating );
+			i = 0;
+			for ( Task t : tasks ) {
+				Recurrence rule = t.getRecurrence();
+				if ( rule != null ) {
+					out.writeInt( i );
+					out.writeByte( rule.getUnit().ordinal() );
+					out.writeInt( rule.getInterval() );
+					out.writeInt( rule.getDays() );
+					out.writeLong( rule.getUntil() );
+					out.writeInt( rule.getCount() );
+				}
+				i++;
+			}
+			out.flush();
+			// The checksum covers everything written so far, so it is written past the checked stream.
+			DataOutputStream tail = new DataOutputStream( fos );
+			tail.writeInt( ( int ) crc.getValue() );
+			tail.flush();
+			fos.getFD().sync();
+		}
+		Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+	
+	/**
+	 * Reads every task in a binary task file.
+	 * The whole file is mapped into memory and read in one pass.
+	 * 
+	 * @param file The file to read.
+	 * @return Every task in the file, in the order they were written.
+	 * @throws IOException If the file cannot be read, is not a binary task file, or is corrupt.
+	 */
+	public static List< Task > read( File file ) throws IOException {
+		List< List< Task > > read = new ArrayList< List< Task > >( 1 );
+		read( file, Integer.MAX_VALUE, read::add );
+		return read.isEmpty() ? new ArrayList< Task >() : read.get( 0 );
+	}
+	
+	/**
+	 * Reads every task in a binary task file, handing them over in batches as they are read, so the first tasks
+	 * can be used before the rest are made. The checksum and layout are checked before the first batch.
+	 * 
+	 * @param file The file to read.
+	 * @param batch The most tasks in each batch.
+	 * @param sink Receives each batch of tasks, in the order they were written. Empty batches are not handed over.
+	 * @throws IOException If the file cannot be read, is not a binary task file, or is corrupt.
+	 */
+	public static void read( File file, int batch, Consumer< List< Task > > sink ) throws IOException {
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			long size = channel.size();
+			if ( size < HEADER_SIZE + 4 || size > Integer.MAX_VALUE ) {
+				throw new IOException( "Not a binary task file: " + file );
+			}
+			MappedByteBuffer buf = channel.map( FileChannel.MapMode.READ_ONLY, 0, size );
+			if ( buf.getInt( 0 ) != MAGIC ) {
+				throw new IOException( "Not a binary task file: " + file );
+			}
+			int version = buf.getInt( 4 );
+			if ( version != VERSION && version != VERSION_NO_RULES && version != VERSION_MILLIS ) {
+				throw new IOException( "Unsupported binary task file version " + version );
+			}
+			// Check the stored checksum against the contents.
+			CRC32 crc = new CRC32();
+			ByteBuffer body = buf.duplicate();
+			body.limit( ( int ) size - 4 );
+			crc.update( body );
+			if ( ( int ) crc.getValue() != buf.getInt( ( int ) size - 4 ) ) {
+				throw new IOException( "Checksum mismatch in " + file );
+			}
+			
+			int count = buf.getInt( 8 );
+			int nameCount = buf.getInt( 12 );
+			int tableSize = buf.getInt( 16 );
+			long rulesStart = ( long ) HEADER_SIZE + tableSize + ( long ) count * 20;
+			int repeating = version == VERSION && rulesStart + 4 <= size ? buf.getInt( ( int ) rulesStart ) : 0;
+			long rulesSize = version == VERSION ? 4 + ( long ) repeating * RULE_SIZE : 0;
+			if ( count < 0 || nameCount < 0 || tableSize < 0 || repeating < 0 || repeating > count
+					|| rulesStart + rulesSize + 4 != size ) {
+				throw new IOException( "Corrupt binary task file: " + file );
+			}
+			// Read the rules of the repeating tasks, by position.
+			Recurrence[] rules = new Recurrence[ count ];
+			for ( int r = 0; r < repeating; r++ ) {
+				int at = ( int ) rulesStart + 4 + r * RULE_SIZE;
+				int index = buf.getInt( at );
+				int unit = buf.get( at + 4 );
+				if ( index < 0 || index >= count || unit < 0 || unit >= Recurrence.Unit.values().length ) {
+					throw new IOException( "Corrupt binary task file: " + file );
+				}
+				try {
+					rules[ index ] = new Recurrence( Recurrence.Unit.values()[ unit ], buf.getInt( at + 5 ), buf.getInt( at + 9 ),
+							buf.getLong( at + 13 ), buf.getInt( at + 21 ) );
+				} catch ( IllegalArgumentException e ) {
+					throw new IOException( "Corrupt binary task file: " + file );
+				}
+			}
+			// Read the string table, interning each name once.
+			NameTable.Entry[] names = new NameTable.Entry[ nameCount ];
+			buf.position( HEADER_SIZE );
+			for ( int i = 0; i < nameCount; i++ ) {
+				int len = buf.getInt();
+				byte[] bytes = new byte[ len ];
+				buf.get( bytes );
+				names[ i ] = NameTable.getShared().intern( new String( bytes, StandardCharsets.UTF_8 ) );
+			}
+			// Read the columns, which are at fixed offsets after the string table.
+			int idStart = HEADER_SIZE + tableSize;
+			int dueStart = idStart + count * 8;
+			int nameStart = dueStart + count * 8;
+			List< Task > tasks = new ArrayList< Task >( Math.min( count, batch ) );
+			for ( int i = 0; i < count; i++ ) {
+				// If the batch is full, hand it over and start the next one.
+				if ( tasks.size() == batch ) {
+					sink.accept( tasks );
+					tasks = new ArrayList< Task >( Math.min( count - i, batch ) );
+				}
+				int nameIndex = buf.getInt( nameStart + i * 4 );
+				if ( nameIndex < 0 || nameIndex >= nameCount ) {
+					throw new IOException( "Corrupt binary task file: " + file );
+				}
+				long due = buf.getLong( dueStart + i * 8 );
+				// If the file is from version 1, convert the due time from epoch milliseconds.
+				if ( version == VERSION_MILLIS ) {
+					due = DueDates.fromEpochMilli( due );
+				}
+				tasks.add( Task.recurring( buf.getLong( idStart + i * 8 ), names[ nameIndex ], due, rules[ i ] ) );
+			}
+			// Hand over the last batch.
+			if ( !tasks.isEmpty() ) {
+				sink.accept( tasks );
+			}
+		}
+	}
+}
@@ -0,0 +1,1227 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only archive of completed tasks, for reporting on completion history.
+ * The archive follows a heap as a HeapListener, and records every task completed in it along with when it was completed.
+ * 
+ * Completions are stored in columns, in immutable blocks of up to a few thousand rows. Each block holds a column of task ids,
+ * a column of completion times and a column of due dates, all stored as variable-length deltas from the row before,
+ * and a column of names, stored as a dictionary of the block's distinct names followed by an index into it for each row.
+ * Each block starts with a header of its row count, the smallest and largest completion time and due date in it,
+ * its total lateness, and the length and CRC32 of each column. The headers are read when the archive is opened,
+ * so a query skips every block outside its range without reading it, answers counts and averages for blocks wholly
+ * inside its range from the header alone, and reads only the columns it needs from the rest.
+ * 
+ * Completions that do not fill a block yet are also appended to a tail file next to the archive, one checksummed
+ * record each, which sync forces to disk. The heap's journal syncs the archive before each batch it writes, so a
+ * completion is on disk before the removal of its task is. Once a block fills it is written to the archive and the
+ * tail file is started over. When the archive is opened, the completions in the tail file that are not in a block
+ * yet are read back, and a block or tail record cut off by a crash is dropped.
+ * 
+ * Every completion is numbered by its row in the archive, counting from the first row of the first block. A completion
+ * that is undone is retracted: its row number is added to a retraction file next to the archive, and queries skip it.
+ * The row itself stays where it is, since blocks are never rewritten, but a block holding a retracted row is no longer
+ * answered from its header alone. The heap's journal records each retraction, and writes it to the retraction file
+ * only once the journal record is on disk, so a task is never missing from both the heap and the archive after a crash.
+ */
+public class CompletionArchive implements HeapListener< Task > {
+	/**
+	 * First four bytes of every archive file: "TSKA".
+	 */
+	public static final int MAGIC = 0x54534B41;
+	
+	/**
+	 * Version of the format written by this class.
+	 */
+	public static final int VERSION = 1;
+	
+	/**
+	 * First four bytes of every tail file: "TSKT".
+	 */
+	public static final int TAIL_MAGIC = 0x54534B54;
+	
+	/**
+	 * Size of the tail file header in bytes: the magic number and the number of completions in the blocks before it.
+	 */
+	private static final int TAIL_HEADER_SIZE = 8;
+	
+	/**
+	 * First four bytes of every retraction file: "TSKU".
+	 */
+	public static final int RETRACTION_MAGIC = 0x54534B55;
+	
+	/**
+	 * Size of the file header in bytes: the magic number and version.
+	 */
+	private static final int FILE_HEADER_SIZE = 8;
+	
+	/**
+	 * Size of a block header in bytes.
+	 */
+	private static final int BLOCK_HEADER_SIZE = 80;
+	
+	/**
+	 * Most rows in a block.
+	 */
+	private static final int BLOCK_ROWS = 4096;
+	
+	/**
+	 * Number of minutes in a week.
+	 */
+	private static final long MINUTES_PER_WEEK = 7 * 24 * 60;
+	
+	/**
+	 * Position of the id column in a block.
+	 */
+	private static final int ID = 0;
+	
+	/**
+	 * Position of the completion time column in a block.
+	 */
+	private static final int DONE = 1;
+	
+	/**
+	 * Position of the due date column in a block.
+	 */
+	private static final int DUE = 2;
+	
+	/**
+	 * Position of the name column in a block.
+	 */
+	private static final int NAME = 3;
+	
+	/**
+	 * Number of columns in a block.
+	 */
+	private static final int COLUMNS = 4;
+	
+	/**
+	 * The archive file.
+	 */
+	private final File file;
+	
+	/**
+	 * The open archive file.
+	 */
+	private final FileChannel channel;
+	
+	/**
+	 * Headers of every block on disk, oldest first.
+	 */
+	private final List< Block > blocks;
+	
+	/**
+	 * Ids of the completions not yet written as a block.
+	 */
+	private final long[] tailIds;
+	
+	/**
+	 * Completion times of the completions not yet written as a block.
+	 */
+	private final long[] tailDone;
+	
+	/**
+	 * Due dates of the completions not yet written as a block.
+	 */
+	private final long[] tailDue;
+	
+	/**
+	 * Names of the completions not yet written as a block.
+	 */
+	private final String[] tailNames;
+	
+	/**
+	 * Number of completions not yet written as a block.
+	 */
+	private int tailSize;
+	
+	/**
+	 * Number of completions in the blocks on disk.
+	 */
+	private int storedSize;
+	
+	/**
+	 * The tail file, holding the completions not yet written as a block.
+	 */
+	private final File tailFile;
+	
+	/**
+	 * The open tail file.
+	 */
+	private FileChannel tailChannel;
+	
+	/**
+	 * Tail records not yet written to the tail file.
+	 */
+	private ByteBuffer tailPending;
+	
+	/**
+	 * Checksum used when encoding tail records.
+	 */
+	private final CRC32 tailCrc = new CRC32();
+	
+	/**
+	 * The retraction file, holding the row numbers of the completions that were undone.
+	 */
+	private final File retractionFile;
+	
+	/**
+	 * The open retraction file.
+	 */
+	private FileChannel retractionChannel;
+	
+	/**
+	 * Row numbers of every retracted completion, in or out of the retraction file.
+	 */
+	private final TreeSet< Long > retracted;
+	
+	/**
+	 * Row numbers of the retracted completions not yet written to the retraction file.
+	 */
+	private final TreeSet< Long > unsaved;
+	
+	/**
+	 * Constructor for the CompletionArchive.
+	 * Opens the archive file, creating it if there is none, reads the header of every block in it,
+	 * reads back the completions in its tail file, and starts recording the tasks completed in the heap.
+	 * 
+	 * @param h The heap whose completions are recorded.
+	 * @param file The archive file.
+	 * @throws IOException If the file cannot be opened or read, or is not an archive.
+	 */
+	public CompletionArchive( Heap< Task > h, File file ) throws IOException {
+		this.file = file;
+		this.tailFile = new File( file.getPath() + ".tail" );
+		this.retractionFile = new File( file.getPath() + ".undone" );
+		this.retracted = new TreeSet< Long >();
+		this.unsaved = new TreeSet< Long >();
+		this.blocks = new ArrayList< Block >();
+		this.tailIds = new long[ BLOCK_ROWS ];
+		this.tailDone = new long[ BLOCK_ROWS ];
+		this.tailDue = new long[ BLOCK_ROWS ];
+		this.tailNames = new String[ BLOCK_ROWS ];
+		this.tailPending = ByteBuffer.allocate( 1 << 12 );
+		this.channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+		try {
+			readHeaders();
+			readTail();
+			readRetractions();
+		} catch ( IOException e ) {
+			channel.close();
+			// If the tail file was opened, close it too.
+			if ( tailChannel != null ) {
+				tailChannel.close();
+			}
+			// If the retraction file was opened, close it too.
+			if ( retractionChannel != null ) {
+				retractionChannel.close();
+			}
+			throw e;
+		}
+		h.addHeapListener( this );
+	}
+	
+	/**
+	 * Reads the header of every block, and cuts off a block left incomplete by a crash.
+	 * Writes the file header if the file is new.
+	 * 
+	 * @throws IOException If the file cannot be read or written, or is not an archive.
+	 */
+	private void readHeaders() throws IOException {
+		long size = channel.size();
+		// If the file is new, give it a header.
+		if ( size == 0 ) {
+			ByteBuffer header = ByteBuffer.allocate( FILE_HEADER_SIZE );
+			header.putInt( MAGIC ).putInt( VERSION ).flip();
+			writeFully( header, 0 );
+			channel.force( false );
+			return;
+		}
+		ByteBuffer header = read( 0, FILE_HEADER_SIZE, size );
+		if ( header == null || header.getInt( 0 ) != MAGIC ) {
+			throw new IOException( "Not a completion archive: " + file );
+		} else if ( header.getInt( 4 ) != VERSION ) {
+			throw new IOException( "Unsupported completion archive version " + header.getInt( 4 ) );
+		}
+		long pos = FILE_HEADER_SIZE;
+		// Read block headers until the file ends or a block is cut off.
+		while ( true ) {
+			ByteBuffer buf = read( pos, BLOCK_HEADER_SIZE, size );
+			Block b = buf == null ? null : Block.parse( pos, buf );
+			// If the header is cut off or corrupt, or its columns run past the end of the file, the block was never finished.
+			if ( b == null || b.end() > size ) {
+				break;
+			}
+			blocks.add( b );
+			storedSize += b.rows;
+			pos = b.end();
+		}
+		// If a block was cut off, drop it so new blocks are written after the last good one.
+		if ( pos < size ) {
+			channel.truncate( pos );
+		}
+	}
+	
+	/**
+	 * Reads back the completions in the tail file that are not in a block yet, then starts the tail file over with just those.
+	 * Reading stops at the first torn or corrupt record. Records already written as a block, left behind by a crash
+	 * between writing the block and starting the tail file over, are skipped.
+	 * 
+	 * @throws IOException If the tail file cannot be read or written, or is not a tail file.
+	 */
+	private void readTail() throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap( tailFile.exists() ? Files.readAllBytes( tailFile.toPath() ) : new byte[ 0 ] );
+		// If the header is cut off, the file was never fully created, so it holds no completions.
+		if ( buf.remaining() >= TAIL_HEADER_SIZE ) {
+			if ( buf.getInt() != TAIL_MAGIC ) {
+				throw new IOException( "Not a completion archive tail: " + tailFile );
+			}
+			int row = buf.getInt();		// Archive row of the next record.
+			// While there is room for a record header:
+			while ( buf.remaining() >= 4 ) {
+				int len = buf.getInt();
+				// If the record is cut off, stop reading.
+				if ( len < 26 || buf.remaining() < len + 4 ) {
+					break;
+				}
+				ByteBuffer payload = buf.slice();
+				payload.limit( len );
+				tailCrc.reset();
+				tailCrc.update( payload.duplicate() );
+				buf.position( buf.position() + len );
+				// If the record is corrupt, stop reading.
+				if ( ( int ) tailCrc.getValue() != buf.getInt() ) {
+					break;
+				}
+				long id = payload.getLong();
+				long done = payload.getLong();
+				long due = payload.getLong();
+				byte[] name = new byte[ payload.getShort() & 0xFFFF ];
+				payload.get( name );
+				// If the completion is not in a block yet, add it back to the tail.
+				if ( row++ >= storedSize ) {
+					add( id, done, due, new String( name, StandardCharsets.UTF_8 ) );
+					// If the block is full, write it.
+					if ( tailSize == BLOCK_ROWS ) {
+						flush();
+					}
+				}
+			}
+		}
+		resetTail();
+	}
+	
+	/**
+	 * Reads the row numbers in the retraction file, creating the file if there is none.
+	 * Reading stops at the first torn or corrupt record, which is cut off.
+	 * 
+	 * @throws IOException If the retraction file cannot be read or written, or is not a retraction file.
+	 */
+	private void readRetractions() throws IOException {
+		retractionChannel = FileChannel.open( retractionFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+		ByteBuffer buf = ByteBuffer.wrap( Files.readAllBytes( retractionFile.toPath() ) );
+		long good = 4;
+		// If the header is cut off, the file is new or was never fully created, so write it again.
+		if ( buf.remaining() < 4 ) {
+			ByteBuffer header = ByteBuffer.allocate( 4 );
+			header.putInt( RETRACTION_MAGIC ).flip();
+			while ( header.hasRemaining() ) {
+				retractionChannel.write( header, 4 - header.remaining() );
+			}
+			retractionChannel.truncate( 4 );
+			retractionChannel.force( false );
+		} else if ( buf.getInt() != RETRACTION_MAGIC ) {
+			throw new IOException( "Not a completion archive retraction file: " + retractionFile );
+		}
+		// While there is room for a whole record: its length, a row number and a CRC32.
+		while ( buf.remaining() >= 16 ) {
+			int len = buf.getInt();
+			long row = buf.getLong();
+			tailCrc.reset();
+			tailCrc.update( buf.array(), buf.position() - 8, 8 );
+			// If the record is corrupt, stop reading.
+			if ( len != 8 || ( int ) tailCrc.getValue() != buf.getInt() ) {
+				break;
+			}
+			retracted.add( row );
+			good = buf.position();
+		}
+		// If a record was cut off, drop it so new records are written after the last good one.
+		if ( buf.capacity() > good ) {
+			retractionChannel.truncate( good );
+		}
+		retractionChannel.position( good );
+	}
+	
+	/**
+	 * Gets the number of completions in the archive.
+	 * 
+	 * @return The number of completions, including those not yet written as a block, less those retracted.
+	 */
+	public synchronized int getSize() {
+		return storedSize + tailSize - retracted.size();
+	}
+	
+	/**
+	 * Gets the number of blocks on disk.
+	 * 
+	 * @return The number of blocks.
+	 */
+	public synchronized int getBlockCount() {
+		return blocks.size();
+	}
+	
+	/**
+	 * Ignores added tasks. Only completions are archived.
+	 */
+	@Override
+	public void itemAdded( Task item ) {
+	}
+	
+	/**
+	 * Ignores removed tasks. A removal that completes a task is archived by itemCompleted.
+	 */
+	@Override
+	public void itemRemoved( Task item ) {
+	}
+	
+	/**
+	 * Ignores rescheduled tasks. A repeating task moving to its next occurrence is archived by itemCompleted.
+	 */
+	@Override
+	public void itemRescheduled( Task old, Task item ) {
+	}
+	
+	/**
+	 * Records a completed task, completed now.
+	 */
+	@Override
+	public void itemCompleted( Task item ) {
+		try {
+			record( item, DueDates.now() );
+		} catch ( IOException e ) {
+			System.out.println( "Error writing to completion archive: " + e.getMessage() );
+		}
+	}
+	
+	/**
+	 * Records a completed task. Once a block's worth of completions has been recorded, they are written as a block.
+	 * Until then the completion is only on disk once sync is called.
+	 * 
+	 * @param t The completed task.
+	 * @param done When the task was completed, in epoch minutes.
+	 * @throws IOException If a full block cannot be written.
+	 */
+	public synchronized void record( Task t, long done ) throws IOException {
+		add( t.getId(), done, t.getDue(), t.getName() );
+		// If the block is full, write it.
+		if ( tailSize == BLOCK_ROWS ) {
+			flush();
+		}
+	}
+	
+	/**
+	 * Adds a completion to the tail, and queues its tail record to be written by sync.
+	 * 
+	 * @param id The id of the task.
+	 * @param done When the task was completed, in epoch minutes.
+	 * @param due The due date of the task, in epoch minutes.
+	 * @param name The name of the task.
+	 */
+	private void add( long id, long done, long due, String name ) {
+		tailIds[ tailSize ] = id;
+		tailDone[ tailSize ] = done;
+		tailDue[ tailSize ] = due;
+		tailNames[ tailSize ] = name;
+		tailSize++;
+		byte[] bytes = name.getBytes( StandardCharsets.UTF_8 );
+		int nameLen = Math.min( bytes.length, 0xFFFF );
+		ByteBuffer payload = ByteBuffer.allocate( 26 + nameLen );
+		payload.putLong( id ).putLong( done ).putLong( due ).putShort( ( short ) nameLen ).put( bytes, 0, nameLen ).flip();
+		tailCrc.reset();
+		tailCrc.update( payload.duplicate() );
+		int recordSize = payload.remaining() + 8;
+		// Grow the pending buffer if the record does not fit.
+		if ( tailPending.remaining() < recordSize ) {
+			ByteBuffer grown = ByteBuffer.allocate( Math.max( tailPending.capacity() * 2, tailPending.position() + recordSize ) );
+			tailPending.flip();
+			grown.put( tailPending );
+			tailPending = grown;
+		}
+		tailPending.putInt( payload.remaining() ).put( payload ).putInt( ( int ) tailCrc.getValue() );
+	}
+	
+	/**
+	 * Writes the completions recorded since the last sync to the tail file, and forces it to disk.
+	 * 
+	 * @throws IOException If the tail file cannot be written.
+	 */
+	public synchronized void sync() throws IOException {
+		// If every completion is already on disk, there is nothing to write.
+		if ( tailPending.position() == 0 ) {
+			return;
+		}
+		tailPending.flip();
+		while ( tailPending.hasRemaining() ) {
+			tailChannel.write( tailPending );
+		}
+		tailPending.clear();
+		tailChannel.force( false );
+	}
+	
+	/**
+	 * Replaces the tail file with one holding only the completions not yet written as a block,
+	 * and opens it for appending. The new file is written beside the old one and moved over it, so a crash leaves one or the other.
+	 * 
+	 * @throws IOException If the tail file cannot be written.
+	 */
+	private void resetTail() throws IOException {
+		// Encode the records of the tail again, since the pending buffer only holds those not synced yet.
+		int rows = tailSize;
+		tailSize = 0;
+		tailPending.clear();
+		for ( int i = 0; i < rows; i++ ) {
+			add( tailIds[ i ], tailDone[ i ], tailDue[ i ], tailNames[ i ] );
+		}
+		File tmp = new File( tailFile.getPath() + ".tmp" );
+		try ( FileChannel out = FileChannel.open( tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE ) ) {
+			ByteBuffer header = ByteBuffer.allocate( TAIL_HEADER_SIZE );
+			header.putInt( TAIL_MAGIC ).putInt( storedSize ).flip();
+			tailPending.flip();
+			ByteBuffer[] data = { header, tailPending };
+			while ( header.hasRemaining() || tailPending.hasRemaining() ) {
+				out.write( data );
+			}
+			out.force( false );
+		}
+		tailPending.clear();
+		Files.move( tmp.toPath(), tailFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		// If a tail file was open, close it, since it has been replaced.
+		if ( tailChannel != null ) {
+			tailChannel.close();
+		}
+		tailChannel = FileChannel.open( tailFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND );
+	}
+	
+	/**
+	 * Writes every completion not yet written as a block, forces it to disk, and starts the tail file over.
+	 * 
+	 * @throws IOException If the block cannot be written.
+	 */
+	public synchronized void flush() throws IOException {
+		// If every completion is already on disk, there is nothing to write.
+		if ( tailSize == 0 ) {
+			return;
+		}
+		int rows = tailSize;
+		ByteArrayOutputStream[] columns = new ByteArrayOutputStream[ COLUMNS ];
+		for ( int c = 0; c < COLUMNS; c++ ) {
+			columns[ c ] = new ByteArrayOutputStream( rows * 2 );
+		}
+		long minDone = Long.MAX_VALUE, maxDone = Long.MIN_VALUE, minDue = Long.MAX_VALUE, maxDue = Long.MIN_VALUE;
+		long lateness = 0;
+		// Encode the numeric columns as deltas from the row before, and gather the statistics.
+		for ( int i = 0; i < rows; i++ ) {
+			putVarLong( columns[ ID ], tailIds[ i ] - ( i == 0 ? 0 : tailIds[ i - 1 ] ) );
+			putVarLong( columns[ DONE ], tailDone[ i ] - ( i == 0 ? 0 : tailDone[ i - 1 ] ) );
+			putVarLong( columns[ DUE ], tailDue[ i ] - ( i == 0 ? 0 : tailDue[ i - 1 ] ) );
+			minDone = Math.min( minDone, tailDone[ i ] );
+			maxDone = Math.max( maxDone, tailDone[ i ] );
+			minDue = Math.min( minDue, tailDue[ i ] );
+			maxDue = Math.max( maxDue, tailDue[ i ] );
+			lateness += tailDone[ i ] - tailDue[ i ];
+		}
+		// Encode the names as a dictionary of the distinct names, then an index into it for each row.
+		Map< String, Integer > dictionary = new HashMap< String, Integer >();
+		List< String > distinct = new ArrayList< String >();
+		int[] nameIndex = new int[ rows ];
+		for ( int i = 0; i < rows; i++ ) {
+			Integer index = dictionary.get( tailNames[ i ] );
+			if ( index == null ) {
+				index = distinct.size();
+				distinct.add( tailNames[ i ] );
+				dictionary.put( tailNames[ i ], index );
+			}
+			nameIndex[ i ] = index;
+		}
+		putVarLong( columns[ NAME ], distinct.size() );
+		for ( String name : distinct ) {
+			byte[] bytes = name.getBytes( StandardCharsets.UTF_8 );
+			putVarLong( columns[ NAME ], bytes.length );
+			columns[ NAME ].write( bytes, 0, bytes.length );
+		}
+		for ( int i = 0; i < rows; i++ ) {
+			putVarLong( columns[ NAME ], nameIndex[ i ] );
+		}
+		
+		// Write the header, then the columns, at the end of the file.
+		ByteBuffer[] data = new ByteBuffer[ COLUMNS + 1 ];
+		ByteBuffer header = ByteBuffer.allocate( BLOCK_HEADER_SIZE );
+		header.putInt( rows ).putLong( minDone ).putLong( maxDone ).putLong( minDue ).putLong( maxDue ).putLong( lateness );
+		CRC32 crc = new CRC32();
+		for ( int c = 0; c < COLUMNS; c++ ) {
+			data[ c + 1 ] = ByteBuffer.wrap( columns[ c ].toByteArray() );
+			header.putInt( data[ c + 1 ].remaining() );
+		}
+		for ( int c = 0; c < COLUMNS; c++ ) {
+			crc.reset();
+			crc.update( data[ c + 1 ].duplicate() );
+			header.putInt( ( int ) crc.getValue() );
+		}
+		crc.reset();
+		crc.update( header.array(), 0, BLOCK_HEADER_SIZE - 4 );
+		header.putInt( ( int ) crc.getValue() ).flip();
+		data[ 0 ] = header;
+		long offset = channel.size();
+		Block b = Block.parse( offset, header.duplicate() );
+		long pos = offset;
+		for ( ByteBuffer buf : data ) {
+			pos += buf.remaining();
+			writeFully( buf, pos - buf.remaining() );
+		}
+		channel.force( false );
+		blocks.add( b );
+		storedSize += rows;
+		tailSize = 0;
+		resetTail();
+	}
+	
+	/**
+	 * Retracts the latest completion of a task that has not been retracted yet, after the completion was undone.
+	 * The retraction is kept in memory until persistRetractions or close writes it to the retraction file.
+	 * 
+	 * @param id The id of the task.
+	 * @return The row number of the retracted completion, or -1 if the task has no completion left to retract.
+	 * @throws IOException If a block cannot be read or is corrupt.
+	 */
+	public synchronized long retract( long id ) throws IOException {
+		// Look through the completions not yet written as a block first, latest first, since an undo usually follows its completion.
+		for ( int i = tailSize - 1; i >= 0; i-- ) {
+			if ( tailIds[ i ] == id && retractRow( storedSize + i ) ) {
+				return storedSize + i;
+			}
+		}
+		long start = storedSize;
+		// Then look through the blocks, latest first.
+		for ( int b = blocks.size() - 1; b >= 0; b-- ) {
+			start -= blocks.get( b ).rows;
+			long[] ids = readDeltas( blocks.get( b ), ID );
+			for ( int i = ids.length - 1; i >= 0; i-- ) {
+				if ( ids[ i ] == id && retractRow( start + i ) ) {
+					return start + i;
+				}
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Retracts a completion by its row number, such as one read back from the journal.
+	 * The retraction is kept in memory until persistRetractions or close writes it to the retraction file.
+	 * 
+	 * @param row The row number of the completion.
+	 * @return True if the completion was retracted now, false if it already was or there is no such row.
+	 */
+	public synchronized boolean retractRow( long row ) {
+		// If there is no such completion, or it is already retracted, there is nothing to do.
+		if ( row < 0 || row >= storedSize + tailSize || !retracted.add( row ) ) {
+			return false;
+		}
+		unsaved.add( row );
+		return true;
+	}
+	
+	/**
+	 * Writes retractions to the retraction file and forces it to disk. Called by the journal once its records of them are on disk.
+	 * 
+	 * @param rows The row numbers of the retracted completions. Rows already written, or never retracted, are skipped.
+	 * @throws IOException If the retraction file cannot be written.
+	 */
+	public synchronized void persistRetractions( Collection< Long > rows ) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate( rows.size() * 16 );
+		for ( long row : rows ) {
+			// If the retraction is not waiting to be written, skip it.
+			if ( !unsaved.remove( row ) ) {
+				continue;
+			}
+			buf.putInt( 8 ).putLong( row );
+			tailCrc.reset();
+			tailCrc.update( buf.array(), buf.position() - 8, 8 );
+			buf.putInt( ( int ) tailCrc.getValue() );
+		}
+		// If every retraction was already written, there is nothing to write.
+		if ( buf.position() == 0 ) {
+			return;
+		}
+		buf.flip();
+		while ( buf.hasRemaining() ) {
+			retractionChannel.write( buf );
+		}
+		retractionChannel.force( false );
+	}
+	
+	/**
+	 * Checks if a completion was retracted.
+	 * 
+	 * @param row The row number of the completion.
+	 * @return True if the completion was retracted, false otherwise.
+	 */
+	private boolean isRetracted( long row ) {
+		return retracted.contains( row );
+	}
+	
+	/**
+	 * Checks if any completion in a run of rows was retracted.
+	 * 
+	 * @param start The row number of the first row.
+	 * @param rows The number of rows.
+	 * @return True if a row in the run was retracted, false otherwise.
+	 */
+	private boolean hasRetracted( long start, int rows ) {
+		Long first = retracted.ceiling( start );
+		return first != null && first < start + rows;
+	}
+	
+	/**
+	 * Gets every completion in a range of time, in the order they were recorded.
+	 * 
+	 * @param from The start of the range in epoch minutes, inclusive.
+	 * @param to The end of the range in epoch minutes, exclusive.
+	 * @return The completions made at or after from and before to.
+	 * @throws IOException If a block cannot be read or is corrupt.
+	 */
+	public synchronized List< Entry > rangeQuery( long from, long to ) throws IOException {
+		List< Entry > entries = new ArrayList< Entry >();
+		long start = 0;		// Row number of the first row of the block.
+		for ( Block b : blocks ) {
+			start += b.rows;
+			// If the block has no completions in the range, skip it.
+			if ( !b.overlaps( from, to ) ) {
+				continue;
+			}
+			long[] done = readDeltas( b, DONE );
+			long[] ids = readDeltas( b, ID );
+			long[] due = readDeltas( b, DUE );
+			String[] names = readNames( b );
+			for ( int i = 0; i < b.rows; i++ ) {
+				if ( done[ i ] >= from && done[ i ] < to && !isRetracted( start - b.rows + i ) ) {
+					entries.add( new Entry( ids[ i ], names[ i ], due[ i ], done[ i ] ) );
+				}
+			}
+		}
+		for ( int i = 0; i < tailSize; i++ ) {
+			if ( tailDone[ i ] >= from && tailDone[ i ] < to && !isRetracted( storedSize + i ) ) {
+				entries.add( new Entry( tailIds[ i ], tailNames[ i ], tailDue[ i ], tailDone[ i ] ) );
+			}
+		}
+		return entries;
+	}
+	
+	/**
+	 * Counts the completions in a range of time.
+	 * 
+	 * @param from The start of the range in epoch minutes, inclusive.
+	 * @param to The end of the range in epoch minutes, exclusive.
+	 * @return The number of completions made at or after from and before to.
+	 * @throws IOException If a block cannot be read or is corrupt.
+	 */
+	public synchronized int countCompleted( long from, long to ) throws IOException {
+		int count = 0;
+		long start = 0;		// Row number of the first row of the block.
+		for ( Block b : blocks ) {
+			start += b.rows;
+			// If the block is wholly inside the range and has no retractions, count it from its header. If it overlaps the range, count its rows in it.
+			if ( b.within( from, to ) && !hasRetracted( start - b.rows, b.rows ) ) {
+				count += b.rows;
+			} else if ( b.overlaps( from, to ) ) {
+				long[] done = readDeltas( b, DONE );
+				for ( int i = 0; i < b.rows; i++ ) {
+					if ( done[ i ] >= from && done[ i ] < to && !isRetracted( start - b.rows + i ) ) {
+						count++;
+					}
+				}
+			}
+		}
+		for ( int i = 0; i < tailSize; i++ ) {
+			if ( tailDone[ i ] >= from && tailDone[ i ] < to && !isRetracted( storedSize + i ) ) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Counts the completions in each week of a range of time.
+	 * 
+	 * @param from The start of the first week in epoch minutes.
+	 * @param to The end of the range in epoch minutes, exclusive. The last week may be cut short by it.
+	 * @return The number of completions in each week, starting with the week starting at from.
+	 * @throws IOException If a block cannot be read or is corrupt.
+	 * @throws IllegalArgumentException If the range is empty or longer than a million weeks.
+	 */
+	public synchronized int[] completedPerWeek( long from, long to ) throws IOException {
+		if ( to <= from || ( to - from ) / MINUTES_PER_WEEK >= 1000000 ) {
+			throw new IllegalArgumentException( "Bad range for weekly counts" );
+		}
+		int[] weeks = new int[ ( int ) ( ( to - from + MINUTES_PER_WEEK - 1 ) / MINUTES_PER_WEEK ) ];
+		long start = 0;		// Row number of the first row of the block.
+		for ( Block b : blocks ) {
+			start += b.rows;
+			// If the block is wholly inside one week of the range and has no retractions, count it from its header.
+			// If it overlaps the range, count its rows in it.
+			if ( b.within( from, to ) && ( b.minDone - from ) / MINUTES_PER_WEEK == ( b.maxDone - from ) / MINUTES_PER_WEEK
+					&& !hasRetracted( start - b.rows, b.rows ) ) {
+				weeks[ ( int ) ( ( b.minDone - from ) / MINUTES_PER_WEEK ) ] += b.rows;
+			} else if ( b.overlaps( from, to ) ) {
+				long[] done = readDeltas( b, DONE );
+				for ( int i = 0; i < b.rows; i++ ) {
+					if ( done[ i ] >= from && done[ i ] < to && !isRetracted( start - b.rows + i ) ) {
+						weeks[ ( int ) ( ( done[ i ] - from ) / MINUTES_PER_WEEK ) ]++;
+					}
+				}
+			}
+		}
+		for ( int i = 0; i < tailSize; i++ ) {
+			if ( tailDone[ i ] >= from && tailDone[ i ] < to && !isRetracted( storedSize + i ) ) {
+				weeks[ ( int ) ( ( tailDone[ i ] - from ) / MINUTES_PER_WEEK ) ]++;
+			}
+		}
+		return weeks;
+	}
+	
+	/**
+	 * Gets the average lateness of the completions in a range of time: how long after its due date each task was completed.
+	 * Tasks completed early count as negative lateness.
+	 * 
+	 * @param from The start of the range in epoch minutes, inclusive.
+	 * @param to The end of the range in epoch minutes, exclusive.
+	 * @return The average lateness in minutes, or NaN if there are no completions in the range.
+	 * @throws IOException If a block cannot be read or is corrupt.
+	 */
+	public synchronized double averageLateness( long from, long to ) throws IOException {
+		long lateness = 0;
+		long count = 0;
+		long start = 0;		// Row number of the first row of the block.
+		for ( Block b : blocks ) {
+			start += b.rows;
+			// If the block is wholly inside the range and has no retractions, use the total from its header. If it overlaps the range, add up its rows in it.
+			if ( b.within( from, to ) && !hasRetracted( start - b.rows, b.rows ) ) {
+				lateness += b.lateness;
+				count += b.rows;
+			} else if ( b.overlaps( from, to ) ) {
+				long[] done = readDeltas( b, DONE );
+				long[] due = readDeltas( b, DUE );
+				for ( int i = 0; i < b.rows; i++ ) {
+					if ( done[ i ] >= from && done[ i ] < to && !isRetracted( start - b.rows + i ) ) {
+						lateness += done[ i ] - due[ i ];
+						count++;
+					}
+				}
+			}
+		}
+		for ( int i = 0; i < tailSize; i++ ) {
+			if ( tailDone[ i ] >= from && tailDone[ i ] < to && !isRetracted( storedSize + i ) ) {
+				lateness += tailDone[ i ] - tailDue[ i ];
+				count++;
+			}
+		}
+		return count == 0 ? Double.NaN : ( double ) lateness / count;
+	}
+	
+	/**
+	 * Writes every completion not yet written as a block and every retraction not yet written, and closes the archive files.
+	 * 
+	 * @throws IOException If the block or retractions cannot be written or the files cannot be closed.
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+			persistRetractions( new ArrayList< Long >( unsaved ) );
+		} finally {
+			channel.close();
+			tailChannel.close();
+			retractionChannel.close();
+		}
+	}
+	
+	/**
+	 * Reads a column of deltas and adds them back up.
+	 * 
+	 * @param b The block.
+	 * @param column The position of the column.
+	 * @return The value of each row.
+	 * @throws IOException If the column cannot be read or is corrupt.
+	 */
+	private long[] readDeltas( Block b, int column ) throws IOException {
+		ByteBuffer buf = readColumn( b, column );
+		long[] values = new long[ b.rows ];
+		long value = 0;
+		for ( int i = 0; i < b.rows; i++ ) {
+			value += getVarLong( buf );
+			values[ i ] = value;
+		}
+		return values;
+	}
+	
+	/**
+	 * Reads the name column, decoding each name in its dictionary once.
+	 * 
+	 * @param b The block.
+	 * @return The name of each row.
+	 * @throws IOException If the column cannot be read or is corrupt.
+	 */
+	private String[] readNames( Block b ) throws IOException {
+		ByteBuffer buf = readColumn( b, NAME );
+		String[] dictionary = new String[ ( int ) getVarLong( buf ) ];
+		for ( int d = 0; d < dictionary.length; d++ ) {
+			byte[] bytes = new byte[ ( int ) getVarLong( buf ) ];
+			buf.get( bytes );
+			dictionary[ d ] = new String( bytes, StandardCharsets.UTF_8 );
+		}
+		String[] names = new String[ b.rows ];
+		for ( int i = 0; i < b.rows; i++ ) {
+			names[ i ] = dictionary[ ( int ) getVarLong( buf ) ];
+		}
+		return names;
+	}
+	
+	/**
+	 * Reads one column of a block and checks it against its CRC32.
+	 * 
+	 * @param b The block.
+	 * @param column The position of the column.
+	 * @return The column's bytes.
+	 * @throws IOException If the column cannot be read or is corrupt.
+	 */
+	private ByteBuffer readColumn( Block b, int column ) throws IOException {
+		ByteBuffer buf = read( b.columnOffset( column ), b.lengths[ column ], channel.size() );
+		CRC32 crc = new CRC32();
+		// If the column is cut off or does not match its checksum, the archive is corrupt.
+		if ( buf != null ) {
+			crc.update( buf.duplicate() );
+		}
+		if ( buf == null || ( int ) crc.getValue() != b.crcs[ column ] ) {
+			throw new IOException( "Corrupt block at " + b.offset + " in " + file );
+		}
+		return buf;
+	}
+	
+	/**
+	 * Reads bytes from the archive file.
+	 * 
+	 * @param pos The position to read from.
+	 * @param len The number of bytes to read.
+	 * @param size The size of the file.
+	 * @return The bytes, ready to be read, or null if the file ends before them.
+	 * @throws IOException If the file cannot be read.
+	 */
+	private ByteBuffer read( long pos, int len, long size ) throws IOException {
+		// If the bytes run past the end of the file, they cannot be read.
+		if ( pos + len > size ) {
+			return null;
+		}
+		ByteBuffer buf = ByteBuffer.allocate( len );
+		// Read until the buffer is filled.
+		while ( buf.hasRemaining() && channel.read( buf, pos + buf.position() ) >= 0 ) {
+		}
+		buf.flip();
+		return buf.remaining() == len ? buf : null;
+	}
+	
+	/**
+	 * Writes every byte of a buffer to the archive file.
+	 * 
+	 * @param buf The bytes to write.
+	 * @param pos The position to write them at.
+	 * @throws IOException If the file cannot be written.
+	 */
+	private void writeFully( ByteBuffer buf, long pos ) throws IOException {
+		while ( buf.hasRemaining() ) {
+			pos += channel.write( buf, pos );
+		}
+	}
+	
+	/**
+	 * Writes a number as a variable-length integer, zigzag encoded so small negative numbers also take few bytes.
+	 * 
+	 * @param out Where to write the number.
+	 * @param v The number.
+	 */
+	private static void putVarLong( ByteArrayOutputStream out, long v ) {
+		long z = ( v << 1 ) ^ ( v >> 63 );
+		// Write seven bits at a time, lowest first, with the high bit set on every byte but the last.
+		while ( ( z & ~0x7FL ) != 0 ) {
+			out.write( ( int ) ( z & 0x7F ) | 0x80 );
+			z >>>= 7;
+		}
+		out.write( ( int ) z );
+	}
+	
+	/**
+	 * Reads a number written by putVarLong.
+	 * 
+	 * @param buf The bytes to read from.
+	 * @return The number.
+	 */
+	private static long getVarLong( ByteBuffer buf ) {
+		long z = 0;
+		int shift = 0;
+		byte b;
+		// Read seven bits at a time until a byte without the high bit set.
+		do {
+			b = buf.get();
+			z |= ( long ) ( b & 0x7F ) << shift;
+			shift += 7;
+		} while ( b < 0 );
+		return ( z >>> 1 ) ^ -( z & 1 );
+	}
+	
+	/**
+	 * The header of a block on disk.
+	 */
+	private static class Block {
+		/**
+		 * Position of the block in the archive file.
+		 */
+		private final long offset;
+		/**
+		 * Number of rows.
+		 */
+		private final int rows;
+		/**
+		 * Earliest completion time.
+		 */
+		private final long minDone;
+		/**
+		 * Latest completion time.
+		 */
+		private final long maxDone;
+		/**
+		 * Earliest due date.
+		 */
+		private final long minDue;
+		/**
+		 * Latest due date.
+		 */
+		private final long maxDue;
+		/**
+		 * Total lateness of the rows, in minutes.
+		 */
+		private final long lateness;
+		/**
+		 * Length of each column in bytes.
+		 */
+		private final int[] lengths;
+		/**
+		 * CRC32 of each column.
+		 */
+		private final int[] crcs;
+		
+		/**
+		 * Constructor for a Block.
+		 * 
+		 * @param offset The position of the block.
+		 * @param header The block header.
+		 */
+		private Block( long offset, ByteBuffer header ) {
+			this.offset = offset;
+			this.rows = header.getInt();
+			this.minDone = header.getLong();
+			this.maxDone = header.getLong();
+			this.minDue = header.getLong();
+			this.maxDue = header.getLong();
+			this.lateness = header.getLong();
+			this.lengths = new int[ COLUMNS ];
+			this.crcs = new int[ COLUMNS ];
+			for ( int c = 0; c < COLUMNS; c++ ) {
+				lengths[ c ] = header.getInt();
+			}
+			for ( int c = 0; c < COLUMNS; c++ ) {
+				crcs[ c ] = header.getInt();
+			}
+		}
+		
+		/**
+		 * Reads a block header, checking it against its CRC32.
+		 * 
+		 * @param offset The position of the block.
+		 * @param header The bytes of the header.
+		 * @return The header, or null if it is corrupt.
+		 */
+		static Block parse( long offset, ByteBuffer header ) {
+			CRC32 crc = new CRC32();
+			ByteBuffer body = header.duplicate();
+			body.limit( body.position() + BLOCK_HEADER_SIZE - 4 );
+			crc.update( body );
+			// If the header does not match its checksum, it was not fully written.
+			if ( ( int ) crc.getValue() != header.getInt( header.position() + BLOCK_HEADER_SIZE - 4 ) ) {
+				return null;
+			}
+			Block b = new Block( offset, header );
+			for ( int c = 0; c < COLUMNS; c++ ) {
+				if ( b.lengths[ c ] < 0 ) {
+					return null;
+				}
+			}
+			return b.rows > 0 && b.rows <= BLOCK_ROWS ? b : null;
+		}
+		
+		/**
+		 * Gets the position of a column in the archive file.
+		 * 
+		 * @param column The position of the column in the block.
+		 * @return The position of the column's first byte.
+		 */
+		long columnOffset( int column ) {
+			long pos = offset + BLOCK_HEADER_SIZE;
+			for ( int c = 0; c < column; c++ ) {
+				pos += lengths[ c ];
+			}
+			return pos;
+		}
+		
+		/**
+		 * Gets the position just past the block.
+		 * 
+		 * @return The position of the next block.
+		 */
+		long end() {
+			return columnOffset( COLUMNS );
+		}
+		
+		/**
+		 * Checks if any completion in the block could be in a range.
+		 * 
+		 * @param from The start of the range, inclusive.
+		 * @param to The end of the range, exclusive.
+		 * @return True if the block's completion times overlap the range, false otherwise.
+		 */
+		boolean overlaps( long from, long to ) {
+			return maxDone >= from && minDone < to;
+		}
+		
+		/**
+		 * Checks if every completion in the block is in a range.
+		 * 
+		 * @param from The start of the range, inclusive.
+		 * @param to The end of the range, exclusive.
+		 * @return True if the block's completion times are all in the range, false otherwise.
+		 */
+		boolean within( long from, long to ) {
+			return minDone >= from && maxDone < to;
+		}
+	}
+	
+	/**
+	 * One completed task: its id, name and due date, and when it was completed.
+	 */
+	public static final class Entry {
+		/**
+		 * Id of the task.
+		 */
+		private final long id;
+		/**
+		 * Name of the task.
+		 */
+		private final String name;
+		/**
+		 * Due date of the task, in epoch minutes.
+		 */
+		private final long due;
+		/**
+		 * When the task was completed, in epoch minutes.
+		 */
+		private final long done;
+		
+		/**
+		 * Constructor for an Entry.
+		 * 
+		 * @param id The id of the task.
+		 * @param name The name of the task.
+		 * @param due The due date of the task, in epoch minutes.
+		 * @param done When the task was completed, in epoch minutes.
+		 */
+		Entry( long id, String name, long due, long done ) {
+			this.id = id;
+			this.name = name;
+			this.due = due;
+			this.done = done;
+		}
+		
+		/**
+		 * Get the id of the task.
+		 * 
+		 * @return The id.
+		 */
+		public long getId() {
+			return id;
+		}
+		
+		/**
+		 * Get the name of the task.
+		 * 
+		 * @return The name.
+		 */
+		public String getName() {
+			return name;
+		}
+		
+		/**
+		 * Get the due date of the task.
+		 * 
+		 * @return The due date in epoch minutes.
+		 */
+		public long getDue() {
+			return due;
+		}
+		
+		/**
+		 * Get when the task was completed.
+		 * 
+		 * @return The completion time in epoch minutes.
+		 */
+		public long getDone() {
+			return done;
+		}
+		
+		/**
+		 * Get how long after its due date the task was completed.
+		 * 
+		 * @return The lateness in minutes, negative if the task was completed early.
+		 */
+		public long getLateness() {
+			return done - due;
+		}
+		
+		/**
+		 * Appends the entry to a StringBuilder in the Name,M/D/YYYY H:MM,M/D/YYYY H:MM format: the name, due date and completion time.
+		 * 
+		 * @param sb The StringBuilder to append to.
+		 * @return The StringBuilder.
+		 */
+		public StringBuilder appendTo( StringBuilder sb ) {
+			DueDates.appendTo( due, sb.append( name ).append( ',' ) );
+			return DueDates.appendTo( done, sb.append( ',' ) );
+		}
+		
+		@Override
+		public String toString() {
+			return appendTo( new StringBuilder( name.length() + 34 ) ).toString();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe priority queue of Tasks for use by several producer and consumer threads at once.
+ * Backed by a lock-free skip list ordered by Task.compareTo, so offer never blocks and poll atomically removes the earliest task.
+ * Since Tasks with the same date and name are ordered by id, no two distinct Tasks collide in the skip list.
+ * 
+ * A Task must not be rescheduled while it is in the queue.
+ */
+public class ConcurrentTaskQueue implements Iterable< Task > {
+	/**
+	 * Holds the queued tasks in sorted order.
+	 */
+	private final ConcurrentSkipListSet< Task > tasks;
+	
+	/**
+	 * Number of queued tasks, kept separately since counting the skip list takes O(n).
+	 */
+	private final AtomicInteger size;
+	
+	/**
+	 * Default constructor. Creates an empty queue.
+	 */
+	public ConcurrentTaskQueue() {
+		tasks = new ConcurrentSkipListSet< Task >();
+		size = new AtomicInteger();
+	}
+	
+	/**
+	 * Adds a task to the queue without blocking.
+	 * 
+	 * @param t The task to add.
+	 * @return True if the task was added, false if it was already queued.
+	 */
+	public boolean offer( Task t ) {
+		// If the task was not already queued, count it.
+		if ( tasks.add( t ) ) {
+			size.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Removes and returns the earliest task. If several threads poll at once, each task is returned to only one of them.
+	 * 
+	 * @return The earliest task, or null if the queue is empty.
+	 */
+	public Task poll() {
+		Task t = tasks.pollFirst();
+		// If a task was removed, uncount it.
+		if ( t != null ) {
+			size.decrementAndGet();
+		}
+		return t;
+	}
+	
+	/**
+	 * Returns the earliest task without removing it.
+	 * 
+	 * @return The earliest task, or null if the queue is empty.
+	 */
+	public Task peek() {
+		// The skip list may become empty between checking and reading, so catch that instead of checking first.
+		try {
+			return tasks.first();
+		} catch ( NoSuchElementException e ) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Removes a specific task from the queue.
+	 * 
+	 * @param t The task to remove.
+	 * @return True if the task was removed, false if it was not queued.
+	 */
+	public boolean remove( Task t ) {
+		// If the task was queued, uncount it.
+		if ( tasks.remove( t ) ) {
+			size.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Moves every queued task into a heap, for example to hand tasks ingested by other threads to the UI thread.
+	 * 
+	 * @param h The heap to move the tasks into.
+	 * @return The number of tasks moved.
+	 */
+	public int drainTo( Heap< Task > h ) {
+		List< Task > drained = new ArrayList< Task >();
+		Task t;
+		// Poll until the queue is empty, so tasks offered meanwhile are either moved now or left for the next drain.
+		while ( ( t = poll() ) != null ) {
+			drained.add( t );
+		}
+		h.addAll( drained );
+		return drained.size();
+	}
+	
+	/**
+	 * Get the number of queued tasks. Exact when no other thread is changing the queue.
+	 * 
+	 * @return The number of queued tasks.
+	 */
+	public int getSize() {
+		return Math.max( size.get(), 0 );
+	}
+	
+	/**
+	 * Checks if the queue has no tasks.
+	 * 
+	 * @return True if the queue has no tasks, false otherwise.
+	 */
+	public boolean isEmpty() {
+		return tasks.isEmpty();
+	}
+	
+	/**
+	 * Returns a weakly consistent iterator over the queued tasks in sorted order.
+	 */
+	@Override
+	public Iterator< Task > iterator() {
+		return tasks.iterator();
+	}
+}
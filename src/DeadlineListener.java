@@ -0,0 +1,20 @@
+/**
+ * Receives notifications from a TaskScheduler when the due date of a task arrives.
+ */
+public interface DeadlineListener {
+	/**
+	 * Called when the due date of a task in the heap arrives.
+	 * Called on the scheduler's thread.
+	 * 
+	 * @param t The task that is now due.
+	 */
+	void taskDue( Task t );
+	
+	/**
+	 * Called when a task whose due date has already passed is added to the heap.
+	 * Called on the thread that added the task.
+	 * 
+	 * @param t The overdue task.
+	 */
+	void taskOverdue( Task t );
+}
@@ -0,0 +1,251 @@
+import java.util.TimeZone;
+
+/**
+ * Converts, formats and parses task due dates.
+ * A due date is a long count of epoch minutes: minutes since midnight of 1/1/1970 on the local wall clock.
+ * The calendar fields are worked out with integer arithmetic on the proleptic Gregorian calendar,
+ * so nothing here allocates objects or goes through Date or Calendar.
+ */
+public class DueDates {
+	/**
+	 * Number of minutes in a day.
+	 */
+	private static final int MINUTES_PER_DAY = 24 * 60;
+	
+	/**
+	 * Number of milliseconds in a minute.
+	 */
+	private static final long MILLIS_PER_MINUTE = 60 * 1000;
+	
+	/**
+	 * Number of days in a 400 year cycle of the Gregorian calendar.
+	 */
+	private static final int DAYS_PER_ERA = 146097;
+	
+	/**
+	 * Number of days from 3/1/0000, where each era starts, to 1/1/1970.
+	 */
+	private static final int EPOCH_SHIFT = 719468;
+	
+	/**
+	 * Time zone of the local wall clock, used to convert due dates to and from real time.
+	 */
+	private static final TimeZone ZONE = TimeZone.getDefault();
+	
+	/**
+	 * Converts calendar fields to a due date.
+	 * Months outside 1 to 12 roll into the years around them, and days, hours and minutes past the end of
+	 * their field roll into the next one, the same way the Date constructor treated them.
+	 * 
+	 * @param year The year, such as 2018.
+	 * @param month The month, from 1 to 12.
+	 * @param day The day of the month, from 1.
+	 * @param hours The hour of the day, from 0 to 23.
+	 * @param mins The minute of the hour, from 0 to 59.
+	 * @return The due date in epoch minutes.
+	 */
+	public static long toMinute( int year, int month, int day, int hours, int mins ) {
+		long y = year + Math.floorDiv( month - 1, 12 );
+		int m = Math.floorMod( month - 1, 12 ) + 1;
+		// Count years from March, so the leap day is the last day of the year.
+		if ( m <= 2 ) {
+			y--;
+		}
+		long era = Math.floorDiv( y, 400 );
+		long yoe = y - era * 400;											// Year of the era, from 0 to 399.
+		long doy = ( 153 * ( m > 2 ? m - 3 : m + 9 ) + 2 ) / 5 + day - 1;	// Day of the year, counted from March 1st.
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;					// Day of the era.
+		long days = era * DAYS_PER_ERA + doe - EPOCH_SHIFT;
+		return days * MINUTES_PER_DAY + hours * 60L + mins;
+	}
+	
+	/**
+	 * Gets the year of a due date.
+	 * 
+	 * @param minute The due date in epoch minutes.
+	 * @return The year.
+	 */
+	public static int year( long minute ) {
+		return ( int ) ( civil( minute ) >> 9 );
+	}
+	
+	/**
+	 * Gets the month of a due date.
+	 * 
+	 * @param minute The due date in epoch minutes.
+	 * @return The month, from 1 to 12.
+	 */
+	public static int month( long minute ) {
+		return ( int ) ( civil( minute ) >> 5 ) & 15;
+	}
+	
+	/**
+	 * Gets the day of the month of a due date.
+	 * 
+	 * @param minute The due date in epoch minutes.
+	 * @return The day of the month, from 1 to 31.
+	 */
+	public static int day( long minute ) {
+		return ( int ) civil( minute ) & 31;
+	}
+	
+	/**
+	 * Gets the hour of the day of a due date.
+	 * 
+	 * @param minute The due date in epoch minutes.
+	 * @return The hour, from 0 to 23.
+	 */
+	public static int hours( long minute ) {
+		return ( int ) Math.floorMod( minute, ( long ) MINUTES_PER_DAY ) / 60;
+	}
+	
+	/**
+	 * Gets the minute of the hour of a due date.
+	 * 
+	 * @param minute The due date in epoch minutes.
+	 * @return The minute, from 0 to 59.
+	 */
+	public static int mins( long minute ) {
+		return ( int ) Math.floorMod( minute, 60L );
+	}
+	
+	/**
+	 * Gets the day of the week of a due date.
+	 * 
+	 * @param minute The due date in epoch minutes.
+	 * @return The day of the week, from 0 for Monday to 6 for Sunday.
+	 */
+	public static int weekday( long minute ) {
+		return ( int ) Math.floorMod( Math.floorDiv( minute, ( long ) MINUTES_PER_DAY ) + 3, 7L );		// 1/1/1970 was a Thursday.
+	}
+	
+	/**
+	 * Appends a due date in the M/D/YYYY H:MM format to a StringBuilder.
+	 * 
+	 * @param minute The due date in epoch minutes.
+	 * @param sb The StringBuilder to append to.
+	 * @return The StringBuilder.
+	 */
+	public static StringBuilder appendTo( long minute, StringBuilder sb ) {
+		long civil = civil( minute );
+		int mins = mins( minute );
+		sb.append( ( civil >> 5 ) & 15 ).append( '/' ).append( civil & 31 ).append( '/' ).append( civil >> 9 );
+		sb.append( ' ' ).append( hours( minute ) ).append( ':' );
+		// Formatting for the minutes.
+		if ( mins < 10 ) {
+			sb.append( '0' );
+		}
+		return sb.append( mins );
+	}
+	
+	/**
+	 * Formats a due date as M/D/YYYY H:MM.
+	 * 
+	 * @param minute The due date in epoch minutes.
+	 * @return The formatted due date.
+	 */
+	public static String format( long minute ) {
+		return appendTo( minute, new StringBuilder( 16 ) ).toString();
+	}
+	
+	/**
+	 * Parses a due date in the M/D/YYYY H:MM format.
+	 * 
+	 * @param s The characters to parse.
+	 * @param from Index of the first character of the date.
+	 * @param to Index just past the last character of the date.
+	 * @return The due date in epoch minutes.
+	 * @throws IllegalArgumentException If the characters are not a date in the M/D/YYYY H:MM format.
+	 */
+	public static long parse( CharSequence s, int from, int to ) {
+		int month = 0, day = 0, year = 0, hours = 0, mins = 0;
+		int field = 0;		// Which field is being read: month, day, year, hours, then minutes.
+		boolean digits = false;
+		// Read the date one character at a time.
+		for ( int pos = from; pos < to; pos++ ) {
+			char c = s.charAt( pos );
+			if ( c >= '0' && c <= '9' ) {
+				int d = c - '0';
+				switch ( field ) {
+					case 0: month = month * 10 + d; break;
+					case 1: day = day * 10 + d; break;
+					case 2: year = year * 10 + d; break;
+					case 3: hours = hours * 10 + d; break;
+					default: mins = mins * 10 + d; break;
+				}
+				digits = true;
+			// If the character is the separator expected after the current field, move to the next field.
+			} else if ( digits && ( ( c == '/' && field < 2 ) || ( c == ' ' && field == 2 ) || ( c == ':' && field == 3 ) ) ) {
+				field++;
+				digits = false;
+			} else {
+				throw new IllegalArgumentException( "Malformed date: " + s.subSequence( from, to ) );
+			}
+		}
+		if ( field != 4 || !digits ) {
+			throw new IllegalArgumentException( "Malformed date: " + s.subSequence( from, to ) );
+		}
+		return toMinute( year, month, day, hours, mins );
+	}
+	
+	/**
+	 * Parses a due date in the M/D/YYYY H:MM format.
+	 * 
+	 * @param s The date to parse.
+	 * @return The due date in epoch minutes.
+	 * @throws IllegalArgumentException If the string is not a date in the M/D/YYYY H:MM format.
+	 */
+	public static long parse( CharSequence s ) {
+		return parse( s, 0, s.length() );
+	}
+	
+	/**
+	 * Gets the current time on the local wall clock.
+	 * 
+	 * @return The current minute, in epoch minutes.
+	 */
+	public static long now() {
+		return fromEpochMilli( System.currentTimeMillis() );
+	}
+	
+	/**
+	 * Converts a real point in time to the due date it falls in on the local wall clock.
+	 * 
+	 * @param millis The point in time, in epoch milliseconds.
+	 * @return The due date in epoch minutes.
+	 */
+	public static long fromEpochMilli( long millis ) {
+		return Math.floorDiv( millis + ZONE.getOffset( millis ), MILLIS_PER_MINUTE );
+	}
+	
+	/**
+	 * Converts a due date to the real point in time when it arrives.
+	 * A due date that falls in a daylight saving gap arrives at the same time as the one just after the gap.
+	 * 
+	 * @param minute The due date in epoch minutes.
+	 * @return The point in time, in epoch milliseconds.
+	 */
+	public static long toEpochMilli( long minute ) {
+		long local = minute * MILLIS_PER_MINUTE;
+		return local - ZONE.getOffset( local - ZONE.getOffset( local ) );
+	}
+	
+	/**
+	 * Works out the calendar date of a due date.
+	 * 
+	 * @param minute The due date in epoch minutes.
+	 * @return The year shifted left 9 bits, the month shifted left 5 bits, and the day, packed in one long.
+	 */
+	private static long civil( long minute ) {
+		long days = Math.floorDiv( minute, ( long ) MINUTES_PER_DAY ) + EPOCH_SHIFT;		// Days since 3/1/0000.
+		long era = Math.floorDiv( days, ( long ) DAYS_PER_ERA );
+		long doe = days - era * DAYS_PER_ERA;										// Day of the era.
+		long yoe = ( doe - doe / 1460 + doe / 36524 - doe / 146096 ) / 365;		// Year of the era.
+		long doy = doe - ( 365 * yoe + yoe / 4 - yoe / 100 );					// Day of the year, counted from March 1st.
+		long mp = ( 5 * doy + 2 ) / 153;											// Month, counted from March.
+		long day = doy - ( 153 * mp + 2 ) / 5 + 1;
+		long month = mp < 10 ? mp + 3 : mp - 9;
+		long year = yoe + era * 400 + ( month <= 2 ? 1 : 0 );
+		return ( year << 9 ) | ( month << 5 ) | day;
+	}
+}
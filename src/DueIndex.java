@@ -0,0 +1,338 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Secondary index of the tasks in a heap, ordered the same way as the heap, for range and paging queries.
+ * The index follows the heap as a HeapListener, so it stays in sync with every add, remove and postpone.
+ * 
+ * Tasks are kept in an indexable skip list: every link also records how many tasks it skips over,
+ * so finding a due date, finding the task at a position, and counting the tasks before a due date all take O(log n).
+ * Queries that return k tasks take O(log n + k), and never touch the heap.
+ */
+public class DueIndex implements HeapListener< Task > {
+	/**
+	 * Highest level a node can reach. With a quarter of the nodes promoted at each level, this covers any int size.
+	 */
+	private static final int MAX_LEVEL = 16;
+	
+	/**
+	 * Sentinel node before the first task. Its item is null.
+	 */
+	private final Node head;
+	
+	/**
+	 * Number of levels in use.
+	 */
+	private int level;
+	
+	/**
+	 * Number of indexed tasks.
+	 */
+	private int size;
+	
+	/**
+	 * Reused by add and remove: the last node before the new or removed task on each level.
+	 */
+	private final Node[] update;
+	
+	/**
+	 * Reused by add: the position of each node in update.
+	 */
+	private final int[] rank;
+	
+	/**
+	 * Constructor for the DueIndex.
+	 * Indexes every task already in the heap, and starts following changes to the heap.
+	 * 
+	 * @param h The heap to index.
+	 */
+	public DueIndex( Heap< Task > h ) {
+		this();
+		h.sortedStream().forEach( this::itemAdded );
+		h.addHeapListener( this );
+	}
+	
+	/**
+	 * Constructor for an empty DueIndex that does not follow a heap.
+	 * Tasks are added and removed by calling itemAdded and itemRemoved directly.
+	 */
+	public DueIndex() {
+		this.head = new Node( null, MAX_LEVEL );
+		this.level = 1;
+		this.update = new Node[ MAX_LEVEL ];
+		this.rank = new int[ MAX_LEVEL ];
+	}
+	
+	/**
+	 * Constructor for a DueIndex of some tasks that does not follow a heap, such as the result of a search.
+	 * Takes O(n log n), so a large index can be built on a background thread and then handed to the EDT.
+	 * 
+	 * @param tasks The tasks to index, in any order.
+	 */
+	public DueIndex( Collection< ? extends Task > tasks ) {
+		this();
+		for ( Task t : tasks ) {
+			itemAdded( t );
+		}
+	}
+	
+	/**
+	 * Gets the number of indexed tasks.
+	 * 
+	 * @return The number of tasks.
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+	
+	/**
+	 * Gets every task due in a range of time, in heap order.
+	 * 
+	 * @param from The start of the range in epoch minutes, inclusive.
+	 * @param to The end of the range in epoch minutes, exclusive.
+	 * @param limit The most tasks to return.
+	 * @return Up to limit of the tasks due at or after from and before to, starting with the earliest.
+	 */
+	public synchronized List< Task > rangeQuery( long from, long to, int limit ) {
+		List< Task > tasks = new ArrayList< Task >();
+		Node x = lastBefore( from ).next[ 0 ];
+		// Collect tasks until one is due at or after the end of the range, or there are enough.
+		while ( x != null && x.item.getDue() < to && tasks.size() < limit ) {
+			tasks.add( x.item );
+			x = x.next[ 0 ];
+		}
+		return tasks;
+	}
+	
+	/**
+	 * Counts the tasks due before a point in time.
+	 * 
+	 * @param due The point in time, in epoch minutes.
+	 * @return The number of tasks due strictly before it.
+	 */
+	public synchronized int countBefore( long due ) {
+		int count = 0;
+		Node x = head;
+		// On each level, from the top, move forward while the next task is due before the point in time.
+		for ( int i = level - 1; i >= 0; i-- ) {
+			while ( x.next[ i ] != null && x.next[ i ].item.getDue() < due ) {
+				count += x.span[ i ];
+				x = x.next[ i ];
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Gets one page of tasks, in heap order.
+	 * 
+	 * @param offset The position of the first task on the page, counting from 0.
+	 * @param limit The most tasks to return.
+	 * @return Up to limit tasks, starting at the given position.
+	 */
+	public synchronized List< Task > page( int offset, int limit ) {
+		List< Task > tasks = new ArrayList< Task >( Math.max( 0, Math.min( limit, size - offset ) ) );
+		// If the page starts past the end, it is empty.
+		if ( offset < 0 || offset >= size ) {
+			return tasks;
+		}
+		Node x = head;
+		int traversed = 0;
+		// On each level, from the top, move forward while the next node is not past the first task on the page.
+		for ( int i = level - 1; i >= 0; i-- ) {
+			while ( x.next[ i ] != null && traversed + x.span[ i ] <= offset + 1 ) {
+				traversed += x.span[ i ];
+				x = x.next[ i ];
+			}
+		}
+		// Collect tasks from the first one on the page.
+		while ( x != null && tasks.size() < limit ) {
+			tasks.add( x.item );
+			x = x.next[ 0 ];
+		}
+		return tasks;
+	}
+	
+	/**
+	 * Gets the task at a position, in heap order.
+	 * 
+	 * @param index The position of the task, counting from 0.
+	 * @return The task at that position.
+	 * @throws IndexOutOfBoundsException If the position is negative or not less than the size.
+	 */
+	public synchronized Task get( int index ) {
+		if ( index < 0 || index >= size ) {
+			throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+		}
+		Node x = head;
+		int traversed = 0;
+		// On each level, from the top, move forward while the next node is not past the task.
+		for ( int i = level - 1; i >= 0; i-- ) {
+			while ( x.next[ i ] != null && traversed + x.span[ i ] <= index + 1 ) {
+				traversed += x.span[ i ];
+				x = x.next[ i ];
+			}
+		}
+		return x.item;
+	}
+	
+	/**
+	 * Finds the position of a task.
+	 * Tasks are ordered by id when everything else is equal, so only the task itself compares equal to it.
+	 * 
+	 * @param item The task to look for.
+	 * @return The position of the task, counting from 0, or -1 if it is not in the index.
+	 */
+	public synchronized int indexOf( Task item ) {
+		Node x = head;
+		int traversed = 0;
+		// On each level, from the top, move forward while the next task is before the one looked for.
+		for ( int i = level - 1; i >= 0; i-- ) {
+			while ( x.next[ i ] != null && x.next[ i ].item.compareTo( item ) < 0 ) {
+				traversed += x.span[ i ];
+				x = x.next[ i ];
+			}
+		}
+		x = x.next[ 0 ];
+		return x != null && x.item.compareTo( item ) == 0 ? traversed : -1;
+	}
+	
+	/**
+	 * Adds the task to the index.
+	 */
+	@Override
+	public synchronized void itemAdded( Task item ) {
+		Node x = head;
+		// On each level, from the top, find the last node before the new task and its position.
+		for ( int i = level - 1; i >= 0; i-- ) {
+			rank[ i ] = i == level - 1 ? 0 : rank[ i + 1 ];
+			while ( x.next[ i ] != null && x.next[ i ].item.compareTo( item ) < 0 ) {
+				rank[ i ] += x.span[ i ];
+				x = x.next[ i ];
+			}
+			update[ i ] = x;
+		}
+		int nodeLevel = randomLevel();
+		// If the new node is taller than every other node, link the new levels from the head.
+		if ( nodeLevel > level ) {
+			for ( int i = level; i < nodeLevel; i++ ) {
+				rank[ i ] = 0;
+				update[ i ] = head;
+				head.span[ i ] = size;
+			}
+			level = nodeLevel;
+		}
+		x = new Node( item, nodeLevel );
+		// Link the new node in on each of its levels, splitting the span of the link it is inserted into.
+		for ( int i = 0; i < nodeLevel; i++ ) {
+			x.next[ i ] = update[ i ].next[ i ];
+			update[ i ].next[ i ] = x;
+			x.span[ i ] = update[ i ].span[ i ] - ( rank[ 0 ] - rank[ i ] );
+			update[ i ].span[ i ] = rank[ 0 ] - rank[ i ] + 1;
+		}
+		// Links above the new node now skip over one more task.
+		for ( int i = nodeLevel; i < level; i++ ) {
+			update[ i ].span[ i ]++;
+		}
+		size++;
+	}
+	
+	/**
+	 * Removes the task from the index.
+	 */
+	@Override
+	public synchronized void itemRemoved( Task item ) {
+		Node x = head;
+		// On each level, from the top, find the last node before the removed task.
+		for ( int i = level - 1; i >= 0; i-- ) {
+			while ( x.next[ i ] != null && x.next[ i ].item.compareTo( item ) < 0 ) {
+				x = x.next[ i ];
+			}
+			update[ i ] = x;
+		}
+		x = x.next[ 0 ];
+		// If the task is not in the index, there is nothing to remove.
+		if ( x == null || x.item.compareTo( item ) != 0 ) {
+			return;
+		}
+		// Unlink the node on each of its levels, and shorten the links above it.
+		for ( int i = 0; i < level; i++ ) {
+			if ( update[ i ].next[ i ] == x ) {
+				update[ i ].span[ i ] += x.span[ i ] - 1;
+				update[ i ].next[ i ] = x.next[ i ];
+			} else {
+				update[ i ].span[ i ]--;
+			}
+		}
+		// Drop levels that no node reaches any more.
+		while ( level > 1 && head.next[ level - 1 ] == null ) {
+			level--;
+		}
+		size--;
+	}
+	
+	/**
+	 * Finds the last node whose task is due before a point in time.
+	 * 
+	 * @param due The point in time, in epoch minutes.
+	 * @return The last node before it, or the head if there is none.
+	 */
+	private Node lastBefore( long due ) {
+		Node x = head;
+		for ( int i = level - 1; i >= 0; i-- ) {
+			while ( x.next[ i ] != null && x.next[ i ].item.getDue() < due ) {
+				x = x.next[ i ];
+			}
+		}
+		return x;
+	}
+	
+	/**
+	 * Picks the level of a new node. Each level above the first is reached by a quarter of the nodes below it.
+	 * 
+	 * @return The level, from 1 to MAX_LEVEL.
+	 */
+	private static int randomLevel() {
+		int bits = ThreadLocalRandom.current().nextInt();
+		int nodeLevel = 1;
+		// Add a level for every pair of zero bits, up to the highest level.
+		while ( nodeLevel < MAX_LEVEL && ( bits & 3 ) == 0 ) {
+			nodeLevel++;
+			bits >>>= 2;
+		}
+		return nodeLevel;
+	}
+	
+	/**
+	 * A task in the skip list, with its links on each of its levels.
+	 */
+	private static class Node {
+		/**
+		 * The task, or null for the head.
+		 */
+		private final Task item;
+		/**
+		 * Next node on each level.
+		 */
+		private final Node[] next;
+		/**
+		 * Number of tasks each link moves forward by: 1 for the next node on the first level.
+		 * For the last node on a level, the number of tasks after this node.
+		 */
+		private final int[] span;
+		
+		/**
+		 * Constructor for a Node.
+		 * 
+		 * @param item The task.
+		 * @param nodeLevel The number of levels the node is linked on.
+		 */
+		Node( Task item, int nodeLevel ) {
+			this.item = item;
+			this.next = new Node[ nodeLevel ];
+			this.span = new int[ nodeLevel ];
+		}
+	}
+}
@@ -1,35 +1,197 @@
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
-import java.util.Date;
-import java.util.Scanner;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.Vector;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
- * Data structure used to store objects in a min heap.
+ * Data structure used to store tasks in a min heap.
  * 
  * @author Jonathan Sohrabi 2018
- *
- * @param <T> The type of object to use this with.
+ * 
+ * @param <T> The type of task to use this with.
  */
-public class Heap < T extends Comparable< T > > {
+public class Heap < T extends Task > {
+	/**
+	 * Number of characters exportText collects before writing them out.
+	 */
+	private static final int EXPORT_BLOCK = 1 << 16;
+	
+	/**
+	 * Most tasks readTasks hands over at a time from a binary task file.
+	 */
+	private static final int READ_BATCH = 1 << 16;
+	
+	/**
+	 * Counts items added to any heap.
+	 */
+	private static final LongAdder addCount = Metrics.get().counter( "heap.add" );
+	
+	/**
+	 * Counts items removed from any heap.
+	 */
+	private static final LongAdder removeCount = Metrics.get().counter( "heap.remove" );
+	
+	/**
+	 * Counts items rescheduled in any heap.
+	 */
+	private static final LongAdder rescheduleCount = Metrics.get().counter( "heap.reschedule" );
+	
+	/**
+	 * Levels moved by the item that fills the place of a removed item.
+	 */
+	private static final Histogram siftDepth = Metrics.get().histogram( "heap.siftDepth" );
+	
+	/**
+	 * Time taken to read the task file, in microseconds.
+	 */
+	private static final Histogram loadTime = Metrics.get().histogram( "heap.load.us" );
+	
 	/**
 	 * Holds the stored objects.
 	 */
 	private Vector< T > taskList;
 	
 	/**
-	 * File object to populate this from.
+	 * Text task file to populate this from, if there is no binary task file. Never written by the heap.
 	 */
 	private File taskFile;
 	
+	/**
+	 * Binary task file the heap is saved to when it is not partitioned, and populated from if it exists.
+	 */
+	private File binaryFile;
+	
+	/**
+	 * Journal of changes made since the task file was last saved, or null if there is none.
+	 */
+	private TaskJournal journal;
+	
+	/**
+	 * Archive of the tasks completed in the heap, or null if there is none.
+	 */
+	private CompletionArchive archive;
+	
+	/**
+	 * Month partitions the tasks are stored in, or null until the heap is read from storage.
+	 * Only some partitions may be in the heap: every task due before the earliest unloaded partition is,
+	 * and so is every task in a partition that any task in the heap belongs to.
+	 * Set by readTasks, which may run on another thread while the tasks it has already read are added.
+	 */
+	private volatile TaskPartitions partitions;
+	
+	/**
+	 * Task files the tasks were read from before they were moved into partitions, or null if there are none.
+	 * They are renamed once the first save has written the partitions, so they are never read again in place of them.
+	 */
+	private volatile List< File > legacyFiles;
+	
+	/**
+	 * Writes snapshots of the heap to the task file in the background.
+	 */
+	private SnapshotSaver saver;
+	
+	/**
+	 * True once the task file and journal have been loaded.
+	 */
+	private boolean loaded;
+	
+	/**
+	 * Number of structural changes made to the heap. Used by sorted iterators to detect concurrent modification.
+	 */
+	private int modCount;
+	
+	/**
+	 * Objects notified whenever an item is added to or removed from the heap.
+	 */
+	private List< HeapListener< T > > listeners;
+	
+	/**
+	 * Handle of the item at each index of the taskList vector.
+	 */
+	private int[] slotHandle;
+	
+	/**
+	 * Index in the taskList vector of the item with each handle, or -1 if the handle is not in use.
+	 */
+	private int[] handlePos;
+	
+	/**
+	 * Handles that were released by removed items and can be given out again.
+	 */
+	private int[] freeHandles;
+	
+	/**
+	 * Number of handles in the freeHandles array.
+	 */
+	private int freeCount;
+	
+	/**
+	 * Lowest handle that has never been given out.
+	 */
+	private int nextHandle;
+	
+	/**
+	 * Maps the id of every task in the heap to its handle.
+	 */
+	private Map< Long, Integer > idIndex;
+	
 	/**
 	 * Default constructor. Initialized variables and populates from a saved file.
 	 */
 	public Heap() {
+		this( true );
+	}
+	
+	/**
+	 * Constructor that can leave the heap empty, so it can be populated later by loadHeap or by readTasks and openJournal.
+	 * 
+	 * @param load True to populate the heap from the saved file now, false to leave it empty.
+	 */
+	public Heap( boolean load ) {
 		taskList = new Vector< T >();
+		listeners = new ArrayList< HeapListener< T > >();
+		slotHandle = new int[ 16 ];
+		handlePos = new int[ 16 ];
+		freeHandles = new int[ 16 ];
+		idIndex = new HashMap< Long, Integer >();
 		taskFile = new File( "./taskList.txt" );
-		loadHeap();
+		binaryFile = new File( "./taskList.tasks" );
+		saver = new SnapshotSaver( binaryFile );
+		// If asked to, populate the heap from the saved file.
+		if ( load ) {
+			loadHeap();
+		}
+	}
+	
+	/**
+	 * Checks if the heap has been populated from the saved file.
+	 * 
+	 * @return True if loadHeap or openJournal has finished, false otherwise.
+	 */
+	public boolean isLoaded() {
+		return loaded;
 	}
 	
 	/**
@@ -50,6 +212,24 @@ public class Heap < T extends Comparable< T > > {
 		return taskList.isEmpty();
 	}
 	
+	/**
+	 * Registers a listener to be notified when items are added to or removed from the heap.
+	 * 
+	 * @param l The listener to add.
+	 */
+	public void addHeapListener( HeapListener< T > l ) {
+		listeners.add( l );
+	}
+	
+	/**
+	 * Stops notifying a listener of changes to the heap.
+	 * 
+	 * @param l The listener to remove.
+	 */
+	public void removeHeapListener( HeapListener< T > l ) {
+		listeners.remove( l );
+	}
+	
 	/**
 	 * Gets the parent node of the parameterized index.
 	 * 
@@ -90,45 +270,411 @@ public class Heap < T extends Comparable< T > > {
 		return this.taskList.get( i );
 	}
 	
+	/**
+	 * Stores an item at an index of the taskList vector and records the index of its handle.
+	 * 
+	 * @param index The index to store the item at.
+	 * @param item The item to store.
+	 * @param handle The handle of the item.
+	 */
+	private void setSlot( int index, T item, int handle ) {
+		this.taskList.set( index, item );
+		this.slotHandle[ index ] = handle;
+		this.handlePos[ handle ] = index;
+	}
+	
+	/**
+	 * Gives out a handle for a new item, reusing a released handle if there is one.
+	 * 
+	 * @return The new handle.
+	 */
+	private int newHandle() {
+		// If a released handle is available, reuse it.
+		if ( freeCount > 0 ) {
+			return freeHandles[ --freeCount ];
+		}
+		// Grow the handle index if it is full.
+		if ( nextHandle == handlePos.length ) {
+			handlePos = Arrays.copyOf( handlePos, handlePos.length * 2 );
+		}
+		return nextHandle++;
+	}
+	
+	/**
+	 * Releases the handle of a removed item so it can be given out again.
+	 * 
+	 * @param handle The handle to release.
+	 */
+	private void releaseHandle( int handle ) {
+		handlePos[ handle ] = -1;
+		// Grow the free list if it is full.
+		if ( freeCount == freeHandles.length ) {
+			freeHandles = Arrays.copyOf( freeHandles, freeHandles.length * 2 );
+		}
+		freeHandles[ freeCount++ ] = handle;
+	}
+	
+	/**
+	 * Moves an item up from an index until its parent is not greater than it.
+	 * 
+	 * @param index The index to start at.
+	 * @param item The item being placed.
+	 * @param handle The handle of the item being placed.
+	 * @return The number of levels the item moved.
+	 */
+	private int siftUp( int index, T item, int handle ) {
+		int depth = 0;
+		// While the current index is not the root and the parent of the current index is greater than the item:
+		while ( index > 0 && getItem( getPLoc( index ) ).compareTo( item ) > 0 ) {
+			int parent = getPLoc( index );
+			setSlot( index, getItem( parent ), slotHandle[ parent ] );	// Move the parent down to the current index.
+			index = parent;												// Get the parent of the current index.
+			depth++;
+		}
+		setSlot( index, item, handle );		// Store the item at the current index.
+		return depth;
+	}
+	
+	/**
+	 * Moves an item down from an index until neither child is smaller than it.
+	 * 
+	 * @param index The index to start at.
+	 * @param item The item being placed.
+	 * @param handle The handle of the item being placed.
+	 * @return The number of levels the item moved.
+	 */
+	private int siftDown( int index, T item, int handle ) {
+		int end = this.taskList.size() - 1;		// Get the end of the heap.
+		int depth = 0;
+		// While the left child of the current index is within the heap:
+		while ( getLCLoc( index ) <= end ) {
+			int childLoc = getLCLoc( index );		// Get the index of the left child.
+			// If the right child is within the heap and is smaller than the left child, use the right child.
+			if ( getRCLoc( index ) <= end && getItem( getRCLoc( index ) ).compareTo( getItem( childLoc ) ) < 0 ) {
+				childLoc = getRCLoc( index );
+			}
+			// If the child is not smaller than the item, stop moving down.
+			if ( getItem( childLoc ).compareTo( item ) >= 0 ) {
+				break;
+			}
+			setSlot( index, getItem( childLoc ), slotHandle[ childLoc ] );	// Move the child up to the current index.
+			index = childLoc;													// Set the current index to the child's index.
+			depth++;
+		}
+		setSlot( index, item, handle );		// Store the item at the current index.
+		return depth;
+	}
+	
 	/**
 	 * Adds an item to the minheap and adjusts accordingly.
 	 * 
 	 * @param i The item to add
+	 * @return A handle for the item, valid until the item is removed.
 	 */
-	public void addItem( T i ) {
+	public int addItem( T i ) {
+		ensureLoaded( i.getDue() );		// Load the item's partition first, so its stored neighbours are in the heap too.
+		this.modCount++;
+		int handle = newHandle();				// Get a handle for the new item.
 		this.taskList.add( i );					// Add the item to the vector.
-		int index = this.taskList.size() - 1;	// Get the index of the item that was just added.
-		// While the current index is not the root and the parent of the current index is greater than the item that was just added:
-		while( index > 0 && getItem( getPLoc( index ) ).compareTo( i ) > 0 ) {
-			this.taskList.set( index, getItem( getPLoc( index ) ) );	// Swap the item at the current index and its parent.
-			index = getPLoc( index );			// Get the parent of the current index.
+		// Grow the slot handles if they are full.
+		if ( this.taskList.size() > slotHandle.length ) {
+			slotHandle = Arrays.copyOf( slotHandle, slotHandle.length * 2 );
+		}
+		siftUp( this.taskList.size() - 1, i, handle );	// Move the item up from the end of the heap to its place.
+		idIndex.put( i.getId(), handle );	// Index the item by its id.
+		addCount.increment();
+		// Notify every listener of the added item.
+		for ( HeapListener< T > l : listeners ) {
+			l.itemAdded( i );
+		}
+		compactIfDue();
+		return handle;
+	}
+	
+	/**
+	 * Adds a batch of items to the minheap.
+	 * If the batch is large compared to the heap, the whole heap is rebuilt bottom-up with Floyd's method in O(n).
+	 * Otherwise, each item is moved up to its place.
+	 * 
+	 * @param items The items to add.
+	 */
+	public void addAll( Collection< ? extends T > items ) {
+		// If the heap is partitioned, load the partitions of the items first, so their stored neighbours are in the heap too.
+		if ( partitions != null ) {
+			for ( T item : items ) {
+				ensureLoaded( item.getDue() );
+			}
+		}
+		addItems( items, false );
+	}
+	
+	/**
+	 * Adds a batch of items to the minheap, as addAll does, without loading partitions.
+	 * 
+	 * @param items The items to add.
+	 * @param loaded True if the items were loaded from a partition, false if they are new.
+	 */
+	private void addItems( Collection< ? extends T > items, boolean loaded ) {
+		// If there are no items, there is nothing to do.
+		if ( items.isEmpty() ) {
+			return;
+		}
+		this.modCount++;
+		int oldSize = this.taskList.size();
+		int newSize = oldSize + items.size();
+		this.taskList.ensureCapacity( newSize );
+		// Grow the slot handles if they are too small.
+		if ( newSize > slotHandle.length ) {
+			slotHandle = Arrays.copyOf( slotHandle, Math.max( newSize, slotHandle.length * 2 ) );
+		}
+		// Append every item to the end of the vector with a new handle.
+		for ( T item : items ) {
+			int handle = newHandle();
+			this.taskList.add( item );
+			setSlot( this.taskList.size() - 1, item, handle );
+			idIndex.put( item.getId(), handle );
+		}
+		// If moving each new item up costs less than rebuilding, move each one up. Otherwise, rebuild the heap.
+		if ( ( long ) items.size() * ( 32 - Integer.numberOfLeadingZeros( newSize ) ) < newSize ) {
+			for ( int i = oldSize; i < newSize; i++ ) {
+				siftUp( i, getItem( i ), slotHandle[ i ] );
+			}
+		} else {
+			// Move every node that has children down to its place, starting from the last one.
+			for ( int i = ( newSize / 2 ) - 1; i >= 0; i-- ) {
+				siftDown( i, getItem( i ), slotHandle[ i ] );
+			}
+		}
+		addCount.add( items.size() );
+		// Notify every listener of the added or loaded items.
+		for ( HeapListener< T > l : listeners ) {
+			if ( loaded ) {
+				l.itemsLoaded( items );
+			} else {
+				l.itemsAdded( items );
+			}
+		}
+		compactIfDue();
+	}
+	
+	/**
+	 * Gets the item with the given handle.
+	 * 
+	 * @param handle A handle returned by addItem.
+	 * @return The item with the handle.
+	 */
+	public T getItemByHandle( int handle ) {
+		return getItem( positionOf( handle ) );
+	}
+	
+	/**
+	 * Checks if the task with the given id is in the heap.
+	 * 
+	 * @param id The id of the task.
+	 * @return True if the task is in the heap, false otherwise.
+	 */
+	public boolean contains( long id ) {
+		return idIndex.containsKey( id );
+	}
+	
+	/**
+	 * Gets the handle of the task with the given id.
+	 * 
+	 * @param id The id of the task.
+	 * @return The handle of the task, or -1 if it is not in the heap.
+	 */
+	public int getHandle( long id ) {
+		Integer handle = idIndex.get( id );
+		return handle == null ? -1 : handle;
+	}
+	
+	/**
+	 * Removes the task with the given id from anywhere in the heap and adjusts the heap accordingly.
+	 * 
+	 * @param id The id of the task to remove.
+	 * @return The removed task, or null if it was not in the heap.
+	 */
+	public T remove( long id ) {
+		Integer handle = idIndex.get( id );
+		// If the task is not in the heap, there is nothing to remove.
+		if ( handle == null ) {
+			return null;
+		}
+		return removeAt( handlePos[ handle ] );
+	}
+	
+	/**
+	 * Gets the handle of the item at the root of the heap.
+	 * 
+	 * @return The handle of the current item.
+	 */
+	public int getCurrentHandle() {
+		if ( isEmpty() ) {
+			throw new NoSuchElementException();
+		}
+		return slotHandle[ 0 ];
+	}
+	
+	/**
+	 * Changes the due date of the task with the given handle and moves it to its new place in the heap.
+	 * Tasks are immutable, so the item is replaced by a copy with the new due date, which keeps the same id and handle.
+	 * 
+	 * @param handle A handle returned by addItem.
+	 * @param newDue The new due date, in epoch minutes.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public void reschedule( int handle, long newDue ) {
+		replace( handle, ( T ) getItemByHandle( handle ).withDue( newDue ) );		// Copy the task with its new due date.
+	}
+	
+	/**
+	 * Replaces the item with the given handle by another with the same id, and moves it to its new place in the heap.
+	 * The new item keeps the handle.
+	 * 
+	 * @param handle A handle returned by addItem.
+	 * @param item The item to put in its place.
+	 */
+	public void replace( int handle, T item ) {
+		ensureLoaded( item.getDue() );		// Load the partition the item moves into first.
+		int index = positionOf( handle );
+		T old = getItem( index );
+		if ( old.getId() != item.getId() ) {
+			throw new IllegalArgumentException( "Replacement has a different id" );
+		}
+		this.modCount++;
+		rescheduleCount.increment();
+		// If the item is now smaller than its parent, move it up. Otherwise, move it down.
+		if ( index > 0 && getItem( getPLoc( index ) ).compareTo( item ) > 0 ) {
+			siftUp( index, item, handle );
+		} else {
+			siftDown( index, item, handle );
+		}
+		// Notify every listener that the item has moved to its new place.
+		for ( HeapListener< T > l : listeners ) {
+			l.itemRescheduled( old, item );
 		}
-		this.taskList.set( index, i );			// Swap the item at the current index and the item that was added.
+		advance();
+		compactIfDue();
+	}
+	
+	/**
+	 * Completes the task with the given id. If the task repeats, it is replaced by its next occurrence in O(log n),
+	 * which keeps the same id and handle. Otherwise, or if its series has ended, it is removed.
+	 * 
+	 * @param id The id of the task to complete.
+	 * @return The completed task, or null if it was not in the heap.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public T complete( long id ) {
+		Integer handle = idIndex.get( id );
+		// If the task is not in the heap, there is nothing to complete.
+		if ( handle == null ) {
+			return null;
+		}
+		T done = getItem( handlePos[ handle ] );
+		T next = ( T ) done.nextOccurrence();
+		// Notify every listener of the completion, before the task leaves its place.
+		for ( HeapListener< T > l : listeners ) {
+			l.itemCompleted( done );
+		}
+		// If the task repeats, put its next occurrence in its place. Otherwise, remove it.
+		if ( next != null ) {
+			replace( handle, next );
+			return done;
+		}
+		return removeAt( handlePos[ handle ] );
+	}
+	
+	/**
+	 * Takes back the latest completion of a task in the archive, after undo has put the task back in the heap.
+	 * The journal records the retraction after the change that put the task back, and writes it to the archive once
+	 * both are on disk. If there is no journal, it is written to the archive at once.
+	 * 
+	 * @param id The id of the task whose completion was undone.
+	 */
+	public void retractCompletion( long id ) {
+		// If there is no archive, there is no completion to take back.
+		if ( archive == null ) {
+			return;
+		}
+		try {
+			long row = archive.retract( id );
+			// If a completion was retracted, record it in the journal, or write it to the archive if there is no journal.
+			if ( row >= 0 && journal != null ) {
+				journal.recordRetraction( id, row );
+			} else if ( row >= 0 ) {
+				archive.persistRetractions( Collections.singletonList( row ) );
+			}
+		} catch ( IOException e ) {
+			System.out.println( "Error writing to completion archive: " + e.getMessage() );
+		}
+	}
+	
+	/**
+	 * Gets the index in the taskList vector of the item with the given handle.
+	 * 
+	 * @param handle A handle returned by addItem.
+	 * @return The index of the item.
+	 */
+	private int positionOf( int handle ) {
+		// If the handle was never given out or its item was removed, it is invalid.
+		if ( handle < 0 || handle >= nextHandle || handlePos[ handle ] < 0 ) {
+			throw new IllegalArgumentException( "Invalid handle: " + handle );
+		}
+		return handlePos[ handle ];
 	}
 	
 	/**
 	 * Returns this heap as a string.
+	 * Items are listed in sorted order and delimited by equal signs. The heap is not modified.
 	 */
 	@Override
 	public String toString() {
-		String s = "";
-		T removedItem;							// Holds an item that was removed from the heap.
-		Vector < T > v = new Vector < T > ();	// Used to store the elements of the heap as they are removed.
-		// While the taskList vector is not empty:
-		while ( getSize() > 0 ) {
-			removedItem = removeItem();			// Set the removed item to the heap's root by removing it.
-			s += removedItem;					// Appends the item to a string.
+		StringBuilder sb = new StringBuilder();
+		Iterator< T > it = sortedIterator();
+		// While there are items left to visit, append them in sorted order.
+		while ( it.hasNext() ) {
+			it.next().appendTo( sb );
 			// Add an equal sign between items, for delimiting purposes.
-			if ( getSize() != 0 ) {
-				s += "=";
+			if ( it.hasNext() ) {
+				sb.append( '=' );
 			}
-			v.addElement( removedItem );		// Add the removed item to the vector v.
 		}
-		// Add every item in the vector v back to the heap.
-		for ( T ele : v ) {
-			this.addItem( ele );
+		return sb.toString();
+	}
+	
+	/**
+	 * Returns an iterator that visits the items of the heap in sorted order without modifying the heap.
+	 * Walks a side min-heap of indices into the backing vector, so each step costs O(log n).
+	 * 
+	 * @return A read-only iterator over the items in sorted order.
+	 */
+	public Iterator< T > sortedIterator() {
+		return new SortedIterator();
+	}
+	
+	/**
+	 * Returns a sequential stream over the items of the heap in sorted order without modifying the heap.
+	 * 
+	 * @return A stream over the items in sorted order.
+	 */
+	public Stream< T > sortedStream() {
+		return StreamSupport.stream( Spliterators.spliterator( sortedIterator(), getSize(),
+				Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.SIZED ), false );
+	}
+	
+	/**
+	 * Copies the items of the heap into a list in sorted order without modifying the heap.
+	 * 
+	 * @return A new list holding every item in sorted order.
+	 */
+	public List< T > sortedSnapshot() {
+		List< T > snapshot = new ArrayList< T >( getSize() );
+		Iterator< T > it = sortedIterator();
+		while ( it.hasNext() ) {
+			snapshot.add( it.next() );
 		}
-		return s;
+		return snapshot;
 	}
 	
 	/**
@@ -145,84 +691,540 @@ public class Heap < T extends Comparable< T > > {
 	 * @return The removed item.
 	 */
 	public T removeItem() {
-		T min = this.taskList.get( 0 );				// Get the min value from the heap, i.e. the root.
+		return removeAt( 0 );
+	}
+	
+	/**
+	 * Removes the item at an index of the taskList vector and adjusts the heap accordingly.
+	 * 
+	 * @param pos The index of the item to remove.
+	 * @return The removed item.
+	 */
+	private T removeAt( int pos ) {
+		T removed = this.taskList.get( pos );		// Get the item being removed.
+		this.modCount++;
+		releaseHandle( slotHandle[ pos ] );			// Release the handle of the removed item.
+		idIndex.remove( removed.getId() );
 		int index = this.taskList.size() - 1;		// Get the last index of the taskList vector.
 		T last = this.taskList.remove( index );		// Remove the last element from the taskList vector.
-		// If the last index is not the root element:
-		if ( index > 0 ) {
-			this.taskList.set( 0, last );			// Swap the root and the last element of the heap.
-			T root = this.taskList.get( 0 );		// Get the new root of the heap.
-			int end = this.taskList.size() - 1;		// Get the new end of the heap.
-			index = 0;								// Set the current index to the root.
-			boolean done = false;
-			while ( !done ) {
-				// If the left child of the current index is smaller than the end element:
-				if ( getLCLoc( index ) <= end ) {
-					T child = getItem( getLCLoc( index ) );	// Get the left child of the current index.
-					int childLoc = getLCLoc( index );		// Get the index of the left child.
-					// If the right child of the current index is smaller than the end element:
-					if ( getRCLoc( index ) <= end ) {
-						// If the right child is smaller than the left child:
-						if ( getItem( getRCLoc( index ) ).compareTo( child ) < 0 ) {
-							child = getItem( getRCLoc( index ) );	// Set the current working child to the right child.
-							childLoc = getRCLoc( index );			// Set the current working child location to the right child's location.
-						}
-					}
-					// If the current working child is smaller than the root:
-					if ( child.compareTo( root ) < 0 ) {
-						this.taskList.set( index, child );	// Swap the element at the current index with the child.
-						index = childLoc;					// Set the current index to the child's index.
-					// If the current working child is greater than the root, stop swapping.
-					} else {
-						done = true;
-					}
-				// If the left child of the current index is greater than the end element, stop swapping.
-				} else {
-					done = true;
-				}
+		removeCount.increment();
+		// If the removed item was not the last element, move the last element into its place.
+		if ( pos < index ) {
+			int handle = slotHandle[ index ];
+			int depth;
+			// If the last element is smaller than the parent of the hole, move it up. Otherwise, move it down.
+			if ( pos > 0 && getItem( getPLoc( pos ) ).compareTo( last ) > 0 ) {
+				depth = siftUp( pos, last, handle );
+			} else {
+				depth = siftDown( pos, last, handle );
+			}
+			siftDepth.record( depth );
+			TaskEvents.Sift event = new TaskEvents.Sift();
+			// If sift events are being recorded, record this one.
+			if ( event.shouldCommit() ) {
+				event.depth = depth;
+				event.size = index;
+				event.commit();
+			}
+		}
+		// Notify every listener of the removed item.
+		for ( HeapListener< T > l : listeners ) {
+			l.itemRemoved( removed );
+		}
+		advance();
+		compactIfDue();
+		return removed;			// Return the removed element.
+	}
+	
+	/**
+	 * Saves a snapshot if the journal has grown enough to be folded into one.
+	 * Called once a change and every notification of it are done, so the snapshot is never started from inside a listener.
+	 */
+	private void compactIfDue() {
+		// If the journal has marked a compaction as due, take it.
+		if ( journal != null && journal.takeCompaction() ) {
+			saveHeapAsync();
+		}
+	}
+	
+	/**
+	 * Loads the partition a due date falls in, if the heap is partitioned and the partition is not loaded yet.
+	 * Loaded tasks are reported to listeners by itemsLoaded, and are not recorded in the journal.
+	 * 
+	 * @param due A due date in epoch minutes.
+	 * @throws UncheckedIOException If the partition cannot be read.
+	 */
+	public void ensureLoaded( long due ) {
+		// If the heap is not partitioned, or the partition is already loaded, there is nothing to load.
+		if ( partitions == null || partitions.isLoaded( due ) ) {
+			return;
+		}
+		try {
+			addLoaded( partitions.load( due ) );
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( "Error reading task partition: " + e.getMessage(), e );
+		}
+	}
+	
+	/**
+	 * Loads every partition holding a task due at or before a date, so range queries up to it see every task.
+	 * 
+	 * @param due A due date in epoch minutes.
+	 * @throws UncheckedIOException If a partition cannot be read.
+	 */
+	public void loadThrough( long due ) {
+		try {
+			// Load the earliest unloaded partition until it starts after the date.
+			while ( partitions != null && partitions.nextDue() != Long.MAX_VALUE && partitions.nextDue() <= due ) {
+				addLoaded( partitions.loadNext() );
+			}
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( "Error reading task partition: " + e.getMessage(), e );
+		}
+	}
+	
+	/**
+	 * Checks if every stored task due at or before a date is in the heap. Can be called from any thread.
+	 * 
+	 * @param due A due date in epoch minutes.
+	 * @return True if no partition that is not loaded holds a task due at or before the date, false otherwise.
+	 */
+	public boolean isLoadedThrough( long due ) {
+		TaskPartitions parts = partitions;
+		return parts == null || parts.nextDue() == Long.MAX_VALUE || parts.nextDue() > due;
+	}
+	
+	/**
+	 * Gets the number of stored tasks that are not in the heap, because their partitions are not loaded yet. Can be called from any thread.
+	 * 
+	 * @return The number of tasks in the unloaded partitions as of the last save, or 0 if the heap is not partitioned.
+	 */
+	public long getUnloadedCount() {
+		TaskPartitions parts = partitions;
+		return parts == null ? 0 : parts.getUnloadedTaskCount();
+	}
+	
+	/**
+	 * Gets the earliest due date of the stored tasks that are not in the heap. Can be called from any thread.
+	 * 
+	 * @return The earliest due date in the unloaded partitions in epoch minutes, or Long.MAX_VALUE if every stored task is in the heap.
+	 */
+	public long getUnloadedDue() {
+		TaskPartitions parts = partitions;
+		return parts == null ? Long.MAX_VALUE : parts.nextDue();
+	}
+	
+	/**
+	 * Loads the next partitions once the root of the heap is due at or after their earliest task, or the heap is empty,
+	 * so the root is always the earliest stored task.
+	 * 
+	 * @throws UncheckedIOException If a partition cannot be read.
+	 */
+	private void advance() {
+		try {
+			// While the next partition holds a task due before the root, load it.
+			while ( partitions != null && partitions.nextDue() != Long.MAX_VALUE
+					&& ( taskList.isEmpty() || getItem( 0 ).getDue() >= partitions.nextDue() ) ) {
+				addLoaded( partitions.loadNext() );
+			}
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( "Error reading task partition: " + e.getMessage(), e );
+		}
+	}
+	
+	/**
+	 * Adds the tasks of a loaded partition to the heap, skipping any already in it, such as ones replayed from the journal.
+	 * 
+	 * @param tasks The tasks of the partition, or null if nothing was loaded.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private void addLoaded( List< Task > tasks ) {
+		// If nothing was loaded, there is nothing to add.
+		if ( tasks == null ) {
+			return;
+		}
+		List< T > items = new ArrayList< T >( tasks.size() );
+		for ( Task t : tasks ) {
+			if ( !idIndex.containsKey( t.getId() ) ) {
+				items.add( ( T ) t );
 			}
-			this.taskList.set( index, root );		// Swap the elements at the current index and the root.
 		}
-		return min;			// Return the old root element.
+		addItems( items, true );
 	}
 	
 	/**
-	 * Reads from a text file to populate the heap with values.
+	 * Reads from the task file to populate the heap with values.
+	 * The heap is built from the near-term tasks at once, then the changes recorded in the journal since the last save are replayed.
 	 */
 	public void loadHeap() {
-		Scanner scan = null;
-		String readLines[];
-		
-		// If the file exists:
-		if ( taskFile.exists() ) {
-			try {
-				scan = new Scanner( taskFile );
-				while ( scan.hasNextLine() ) {
-					readLines = scan.nextLine().split( "," );									// Split the input line at commas.
-					addItem( ( T ) new Task( readLines[ 0 ], new Date( readLines[ 1 ] ) ) );	// Add the item to the heap.
-				}
-				scan.close();
-			} catch ( FileNotFoundException e ) {
-				System.out.println( "File not found" );
-				System.exit( 0 );
+		try {
+			addAll( asItems( readTasks() ) );
+		} catch ( IOException e ) {
+			System.out.println( "Error reading task file: " + e.getMessage() );
+			System.exit( 0 );
+		}
+		openJournal();
+	}
+	
+	/**
+	 * Reads the near-term tasks without changing the heap, so it can be called from any thread, and from then on saves the heap
+	 * in month partitions. If the tasks are stored in partitions, only the partitions up to the end of next month are read,
+	 * and later ones are loaded as the heap reaches them. Otherwise every task in the binary task file, or if there is none
+	 * the text task file, is read, and the first save moves them into partitions and renames the task files. Task files are read by BinaryTaskFile if they
+	 * start with its header, so text task files written in the binary format by older versions can still be read.
+	 * 
+	 * @return The tasks to add to the heap, or an empty list if there are none.
+	 * @throws IOException If the partitions or the task file cannot be read.
+	 */
+	public List< Task > readTasks() throws IOException {
+		List< Task > tasks = new ArrayList< Task >();
+		readTasks( tasks::addAll );
+		return tasks;
+	}
+	
+	/**
+	 * Reads the near-term tasks without changing the heap, as readTasks does, handing them over as they are read:
+	 * one partition, one chunk of the text task file, or one batch of the binary task file at a time.
+	 * The tasks handed over can be added to the heap while the rest are still being read.
+	 * 
+	 * @param sink Receives each group of tasks to add to the heap, on the calling thread.
+	 * @throws IOException If the partitions or the task file cannot be read. Groups read before the error have already been handed over.
+	 */
+	public void readTasks( Consumer< List< Task > > sink ) throws IOException {
+		TaskPartitions parts = new TaskPartitions( new File( taskFile.getPath().replaceFirst( "\\.txt$", "" ) + ".parts" ) );
+		boolean partitioned = parts.exists();
+		File source = binaryFile.exists() ? binaryFile : taskFile;
+		// If there are no partitions and no task file, there are no tasks.
+		if ( !partitioned && !source.exists() ) {
+			parts.open( DueDates.now() );
+			partitions = parts;
+			return;
+		}
+		TaskEvents.Load event = new TaskEvents.Load();
+		long start = System.nanoTime();
+		event.begin();
+		boolean binary = !partitioned && BinaryTaskFile.isBinary( source );
+		int[] count = new int[ 1 ];		// Tasks handed over so far.
+		Consumer< List< Task > > counted = tasks -> {
+			count[ 0 ] += tasks.size();
+			sink.accept( tasks );
+		};
+		// If the tasks are in partitions, read the near-term ones. Otherwise, read the task file: as binary if it is in the binary format, otherwise as text.
+		if ( partitioned ) {
+			parts.open( DueDates.now(), counted );
+		} else {
+			parts.open( DueDates.now() );
+			if ( binary ) {
+				BinaryTaskFile.read( source, READ_BATCH, counted );
+			} else {
+				TaskFileParser.parse( source, counted );
+			}
+		}
+		loadTime.recordSince( start );
+		event.end();
+		// If load events are being recorded, record this one.
+		if ( event.shouldCommit() ) {
+			event.format = partitioned ? "partitioned" : binary ? "binary" : "text";
+			event.tasks = count[ 0 ];
+			event.bytes = partitioned ? parts.getLoadedBytes() : source.length();
+			event.commit();
+		}
+		// Retire any task file once a save has written the partitions. If the tasks are in partitions already, the file was left over from an earlier move.
+		List< File > legacy = new ArrayList< File >();
+		for ( File f : new File[] { binaryFile, taskFile } ) {
+			if ( f.exists() ) {
+				legacy.add( f );
 			}
 		}
+		legacyFiles = legacy.isEmpty() ? null : legacy;
+		partitions = parts;
+	}
+	
+	/**
+	 * Renames the task files the tasks were moved out of, adding ".migrated" to their names, once the partitions holding the tasks are on disk.
+	 * The files are kept rather than deleted, as a copy of the tasks from before the move.
+	 * 
+	 * @param legacy The task files to rename.
+	 */
+	private void retireLegacyFiles( List< File > legacy ) {
+		for ( File f : legacy ) {
+			// If the file is still there and cannot be renamed, report it. It is renamed again after the next save.
+			if ( f.exists() && !f.renameTo( new File( f.getPath() + ".migrated" ) ) ) {
+				System.out.println( "Error renaming old task file: " + f );
+				return;
+			}
+		}
+		legacyFiles = null;
+	}
+	
+	/**
+	 * Replays the journal into the heap and starts recording changes to it, and opens the archive of completed tasks.
+	 * Then loads the next partitions if the heap has already reached them.
+	 * Call after the tasks from readTasks have been added.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public void openJournal() {
+		String base = taskFile.getPath().replaceFirst( "\\.txt$", "" );
+		long snapshotSize = partitions != null ? ( long ) taskList.size() * 24 : binaryFile.length();	// Snapshots only hold the loaded partitions.
+		// Open the archive first, so the journal can sync it before each batch.
+		try {
+			archive = new CompletionArchive( ( Heap< Task > ) ( Heap< ? > ) this, new File( base + ".archive" ) );
+		} catch ( IOException e ) {
+			System.out.println( "Error opening completion archive: " + e.getMessage() );
+		}
+		try {
+			journal = new TaskJournal( ( Heap< Task > ) ( Heap< ? > ) this, archive, new File( base + ".journal" ), snapshotSize );
+		} catch ( IOException e ) {
+			System.out.println( "Error opening journal: " + e.getMessage() );
+		}
+		advance();
+		loaded = true;
+	}
+	
+	/**
+	 * Gets the archive of the tasks completed in the heap.
+	 * 
+	 * @return The archive, or null if the heap is not loaded or the archive could not be opened.
+	 */
+	public CompletionArchive getArchive() {
+		return archive;
+	}
+	
+	/**
+	 * Starts a batch of changes that are not recorded in the journal, so they cost no journal writes and trigger no snapshots.
+	 * The changes are persisted all at once by endBatch. If the program stops before then, none of them are kept.
+	 */
+	public void beginBatch() {
+		// If there is a journal, stop recording changes in it.
+		if ( journal != null ) {
+			journal.pause();
+		}
+	}
+	
+	/**
+	 * Ends a batch started by beginBatch: saves the heap, and waits for the save to finish before recording changes in the journal again.
+	 */
+	public void endBatch() {
+		saveHeap();
+		// If there is a journal, start recording changes in it again.
+		if ( journal != null ) {
+			journal.resume();
+		}
 	}
 	
 	/**
-	 * Save the current contents of the heap to a text file.
+	 * Save the current contents of the heap to the binary task file, and wait for the write to finish.
 	 */
 	public void saveHeap() {
-		String[] heapContents = this.toString().split( "=" );		// Split the heap at every equal sign.
 		try {
-			PrintWriter pw = new PrintWriter( taskFile );
-			// For every element in the heapContents array, write that element to the text file.
-			for ( int i = 0; i < heapContents.length; i++ ) {
-				pw.println( heapContents[ i ] );
+			saveHeapAsync().get();
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		} catch ( ExecutionException e ) {
+			// The saver has already reported the error.
+		}
+	}
+	
+	/**
+	 * Save the current contents of the heap to the binary task file on a background thread.
+	 * If the heap is partitioned, the loaded partitions are written instead, and the rest are left as they are.
+	 * Only a copy of the backing vector is made on the calling thread. Requests made while a save is running are coalesced.
+	 * Items are written in heap order, so loading them back needs no reordering.
+	 * If the tasks were read from task files, the files are renamed once the first save has written the partitions.
+	 * The journal is rotated in memory, and the saver flushes it, which forces the completions made since the last sync
+	 * to the archive, before writing the snapshot, since changes made while the journal is paused reach the disk only through the snapshot.
+	 * 
+	 * @return A future that completes once the contents are on disk.
+	 */
+	public CompletableFuture< Void > saveHeapAsync() {
+		// If there is no journal to sync the archive before the snapshot, force the completions made since the last sync to it now.
+		if ( journal == null && archive != null ) {
+			try {
+				archive.sync();
+			} catch ( IOException e ) {
+				System.out.println( "Error writing to completion archive: " + e.getMessage() );
+			}
+		}
+		List< Task > snapshot = new ArrayList< Task >( taskList );
+		int generation = -1;
+		// Start a new journal generation, so changes made while the snapshot is written are kept.
+		if ( journal != null ) {
+			generation = journal.rotate( ( long ) snapshot.size() * 24 );
+		}
+		CompletableFuture< Void > saved = saver.submit( snapshot, partitions, partitions == null ? null : partitions.unloadedMonths(), journal, generation );
+		List< File > legacy = legacyFiles;
+		// If the tasks are being moved out of task files, rename the files once the partitions are written, before anyone waiting on the save hears of it.
+		if ( partitions != null && legacy != null ) {
+			CompletableFuture< Void > retired = new CompletableFuture< Void >();
+			saved.whenComplete( ( r, ex ) -> {
+				// If the save failed, the task files still hold the only copy of the tasks not written yet, so keep them.
+				if ( ex != null ) {
+					retired.completeExceptionally( ex );
+					return;
+				}
+				retireLegacyFiles( legacy );
+				retired.complete( null );
+			} );
+			return retired;
+		}
+		return saved;
+	}
+	
+	/**
+	 * Adds every task in a text file in the Name,M/D/YYYY H:MM format to the heap.
+	 * 
+	 * @param file The text file to read.
+	 * @throws IOException If the file cannot be read or a line is malformed.
+	 */
+	public void importText( File file ) throws IOException {
+		addAll( asItems( TaskFileParser.parse( file ) ) );
+	}
+	
+	/**
+	 * Writes the contents of the heap to a text file in sorted order, one Name,M/D/YYYY H:MM line per item.
+	 * Every partition is loaded first, so the file holds every stored task.
+	 * 
+	 * @param file The text file to write.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void exportText( File file ) throws IOException {
+		loadThrough( Long.MAX_VALUE );
+		try ( Writer out = new OutputStreamWriter( new FileOutputStream( file ), Charset.defaultCharset() ) ) {
+			StringBuilder sb = new StringBuilder( EXPORT_BLOCK + 256 );	// Reused for every line, and written out in blocks.
+			char[] block = new char[ EXPORT_BLOCK + 256 ];
+			Iterator< T > it = sortedIterator();
+			// For every item in the heap, in sorted order, append that item to the block.
+			while ( it.hasNext() ) {
+				it.next().appendTo( sb ).append( System.lineSeparator() );
+				// If the block is full, or this was the last item, write the block to the text file.
+				if ( sb.length() >= EXPORT_BLOCK || !it.hasNext() ) {
+					if ( sb.length() > block.length ) {
+						block = new char[ sb.length() ];
+					}
+					sb.getChars( 0, sb.length(), block, 0 );
+					out.write( block, 0, sb.length() );
+					sb.setLength( 0 );
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Treats a list of loaded tasks as a list of heap items.
+	 * 
+	 * @param tasks The loaded tasks.
+	 * @return The same list, typed as heap items.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private List< T > asItems( List< Task > tasks ) {
+		return ( List< T > ) ( List< ? > ) tasks;
+	}
+	
+	/**
+	 * Iterates over the heap in sorted order.
+	 * Keeps a small min-heap of indices into the taskList vector: the smallest index is visited, then replaced by its children.
+	 */
+	private class SortedIterator implements Iterator< T > {
+		/**
+		 * Min-heap of indices into the taskList vector that are waiting to be visited.
+		 */
+		private int[] frontier;
+		/**
+		 * Number of indices currently held in the frontier.
+		 */
+		private int frontierSize;
+		/**
+		 * The modCount of the heap when this iterator was created.
+		 */
+		private final int expectedModCount;
+		
+		/**
+		 * Constructor of the SortedIterator. Starts the walk at the root of the heap.
+		 */
+		SortedIterator() {
+			this.expectedModCount = modCount;
+			this.frontier = new int[ 16 ];
+			// If the heap is nonempty, start from the root.
+			if ( !isEmpty() ) {
+				this.frontier[ frontierSize++ ] = 0;
+			}
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return frontierSize > 0;
+		}
+		
+		@Override
+		public T next() {
+			if ( modCount != expectedModCount ) {
+				throw new ConcurrentModificationException();
+			}
+			if ( frontierSize == 0 ) {
+				throw new NoSuchElementException();
+			}
+			int index = frontier[ 0 ];							// The smallest index left to visit.
+			frontier[ 0 ] = frontier[ --frontierSize ];			// Move the last frontier entry to the top.
+			siftDown( 0 );
+			// Queue the children of the visited index, since they are the only new candidates for the next smallest item.
+			if ( getLCLoc( index ) < getSize() ) {
+				push( getLCLoc( index ) );
+			}
+			if ( getRCLoc( index ) < getSize() ) {
+				push( getRCLoc( index ) );
+			}
+			return getItem( index );
+		}
+		
+		/**
+		 * Adds an index to the frontier and moves it up to its place.
+		 * 
+		 * @param index The index into the taskList vector to add.
+		 */
+		private void push( int index ) {
+			// Grow the frontier if it is full.
+			if ( frontierSize == frontier.length ) {
+				int[] grown = new int[ frontier.length * 2 ];
+				System.arraycopy( frontier, 0, grown, 0, frontierSize );
+				frontier = grown;
+			}
+			T item = getItem( index );
+			int pos = frontierSize++;
+			// While the parent in the frontier is greater than the new item, move the parent down.
+			while ( pos > 0 && getItem( frontier[ getPLoc( pos ) ] ).compareTo( item ) > 0 ) {
+				frontier[ pos ] = frontier[ getPLoc( pos ) ];
+				pos = getPLoc( pos );
+			}
+			frontier[ pos ] = index;
+		}
+		
+		/**
+		 * Moves the frontier entry at the given position down to its place.
+		 * 
+		 * @param pos The position in the frontier to move down.
+		 */
+		private void siftDown( int pos ) {
+			if ( frontierSize == 0 ) {
+				return;
+			}
+			int index = frontier[ pos ];
+			T item = getItem( index );
+			// While the entry has a child in the frontier:
+			while ( getLCLoc( pos ) < frontierSize ) {
+				int childPos = getLCLoc( pos );
+				// If the right child is smaller than the left child, use the right child.
+				if ( getRCLoc( pos ) < frontierSize
+						&& getItem( frontier[ getRCLoc( pos ) ] ).compareTo( getItem( frontier[ childPos ] ) ) < 0 ) {
+					childPos = getRCLoc( pos );
+				}
+				// If the child is not smaller than the item, stop moving down.
+				if ( getItem( frontier[ childPos ] ).compareTo( item ) >= 0 ) {
+					break;
+				}
+				frontier[ pos ] = frontier[ childPos ];
+				pos = childPos;
 			}
-			pw.close();
-		} catch ( FileNotFoundException e ) {
-			System.out.println( "Error writing to text file" );
+			frontier[ pos ] = index;
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,163 @@
+import java.util.Collection;
+
+import javax.swing.AbstractListModel;
+
+/**
+ * ListModel that shows the contents of a Heap in sorted order.
+ * Follows the heap's mutations and fires a single-row event for each one instead of rebuilding the list.
+ * A name filter can be set, so that only the tasks whose names contain some text are shown.
+ * 
+ * Rows are kept in indexable skip lists, so finding, adding and removing a row, and getting the row at a position,
+ * all take O(log n) instead of shifting an array.
+ */
+public class HeapListModel extends AbstractListModel< Task > implements HeapListener< Task > {
+	/**
+	 * Serialization version, for the Serializable AbstractListModel.
+	 */
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * The items of the heap, kept in sorted order.
+	 */
+	private DueIndex rows;
+	
+	/**
+	 * The rows that are shown: the same index as rows if there is no filter, otherwise the matching rows, in sorted order.
+	 */
+	private DueIndex shown;
+	
+	/**
+	 * Text that shown task names must contain, or null if every task is shown.
+	 */
+	private String filter;
+	
+	/**
+	 * Constructor for the HeapListModel.
+	 * Copies the current contents of the heap and starts listening for changes to it.
+	 * 
+	 * @param h The heap to show.
+	 */
+	public HeapListModel( Heap< Task > h ) {
+		this.rows = new DueIndex();
+		for ( Task t : h.sortedSnapshot() ) {
+			rows.itemAdded( t );
+		}
+		this.shown = rows;
+		h.addHeapListener( this );
+	}
+	
+	@Override
+	public int getSize() {
+		return shown.getSize();
+	}
+	
+	@Override
+	public Task getElementAt( int index ) {
+		return shown.get( index );
+	}
+	
+	/**
+	 * Gets the text that shown task names must contain.
+	 * 
+	 * @return The filter text, or null if every task is shown.
+	 */
+	public String getFilter() {
+		return filter;
+	}
+	
+	/**
+	 * Shows only the tasks whose names contain some text, ignoring case, or shows every task again.
+	 * 
+	 * @param text The text to look for, or null to show every task.
+	 * @param matches An index of every task in the heap whose name contains the text, such as one built from the result
+	 *                of NameIndex.search on the searching thread, so the EDT only swaps it in. Kept up to date from then on.
+	 *                Ignored if text is null.
+	 */
+	public void setFilter( String text, DueIndex matches ) {
+		int oldSize = shown.getSize();
+		filter = text;
+		// If there is a filter, show the index of the matching tasks.
+		shown = text == null ? rows : matches;
+		// Replace every row.
+		if ( oldSize > 0 ) {
+			fireIntervalRemoved( this, 0, oldSize - 1 );
+		}
+		if ( shown.getSize() > 0 ) {
+			fireIntervalAdded( this, 0, shown.getSize() - 1 );
+		}
+	}
+	
+	/**
+	 * Inserts the added item at its sorted position and repaints only that row.
+	 */
+	@Override
+	public void itemAdded( Task item ) {
+		rows.itemAdded( item );
+		// If there is a filter, the item is only shown if it matches.
+		if ( shown != rows ) {
+			if ( !NameIndex.matches( item.getName(), filter, false ) ) {
+				return;
+			}
+			shown.itemAdded( item );
+		}
+		int index = shown.indexOf( item );
+		fireIntervalAdded( this, index, index );
+	}
+	
+	/**
+	 * Inserts a batch of added items at their sorted positions.
+	 */
+	@Override
+	public void itemsAdded( Collection< ? extends Task > items ) {
+		// If there are no items, there is nothing to do.
+		if ( items.isEmpty() ) {
+			return;
+		}
+		int oldSize = shown.getSize();
+		boolean filtered = shown != rows;
+		for ( Task t : items ) {
+			rows.itemAdded( t );
+			// If there is a filter, add only the matching items to the shown rows.
+			if ( filtered && NameIndex.matches( t.getName(), filter, false ) ) {
+				shown.itemAdded( t );
+			}
+		}
+		// If nothing was added to the shown rows, there is nothing to repaint.
+		if ( shown.getSize() == oldSize ) {
+			return;
+		}
+		// The old rows may have shifted, and new rows were added at the end.
+		if ( oldSize > 0 ) {
+			fireContentsChanged( this, 0, oldSize - 1 );
+		}
+		fireIntervalAdded( this, oldSize, shown.getSize() - 1 );
+	}
+	
+	/**
+	 * Removes the item from its sorted position and repaints only that row.
+	 */
+	@Override
+	public void itemRemoved( Task item ) {
+		int index = indexOf( item );
+		rows.itemRemoved( item );
+		// If there is a filter, remove the item from the shown rows too.
+		if ( shown != rows ) {
+			shown.itemRemoved( item );
+		}
+		// If the item was shown, repaint only its row.
+		if ( index >= 0 ) {
+			fireIntervalRemoved( this, index, index );
+		}
+	}
+	
+	/**
+	 * Finds the row holding the given item.
+	 * Tasks are ordered by id when everything else is equal, so only the item itself compares equal to it.
+	 * 
+	 * @param item The item to look for.
+	 * @return The row of the item, or -1 if it is not shown.
+	 */
+	public int indexOf( Task item ) {
+		return shown.indexOf( item );
+	}
+}
@@ -0,0 +1,65 @@
+import java.util.Collection;
+
+/**
+ * Receives notifications when items are added to, removed from, rescheduled in or completed in a Heap.
+ * 
+ * @param <T> The type of object stored in the heap.
+ */
+public interface HeapListener < T > {
+	/**
+	 * Called after an item has been added to the heap.
+	 * 
+	 * @param item The item that was added.
+	 */
+	void itemAdded( T item );
+	
+	/**
+	 * Called after a batch of items has been added to the heap at once.
+	 * By default, calls itemAdded for each item.
+	 * 
+	 * @param items The items that were added.
+	 */
+	default void itemsAdded( Collection< ? extends T > items ) {
+		for ( T item : items ) {
+			itemAdded( item );
+		}
+	}
+	
+	/**
+	 * Called after a batch of stored items has been loaded into the heap, such as a partition of tasks due later.
+	 * The items are not new, so a listener that persists changes can ignore them. By default, calls itemsAdded.
+	 * 
+	 * @param items The items that were loaded.
+	 */
+	default void itemsLoaded( Collection< ? extends T > items ) {
+		itemsAdded( items );
+	}
+	
+	/**
+	 * Called after an item has been removed from the heap.
+	 * 
+	 * @param item The item that was removed.
+	 */
+	void itemRemoved( T item );
+	
+	/**
+	 * Called after an item has been replaced by a copy with a new place in the heap, such as a task with a new due date.
+	 * By default, calls itemRemoved for the old item, then itemAdded for the new one.
+	 * 
+	 * @param old The item that was replaced.
+	 * @param item The item that replaced it.
+	 */
+	default void itemRescheduled( T old, T item ) {
+		itemRemoved( old );
+		itemAdded( item );
+	}
+	
+	/**
+	 * Called when an item is completed, before it is removed or replaced by its next occurrence, which is reported as well.
+	 * By default, does nothing.
+	 * 
+	 * @param item The item that was completed.
+	 */
+	default void itemCompleted( T item ) {
+	}
+}
@@ -0,0 +1,182 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values, such as latencies in microseconds or sift depths, with percentiles.
+ * Safe to record into from any thread, without locking.
+ * 
+ * Values are counted in log-linear buckets: every power of two is split into 8 buckets of equal width,
+ * so a percentile is never off by more than an eighth of its value, and the whole range of longs takes 512 counters.
+ */
+public class Histogram {
+	/**
+	 * Number of bits of each value kept below its highest bit. Each power of two is split into 2^SUB_BITS buckets.
+	 */
+	private static final int SUB_BITS = 3;
+	
+	/**
+	 * Number of buckets in each power of two.
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	
+	/**
+	 * Number of values recorded in each bucket.
+	 */
+	private final AtomicLongArray buckets;
+	
+	/**
+	 * Sum of every recorded value.
+	 */
+	private final LongAdder sum;
+	
+	/**
+	 * Largest recorded value.
+	 */
+	private final AtomicLong max;
+	
+	/**
+	 * Creates an empty histogram.
+	 */
+	public Histogram() {
+		this.buckets = new AtomicLongArray( ( 64 - SUB_BITS + 1 ) * SUB_BUCKETS );
+		this.sum = new LongAdder();
+		this.max = new AtomicLong();
+	}
+	
+	/**
+	 * Records a value. Negative values are recorded as 0.
+	 * 
+	 * @param value The value to record.
+	 */
+	public void record( long value ) {
+		value = Math.max( 0, value );
+		buckets.incrementAndGet( bucketOf( value ) );
+		sum.add( value );
+		// Only try to raise the maximum if the value is larger, so most records do not write to it.
+		if ( value > max.get() ) {
+			max.accumulateAndGet( value, Math::max );
+		}
+	}
+	
+	/**
+	 * Records the time since a start time, in microseconds.
+	 * 
+	 * @param startNanos The start time, from System.nanoTime().
+	 */
+	public void recordSince( long startNanos ) {
+		record( ( System.nanoTime() - startNanos ) / 1000 );
+	}
+	
+	/**
+	 * Gets the number of recorded values.
+	 * 
+	 * @return The number of values.
+	 */
+	public long getCount() {
+		long count = 0;
+		for ( int i = 0; i < buckets.length(); i++ ) {
+			count += buckets.get( i );
+		}
+		return count;
+	}
+	
+	/**
+	 * Gets the mean of the recorded values.
+	 * 
+	 * @return The mean, or 0 if nothing has been recorded.
+	 */
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : ( double ) sum.sum() / count;
+	}
+	
+	/**
+	 * Gets the largest recorded value.
+	 * 
+	 * @return The maximum, or 0 if nothing has been recorded.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * Gets a percentile of the recorded values.
+	 * 
+	 * @param p The percentile, from 0 to 100.
+	 * @return The highest value in the bucket holding the percentile, but no more than the maximum, or 0 if nothing has been recorded.
+	 */
+	public long getPercentile( double p ) {
+		long[] counts = new long[ buckets.length() ];
+		long count = 0;
+		for ( int i = 0; i < counts.length; i++ ) {
+			counts[ i ] = buckets.get( i );
+			count += counts[ i ];
+		}
+		long rank = Math.max( 1, ( long ) Math.ceil( p / 100 * count ) );
+		long seen = 0;
+		// Walk the buckets in order until the one holding the ranked value.
+		for ( int i = 0; i < counts.length; i++ ) {
+			seen += counts[ i ];
+			if ( seen >= rank ) {
+				return Math.min( highestIn( i ), getMax() );
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * Forgets every recorded value.
+	 */
+	public void reset() {
+		for ( int i = 0; i < buckets.length(); i++ ) {
+			buckets.set( i, 0 );
+		}
+		sum.reset();
+		max.set( 0 );
+	}
+	
+	/**
+	 * Summarizes the histogram on one line.
+	 * 
+	 * @return The count, mean, 50th, 90th, 99th and 99.9th percentiles, and maximum.
+	 */
+	@Override
+	public String toString() {
+		return String.format( "count=%d mean=%.1f p50=%d p90=%d p99=%d p99.9=%d max=%d", getCount(), getMean(),
+				getPercentile( 50 ), getPercentile( 90 ), getPercentile( 99 ), getPercentile( 99.9 ), getMax() );
+	}
+	
+	/**
+	 * Finds the bucket of a value.
+	 * 
+	 * @param value The value, not negative.
+	 * @return The index of its bucket.
+	 */
+	private static int bucketOf( long value ) {
+		// If the value is small, it has a bucket of its own.
+		if ( value < SUB_BUCKETS ) {
+			return ( int ) value;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros( value );		// Position of the highest bit.
+		int sub = ( int ) ( value >>> ( exp - SUB_BITS ) ) & ( SUB_BUCKETS - 1 );
+		return ( exp - SUB_BITS + 1 ) * SUB_BUCKETS + sub;
+	}
+	
+	/**
+	 * Finds the highest value that falls in a bucket.
+	 * 
+	 * @param bucket The index of the bucket.
+	 * @return The highest value in it.
+	 */
+	private static long highestIn( int bucket ) {
+		// If the bucket holds a single small value, that is the highest.
+		if ( bucket < SUB_BUCKETS ) {
+			return bucket;
+		}
+		int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long width = 1L << ( exp - SUB_BITS );
+		long lowest = ( SUB_BUCKETS + bucket % SUB_BUCKETS ) * width;
+		return lowest + width - 1;
+	}
+}
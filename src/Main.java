@@ -1,7 +1,33 @@
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.SwingUtilities;
+
 public class Main {
-	public static void main(String[] args) {
-		Heap < Task > h = new Heap < Task >();	// New heap object.
+	public static void main(String[] args) throws IOException {
+		String mode = args.length > 0 ? args[ 0 ] : "";		// --batch [file] runs commands, --serve [port] runs the server, both without a window.
+		// If running without a window, keep AWT from looking for a display.
+		if ( mode.equals( "--batch" ) || mode.equals( "--serve" ) ) {
+			System.setProperty( "java.awt.headless", "true" );
+		}
+		Heap < Task > h = new Heap < Task >( false );	// New heap object. The Window, BatchRunner or server loads it.
+		Metrics.get().gauge( "heap.size", h::getSize );	// Report the size of the heap with the other metrics.
+		Metrics.get().register();						// Make the metrics readable over JMX.
 		
-		new Window( h );						// New Window object.
+		// If running in batch mode, run the commands from the file or standard input and exit with their status.
+		if ( mode.equals( "--batch" ) ) {
+			System.exit( BatchRunner.runBatch( h, args.length > 1 ? args[ 1 ] : "-" ) );
+		}
+		// If running the server, load the heap and serve it until the process is stopped. One thread makes every change.
+		if ( mode.equals( "--serve" ) ) {
+			ExecutorService writer = Executors.newSingleThreadExecutor( r -> new Thread( r, "task-writer" ) );
+			CompletableFuture.runAsync( h::loadHeap, writer ).join();
+			TaskServer server = new TaskServer( h, writer, args.length > 1 ? Integer.parseInt( args[ 1 ] ) : TaskServer.DEFAULT_PORT );
+			System.out.println( "Serving tasks on http://localhost:" + server.getPort() + "/tasks/" );
+			return;
+		}
+		SwingUtilities.invokeLater( () -> new Window( h ) );	// New Window object.
 	}
 }
@@ -0,0 +1,160 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Registry of the operational metrics of the task list: counters, gauges and histograms, each with a dotted name.
+ * Counters are LongAdders and histograms record without locking, so updating them from the heap and the EDT is cheap.
+ * 
+ * The metrics can be read over JMX, through MetricsMXBean, or written to a text file with dumpToFile.
+ * If the tasklist.metrics.dump system property is set, they are also written to that file when the program exits.
+ */
+public class Metrics implements MetricsMXBean {
+	/**
+	 * Name the metrics are registered under with the platform MBean server.
+	 */
+	public static final String OBJECT_NAME = "tasklist:type=Metrics";
+	
+	/**
+	 * Registry shared by the whole program.
+	 */
+	private static final Metrics shared = new Metrics();
+	
+	/**
+	 * Every counter, by name.
+	 */
+	private final Map< String, LongAdder > counters;
+	
+	/**
+	 * Every gauge, by name.
+	 */
+	private final Map< String, LongSupplier > gauges;
+	
+	/**
+	 * Every histogram, by name.
+	 */
+	private final Map< String, Histogram > histograms;
+	
+	/**
+	 * Creates an empty registry.
+	 */
+	public Metrics() {
+		this.counters = new ConcurrentHashMap< String, LongAdder >();
+		this.gauges = new ConcurrentHashMap< String, LongSupplier >();
+		this.histograms = new ConcurrentHashMap< String, Histogram >();
+	}
+	
+	/**
+	 * Gets the registry shared by the whole program.
+	 * 
+	 * @return The shared registry.
+	 */
+	public static Metrics get() {
+		return shared;
+	}
+	
+	/**
+	 * Gets a counter, creating it if it is new.
+	 * 
+	 * @param name The name of the counter.
+	 * @return The counter.
+	 */
+	public LongAdder counter( String name ) {
+		return counters.computeIfAbsent( name, n -> new LongAdder() );
+	}
+	
+	/**
+	 * Gets a histogram, creating it if it is new.
+	 * 
+	 * @param name The name of the histogram. Names of histograms of times end in their unit, such as ".us".
+	 * @return The histogram.
+	 */
+	public Histogram histogram( String name ) {
+		return histograms.computeIfAbsent( name, n -> new Histogram() );
+	}
+	
+	/**
+	 * Adds a gauge, replacing any gauge with the same name.
+	 * 
+	 * @param name The name of the gauge.
+	 * @param value Reads the current value of the gauge. Called from the thread reading the metrics.
+	 */
+	public void gauge( String name, LongSupplier value ) {
+		gauges.put( name, value );
+	}
+	
+	/**
+	 * Registers this registry with the platform MBean server, and arranges for the metrics to be written out
+	 * when the program exits if the tasklist.metrics.dump system property names a file.
+	 */
+	public void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean( this, new ObjectName( OBJECT_NAME ) );
+		} catch ( JMException e ) {
+			System.out.println( "Error registering metrics: " + e.getMessage() );
+		}
+		String dump = System.getProperty( "tasklist.metrics.dump" );
+		// If a dump file was asked for, write it on exit.
+		if ( dump != null ) {
+			Runtime.getRuntime().addShutdownHook( new Thread( () -> {
+				try {
+					dumpToFile( dump );
+				} catch ( IOException e ) {
+					System.out.println( "Error writing metrics: " + e.getMessage() );
+				}
+			}, "metrics-dump" ) );
+		}
+	}
+	
+	@Override
+	public Map< String, Long > getCounters() {
+		Map< String, Long > values = new TreeMap< String, Long >();
+		counters.forEach( ( name, c ) -> values.put( name, c.sum() ) );
+		return values;
+	}
+	
+	@Override
+	public Map< String, Long > getGauges() {
+		Map< String, Long > values = new TreeMap< String, Long >();
+		gauges.forEach( ( name, g ) -> values.put( name, g.getAsLong() ) );
+		return values;
+	}
+	
+	@Override
+	public Map< String, String > getHistograms() {
+		Map< String, String > values = new TreeMap< String, String >();
+		histograms.forEach( ( name, h ) -> values.put( name, h.toString() ) );
+		return values;
+	}
+	
+	/**
+	 * Writes every metric to a text file, one "kind name value" line per metric, in name order.
+	 */
+	@Override
+	public void dumpToFile( String path ) throws IOException {
+		try ( PrintWriter out = new PrintWriter( new File( path ), "UTF-8" ) ) {
+			getCounters().forEach( ( name, value ) -> out.println( "counter " + name + " " + value ) );
+			getGauges().forEach( ( name, value ) -> out.println( "gauge " + name + " " + value ) );
+			getHistograms().forEach( ( name, value ) -> out.println( "histogram " + name + " " + value ) );
+			// PrintWriter hides write errors, so check for one before reporting success.
+			if ( out.checkError() ) {
+				throw new IOException( "Error writing " + path );
+			}
+		}
+	}
+	
+	@Override
+	public void reset() {
+		counters.values().forEach( LongAdder::reset );
+		histograms.values().forEach( Histogram::reset );
+	}
+}
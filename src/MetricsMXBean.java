@@ -0,0 +1,42 @@
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Management interface of the Metrics, registered with the platform MBean server as "tasklist:type=Metrics"
+ * so it can be read with JConsole or any other JMX client.
+ */
+public interface MetricsMXBean {
+	/**
+	 * Gets the value of every counter.
+	 * 
+	 * @return The counters, by name.
+	 */
+	Map< String, Long > getCounters();
+	
+	/**
+	 * Gets the current value of every gauge.
+	 * 
+	 * @return The gauges, by name.
+	 */
+	Map< String, Long > getGauges();
+	
+	/**
+	 * Gets a summary of every histogram.
+	 * 
+	 * @return The count, mean, percentiles and maximum of each histogram, by name.
+	 */
+	Map< String, String > getHistograms();
+	
+	/**
+	 * Writes every metric to a text file, one per line.
+	 * 
+	 * @param path The path of the file to write.
+	 * @throws IOException If the file cannot be written.
+	 */
+	void dumpToFile( String path ) throws IOException;
+	
+	/**
+	 * Resets every counter and histogram to zero.
+	 */
+	void reset();
+}
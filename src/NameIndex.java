@@ -0,0 +1,400 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Search index over the names of the tasks in a heap, for prefix and substring queries.
+ * The index follows the heap as a HeapListener, so it stays in sync with every add, complete and postpone.
+ * 
+ * Every suffix of every distinct name is kept in a sorted set, in lower case. The names containing a query are
+ * the ones with a suffix that starts with it, and those suffixes are next to each other in the set, so a query
+ * costs one O(log n) seek plus the matches, no matter how many tasks there are. Each distinct name also keeps
+ * its tasks in heap order, and the tasks of the matching names are merged to answer a query.
+ * 
+ * Changes from the heap are queued and applied under the index lock, which the listener methods only try to take.
+ * So a long search on another thread never blocks the thread changing the heap: its changes wait in the queue,
+ * and are applied by the search once it is done, or by the next change or search.
+ */
+public class NameIndex implements HeapListener< Task > {
+	/**
+	 * The tasks with each distinct name, in heap order.
+	 */
+	private final Map< NameTable.Entry, TreeSet< Task > > tasksByName;
+	
+	/**
+	 * Every suffix of every distinct name, in order.
+	 */
+	private final TreeSet< Suffix > suffixes;
+	
+	/**
+	 * Changes from the heap that have not been applied to the index yet, in the order they were made.
+	 */
+	private final ConcurrentLinkedQueue< Change > changes;
+	
+	/**
+	 * Guards the index. Held by searches and while queued changes are applied.
+	 */
+	private final ReentrantLock lock;
+	
+	/**
+	 * Counts changes to the heap seen by the index, applied or not, so callers can tell if a result they got earlier is out of date.
+	 */
+	private final AtomicInteger modCount;
+	
+	/**
+	 * Constructor for the NameIndex.
+	 * Indexes every task already in the heap, and starts following changes to the heap.
+	 * 
+	 * @param h The heap to index.
+	 */
+	public NameIndex( Heap< Task > h ) {
+		this.tasksByName = new HashMap< NameTable.Entry, TreeSet< Task > >();
+		this.suffixes = new TreeSet< Suffix >();
+		this.changes = new ConcurrentLinkedQueue< Change >();
+		this.lock = new ReentrantLock();
+		this.modCount = new AtomicInteger();
+		h.sortedStream().forEach( this::itemAdded );
+		h.addHeapListener( this );
+	}
+	
+	/**
+	 * Gets the number of changes made to the heap since the index was made. Never blocks.
+	 * A search that starts after reading the count sees at least those changes.
+	 * 
+	 * @return The change count.
+	 */
+	public int getModCount() {
+		return modCount.get();
+	}
+	
+	/**
+	 * Gets the number of distinct names in the index.
+	 * 
+	 * @return The number of distinct names.
+	 */
+	public int getNameCount() {
+		lock.lock();
+		try {
+			applyChanges();
+			return tasksByName.size();
+		} finally {
+			unlock();
+		}
+	}
+	
+	/**
+	 * Finds the tasks whose names match a query, ignoring case.
+	 * 
+	 * @param query The text to look for.
+	 * @param prefix True to match names that start with the query, false to match names that contain it anywhere.
+	 * @param limit The most tasks to return.
+	 * @return Up to limit matching tasks, in heap order.
+	 */
+	public List< Task > search( String query, boolean prefix, int limit ) {
+		lock.lock();
+		try {
+			applyChanges();
+			return find( key( query ), prefix, limit );
+		} finally {
+			unlock();
+		}
+	}
+	
+	/**
+	 * Finds the tasks whose names match a query. Call with the lock held.
+	 * 
+	 * @param key The text to look for, in the form it is indexed in.
+	 * @param prefix True to match names that start with the query, false to match names that contain it anywhere.
+	 * @param limit The most tasks to return.
+	 * @return Up to limit matching tasks, in heap order.
+	 */
+	private List< Task > find( String key, boolean prefix, int limit ) {
+		// Start a cursor on the tasks of every name with a suffix that starts with the query.
+		PriorityQueue< Cursor > cursors = new PriorityQueue< Cursor >();
+		Set< NameTable.Entry > matched = new HashSet< NameTable.Entry >();
+		for ( Suffix s : suffixes.tailSet( new Suffix( key, 0, null ), true ) ) {
+			// Stop at the first suffix that does not start with the query.
+			if ( !s.text.startsWith( key, s.offset ) ) {
+				break;
+			}
+			// A name can contain the query more than once, but only needs one cursor.
+			if ( ( !prefix || s.offset == 0 ) && matched.add( s.entry ) ) {
+				cursors.add( new Cursor( tasksByName.get( s.entry ).iterator() ) );
+			}
+		}
+		List< Task > tasks = new ArrayList< Task >();
+		// Merge the tasks of the matching names, taking the earliest task of any name each time.
+		while ( !cursors.isEmpty() && tasks.size() < limit ) {
+			Cursor c = cursors.poll();
+			tasks.add( c.current );
+			if ( c.advance() ) {
+				cursors.add( c );
+			}
+		}
+		return tasks;
+	}
+	
+	/**
+	 * Checks if a name matches a query, ignoring case, the same way search does.
+	 * 
+	 * @param name The name to check.
+	 * @param query The text to look for.
+	 * @param prefix True to check if the name starts with the query, false to check if it contains it.
+	 * @return True if the name matches, false otherwise.
+	 */
+	public static boolean matches( String name, String query, boolean prefix ) {
+		String key = key( query );
+		return prefix ? key( name ).startsWith( key ) : key( name ).contains( key );
+	}
+	
+	/**
+	 * Queues the task to be added, and adds it now unless a search is running.
+	 */
+	@Override
+	public void itemAdded( Task item ) {
+		changes.add( new Change( item, true ) );
+		modCount.incrementAndGet();
+		tryApplyChanges();
+	}
+	
+	/**
+	 * Queues the task to be removed, and removes it now unless a search is running.
+	 */
+	@Override
+	public void itemRemoved( Task item ) {
+		changes.add( new Change( item, false ) );
+		modCount.incrementAndGet();
+		tryApplyChanges();
+	}
+	
+	/**
+	 * Applies the queued changes if the lock is free. Otherwise leaves them for whoever holds the lock.
+	 */
+	private void tryApplyChanges() {
+		// If a search holds the lock, it applies the changes when it is done.
+		if ( lock.tryLock() ) {
+			try {
+				applyChanges();
+			} finally {
+				unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Applies every queued change, in order. Call with the lock held.
+	 */
+	private void applyChanges() {
+		Change c;
+		while ( ( c = changes.poll() ) != null ) {
+			if ( c.added ) {
+				add( c.item );
+			} else {
+				remove( c.item );
+			}
+		}
+	}
+	
+	/**
+	 * Releases the lock, then takes it back to apply any change queued while it was held,
+	 * so no change is left in the queue with nobody to apply it.
+	 */
+	private void unlock() {
+		lock.unlock();
+		// If a change was queued while the lock was held and the lock is free, apply it.
+		while ( !changes.isEmpty() && lock.tryLock() ) {
+			try {
+				applyChanges();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Adds a task to the tasks of its name, and indexes the name if it is new. Call with the lock held.
+	 * 
+	 * @param item The task to add.
+	 */
+	private void add( Task item ) {
+		NameTable.Entry entry = item.getNameEntry();
+		TreeSet< Task > tasks = tasksByName.get( entry );
+		// If no other task has this name, index every suffix of it.
+		if ( tasks == null ) {
+			tasks = new TreeSet< Task >();
+			tasksByName.put( entry, tasks );
+			String text = key( entry.getName() );
+			for ( int i = 0; i < text.length(); i++ ) {
+				suffixes.add( new Suffix( text, i, entry ) );
+			}
+		}
+		tasks.add( item );
+	}
+	
+	/**
+	 * Removes a task from the tasks of its name, and drops the name if no task has it any more. Call with the lock held.
+	 * 
+	 * @param item The task to remove.
+	 */
+	private void remove( Task item ) {
+		NameTable.Entry entry = item.getNameEntry();
+		TreeSet< Task > tasks = tasksByName.get( entry );
+		// If the task is not in the index, there is nothing to remove.
+		if ( tasks == null || !tasks.remove( item ) ) {
+			return;
+		}
+		// If that was the last task with this name, drop every suffix of it.
+		if ( tasks.isEmpty() ) {
+			tasksByName.remove( entry );
+			String text = key( entry.getName() );
+			for ( int i = 0; i < text.length(); i++ ) {
+				suffixes.remove( new Suffix( text, i, entry ) );
+			}
+		}
+	}
+	
+	/**
+	 * Converts a name or query to the form it is indexed in.
+	 * 
+	 * @param s The name or query.
+	 * @return The lower case form.
+	 */
+	private static String key( String s ) {
+		return s.toLowerCase( Locale.ROOT );
+	}
+	
+	/**
+	 * One suffix of an indexed name.
+	 * Suffixes are ordered by their text, then by the id of their name, then by where they start in the name.
+	 */
+	private static class Suffix implements Comparable< Suffix > {
+		/**
+		 * The whole name, in lower case.
+		 */
+		private final String text;
+		/**
+		 * Where the suffix starts in the name.
+		 */
+		private final int offset;
+		/**
+		 * The name, or null for a query, which comes before every suffix with the same text.
+		 */
+		private final NameTable.Entry entry;
+		
+		/**
+		 * Constructor for a Suffix.
+		 * 
+		 * @param text The whole name, in lower case.
+		 * @param offset Where the suffix starts in the name.
+		 * @param entry The name, or null for a query.
+		 */
+		Suffix( String text, int offset, NameTable.Entry entry ) {
+			this.text = text;
+			this.offset = offset;
+			this.entry = entry;
+		}
+		
+		/**
+		 * Compares the text of two suffixes character by character, without copying them out of their names.
+		 */
+		@Override
+		public int compareTo( Suffix s ) {
+			int len = Math.min( text.length() - offset, s.text.length() - s.offset );
+			for ( int i = 0; i < len; i++ ) {
+				char a = text.charAt( offset + i );
+				char b = s.text.charAt( s.offset + i );
+				if ( a != b ) {
+					return a - b;
+				}
+			}
+			int compared = ( text.length() - offset ) - ( s.text.length() - s.offset );
+			// If the texts are the same, a query comes first, then names in id order.
+			if ( compared != 0 ) {
+				return compared;
+			} else if ( entry == null || s.entry == null ) {
+				return entry == s.entry ? 0 : entry == null ? -1 : 1;
+			} else if ( entry != s.entry ) {
+				return Integer.compare( entry.getId(), s.entry.getId() );
+			}
+			return Integer.compare( offset, s.offset );
+		}
+	}
+	
+	/**
+	 * A change from the heap waiting to be applied to the index.
+	 */
+	private static class Change {
+		/**
+		 * The task added or removed.
+		 */
+		private final Task item;
+		/**
+		 * True if the task was added, false if it was removed.
+		 */
+		private final boolean added;
+		
+		/**
+		 * Constructor for a Change.
+		 * 
+		 * @param item The task added or removed.
+		 * @param added True if the task was added, false if it was removed.
+		 */
+		Change( Task item, boolean added ) {
+			this.item = item;
+			this.added = added;
+		}
+	}
+	
+	/**
+	 * Walks the tasks of one matching name during a search, ordered by its current task.
+	 */
+	private static class Cursor implements Comparable< Cursor > {
+		/**
+		 * The tasks of the name after the current one.
+		 */
+		private final Iterator< Task > rest;
+		/**
+		 * The next task of the name to be merged.
+		 */
+		private Task current;
+		
+		/**
+		 * Constructor for a Cursor.
+		 * 
+		 * @param tasks The tasks of the name, in heap order. There must be at least one.
+		 */
+		Cursor( Iterator< Task > tasks ) {
+			this.rest = tasks;
+			this.current = tasks.next();
+		}
+		
+		/**
+		 * Moves to the next task of the name.
+		 * 
+		 * @return True if there was another task, false if the name has no tasks left.
+		 */
+		boolean advance() {
+			// If there are tasks left, move to the next one.
+			if ( rest.hasNext() ) {
+				current = rest.next();
+				return true;
+			}
+			return false;
+		}
+		
+		@Override
+		public int compareTo( Cursor c ) {
+			return current.compareTo( c.current );
+		}
+	}
+}
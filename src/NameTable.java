@@ -0,0 +1,342 @@
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Dictionary of task names. Each distinct name is stored once, as an Entry shared by every Task with that name,
+ * and is given a compact int id and a collation rank.
+ * 
+ * Ranks follow the natural String order of the names, so two entries from the same table are ordered by
+ * comparing two longs instead of two Strings. New names are given a rank halfway between their neighbours;
+ * when there is no room left between two neighbours, every rank is renumbered with even gaps.
+ * 
+ * In weak mode, entries that no Task uses any more are dropped from the table and their ids are reused,
+ * so long running programs do not keep the names of every task they have ever seen.
+ */
+public class NameTable {
+	/**
+	 * Gap between the ranks of neighbouring names after renumbering, and between a new first or last name and its neighbour.
+	 */
+	private static final long RANK_GAP = 1L << 32;
+	
+	/**
+	 * Table shared by every Task.
+	 */
+	private static final NameTable shared = new NameTable( true );
+	
+	/**
+	 * True if unused entries are dropped.
+	 */
+	private final boolean weak;
+	
+	/**
+	 * Every live entry, keyed and ordered by name.
+	 */
+	private final TreeMap< String, EntryRef > entries;
+	
+	/**
+	 * Entries indexed by id, which keeps them reachable in strong mode. Null in weak mode.
+	 */
+	private final List< Entry > strong;
+	
+	/**
+	 * Receives the references of dropped entries in weak mode.
+	 */
+	private final ReferenceQueue< Entry > dropped;
+	
+	/**
+	 * Ids of dropped entries, waiting to be reused.
+	 */
+	private int[] freeIds;
+	
+	/**
+	 * Number of ids in freeIds.
+	 */
+	private int freeCount;
+	
+	/**
+	 * The id that will be given out next if there are no free ids.
+	 */
+	private int nextId;
+	
+	/**
+	 * Counts renumberings. Odd while a renumbering is in progress, so readers can tell they saw a mix of old and new ranks.
+	 */
+	private volatile int renumbers;
+	
+	/**
+	 * Creates an empty table.
+	 * 
+	 * @param weak True to drop entries that are no longer used, false to keep every entry.
+	 */
+	public NameTable( boolean weak ) {
+		this.weak = weak;
+		this.entries = new TreeMap< String, EntryRef >();
+		this.strong = weak ? null : new ArrayList< Entry >();
+		this.dropped = new ReferenceQueue< Entry >();
+		this.freeIds = new int[ 16 ];
+	}
+	
+	/**
+	 * Gets the table shared by every Task. It is in weak mode.
+	 * 
+	 * @return The shared table.
+	 */
+	public static NameTable getShared() {
+		return shared;
+	}
+	
+	/**
+	 * Checks if the table drops unused entries.
+	 * 
+	 * @return True if the table is in weak mode, false otherwise.
+	 */
+	public boolean isWeak() {
+		return weak;
+	}
+	
+	/**
+	 * Gets the number of live entries.
+	 * 
+	 * @return The number of distinct names in the table.
+	 */
+	public synchronized int getSize() {
+		purge();
+		return entries.size();
+	}
+	
+	/**
+	 * Gets the entry for a name, adding it to the table if it is new.
+	 * 
+	 * @param name The name to look up.
+	 * @return The entry shared by every user of this name.
+	 */
+	public synchronized Entry intern( String name ) {
+		purge();
+		EntryRef ref = entries.get( name );
+		Entry entry = ref == null ? null : ref.get();
+		// If the name is already in the table, return its entry.
+		if ( entry != null ) {
+			return entry;
+		}
+		entry = new Entry( this, name, newId(), rankFor( name ) );
+		// If there is no room for a rank between the neighbours, renumber every entry and try again.
+		if ( entry.rank == Long.MIN_VALUE ) {
+			renumber();
+			entry.rank = rankFor( name );
+		}
+		entries.put( name, new EntryRef( entry, dropped ) );
+		if ( !weak ) {
+			strong.add( entry );
+		}
+		return entry;
+	}
+	
+	/**
+	 * Compares two entries by the natural String order of their names.
+	 * 
+	 * @param a The first entry.
+	 * @param b The second entry.
+	 * @return <0 if a comes first, 0 if they are the same name, >0 if b comes first.
+	 */
+	public static int compare( Entry a, Entry b ) {
+		// If both are the same entry, they are the same name.
+		if ( a == b ) {
+			return 0;
+		}
+		// If the entries are from different tables, their ranks cannot be compared.
+		if ( a.table != b.table ) {
+			return a.name.compareTo( b.name );
+		}
+		NameTable table = a.table;
+		// Read both ranks, and read them again if a renumbering was in progress or happened in between.
+		while ( true ) {
+			int before = table.renumbers;
+			long rankA = a.rank;
+			long rankB = b.rank;
+			if ( ( before & 1 ) == 0 && before == table.renumbers ) {
+				return Long.compare( rankA, rankB );
+			}
+			Thread.onSpinWait();
+		}
+	}
+	
+	/**
+	 * Picks a rank for a new name, between the ranks of the names before and after it.
+	 * 
+	 * @param name The new name.
+	 * @return The rank, or Long.MIN_VALUE if there is no room between the neighbours.
+	 */
+	private long rankFor( String name ) {
+		Entry lower = liveNeighbour( entries.lowerEntry( name ), true );
+		Entry higher = liveNeighbour( entries.higherEntry( name ), false );
+		// If the table is empty, start in the middle of the range.
+		if ( lower == null && higher == null ) {
+			return 0;
+		}
+		// If the name comes first, put it one gap before the next name.
+		if ( lower == null ) {
+			return higher.rank > Long.MIN_VALUE + RANK_GAP ? higher.rank - RANK_GAP : Long.MIN_VALUE;
+		}
+		// If the name comes last, put it one gap after the previous name.
+		if ( higher == null ) {
+			return lower.rank < Long.MAX_VALUE - RANK_GAP ? lower.rank + RANK_GAP : Long.MIN_VALUE;
+		}
+		long mid = lower.rank + ( higher.rank - lower.rank ) / 2;
+		return mid == lower.rank ? Long.MIN_VALUE : mid;
+	}
+	
+	/**
+	 * Finds the nearest live entry, starting at a map entry and walking away from the new name.
+	 * 
+	 * @param e The map entry to start at, or null.
+	 * @param down True to walk towards lower names, false to walk towards higher names.
+	 * @return The nearest live entry, or null if there is none.
+	 */
+	private Entry liveNeighbour( Map.Entry< String, EntryRef > e, boolean down ) {
+		// While there are map entries left, return the first whose entry has not been dropped.
+		while ( e != null ) {
+			Entry entry = e.getValue().get();
+			if ( entry != null ) {
+				return entry;
+			}
+			e = down ? entries.lowerEntry( e.getKey() ) : entries.higherEntry( e.getKey() );
+		}
+		return null;
+	}
+	
+	/**
+	 * Gives every live entry a new rank, in name order, spread evenly over the range of longs.
+	 */
+	private void renumber() {
+		long gap = Math.max( 1, Long.MAX_VALUE / ( entries.size() + 1 ) * 2 );
+		long rank = Long.MIN_VALUE + gap;
+		renumbers++;		// Now odd: readers will retry until the renumbering is done.
+		for ( EntryRef ref : entries.values() ) {
+			Entry entry = ref.get();
+			if ( entry != null ) {
+				entry.rank = rank;
+				rank += gap;
+			}
+		}
+		renumbers++;
+	}
+	
+	/**
+	 * Removes the entries of dropped names, and frees their ids.
+	 */
+	private void purge() {
+		EntryRef ref;
+		// For every dropped entry, remove it from the map if it has not been replaced, and free its id.
+		while ( ( ref = ( EntryRef ) dropped.poll() ) != null ) {
+			if ( entries.get( ref.name ) == ref ) {
+				entries.remove( ref.name );
+			}
+			if ( freeCount == freeIds.length ) {
+				int[] grown = new int[ freeIds.length * 2 ];
+				System.arraycopy( freeIds, 0, grown, 0, freeCount );
+				freeIds = grown;
+			}
+			freeIds[ freeCount++ ] = ref.id;
+		}
+	}
+	
+	/**
+	 * Gets an unused id, reusing a freed one if there is one.
+	 * 
+	 * @return The id.
+	 */
+	private int newId() {
+		return freeCount > 0 ? freeIds[ --freeCount ] : nextId++;
+	}
+	
+	/**
+	 * One distinct name in a NameTable.
+	 */
+	public static class Entry {
+		/**
+		 * The table holding this entry.
+		 */
+		private final NameTable table;
+		/**
+		 * The name.
+		 */
+		private final String name;
+		/**
+		 * Compact id of the name, unique among the live entries of the table.
+		 */
+		private final int id;
+		/**
+		 * Collation rank of the name. Entries of the same table are ordered by rank the same way their names are ordered.
+		 */
+		private volatile long rank;
+		
+		/**
+		 * Constructor for an Entry.
+		 * 
+		 * @param table The table holding the entry.
+		 * @param name The name.
+		 * @param id The id of the name.
+		 * @param rank The collation rank of the name.
+		 */
+		private Entry( NameTable table, String name, int id, long rank ) {
+			this.table = table;
+			this.name = name;
+			this.id = id;
+			this.rank = rank;
+		}
+		
+		/**
+		 * Gets the name.
+		 * 
+		 * @return The name.
+		 */
+		public String getName() {
+			return name;
+		}
+		
+		/**
+		 * Gets the compact id of the name.
+		 * 
+		 * @return The id.
+		 */
+		public int getId() {
+			return id;
+		}
+		
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+	
+	/**
+	 * Reference from the table to an entry. Weak, but the table also holds entries strongly when not in weak mode.
+	 * Remembers the name and id, so they can be cleaned up once the entry is dropped.
+	 */
+	private static class EntryRef extends WeakReference< Entry > {
+		/**
+		 * The name of the entry.
+		 */
+		private final String name;
+		/**
+		 * The id of the entry.
+		 */
+		private final int id;
+		
+		/**
+		 * Constructor for an EntryRef.
+		 * 
+		 * @param entry The entry to refer to.
+		 * @param queue The queue to put this reference on once the entry is dropped.
+		 */
+		EntryRef( Entry entry, ReferenceQueue< Entry > queue ) {
+			super( entry, queue );
+			this.name = entry.name;
+			this.id = entry.id;
+		}
+	}
+}
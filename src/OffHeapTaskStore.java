@@ -0,0 +1,661 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Min heap of tasks kept outside the Java heap, for task lists with many millions of entries.
+ * 
+ * Tasks are fixed-width records in a direct ByteBuffer, and sift operations move and compare the records in place.
+ * Each distinct name is stored once, as UTF-8 bytes in a second direct buffer that serves as a name arena,
+ * and records point into it. An open addressing table of ids, also off-heap, finds a record by id for complete and postpone.
+ * Task objects are only made when a task is read, so the garbage collector only sees a handful of buffers
+ * however many tasks are stored. The only per-name object on the heap is the map used to store each name once.
+ * The rules of repeating tasks are kept apart on the heap, by id, so tasks that do not repeat cost nothing more.
+ * 
+ * Tasks are ordered the same way as Task.compareTo: by due date, then by name, then by id.
+ * 
+ * Direct buffers count against -XX:MaxDirectMemorySize, which defaults to the maximum Java heap size,
+ * so run with a small -Xmx and a large MaxDirectMemorySize. Each task takes 24 bytes, plus 24 bytes of id table.
+ * The name arena only grows: names stay in it after their last task is removed.
+ * 
+ * The store is a standalone prototype. Heap does not use it, and nothing in the application stores tasks in it;
+ * it is measured against Heap by the OffHeapFootprint benchmark.
+ */
+public class OffHeapTaskStore {
+	/**
+	 * Size of a task record in bytes: due date, id, name offset and id table slot.
+	 */
+	private static final int RECORD = 24;
+	
+	/**
+	 * Offset of the due date in a record.
+	 */
+	private static final int DUE = 0;
+	
+	/**
+	 * Offset of the id in a record.
+	 */
+	private static final int ID = 8;
+	
+	/**
+	 * Offset of the name's position in the name arena in a record.
+	 */
+	private static final int NAME = 16;
+	
+	/**
+	 * Offset of the record's slot in the id table in a record.
+	 */
+	private static final int SLOT = 20;
+	
+	/**
+	 * Size of an id table slot in bytes: the id, and the position of its record plus one, or 0 if the slot is empty.
+	 */
+	private static final int ENTRY = 12;
+	
+	/**
+	 * Initial number of records.
+	 */
+	private static final int DEFAULT_CAPACITY = 1024;
+	
+	/**
+	 * Most records the store can hold, so the id table still fits in a single buffer.
+	 */
+	private static final int MAX_CAPACITY = 1 << 26;
+	
+	/**
+	 * The task records, in heap order.
+	 */
+	private ByteBuffer records;
+	
+	/**
+	 * Number of records the buffer can hold.
+	 */
+	private int capacity;
+	
+	/**
+	 * Number of stored tasks.
+	 */
+	private int size;
+	
+	/**
+	 * The id table, with twice as many slots as there can be records so probes stay short.
+	 */
+	private ByteBuffer ids;
+	
+	/**
+	 * Number of slots in the id table, a power of two.
+	 */
+	private int slots;
+	
+	/**
+	 * Every distinct name, each as a two byte length followed by its UTF-8 bytes.
+	 */
+	private ByteBuffer names;
+	
+	/**
+	 * Number of bytes used in the name arena.
+	 */
+	private int namesUsed;
+	
+	/**
+	 * Position of each distinct name in the name arena.
+	 */
+	private final Map< String, Integer > nameOffsets;
+	
+	/**
+	 * Rule of each stored task that repeats, by task id.
+	 */
+	private final Map< Long, Recurrence > rules;
+	
+	/**
+	 * Default constructor. Creates an empty store.
+	 */
+	public OffHeapTaskStore() {
+		this( DEFAULT_CAPACITY );
+	}
+	
+	/**
+	 * Creates an empty store with room for the given number of tasks.
+	 * 
+	 * @param capacity The number of tasks to make room for.
+	 */
+	public OffHeapTaskStore( int capacity ) {
+		this.capacity = Math.max( 16, Math.min( capacity, MAX_CAPACITY ) );
+		this.records = allocate( ( long ) this.capacity * RECORD );
+		this.slots = Integer.highestOneBit( this.capacity - 1 ) << 2;
+		this.ids = allocate( ( long ) slots * ENTRY );
+		this.names = allocate( 1 << 16 );
+		this.nameOffsets = new HashMap< String, Integer >();
+		this.rules = new HashMap< Long, Recurrence >();
+	}
+	
+	/**
+	 * Get the number of stored tasks.
+	 * 
+	 * @return The number of stored tasks.
+	 */
+	public int getSize() {
+		return size;
+	}
+	
+	/**
+	 * Checks if the store has no tasks.
+	 * 
+	 * @return True if the store has no tasks, false otherwise.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Gets the number of bytes of direct memory held by the store.
+	 * 
+	 * @return The capacity of the record, id table and name buffers, in bytes.
+	 */
+	public long getOffHeapBytes() {
+		return ( long ) records.capacity() + ids.capacity() + names.capacity();
+	}
+	
+	/**
+	 * Adds a task to the store, keeping its id and, if it repeats, its rule.
+	 * 
+	 * @param t The task to add.
+	 * @throws IllegalArgumentException If a task with the same id is already stored.
+	 */
+	public void addItem( Task t ) {
+		// If the task is already stored, adding it again would leave two records with one id.
+		if ( findSlot( t.getId() ) >= 0 ) {
+			throw new IllegalArgumentException( "Task already stored: " + t.getId() );
+		}
+		ensureCapacity( size + 1 );
+		int index = size++;
+		writeRecord( index, t.getDue(), t.getId(), nameOffset( t.getName() ), insertId( t.getId(), index ) );
+		keepRule( t );
+		siftUp( index );
+	}
+	
+	/**
+	 * Adds a batch of tasks to the store.
+	 * If the batch is large compared to the store, the whole heap is rebuilt bottom-up in O(n). Otherwise, each task is moved up to its place.
+	 * 
+	 * @param tasks The tasks to add.
+	 * @throws IllegalArgumentException If a task with the same id as one of the tasks is already stored.
+	 */
+	public void addAll( Collection< ? extends Task > tasks ) {
+		int oldSize = size;
+		ensureCapacity( size + tasks.size() );
+		// Append every task to the end of the records.
+		for ( Task t : tasks ) {
+			if ( findSlot( t.getId() ) >= 0 ) {
+				throw new IllegalArgumentException( "Task already stored: " + t.getId() );
+			}
+			int index = size++;
+			writeRecord( index, t.getDue(), t.getId(), nameOffset( t.getName() ), insertId( t.getId(), index ) );
+			keepRule( t );
+		}
+		// If moving each new task up costs less than rebuilding, move each one up. Otherwise, rebuild the heap.
+		if ( ( long ) tasks.size() * ( 32 - Integer.numberOfLeadingZeros( size ) ) < size ) {
+			for ( int i = oldSize; i < size; i++ ) {
+				siftUp( i );
+			}
+		} else {
+			for ( int i = ( size / 2 ) - 1; i >= 0; i-- ) {
+				siftDown( i );
+			}
+		}
+	}
+	
+	/**
+	 * Checks if a task is stored.
+	 * 
+	 * @param id The id of the task.
+	 * @return True if the task is stored, false otherwise.
+	 */
+	public boolean contains( long id ) {
+		return findSlot( id ) >= 0;
+	}
+	
+	/**
+	 * Gets a stored task.
+	 * 
+	 * @param id The id of the task.
+	 * @return A new Task with the stored id, name, due date and rule, or null if the task is not stored.
+	 */
+	public Task get( long id ) {
+		int slot = findSlot( id );
+		return slot < 0 ? null : readTask( positionOf( slot ) );
+	}
+	
+	/**
+	 * Gets the due time of the earliest task.
+	 * 
+	 * @return The due date of the earliest task in epoch minutes.
+	 */
+	public long peekDue() {
+		checkNotEmpty();
+		return records.getLong( DUE );
+	}
+	
+	/**
+	 * Get the earliest task as a Task object.
+	 * 
+	 * @return A new Task with the earliest task's id, name, due date and rule.
+	 */
+	public Task getCurrent() {
+		checkNotEmpty();
+		return readTask( 0 );
+	}
+	
+	/**
+	 * Removes the earliest task and returns it as a Task object.
+	 * 
+	 * @return A new Task with the removed task's id, name, due date and rule.
+	 */
+	public Task removeItem() {
+		Task current = getCurrent();
+		removeAt( 0 );
+		return current;
+	}
+	
+	/**
+	 * Removes a task from anywhere in the store.
+	 * 
+	 * @param id The id of the task to remove.
+	 * @return A new Task with the removed task's id, name, due date and rule, or null if the task was not stored.
+	 */
+	public Task remove( long id ) {
+		int slot = findSlot( id );
+		// If the task is not stored, there is nothing to remove.
+		if ( slot < 0 ) {
+			return null;
+		}
+		int index = positionOf( slot );
+		Task removed = readTask( index );
+		removeAt( index );
+		return removed;
+	}
+	
+	/**
+	 * Changes the due date of a task and moves it to its new place.
+	 * 
+	 * @param id The id of the task.
+	 * @param newDue The new due date, in epoch minutes.
+	 * @return True if the task was moved, false if it is not stored.
+	 */
+	public boolean reschedule( long id, long newDue ) {
+		int slot = findSlot( id );
+		// If the task is not stored, there is nothing to move.
+		if ( slot < 0 ) {
+			return false;
+		}
+		int index = positionOf( slot );
+		records.putLong( index * RECORD + DUE, newDue );
+		// If the task now comes before its parent, move it up. Otherwise, move it down.
+		if ( index > 0 && compare( index, ( index - 1 ) / 2 ) < 0 ) {
+			siftUp( index );
+		} else {
+			siftDown( index );
+		}
+		return true;
+	}
+	
+	/**
+	 * Removes the record at an index, moving the last record into its place.
+	 * 
+	 * @param index The index of the record to remove.
+	 */
+	private void removeAt( int index ) {
+		// If rules are kept, drop the removed task's rule.
+		if ( !rules.isEmpty() ) {
+			rules.remove( records.getLong( index * RECORD + ID ) );
+		}
+		deleteId( records.getInt( index * RECORD + SLOT ) );
+		size--;
+		// If the removed record was not the last one, move the last one into its place and restore the heap.
+		if ( index < size ) {
+			moveRecord( size, index );
+			if ( index > 0 && compare( index, ( index - 1 ) / 2 ) < 0 ) {
+				siftUp( index );
+			} else {
+				siftDown( index );
+			}
+		}
+	}
+	
+	/**
+	 * Moves the record at an index up until its parent does not come after it.
+	 * 
+	 * @param index The index of the record.
+	 */
+	private void siftUp( int index ) {
+		// While the record is not the root and comes before its parent, swap them.
+		while ( index > 0 ) {
+			int parent = ( index - 1 ) / 2;
+			if ( compare( index, parent ) >= 0 ) {
+				break;
+			}
+			swap( index, parent );
+			index = parent;
+		}
+	}
+	
+	/**
+	 * Moves the record at an index down until neither child comes before it.
+	 * 
+	 * @param index The index of the record.
+	 */
+	private void siftDown( int index ) {
+		int half = size / 2;		// Indexes at or past this one have no children.
+		while ( index < half ) {
+			int child = ( 2 * index ) + 1;
+			int right = child + 1;
+			// If the right child comes before the left child, use the right child.
+			if ( right < size && compare( right, child ) < 0 ) {
+				child = right;
+			}
+			// If the record does not come after the child, stop moving down.
+			if ( compare( index, child ) <= 0 ) {
+				break;
+			}
+			swap( index, child );
+			index = child;
+		}
+	}
+	
+	/**
+	 * Compares two records the same way Task.compareTo compares tasks: by due date, then by name, then by id.
+	 * 
+	 * @param a The index of the first record.
+	 * @param b The index of the second record.
+	 * @return <0 if the first record comes first, 0 if they are the same task, >0 if the second record comes first.
+	 */
+	private int compare( int a, int b ) {
+		long dueA = records.getLong( a * RECORD + DUE );
+		long dueB = records.getLong( b * RECORD + DUE );
+		// If due times are not the same, compare by due time.
+		if ( dueA != dueB ) {
+			return dueA < dueB ? -1 : 1;
+		}
+		int nameA = records.getInt( a * RECORD + NAME );
+		int nameB = records.getInt( b * RECORD + NAME );
+		// Names are stored once, so records with the same name have the same offset.
+		if ( nameA != nameB ) {
+			return compareNames( nameA, nameB );
+		}
+		return Long.compare( records.getLong( a * RECORD + ID ), records.getLong( b * RECORD + ID ) );
+	}
+	
+	/**
+	 * Compares two different names in the arena in the natural String order, without decoding them.
+	 * UTF-8 bytes sort in code point order. String order is by UTF-16 units, which only differs for characters
+	 * from U+E000 to U+FFFF, which come after every supplementary character in UTF-16 but before them in code point order.
+	 * Their lead bytes are 0xEE and 0xEF, so they are moved past the lead bytes of supplementary characters.
+	 * 
+	 * @param a The offset of the first name.
+	 * @param b The offset of the second name.
+	 * @return <0 if the first name comes first, >0 if the second name comes first, 0 if they are equal.
+	 */
+	private int compareNames( int a, int b ) {
+		int lenA = names.getShort( a ) & 0xFFFF;
+		int lenB = names.getShort( b ) & 0xFFFF;
+		int len = Math.min( lenA, lenB );
+		// Compare the names byte by byte until they differ.
+		for ( int i = 0; i < len; i++ ) {
+			int x = names.get( a + 2 + i ) & 0xFF;
+			int y = names.get( b + 2 + i ) & 0xFF;
+			if ( x != y ) {
+				// If both bytes lead characters above U+DFFF, put U+E000 to U+FFFF after the supplementary characters.
+				if ( x >= 0xEE && y >= 0xEE ) {
+					x = x < 0xF0 ? x + 0x10 : x;
+					y = y < 0xF0 ? y + 0x10 : y;
+				}
+				return x - y;
+			}
+		}
+		return lenA - lenB;
+	}
+	
+	/**
+	 * Swaps two records, and points their id table slots at their new positions.
+	 * 
+	 * @param a The index of the first record.
+	 * @param b The index of the second record.
+	 */
+	private void swap( int a, int b ) {
+		int offA = a * RECORD;
+		int offB = b * RECORD;
+		long due = records.getLong( offA + DUE );
+		long id = records.getLong( offA + ID );
+		int name = records.getInt( offA + NAME );
+		int slot = records.getInt( offA + SLOT );
+		writeRecord( a, records.getLong( offB + DUE ), records.getLong( offB + ID ), records.getInt( offB + NAME ), records.getInt( offB + SLOT ) );
+		writeRecord( b, due, id, name, slot );
+	}
+	
+	/**
+	 * Copies a record to another index, and points its id table slot at its new position.
+	 * 
+	 * @param from The index of the record.
+	 * @param to The index to copy it to.
+	 */
+	private void moveRecord( int from, int to ) {
+		int off = from * RECORD;
+		writeRecord( to, records.getLong( off + DUE ), records.getLong( off + ID ), records.getInt( off + NAME ), records.getInt( off + SLOT ) );
+	}
+	
+	/**
+	 * Writes a record, and points its id table slot at it.
+	 * 
+	 * @param index The index of the record.
+	 * @param due The due date, in epoch minutes.
+	 * @param id The id of the task.
+	 * @param name The offset of the name in the arena.
+	 * @param slot The id table slot of the task.
+	 */
+	private void writeRecord( int index, long due, long id, int name, int slot ) {
+		int off = index * RECORD;
+		records.putLong( off + DUE, due );
+		records.putLong( off + ID, id );
+		records.putInt( off + NAME, name );
+		records.putInt( off + SLOT, slot );
+		ids.putInt( slot * ENTRY + 8, index + 1 );
+	}
+	
+	/**
+	 * Makes a Task from a record.
+	 * 
+	 * @param index The index of the record.
+	 * @return A new Task with the record's id, name, due date and rule.
+	 */
+	private Task readTask( int index ) {
+		int off = index * RECORD;
+		int name = records.getInt( off + NAME );
+		byte[] bytes = new byte[ names.getShort( name ) & 0xFFFF ];
+		ByteBuffer view = names.duplicate();
+		view.position( name + 2 );
+		view.get( bytes );
+		long id = records.getLong( off + ID );
+		return Task.recurring( id, new String( bytes, StandardCharsets.UTF_8 ), records.getLong( off + DUE ), rules.get( id ) );
+	}
+	
+	/**
+	 * Keeps the rule of a task that repeats.
+	 * 
+	 * @param t The task being stored.
+	 */
+	private void keepRule( Task t ) {
+		// If the task repeats, keep its rule.
+		if ( t.getRecurrence() != null ) {
+			rules.put( t.getId(), t.getRecurrence() );
+		}
+	}
+	
+	/**
+	 * Gets the offset of a name in the arena, adding it if it is new.
+	 * Names longer than 65535 bytes are cut off, the same way the journal stores them.
+	 * 
+	 * @param name The name.
+	 * @return The offset of its length.
+	 */
+	private int nameOffset( String name ) {
+		Integer offset = nameOffsets.get( name );
+		// If the name is already in the arena, use that copy.
+		if ( offset != null ) {
+			return offset;
+		}
+		byte[] bytes = name.getBytes( StandardCharsets.UTF_8 );
+		int len = Math.min( bytes.length, 0xFFFF );
+		// Grow the arena if the name does not fit.
+		if ( names.capacity() - namesUsed < len + 2 ) {
+			ByteBuffer grown = allocate( Math.max( ( long ) names.capacity() * 2, ( long ) namesUsed + len + 2 ) );
+			ByteBuffer used = names.duplicate();
+			used.position( 0 ).limit( namesUsed );
+			grown.put( used );
+			names = grown;
+		}
+		names.putShort( namesUsed, ( short ) len );
+		ByteBuffer view = names.duplicate();
+		view.position( namesUsed + 2 );
+		view.put( bytes, 0, len );
+		offset = namesUsed;
+		namesUsed += len + 2;
+		nameOffsets.put( name, offset );
+		return offset;
+	}
+	
+	/**
+	 * Finds the id table slot of an id.
+	 * 
+	 * @param id The id.
+	 * @return The slot, or -1 if the id is not stored.
+	 */
+	private int findSlot( long id ) {
+		int mask = slots - 1;
+		// Probe from the id's home slot until the id or an empty slot is found.
+		for ( int slot = home( id ); ; slot = ( slot + 1 ) & mask ) {
+			int pos = ids.getInt( slot * ENTRY + 8 );
+			if ( pos == 0 ) {
+				return -1;
+			} else if ( ids.getLong( slot * ENTRY ) == id ) {
+				return slot;
+			}
+		}
+	}
+	
+	/**
+	 * Gets the index of the record an id table slot points at.
+	 * 
+	 * @param slot A used slot.
+	 * @return The index of the record.
+	 */
+	private int positionOf( int slot ) {
+		return ids.getInt( slot * ENTRY + 8 ) - 1;
+	}
+	
+	/**
+	 * Adds an id to the id table.
+	 * 
+	 * @param id The id, which must not be stored already.
+	 * @param index The index of its record.
+	 * @return The slot it was put in.
+	 */
+	private int insertId( long id, int index ) {
+		int mask = slots - 1;
+		int slot = home( id );
+		// Probe from the id's home slot to the first empty slot.
+		while ( ids.getInt( slot * ENTRY + 8 ) != 0 ) {
+			slot = ( slot + 1 ) & mask;
+		}
+		ids.putLong( slot * ENTRY, id );
+		ids.putInt( slot * ENTRY + 8, index + 1 );
+		return slot;
+	}
+	
+	/**
+	 * Removes an id from the id table. Later ids in the same run of used slots are shifted back,
+	 * so probes never stop early, and their records are pointed at their new slots.
+	 * 
+	 * @param slot The slot of the id.
+	 */
+	private void deleteId( int slot ) {
+		int mask = slots - 1;
+		int hole = slot;
+		// Walk the rest of the run, moving back every id whose home is not between the hole and its slot.
+		for ( int next = ( hole + 1 ) & mask; ids.getInt( next * ENTRY + 8 ) != 0; next = ( next + 1 ) & mask ) {
+			int home = home( ids.getLong( next * ENTRY ) );
+			if ( ( ( next - home ) & mask ) >= ( ( next - hole ) & mask ) ) {
+				int pos = ids.getInt( next * ENTRY + 8 );
+				ids.putLong( hole * ENTRY, ids.getLong( next * ENTRY ) );
+				ids.putInt( hole * ENTRY + 8, pos );
+				records.putInt( ( pos - 1 ) * RECORD + SLOT, hole );
+				hole = next;
+			}
+		}
+		ids.putInt( hole * ENTRY + 8, 0 );
+	}
+	
+	/**
+	 * Gets the home slot of an id.
+	 * 
+	 * @param id The id.
+	 * @return The slot its probe starts at.
+	 */
+	private int home( long id ) {
+		long h = id * 0x9E3779B97F4A7C15L;		// Spread sequential ids over the whole table.
+		return ( int ) ( h >>> ( 64 - Integer.numberOfTrailingZeros( slots ) ) );
+	}
+	
+	/**
+	 * Grows the records, and the id table with them, so they can hold a number of tasks.
+	 * 
+	 * @param needed The number of tasks to make room for.
+	 */
+	private void ensureCapacity( int needed ) {
+		// If there is already room, there is nothing to do.
+		if ( needed <= capacity ) {
+			return;
+		}
+		if ( needed > MAX_CAPACITY ) {
+			throw new IllegalStateException( "Too many tasks: " + needed );
+		}
+		int newCapacity = ( int ) Math.min( MAX_CAPACITY, Math.max( needed, ( long ) capacity * 2 ) );
+		ByteBuffer grown = allocate( ( long ) newCapacity * RECORD );
+		ByteBuffer used = records.duplicate();
+		used.position( 0 ).limit( size * RECORD );
+		grown.put( used );
+		records = grown;
+		capacity = newCapacity;
+		// Rebuild the id table at twice the new capacity, and point every record at its new slot.
+		slots = Integer.highestOneBit( capacity - 1 ) << 2;
+		ids = allocate( ( long ) slots * ENTRY );
+		for ( int i = 0; i < size; i++ ) {
+			records.putInt( i * RECORD + SLOT, insertId( records.getLong( i * RECORD + ID ), i ) );
+		}
+	}
+	
+	/**
+	 * Allocates a zeroed direct buffer in the platform's byte order.
+	 * 
+	 * @param bytes The size of the buffer.
+	 * @return The buffer.
+	 */
+	private static ByteBuffer allocate( long bytes ) {
+		if ( bytes > Integer.MAX_VALUE ) {
+			throw new IllegalStateException( "Buffer too large: " + bytes );
+		}
+		return ByteBuffer.allocateDirect( ( int ) bytes ).order( ByteOrder.nativeOrder() );
+	}
+	
+	/**
+	 * Throws an exception if the store is empty.
+	 */
+	private void checkNotEmpty() {
+		if ( size == 0 ) {
+			throw new NoSuchElementException();
+		}
+	}
+}
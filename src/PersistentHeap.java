@@ -0,0 +1,388 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Immutable priority queue. Every change returns a new version and leaves the old one as it was, so a version can be
+ * handed to any number of threads and read without locks, and old versions can be kept around cheaply for undo.
+ * 
+ * Items are kept in a treap: a binary search tree in item order that is also a max heap on random priorities,
+ * which keeps it balanced in expectation. A change copies only the O(log n) nodes on the path it touches,
+ * and every other node is shared with the version it was made from. Unlike a leftist or pairing heap,
+ * any item can be removed in O(log n), which completing or postponing a task by id needs.
+ * 
+ * @param <T> The type of object to use this with.
+ */
+public final class PersistentHeap < T extends Comparable< T > > implements Iterable< T > {
+	/**
+	 * The version with no items.
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private static final PersistentHeap EMPTY = new PersistentHeap( null, 0 );
+	
+	/**
+	 * Root of the treap, or null if there are no items.
+	 */
+	private final Node< T > root;
+	
+	/**
+	 * Number of items.
+	 */
+	private final int size;
+	
+	/**
+	 * The smallest item, kept so reading it costs O(1). Null if there are no items.
+	 */
+	private final T first;
+	
+	/**
+	 * Creates a version from a treap.
+	 * 
+	 * @param root The root of the treap.
+	 * @param size The number of items in it.
+	 */
+	private PersistentHeap( Node< T > root, int size ) {
+		this.root = root;
+		this.size = size;
+		Node< T > x = root;
+		// Walk down the left edge of the tree to the smallest item.
+		while ( x != null && x.left != null ) {
+			x = x.left;
+		}
+		this.first = x == null ? null : x.item;
+	}
+	
+	/**
+	 * Gets the version with no items.
+	 * 
+	 * @return The empty version.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public static < T extends Comparable< T > > PersistentHeap< T > empty() {
+		return EMPTY;
+	}
+	
+	/**
+	 * Creates a version holding a list of items that are already in order, in O(n).
+	 * 
+	 * @param sorted The items, in order.
+	 * @return The new version.
+	 */
+	public static < T extends Comparable< T > > PersistentHeap< T > ofSorted( List< ? extends T > sorted ) {
+		List< Node< T > > spine = new ArrayList< Node< T > >();	// The right edge of the tree built so far, from the root down.
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		// Add each item at the end of the right edge, above every node with a lower priority, which become its left subtree.
+		for ( T item : sorted ) {
+			Node< T > x = new Node< T >( item, random.nextInt(), null, null );
+			Node< T > last = null;
+			while ( !spine.isEmpty() && spine.get( spine.size() - 1 ).priority < x.priority ) {
+				last = spine.remove( spine.size() - 1 );
+			}
+			x.left = last;
+			if ( !spine.isEmpty() ) {
+				spine.get( spine.size() - 1 ).right = x;
+			}
+			spine.add( x );
+		}
+		return new PersistentHeap< T >( spine.isEmpty() ? null : spine.get( 0 ), sorted.size() );
+	}
+	
+	/**
+	 * Get the number of items.
+	 * 
+	 * @return The number of items.
+	 */
+	public int getSize() {
+		return size;
+	}
+	
+	/**
+	 * Checks if there are no items.
+	 * 
+	 * @return True if there are no items, false otherwise.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Get the smallest item.
+	 * 
+	 * @return The smallest item.
+	 * @throws NoSuchElementException If there are no items.
+	 */
+	public T getCurrent() {
+		if ( size == 0 ) {
+			throw new NoSuchElementException();
+		}
+		return first;
+	}
+	
+	/**
+	 * Checks if an item is in this version.
+	 * 
+	 * @param item The item to look for.
+	 * @return True if an item that compares equal to it is in this version, false otherwise.
+	 */
+	public boolean contains( T item ) {
+		Node< T > x = root;
+		// Walk down the tree towards the item until it is found or the path ends.
+		while ( x != null ) {
+			int c = item.compareTo( x.item );
+			if ( c == 0 ) {
+				return true;
+			}
+			x = c < 0 ? x.left : x.right;
+		}
+		return false;
+	}
+	
+	/**
+	 * Makes a version with one more item.
+	 * 
+	 * @param item The item to add.
+	 * @return The new version.
+	 */
+	public PersistentHeap< T > insert( T item ) {
+		return new PersistentHeap< T >( insert( root, item, ThreadLocalRandom.current().nextInt() ), size + 1 );
+	}
+	
+	/**
+	 * Makes a version without an item.
+	 * 
+	 * @param item The item to remove.
+	 * @return The new version, or this version if the item is not in it.
+	 */
+	public PersistentHeap< T > remove( T item ) {
+		Node< T > removed = remove( root, item );
+		return removed == root ? this : new PersistentHeap< T >( removed, size - 1 );
+	}
+	
+	/**
+	 * Makes a version with one item replaced by another, such as a task with a new due date.
+	 * 
+	 * @param old The item to remove.
+	 * @param item The item to add in its place.
+	 * @return The new version.
+	 */
+	public PersistentHeap< T > replace( T old, T item ) {
+		return remove( old ).insert( item );
+	}
+	
+	/**
+	 * Returns an iterator that visits the items in order.
+	 * 
+	 * @return A read-only iterator over the items in order.
+	 */
+	@Override
+	public Iterator< T > iterator() {
+		return new InOrderIterator< T >( root );
+	}
+	
+	/**
+	 * Copies the items into a list in order.
+	 * 
+	 * @return A new list holding every item in order.
+	 */
+	public List< T > sortedSnapshot() {
+		List< T > snapshot = new ArrayList< T >( size );
+		for ( T item : this ) {
+			snapshot.add( item );
+		}
+		return snapshot;
+	}
+	
+	/**
+	 * Returns this version as a string, the same way Heap does: items in order, delimited by equal signs.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		Iterator< T > it = iterator();
+		// While there are items left to visit, append them in order.
+		while ( it.hasNext() ) {
+			sb.append( it.next() );
+			// Add an equal sign between items, for delimiting purposes.
+			if ( it.hasNext() ) {
+				sb.append( '=' );
+			}
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Adds an item under a node, copying the nodes on its path.
+	 * 
+	 * @param x The root of the subtree, or null.
+	 * @param item The item to add.
+	 * @param priority The priority of the new node.
+	 * @return The root of the new subtree.
+	 */
+	private static < T extends Comparable< T > > Node< T > insert( Node< T > x, T item, int priority ) {
+		// If the new node belongs above this one, split the subtree around the item and hang both halves from it.
+		if ( x == null || priority > x.priority ) {
+			Node< T >[] halves = split( x, item );
+			return new Node< T >( item, priority, halves[ 0 ], halves[ 1 ] );
+		}
+		if ( item.compareTo( x.item ) < 0 ) {
+			return new Node< T >( x.item, x.priority, insert( x.left, item, priority ), x.right );
+		}
+		return new Node< T >( x.item, x.priority, x.left, insert( x.right, item, priority ) );
+	}
+	
+	/**
+	 * Removes an item under a node, copying the nodes on its path.
+	 * 
+	 * @param x The root of the subtree, or null.
+	 * @param item The item to remove.
+	 * @return The root of the new subtree, or x itself if the item is not in it.
+	 */
+	private static < T extends Comparable< T > > Node< T > remove( Node< T > x, T item ) {
+		// If the path ends, the item is not in the subtree.
+		if ( x == null ) {
+			return null;
+		}
+		int c = item.compareTo( x.item );
+		// If this is the item, join its children in its place.
+		if ( c == 0 ) {
+			return merge( x.left, x.right );
+		}
+		Node< T > child = remove( c < 0 ? x.left : x.right, item );
+		// If nothing under the child changed, nothing here changes either.
+		if ( child == ( c < 0 ? x.left : x.right ) ) {
+			return x;
+		}
+		return c < 0 ? new Node< T >( x.item, x.priority, child, x.right ) : new Node< T >( x.item, x.priority, x.left, child );
+	}
+	
+	/**
+	 * Splits a subtree into the items smaller than an item and the rest, copying the nodes on the split path.
+	 * 
+	 * @param x The root of the subtree, or null.
+	 * @param item The item to split around.
+	 * @return The root of the smaller items, then the root of the rest.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private static < T extends Comparable< T > > Node< T >[] split( Node< T > x, T item ) {
+		// If the subtree is empty, both halves are.
+		if ( x == null ) {
+			return ( Node< T >[] ) new Node< ? >[ 2 ];
+		}
+		// If this node is smaller than the item, it stays in the smaller half with its left subtree. Otherwise, in the rest with its right subtree.
+		if ( x.item.compareTo( item ) < 0 ) {
+			Node< T >[] halves = split( x.right, item );
+			halves[ 0 ] = new Node< T >( x.item, x.priority, x.left, halves[ 0 ] );
+			return halves;
+		}
+		Node< T >[] halves = split( x.left, item );
+		halves[ 1 ] = new Node< T >( x.item, x.priority, halves[ 1 ], x.right );
+		return halves;
+	}
+	
+	/**
+	 * Joins two subtrees where every item of the first is smaller than every item of the second, copying the nodes on the seam.
+	 * 
+	 * @param a The root of the smaller subtree, or null.
+	 * @param b The root of the larger subtree, or null.
+	 * @return The root of the joined subtree.
+	 */
+	private static < T extends Comparable< T > > Node< T > merge( Node< T > a, Node< T > b ) {
+		// If either side is empty, the other is the result.
+		if ( a == null ) {
+			return b;
+		} else if ( b == null ) {
+			return a;
+		}
+		// Keep the node with the higher priority on top.
+		if ( a.priority > b.priority ) {
+			return new Node< T >( a.item, a.priority, a.left, merge( a.right, b ) );
+		}
+		return new Node< T >( b.item, b.priority, merge( a, b.left ), b.right );
+	}
+	
+	/**
+	 * A node of the treap. Nodes are never changed once a version holding them has been made.
+	 */
+	private static class Node < T > {
+		/**
+		 * The item.
+		 */
+		private final T item;
+		/**
+		 * Random priority. Every node has a higher priority than the nodes below it.
+		 */
+		private final int priority;
+		/**
+		 * Root of the smaller items, or null. Only set after construction while ofSorted builds the tree.
+		 */
+		private Node< T > left;
+		/**
+		 * Root of the larger items, or null. Only set after construction while ofSorted builds the tree.
+		 */
+		private Node< T > right;
+		
+		/**
+		 * Constructor for a Node.
+		 * 
+		 * @param item The item.
+		 * @param priority The priority of the node.
+		 * @param left The root of the smaller items, or null.
+		 * @param right The root of the larger items, or null.
+		 */
+		Node( T item, int priority, Node< T > left, Node< T > right ) {
+			this.item = item;
+			this.priority = priority;
+			this.left = left;
+			this.right = right;
+		}
+	}
+	
+	/**
+	 * Walks a treap in order, keeping the nodes whose right subtrees are still to be visited on a stack.
+	 */
+	private static class InOrderIterator < T > implements Iterator< T > {
+		/**
+		 * Nodes left to visit, with the next one on top.
+		 */
+		private final List< Node< T > > stack;
+		
+		/**
+		 * Constructor of the InOrderIterator. Starts the walk at the smallest item.
+		 * 
+		 * @param root The root of the treap, or null.
+		 */
+		InOrderIterator( Node< T > root ) {
+			this.stack = new ArrayList< Node< T > >();
+			pushLeft( root );
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return !stack.isEmpty();
+		}
+		
+		@Override
+		public T next() {
+			if ( stack.isEmpty() ) {
+				throw new NoSuchElementException();
+			}
+			Node< T > x = stack.remove( stack.size() - 1 );
+			pushLeft( x.right );		// The items after this one start at the smallest item of its right subtree.
+			return x.item;
+		}
+		
+		/**
+		 * Pushes a node and every node down its left edge.
+		 * 
+		 * @param x The node to start at, or null.
+		 */
+		private void pushLeft( Node< T > x ) {
+			while ( x != null ) {
+				stack.add( x );
+				x = x.left;
+			}
+		}
+	}
+}
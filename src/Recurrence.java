@@ -0,0 +1,402 @@
+import java.util.Locale;
+
+/**
+ * Rule for a task that repeats, such as a daily or weekly chore. Recurrences are immutable.
+ * 
+ * Only the next occurrence of a series is kept in the heap, as a Task that carries its rule. Completing it
+ * puts the following occurrence in its place, so the heap and the task file hold one task per series,
+ * however many times the series repeats.
+ * 
+ * A rule repeats every interval days, weeks, months or years. Weekly rules can repeat on chosen days of the week,
+ * and monthly and yearly rules aim for one day of the month, falling back to the last day of shorter months.
+ * A series can end after a date, after a number of occurrences, or never.
+ * 
+ * In text, a rule looks like: every [N] day|week|month|year [on mon tue ...|on day D] [until M/D/YYYY H:MM] [times N]
+ */
+public final class Recurrence {
+	/**
+	 * Number of minutes in a day.
+	 */
+	private static final int MINUTES_PER_DAY = 24 * 60;
+	
+	/**
+	 * Names of the days of the week in text rules, from Monday.
+	 */
+	private static final String[] WEEKDAYS = { "mon", "tue", "wed", "thu", "fri", "sat", "sun" };
+	
+	/**
+	 * Unit of time a rule repeats in.
+	 */
+	public enum Unit {
+		DAY, WEEK, MONTH, YEAR
+	}
+	
+	/**
+	 * Unit of time the rule repeats in.
+	 */
+	private final Unit unit;
+	
+	/**
+	 * Number of units between occurrences, at least 1.
+	 */
+	private final int interval;
+	
+	/**
+	 * For weekly rules, the days of the week to repeat on, as a mask with bit 0 for Monday. 0 repeats on the day of the occurrence.
+	 * For monthly and yearly rules, the day of the month to aim for. 0 uses the day of the occurrence.
+	 */
+	private final int days;
+	
+	/**
+	 * Latest due date an occurrence can have, in epoch minutes. Long.MAX_VALUE if the series has no end date.
+	 */
+	private final long until;
+	
+	/**
+	 * Number of occurrences left, counting the one the rule is attached to. 0 if the series has no end count.
+	 */
+	private final int count;
+	
+	/**
+	 * Creates a rule that repeats forever.
+	 * 
+	 * @param unit The unit of time to repeat in.
+	 * @param interval The number of units between occurrences.
+	 */
+	public Recurrence( Unit unit, int interval ) {
+		this( unit, interval, 0, Long.MAX_VALUE, 0 );
+	}
+	
+	/**
+	 * Creates a rule.
+	 * 
+	 * @param unit The unit of time to repeat in.
+	 * @param interval The number of units between occurrences.
+	 * @param days For weekly rules, a mask of weekdays with bit 0 for Monday. For monthly and yearly rules, the day of the month. 0 for the day of the occurrence.
+	 * @param until The latest due date an occurrence can have in epoch minutes, or Long.MAX_VALUE for no end date.
+	 * @param count The number of occurrences left, counting the current one, or 0 for no end count.
+	 * @throws IllegalArgumentException If a value is out of range.
+	 */
+	public Recurrence( Unit unit, int interval, int days, long until, int count ) {
+		if ( unit == null || interval < 1 || count < 0 || days < 0 || days > ( unit == Unit.WEEK ? 0x7F : unit == Unit.DAY ? 0 : 31 ) ) {
+			throw new IllegalArgumentException( "Invalid recurrence" );
+		}
+		this.unit = unit;
+		this.interval = interval;
+		this.days = days;
+		this.until = until;
+		this.count = count;
+	}
+	
+	/**
+	 * Gets the unit of time the rule repeats in.
+	 * 
+	 * @return The unit.
+	 */
+	public Unit getUnit() {
+		return unit;
+	}
+	
+	/**
+	 * Gets the number of units between occurrences.
+	 * 
+	 * @return The interval.
+	 */
+	public int getInterval() {
+		return interval;
+	}
+	
+	/**
+	 * Gets the weekday mask of a weekly rule, or the day of the month of a monthly or yearly rule.
+	 * 
+	 * @return The days, or 0 if the rule uses the day of the occurrence.
+	 */
+	public int getDays() {
+		return days;
+	}
+	
+	/**
+	 * Gets the latest due date an occurrence can have.
+	 * 
+	 * @return The end date in epoch minutes, or Long.MAX_VALUE if there is none.
+	 */
+	public long getUntil() {
+		return until;
+	}
+	
+	/**
+	 * Gets the number of occurrences left, counting the current one.
+	 * 
+	 * @return The count, or 0 if there is no end count.
+	 */
+	public int getCount() {
+		return count;
+	}
+	
+	/**
+	 * Fixes the day a monthly or yearly rule aims for to the day of the first occurrence, so the series does not drift
+	 * to the 28th after passing through February.
+	 * 
+	 * @param due The due date of the first occurrence, in epoch minutes.
+	 * @return A rule with the day fixed, or this rule if there is nothing to fix.
+	 */
+	public Recurrence anchoredAt( long due ) {
+		// If the rule is not monthly or yearly, or already has a day, there is nothing to fix.
+		if ( ( unit != Unit.MONTH && unit != Unit.YEAR ) || days != 0 ) {
+			return this;
+		}
+		return new Recurrence( unit, interval, DueDates.day( due ), until, count );
+	}
+	
+	/**
+	 * Works out the due date of the occurrence after one.
+	 * 
+	 * @param due The due date of the current occurrence, in epoch minutes.
+	 * @return The due date of the next occurrence in epoch minutes, or Long.MIN_VALUE if the series ends with the current one.
+	 */
+	public long next( long due ) {
+		// If this is the last counted occurrence, the series ends.
+		if ( count == 1 ) {
+			return Long.MIN_VALUE;
+		}
+		long next;
+		switch ( unit ) {
+			case DAY:
+				next = due + ( long ) interval * MINUTES_PER_DAY;
+				break;
+			case WEEK:
+				next = nextWeekly( due );
+				break;
+			case MONTH:
+				next = addMonths( due, interval );
+				break;
+			default:
+				next = addMonths( due, interval * 12L );
+				break;
+		}
+		return next > until ? Long.MIN_VALUE : next;
+	}
+	
+	/**
+	 * Gets the rule the next occurrence carries: the same rule, with one fewer occurrence left if there is an end count.
+	 * 
+	 * @return The rule for the next occurrence.
+	 */
+	public Recurrence afterOccurrence() {
+		return count == 0 ? this : new Recurrence( unit, interval, days, until, count - 1 );
+	}
+	
+	/**
+	 * Works out the next occurrence of a weekly rule.
+	 * If the rule has weekdays, the next one after the current occurrence is used, skipping interval - 1 weeks
+	 * whenever the week starts over. Otherwise, the occurrence repeats on its own weekday.
+	 * 
+	 * @param due The due date of the current occurrence, in epoch minutes.
+	 * @return The due date of the next occurrence, in epoch minutes.
+	 */
+	private long nextWeekly( long due ) {
+		// If the rule has no weekdays, repeat on the same weekday.
+		if ( days == 0 ) {
+			return due + ( long ) interval * 7 * MINUTES_PER_DAY;
+		}
+		int weekday = DueDates.weekday( due );
+		// Look at each of the next seven days for one the rule repeats on.
+		for ( int d = 1; d <= 7; d++ ) {
+			int w = ( weekday + d ) % 7;
+			if ( ( days & ( 1 << w ) ) != 0 ) {
+				long next = due + ( long ) d * MINUTES_PER_DAY;
+				// If the week started over on the way, skip the weeks in between.
+				return w <= weekday ? next + ( long ) ( interval - 1 ) * 7 * MINUTES_PER_DAY : next;
+			}
+		}
+		return due + ( long ) interval * 7 * MINUTES_PER_DAY;
+	}
+	
+	/**
+	 * Adds months to a due date, keeping the time of day and aiming for the rule's day of the month.
+	 * If the month is too short, the last day of the month is used.
+	 * 
+	 * @param due The due date, in epoch minutes.
+	 * @param months The number of months to add.
+	 * @return The new due date, in epoch minutes.
+	 */
+	private long addMonths( long due, long months ) {
+		long total = DueDates.year( due ) * 12L + ( DueDates.month( due ) - 1 ) + months;
+		int year = ( int ) Math.floorDiv( total, 12 );
+		int month = Math.floorMod( total, 12 ) + 1;
+		int length = ( int ) ( ( DueDates.toMinute( year, month + 1, 1, 0, 0 ) - DueDates.toMinute( year, month, 1, 0, 0 ) ) / MINUTES_PER_DAY );
+		int day = Math.min( days == 0 ? DueDates.day( due ) : days, length );
+		return DueDates.toMinute( year, month, day, DueDates.hours( due ), DueDates.mins( due ) );
+	}
+	
+	/**
+	 * Parses a rule in the every [N] day|week|month|year [on mon tue ...|on day D] [until M/D/YYYY H:MM] [times N] format.
+	 * Units can also be plural, and case is ignored.
+	 * 
+	 * @param s The rule to parse.
+	 * @return The rule.
+	 * @throws IllegalArgumentException If the text is not a rule.
+	 */
+	public static Recurrence parse( CharSequence s ) {
+		String[] words = s.toString().trim().toLowerCase( Locale.ROOT ).split( "\\s+" );
+		int i = 0;
+		// Every rule starts with "every".
+		if ( words.length < 2 || !words[ i++ ].equals( "every" ) ) {
+			throw malformed( s );
+		}
+		int interval = 1;
+		// If there is a number before the unit, it is the interval.
+		if ( Character.isDigit( words[ i ].charAt( 0 ) ) ) {
+			interval = parseNumber( words[ i++ ], s );
+		}
+		Unit unit = i < words.length ? parseUnit( words[ i++ ] ) : null;
+		if ( unit == null ) {
+			throw malformed( s );
+		}
+		int days = 0;
+		long until = Long.MAX_VALUE;
+		int count = 0;
+		// Read the optional parts in order.
+		if ( i < words.length && words[ i ].equals( "on" ) ) {
+			i++;
+			// If the rule is weekly, collect weekdays. Otherwise, read the day of the month.
+			if ( unit == Unit.WEEK ) {
+				while ( i < words.length && weekdayIndex( words[ i ] ) >= 0 ) {
+					days |= 1 << weekdayIndex( words[ i++ ] );
+				}
+			} else if ( i + 1 < words.length && words[ i ].equals( "day" ) ) {
+				days = parseNumber( words[ i + 1 ], s );
+				i += 2;
+			}
+			if ( days == 0 ) {
+				throw malformed( s );
+			}
+		}
+		if ( i + 2 < words.length && words[ i ].equals( "until" ) ) {
+			String date = words[ i + 1 ] + " " + words[ i + 2 ];
+			until = DueDates.parse( date );
+			i += 3;
+		}
+		if ( i + 1 < words.length && words[ i ].equals( "times" ) ) {
+			count = parseNumber( words[ i + 1 ], s );
+			if ( count == 0 ) {
+				throw malformed( s );
+			}
+			i += 2;
+		}
+		if ( i != words.length ) {
+			throw malformed( s );
+		}
+		return new Recurrence( unit, interval, days, until, count );
+	}
+	
+	/**
+	 * Appends the rule to a StringBuilder in the format read by parse.
+	 * 
+	 * @param sb The StringBuilder to append to.
+	 * @return The StringBuilder.
+	 */
+	public StringBuilder appendTo( StringBuilder sb ) {
+		sb.append( "every " );
+		// If the rule skips periods, give the interval and the plural unit, as in "every 2 weeks". Otherwise, just the unit.
+		if ( interval > 1 ) {
+			sb.append( interval ).append( ' ' ).append( unit.name().toLowerCase( Locale.ROOT ) ).append( 's' );
+		} else {
+			sb.append( unit.name().toLowerCase( Locale.ROOT ) );
+		}
+		// If the rule has weekdays or a day of the month, list them.
+		if ( days != 0 && unit == Unit.WEEK ) {
+			sb.append( " on" );
+			for ( int w = 0; w < 7; w++ ) {
+				if ( ( days & ( 1 << w ) ) != 0 ) {
+					sb.append( ' ' ).append( WEEKDAYS[ w ] );
+				}
+			}
+		} else if ( days != 0 ) {
+			sb.append( " on day " ).append( days );
+		}
+		if ( until != Long.MAX_VALUE ) {
+			DueDates.appendTo( until, sb.append( " until " ) );
+		}
+		if ( count != 0 ) {
+			sb.append( " times " ).append( count );
+		}
+		return sb;
+	}
+	
+	@Override
+	public String toString() {
+		return appendTo( new StringBuilder( 32 ) ).toString();
+	}
+	
+	@Override
+	public boolean equals( Object o ) {
+		if ( !( o instanceof Recurrence ) ) {
+			return false;
+		}
+		Recurrence r = ( Recurrence ) o;
+		return unit == r.unit && interval == r.interval && days == r.days && until == r.until && count == r.count;
+	}
+	
+	@Override
+	public int hashCode() {
+		return ( ( unit.ordinal() * 31 + interval ) * 31 + days ) * 31 + Long.hashCode( until ) * 31 + count;
+	}
+	
+	/**
+	 * Parses the name of a unit, singular or plural.
+	 * 
+	 * @param word The word to parse.
+	 * @return The unit, or null if the word is not a unit.
+	 */
+	private static Unit parseUnit( String word ) {
+		String singular = word.endsWith( "s" ) ? word.substring( 0, word.length() - 1 ) : word;
+		for ( Unit u : Unit.values() ) {
+			if ( u.name().toLowerCase( Locale.ROOT ).equals( singular ) ) {
+				return u;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Finds the index of a weekday name.
+	 * 
+	 * @param word The word to look up.
+	 * @return The index of the weekday from 0 for Monday, or -1 if the word is not a weekday.
+	 */
+	private static int weekdayIndex( String word ) {
+		for ( int w = 0; w < 7; w++ ) {
+			if ( WEEKDAYS[ w ].equals( word ) ) {
+				return w;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Parses a positive number in a rule.
+	 * 
+	 * @param word The number.
+	 * @param s The whole rule, for the error message.
+	 * @return The number.
+	 * @throws IllegalArgumentException If the word is not a number.
+	 */
+	private static int parseNumber( String word, CharSequence s ) {
+		try {
+			return Integer.parseInt( word );
+		} catch ( NumberFormatException e ) {
+			throw malformed( s );
+		}
+	}
+	
+	/**
+	 * Creates the exception thrown for a malformed rule.
+	 * 
+	 * @param s The rule.
+	 * @return The exception.
+	 */
+	private static IllegalArgumentException malformed( CharSequence s ) {
+		return new IllegalArgumentException( "Malformed recurrence: " + s );
+	}
+}
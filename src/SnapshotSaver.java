@@ -0,0 +1,202 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes snapshots of a heap to its task file, or to its month partitions, on a background thread.
+ * Requests that arrive while a snapshot is being written are coalesced: only the newest one is written next,
+ * and every request waiting on it completes when it is done.
+ */
+public class SnapshotSaver {
+	/**
+	 * Time taken to write each snapshot, in microseconds.
+	 */
+	private static final Histogram saveTime = Metrics.get().histogram( "heap.save.us" );
+	
+	/**
+	 * Counts bytes written to task files.
+	 */
+	private static final LongAdder savedBytes = Metrics.get().counter( "heap.save.bytes" );
+	
+	/**
+	 * The binary task file to write.
+	 */
+	private final File taskFile;
+	
+	/**
+	 * Runs the writes.
+	 */
+	private final ExecutorService writer;
+	
+	/**
+	 * The newest snapshot waiting to be written, or null. Guarded by this saver's lock.
+	 */
+	private List< Task > pending;
+	
+	/**
+	 * Partitions to write the pending snapshot to, or null to write it to the task file. Guarded by this saver's lock.
+	 */
+	private TaskPartitions pendingPartitions;
+	
+	/**
+	 * Months whose partitions were not loaded when the pending snapshot was taken. Guarded by this saver's lock.
+	 */
+	private Set< Integer > pendingUnloaded;
+	
+	/**
+	 * Journal generation covered by the pending snapshot. Guarded by this saver's lock.
+	 */
+	private int pendingGeneration;
+	
+	/**
+	 * Journal to clear once the pending snapshot is written, or null. Guarded by this saver's lock.
+	 */
+	private TaskJournal pendingJournal;
+	
+	/**
+	 * Requests waiting for the pending snapshot to be written. Guarded by this saver's lock.
+	 */
+	private List< CompletableFuture< Void > > waiting;
+	
+	/**
+	 * True while the writer thread is writing or about to write. Guarded by this saver's lock.
+	 */
+	private boolean running;
+	
+	/**
+	 * Constructor for the SnapshotSaver.
+	 * 
+	 * @param taskFile The binary task file to write.
+	 */
+	public SnapshotSaver( File taskFile ) {
+		this.taskFile = taskFile;
+		this.waiting = new ArrayList< CompletableFuture< Void > >();
+		this.writer = Executors.newSingleThreadExecutor( r -> {
+			Thread t = new Thread( r, "snapshot-saver" );
+			t.setDaemon( true );
+			return t;
+		} );
+	}
+	
+	/**
+	 * Asks for a snapshot to be written. Replaces any snapshot that is still waiting to be written.
+	 * 
+	 * @param snapshot The tasks to write. Must not be modified afterwards.
+	 * @param partitions The partitions to write the tasks to, or null to write them to the task file.
+	 * @param unloaded The months whose partitions were not loaded when the snapshot was taken, or null if there are no partitions.
+	 * @param journal The journal to clear once the snapshot is written, or null if there is none.
+	 * @param generation The last journal generation covered by the snapshot.
+	 * @return A future that completes once this snapshot, or a newer one, is on disk.
+	 */
+	public synchronized CompletableFuture< Void > submit( List< Task > snapshot, TaskPartitions partitions, Set< Integer > unloaded,
+			TaskJournal journal, int generation ) {
+		CompletableFuture< Void > done = new CompletableFuture< Void >();
+		pending = snapshot;
+		pendingPartitions = partitions;
+		pendingUnloaded = unloaded;
+		pendingJournal = journal;
+		pendingGeneration = generation;
+		waiting.add( done );
+		// If the writer thread is idle, wake it up.
+		if ( !running ) {
+			running = true;
+			writer.execute( this::drain );
+		}
+		return done;
+	}
+	
+	/**
+	 * Writes pending snapshots until there are none left.
+	 * A failed write fails the requests waiting on it, and the writer goes on with the next snapshot.
+	 */
+	private void drain() {
+		boolean idle = false;
+		List< CompletableFuture< Void > > done = null;		// Requests waiting on the snapshot being written.
+		try {
+			while ( true ) {
+				List< Task > snapshot;
+				TaskPartitions partitions;
+				Set< Integer > unloaded;
+				TaskJournal journal;
+				int generation;
+				synchronized ( this ) {
+					// If nothing is pending, go idle.
+					if ( pending == null ) {
+						running = false;
+						idle = true;
+						return;
+					}
+					snapshot = pending;
+					partitions = pendingPartitions;
+					unloaded = pendingUnloaded;
+					journal = pendingJournal;
+					generation = pendingGeneration;
+					done = waiting;
+					pending = null;
+					waiting = new ArrayList< CompletableFuture< Void > >();
+				}
+				try {
+					// Write the journal records the snapshot covers, and the completions before them, so the snapshot never gets ahead of the journal.
+					if ( journal != null ) {
+						journal.flush();
+					}
+					TaskEvents.Save event = new TaskEvents.Save();
+					long start = System.nanoTime();
+					event.begin();
+					long bytes;
+					// If the tasks are stored in partitions, write the loaded ones. Otherwise, write the task file.
+					if ( partitions != null ) {
+						bytes = partitions.write( snapshot, unloaded );
+					} else {
+						BinaryTaskFile.write( taskFile, snapshot );
+						bytes = taskFile.length();
+					}
+					saveTime.recordSince( start );
+					savedBytes.add( bytes );
+					event.end();
+					// If save events are being recorded, record this one.
+					if ( event.shouldCommit() ) {
+						event.tasks = snapshot.size();
+						event.bytes = bytes;
+						event.commit();
+					}
+					// The snapshot holds every change in the covered generations, so they can be deleted.
+					if ( journal != null ) {
+						journal.deleteThrough( generation );
+					}
+					for ( CompletableFuture< Void > f : done ) {
+						f.complete( null );
+					}
+				} catch ( IOException | RuntimeException e ) {
+					System.out.println( "Error writing to task file: " + e.getMessage() );
+					for ( CompletableFuture< Void > f : done ) {
+						f.completeExceptionally( e );
+					}
+				}
+				done = null;
+			}
+		} finally {
+			// If the writer stopped on an error, fail every request still waiting, and let the next request start it again.
+			if ( !idle ) {
+				synchronized ( this ) {
+					IOException stopped = new IOException( "Snapshot writer stopped unexpectedly" );
+					if ( done != null ) {
+						waiting.addAll( done );
+					}
+					for ( CompletableFuture< Void > f : waiting ) {
+						f.completeExceptionally( stopped );
+					}
+					waiting = new ArrayList< CompletableFuture< Void > >();
+					pending = null;
+					running = false;
+				}
+			}
+		}
+	}
+}
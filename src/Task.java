@@ -1,29 +1,136 @@
-import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Represents a Task object with a name and Date.
+ * Represents a Task object with a name and due date.
+ * Tasks are immutable. The due date is held as epoch minutes on the local wall clock, see DueDates.
+ * Names are interned in the shared NameTable, so tasks with the same name share one entry.
+ * A task that repeats carries its Recurrence, and is the next occurrence of its series. Only repeating tasks
+ * hold a field for the rule, so tasks that do not repeat take no more memory.
  * 
  * @author Jonathan Sohrabi 2018
  */
 public class Task implements Comparable< Task > {
 	/**
-	 * The name of the task.
+	 * The id that will be given to the next new Task.
 	 */
-	private String taskName;
+	private static final AtomicLong nextId = new AtomicLong( 1 );
 	/**
-	 * The due date of the task.
+	 * Unique id of the task.
 	 */
-	private Date dueDate;
+	private final long taskId;
+	/**
+	 * The name of the task, from the shared NameTable.
+	 */
+	private final NameTable.Entry taskName;
+	/**
+	 * The due date of the task, in epoch minutes.
+	 */
+	private final long dueMinute;
 	
 	/**
 	 * Constructor for creating a new Task.
 	 * 
 	 * @param tName The name of the Task.
-	 * @param dDate	The due date of the Task.
+	 * @param dMinute The due date of the Task, in epoch minutes.
 	 */
-	public Task( String tName, Date dDate ) {
+	public Task( String tName, long dMinute ) {
+		this( nextId.getAndIncrement(), tName, dMinute );
+	}
+	
+	/**
+	 * Constructor for creating a new Task with an already interned name.
+	 * 
+	 * @param tName The name of the Task.
+	 * @param dMinute The due date of the Task, in epoch minutes.
+	 */
+	Task( NameTable.Entry tName, long dMinute ) {
+		this( nextId.getAndIncrement(), tName, dMinute );
+	}
+	
+	/**
+	 * Constructor for recreating a saved Task with a known id.
+	 * Ids given to later new Tasks will be greater than this one.
+	 * 
+	 * @param id The id of the Task.
+	 * @param tName The name of the Task.
+	 * @param dMinute The due date of the Task, in epoch minutes.
+	 */
+	public Task( long id, String tName, long dMinute ) {
+		this( id, NameTable.getShared().intern( tName ), dMinute );
+	}
+	
+	/**
+	 * Constructor for recreating a saved Task with a known id and an already interned name.
+	 * Ids given to later new Tasks will be greater than this one.
+	 * 
+	 * @param id The id of the Task.
+	 * @param tName The name of the Task.
+	 * @param dMinute The due date of the Task, in epoch minutes.
+	 */
+	Task( long id, NameTable.Entry tName, long dMinute ) {
+		this.taskId = id;
 		this.taskName = tName;
-		this.dueDate = dDate;
+		this.dueMinute = dMinute;
+		nextId.accumulateAndGet( id + 1, Math::max );	// Make sure new ids do not collide with this one.
+	}
+	
+	/**
+	 * Creates a new Task that repeats.
+	 * 
+	 * @param tName The name of the Task.
+	 * @param dMinute The due date of the first occurrence, in epoch minutes.
+	 * @param rule How the Task repeats, or null if it does not.
+	 * @return The new Task.
+	 */
+	public static Task recurring( String tName, long dMinute, Recurrence rule ) {
+		return recurring( nextId.getAndIncrement(), NameTable.getShared().intern( tName ), dMinute, rule );
+	}
+	
+	/**
+	 * Recreates a saved Task that may repeat, with a known id.
+	 * 
+	 * @param id The id of the Task.
+	 * @param tName The name of the Task.
+	 * @param dMinute The due date of the Task, in epoch minutes.
+	 * @param rule How the Task repeats, or null if it does not.
+	 * @return The Task.
+	 */
+	public static Task recurring( long id, String tName, long dMinute, Recurrence rule ) {
+		return recurring( id, NameTable.getShared().intern( tName ), dMinute, rule );
+	}
+	
+	/**
+	 * Creates a new Task that may repeat, with an already interned name.
+	 * 
+	 * @param tName The name of the Task.
+	 * @param dMinute The due date of the first occurrence, in epoch minutes.
+	 * @param rule How the Task repeats, or null if it does not.
+	 * @return The new Task.
+	 */
+	static Task recurring( NameTable.Entry tName, long dMinute, Recurrence rule ) {
+		return recurring( nextId.getAndIncrement(), tName, dMinute, rule );
+	}
+	
+	/**
+	 * Recreates a saved Task that may repeat, with a known id and an already interned name.
+	 * 
+	 * @param id The id of the Task.
+	 * @param tName The name of the Task.
+	 * @param dMinute The due date of the Task, in epoch minutes.
+	 * @param rule How the Task repeats, or null if it does not.
+	 * @return The Task.
+	 */
+	static Task recurring( long id, NameTable.Entry tName, long dMinute, Recurrence rule ) {
+		return rule == null ? new Task( id, tName, dMinute ) : new Recurring( id, tName, dMinute, rule.anchoredAt( dMinute ) );
+	}
+	
+	/**
+	 * Return the unique id of the Task.
+	 * 
+	 * @return The Task's id.
+	 */
+	public long getId() {
+		return this.taskId;
 	}
 	
 	/**
@@ -32,51 +139,150 @@ public class Task implements Comparable< Task > {
 	 * @return The Task's name.
 	 */
 	public String getName() {
+		return this.taskName.getName();
+	}
+	
+	/**
+	 * Return the name of the Task as its entry in the shared NameTable.
+	 * 
+	 * @return The Task's name entry.
+	 */
+	NameTable.Entry getNameEntry() {
 		return this.taskName;
 	}
 	
 	/**
 	 * Return the due date of the Task.
 	 * 
-	 * @return The Task's due date as a Date object.
+	 * @return The Task's due date, in epoch minutes.
 	 */
-	public Date getDate() {
-		return this.dueDate;
+	public long getDue() {
+		return this.dueMinute;
 	}
-
+	
+	/**
+	 * Return how the Task repeats.
+	 * 
+	 * @return The Task's recurrence, or null if it does not repeat.
+	 */
+	public Recurrence getRecurrence() {
+		return null;
+	}
+	
+	/**
+	 * Creates the next occurrence of a repeating Task, with the same id and name.
+	 * 
+	 * @return The next occurrence, or null if the Task does not repeat or its series has ended.
+	 */
+	Task nextOccurrence() {
+		return null;
+	}
+	
+	/**
+	 * Creates a copy of the Task with the same id and name but a different due date.
+	 * 
+	 * @param dMinute The new due date, in epoch minutes.
+	 * @return The new Task.
+	 */
+	Task withDue( long dMinute ) {
+		return new Task( this.taskId, this.taskName, dMinute );
+	}
+	
+	/**
+	 * Appends the Task to a StringBuilder in the Name,M/D/YYYY H:MM format.
+	 * 
+	 * @param sb The StringBuilder to append to.
+	 * @return The StringBuilder.
+	 */
+	public StringBuilder appendTo( StringBuilder sb ) {
+		return DueDates.appendTo( this.dueMinute, sb.append( getName() ).append( ',' ) );
+	}
+	
 	/**
 	 * Converts the Task to a String.
-	 * String format is Name,MM/DD/YYYY HH:MM
+	 * String format is Name,M/D/YYYY H:MM, followed by a space and the rule if the Task repeats.
 	 */
 	@Override
 	public String toString() {
-		String returnedString =  getName() + "," + ( getDate().getMonth() + 1 ) + "/" + getDate().getDate() + "/" +
-				( getDate().getYear() + 1900 ) + " " + getDate().getHours() + ":";
-		// Formatting for the minutes of the Task.
-		if ( getDate().getMinutes() < 10 ) {
-			returnedString += "0" + getDate().getMinutes();
-		} else {
-			returnedString += getDate().getMinutes();
-		}
-		
-		return returnedString;
+		return appendTo( new StringBuilder( getName().length() + 17 ) ).toString();
 	}
 	
 	/**
 	 * Compares two Task objects.
-	 * Objects are first compared by Date. If both have the same Date, then they are compared by name.
+	 * Objects are first compared by due date. If both have the same due date, then they are compared by name,
+	 * using the collation ranks of the NameTable instead of comparing the Strings.
+	 * Tasks with the same due date and name are ordered by id, so only a Task compares equal to itself.
 	 * 
 	 * @return <0 if this is before the parameter, 0 if the two are equal, >0 if this is after the parameter.
 	 */
 	@Override
 	public int compareTo( Task t ) {
-		int compared = this.getDate().compareTo( t.getDate() );	// Compare by Date.
 		// If due dates are not the same, return the comparison.
-		if ( compared != 0 ) {
-			return compared; 	// Return less than 0 if this.dueDate is before t.dueDate. Return greater than 0 if this.dueDate is after t.dueDate.
+		if ( this.dueMinute != t.dueMinute ) {
+			return this.dueMinute < t.dueMinute ? -1 : 1; 	// Return -1 if this is due before t. Return 1 if this is due after t.
 		// If the due dates are the same, return the comparison by name.
+		}
+		int compared = NameTable.compare( this.taskName, t.taskName );
+		// If the names are not the same, return the comparison by name.
+		if ( compared != 0 ) {
+			return compared;
+		// If the names are the same, return the comparison by id.
 		} else {
-			return this.getName().compareTo( t.getName() );
+			return Long.compare( this.getId(), t.getId() );
+		}
+	}
+	
+	/**
+	 * A Task that repeats, holding its rule.
+	 */
+	private static class Recurring extends Task {
+		/**
+		 * How the Task repeats.
+		 */
+		private final Recurrence rule;
+		
+		/**
+		 * Constructor for a Recurring task.
+		 * 
+		 * @param id The id of the Task.
+		 * @param tName The name of the Task.
+		 * @param dMinute The due date of the Task, in epoch minutes.
+		 * @param rule How the Task repeats.
+		 */
+		Recurring( long id, NameTable.Entry tName, long dMinute, Recurrence rule ) {
+			super( id, tName, dMinute );
+			this.rule = rule;
+		}
+		
+		@Override
+		public Recurrence getRecurrence() {
+			return rule;
+		}
+		
+		@Override
+		Task nextOccurrence() {
+			long next = rule.next( getDue() );
+			// If the series has ended, there is no next occurrence.
+			if ( next == Long.MIN_VALUE ) {
+				return null;
+			}
+			return new Recurring( getId(), getNameEntry(), next, rule.afterOccurrence() );
+		}
+		
+		/**
+		 * Keeps the rule, so a postponed occurrence still repeats.
+		 */
+		@Override
+		Task withDue( long dMinute ) {
+			return new Recurring( getId(), getNameEntry(), dMinute, rule );
+		}
+		
+		/**
+		 * Appends the Task in the Name,M/D/YYYY H:MM format, followed by a space and the rule.
+		 */
+		@Override
+		public StringBuilder appendTo( StringBuilder sb ) {
+			return rule.appendTo( super.appendTo( sb ).append( ' ' ) );
 		}
 	}
 }
\ No newline at end of file
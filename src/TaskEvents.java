@@ -0,0 +1,109 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder events for the task list. They show up under "Task List" in JDK Mission Control.
+ * 
+ * When no recording is running, or an event is disabled in the recording settings, its isEnabled() is false and
+ * the JIT removes the event altogether, so instrumented code costs next to nothing unless it is being recorded.
+ * Callers should only fill in the fields of an event once shouldCommit() is true.
+ */
+public class TaskEvents {
+	/**
+	 * Private constructor. This class only holds the event classes.
+	 */
+	private TaskEvents() {
+	}
+	
+	/**
+	 * Reading every task in the task file.
+	 */
+	@Name( "tasklist.Load" )
+	@Label( "Task File Load" )
+	@Category( "Task List" )
+	public static class Load extends Event {
+		/**
+		 * The file format.
+		 */
+		@Label( "Format" )
+		String format;
+		/**
+		 * Number of tasks read.
+		 */
+		@Label( "Tasks" )
+		int tasks;
+		/**
+		 * Size of the task file.
+		 */
+		@Label( "Bytes" )
+		@DataAmount
+		long bytes;
+	}
+	
+	/**
+	 * Writing a snapshot of the heap to the task file.
+	 */
+	@Name( "tasklist.Save" )
+	@Label( "Task File Save" )
+	@Category( "Task List" )
+	public static class Save extends Event {
+		/**
+		 * Number of tasks written.
+		 */
+		@Label( "Tasks" )
+		int tasks;
+		/**
+		 * Size of the written task file.
+		 */
+		@Label( "Bytes" )
+		@DataAmount
+		long bytes;
+	}
+	
+	/**
+	 * Removing a task from the heap, with how far the task that took its place moved.
+	 * One is emitted for every removal, so it is off unless turned on in the recording settings,
+	 * for example with -XX:StartFlightRecording:tasklist.Sift#enabled=true on JDK 17 and later.
+	 */
+	@Name( "tasklist.Sift" )
+	@Label( "Heap Sift" )
+	@Description( "Levels moved by the task that filled the place of a removed task" )
+	@Category( "Task List" )
+	@Enabled( false )
+	public static class Sift extends Event {
+		/**
+		 * Number of levels moved.
+		 */
+		@Label( "Depth" )
+		int depth;
+		/**
+		 * Number of tasks left in the heap.
+		 */
+		@Label( "Heap Size" )
+		int size;
+	}
+	
+	/**
+	 * Running a button handler on the event dispatch thread, during which the UI cannot respond.
+	 */
+	@Name( "tasklist.Handler" )
+	@Label( "EDT Handler" )
+	@Category( "Task List" )
+	public static class Handler extends Event {
+		/**
+		 * The panel whose handler ran.
+		 */
+		@Label( "Panel" )
+		String panel;
+		/**
+		 * The action command of the button that was pressed.
+		 */
+		@Label( "Command" )
+		String command;
+	}
+}
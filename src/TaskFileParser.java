@@ -0,0 +1,355 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/**
+ * Reads a task list text file in the Name,M/D/YYYY H:MM format written by Task.toString().
+ * Lines of repeating tasks have their Recurrence after the date, separated by a space.
+ * The file is memory-mapped and split into chunks that start and end on line breaks,
+ * and the chunks are parsed in parallel on the common ForkJoinPool.
+ */
+public class TaskFileParser {
+	/**
+	 * Smallest chunk worth parsing on its own thread, in bytes.
+	 */
+	private static final long MIN_CHUNK_SIZE = 1 << 20;
+	
+	/**
+	 * Number of chunks to make for each thread, so that threads that finish early can take more work.
+	 */
+	private static final int CHUNKS_PER_THREAD = 4;
+	
+	/**
+	 * Number of slots in the cache of recently seen names kept by each chunk parser. Must be a power of 2.
+	 */
+	private static final int NAME_CACHE_SIZE = 1 << 10;
+	
+	/**
+	 * Parses every task in a task list text file.
+	 * 
+	 * @param file The file to read.
+	 * @return Every task in the file, in file order.
+	 * @throws IOException If the file cannot be read or a line is malformed.
+	 */
+	public static List< Task > parse( File file ) throws IOException {
+		List< Task > tasks = new ArrayList< Task >();
+		parse( file, tasks::addAll );
+		return tasks;
+	}
+	
+	/**
+	 * Parses every task in a task list text file, handing over the tasks of each chunk as soon as it and every chunk
+	 * before it are parsed, so the first tasks can be used while later chunks are still being parsed.
+	 * If a line is malformed, the chunks before its chunk have already been handed over.
+	 * 
+	 * @param file The file to read.
+	 * @param sink Receives the tasks of each chunk, in file order.
+	 * @throws IOException If the file cannot be read or a line is malformed.
+	 */
+	public static void parse( File file, Consumer< List< Task > > sink ) throws IOException {
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			long[] bounds = chunkBounds( channel );
+			List< ChunkParser > chunks = new ArrayList< ChunkParser >( bounds.length - 1 );
+			// Start a parser for every chunk.
+			for ( int i = 0; i < bounds.length - 1; i++ ) {
+				ChunkParser chunk = new ChunkParser( channel, bounds[ i ], bounds[ i + 1 ] );
+				ForkJoinPool.commonPool().execute( chunk );
+				chunks.add( chunk );
+			}
+			// Hand over the chunks in file order, each as soon as it is parsed.
+			for ( ChunkParser chunk : chunks ) {
+				sink.accept( chunk.join() );
+			}
+		} catch ( RuntimeException e ) {
+			// Rethrow parse errors from the worker threads as IOExceptions.
+			for ( Throwable cause = e.getCause(); cause != null; cause = cause.getCause() ) {
+				if ( cause instanceof IOException ) {
+					throw ( IOException ) cause;
+				}
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Splits a file into chunks that each end just after a line break, or at the end of the file.
+	 * 
+	 * @param channel The file to split.
+	 * @return The start of every chunk, followed by the end of the file.
+	 * @throws IOException If the file cannot be read.
+	 */
+	private static long[] chunkBounds( FileChannel channel ) throws IOException {
+		long size = channel.size();
+		int threads = ForkJoinPool.getCommonPoolParallelism();
+		long chunkSize = Math.max( MIN_CHUNK_SIZE, size / ( ( long ) threads * CHUNKS_PER_THREAD ) + 1 );
+		List< Long > bounds = new ArrayList< Long >();
+		ByteBuffer probe = ByteBuffer.allocate( 256 );
+		long start = 0;
+		bounds.add( start );
+		// While the rest of the file is bigger than one chunk:
+		while ( size - start > chunkSize ) {
+			long end = start + chunkSize;
+			boolean found = false;
+			// Read ahead from the tentative end until a line break is found.
+			while ( !found && end < size ) {
+				probe.clear();
+				int read = channel.read( probe, end );
+				for ( int i = 0; i < read; i++ ) {
+					if ( probe.get( i ) == '\n' ) {
+						end += i + 1;
+						found = true;
+						break;
+					}
+				}
+				if ( !found ) {
+					end += read;
+				}
+			}
+			// If there were no more line breaks, the rest of the file is the last chunk.
+			if ( end >= size ) {
+				break;
+			}
+			bounds.add( end );
+			start = end;
+		}
+		bounds.add( size );
+		long[] result = new long[ bounds.size() ];
+		for ( int i = 0; i < result.length; i++ ) {
+			result[ i ] = bounds.get( i );
+		}
+		return result;
+	}
+	
+	/**
+	 * Parses the lines in one chunk of a memory-mapped file.
+	 */
+	private static class ChunkParser extends RecursiveTask< List< Task > > {
+		/**
+		 * Serial version of the task. ForkJoinTask is Serializable, though chunk parsers are never serialized.
+		 */
+		private static final long serialVersionUID = 1L;
+		/**
+		 * The file being parsed.
+		 */
+		private final FileChannel channel;
+		/**
+		 * Offset of the first byte of the chunk in the file.
+		 */
+		private final long start;
+		/**
+		 * Offset just past the last byte of the chunk in the file.
+		 */
+		private final long end;
+		/**
+		 * Reused buffer for copying out the bytes of a task name.
+		 */
+		private byte[] nameBytes = new byte[ 64 ];
+		/**
+		 * Entries of recently seen ASCII names, in the slot picked by a hash of their bytes.
+		 * Repeated names are matched against the cache, so no String is created for them.
+		 */
+		private final NameTable.Entry[] nameCache = new NameTable.Entry[ NAME_CACHE_SIZE ];
+		
+		/**
+		 * Constructor of the ChunkParser.
+		 * 
+		 * @param channel The file being parsed.
+		 * @param start Offset of the first byte of the chunk.
+		 * @param end Offset just past the last byte of the chunk.
+		 */
+		ChunkParser( FileChannel channel, long start, long end ) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected List< Task > compute() {
+			try {
+				MappedByteBuffer buf = channel.map( FileChannel.MapMode.READ_ONLY, start, end - start );
+				List< Task > tasks = new ArrayList< Task >( ( int ) ( ( end - start ) / 16 ) + 1 );	// Presize for lines of about 16 bytes.
+				int limit = buf.limit();
+				int lineStart = 0;
+				// For every line in the chunk:
+				while ( lineStart < limit ) {
+					int lineEnd = lineStart;
+					while ( lineEnd < limit && buf.get( lineEnd ) != '\n' ) {
+						lineEnd++;
+					}
+					int next = lineEnd + 1;
+					// Ignore a carriage return before the line break.
+					if ( lineEnd > lineStart && buf.get( lineEnd - 1 ) == '\r' ) {
+						lineEnd--;
+					}
+					// Skip blank lines.
+					if ( lineEnd > lineStart ) {
+						tasks.add( parseLine( buf, lineStart, lineEnd ) );
+					}
+					lineStart = next;
+				}
+				return tasks;
+			} catch ( IOException e ) {
+				throw new RuntimeException( e );
+			}
+		}
+		
+		/**
+		 * Parses one Name,M/D/YYYY H:MM line, which may end with a space and a recurrence rule.
+		 * 
+		 * @param buf The mapped chunk.
+		 * @param from Index of the first byte of the line.
+		 * @param to Index just past the last byte of the line.
+		 * @return The parsed Task.
+		 * @throws IOException If the line is malformed.
+		 */
+		private Task parseLine( ByteBuffer buf, int from, int to ) throws IOException {
+			int comma = to - 1;
+			// Find the last comma on the line, which separates the name from the date.
+			while ( comma >= from && buf.get( comma ) != ',' ) {
+				comma--;
+			}
+			if ( comma < from ) {
+				throw malformed( from );
+			}
+			int pos = comma + 1;
+			int month = 0, day = 0, year = 0, hours = 0, mins = 0;
+			int field = 0;		// Which date field is being read: month, day, year, hours, then minutes.
+			boolean digits = false;
+			Recurrence rule = null;
+			// Read the date one byte at a time.
+			for ( ; pos < to; pos++ ) {
+				byte b = buf.get( pos );
+				if ( b >= '0' && b <= '9' ) {
+					int d = b - '0';
+					switch ( field ) {
+						case 0: month = month * 10 + d; break;
+						case 1: day = day * 10 + d; break;
+						case 2: year = year * 10 + d; break;
+						case 3: hours = hours * 10 + d; break;
+						default: mins = mins * 10 + d; break;
+					}
+					digits = true;
+				// If the byte is the separator expected after the current field, move to the next field.
+				} else if ( digits && ( ( b == '/' && field < 2 ) || ( b == ' ' && field == 2 ) || ( b == ':' && field == 3 ) ) ) {
+					field++;
+					digits = false;
+				// If a space follows the minutes, the rest of the line is the recurrence rule.
+				} else if ( digits && b == ' ' && field == 4 ) {
+					rule = parseRule( buf, pos + 1, to, from );
+					break;
+				} else {
+					throw malformed( from );
+				}
+			}
+			if ( field != 4 || !digits ) {
+				throw malformed( from );
+			}
+			long due = DueDates.toMinute( year, month, day, hours, mins );
+			// If the task does not repeat, make a plain task.
+			if ( rule == null ) {
+				return new Task( internName( buf, from, comma ), due );
+			}
+			return Task.recurring( internName( buf, from, comma ), due, rule );
+		}
+		
+		/**
+		 * Parses the recurrence rule at the end of a line. Rules are plain ASCII.
+		 * 
+		 * @param buf The mapped chunk.
+		 * @param from Index of the first byte of the rule.
+		 * @param to Index just past the last byte of the rule.
+		 * @param lineStart Index of the first byte of the line, for the error message.
+		 * @return The rule.
+		 * @throws IOException If the rule is malformed.
+		 */
+		private Recurrence parseRule( ByteBuffer buf, int from, int to, int lineStart ) throws IOException {
+			byte[] bytes = new byte[ to - from ];
+			for ( int i = 0; i < bytes.length; i++ ) {
+				bytes[ i ] = buf.get( from + i );
+			}
+			try {
+				return Recurrence.parse( new String( bytes, StandardCharsets.ISO_8859_1 ) );
+			} catch ( IllegalArgumentException e ) {
+				throw malformed( lineStart );
+			}
+		}
+		
+		/**
+		 * Gets the shared NameTable entry of the name at the start of a line.
+		 * Names that are plain ASCII are looked up in the name cache first, and decoded directly,
+		 * without going through a charset decoder, if they are not there.
+		 * 
+		 * @param buf The mapped chunk.
+		 * @param from Index of the first byte of the name.
+		 * @param to Index just past the last byte of the name.
+		 * @return The entry of the name.
+		 */
+		private NameTable.Entry internName( ByteBuffer buf, int from, int to ) {
+			int len = to - from;
+			// Grow the name buffer if the name does not fit.
+			if ( len > nameBytes.length ) {
+				nameBytes = new byte[ Math.max( len, nameBytes.length * 2 ) ];
+			}
+			boolean ascii = true;
+			int hash = 0;
+			for ( int i = 0; i < len; i++ ) {
+				byte b = buf.get( from + i );
+				nameBytes[ i ] = b;
+				ascii &= b >= 0;
+				hash = 31 * hash + b;
+			}
+			// If the name is not ASCII, decode it with the default charset and skip the cache.
+			if ( !ascii ) {
+				return NameTable.getShared().intern( new String( nameBytes, 0, len, Charset.defaultCharset() ) );
+			}
+			int slot = ( hash ^ ( hash >>> 16 ) ) & ( NAME_CACHE_SIZE - 1 );
+			NameTable.Entry cached = nameCache[ slot ];
+			// If the cached name has the same bytes, reuse its entry.
+			if ( cached != null && sameName( cached.getName(), len ) ) {
+				return cached;
+			}
+			NameTable.Entry entry = NameTable.getShared().intern( new String( nameBytes, 0, len, StandardCharsets.ISO_8859_1 ) );
+			nameCache[ slot ] = entry;
+			return entry;
+		}
+		
+		/**
+		 * Checks if a name matches the ASCII bytes in the name buffer.
+		 * 
+		 * @param name The name to check.
+		 * @param len Number of bytes in the name buffer.
+		 * @return True if the name has the same characters as the bytes, false otherwise.
+		 */
+		private boolean sameName( String name, int len ) {
+			if ( name.length() != len ) {
+				return false;
+			}
+			for ( int i = 0; i < len; i++ ) {
+				if ( name.charAt( i ) != nameBytes[ i ] ) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Creates the exception thrown for a malformed line.
+		 * 
+		 * @param lineStart Index of the first byte of the line in the chunk.
+		 * @return The exception.
+		 */
+		private IOException malformed( int lineStart ) {
+			return new IOException( "Malformed task at byte " + ( start + lineStart ) );
+		}
+	}
+}
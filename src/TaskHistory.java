@@ -0,0 +1,359 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable versions of the tasks in a heap, for lock-free readers and undo.
+ * The history follows the heap as a HeapListener: every add, complete and postpone publishes a new PersistentHeap
+ * through an atomic reference, so any thread can take a consistent snapshot without locks while the heap keeps changing.
+ * 
+ * The version before and after each of the last few changes is kept, and versions share all but O(log n) of their nodes.
+ * Undo makes the heap match the version before the last change by applying the opposite change, which the journal records
+ * like any other, and then publishes that version again, which costs O(1). Redo does the same with the version after.
+ * Undoing a completion also takes the completion back out of the heap's archive, and redoing it completes the task again.
+ * 
+ * Tasks loaded from a partition are added to the latest version, but are not a change that can be undone. The versions kept
+ * for undo do not hold them, so an undo or redo after a load keeps the version built while applying it instead.
+ * 
+ * The history must only be changed, and undo and redo only called, on the thread that changes the heap.
+ */
+public class TaskHistory implements HeapListener< Task > {
+	/**
+	 * The heap the history follows.
+	 */
+	private final Heap< Task > h;
+	
+	/**
+	 * The latest version of the tasks.
+	 */
+	private final AtomicReference< PersistentHeap< Task > > current;
+	
+	/**
+	 * Changes that can be undone, with the latest last.
+	 */
+	private final Deque< Change > undoable;
+	
+	/**
+	 * Changes that were undone and can be made again, with the latest undone last.
+	 */
+	private final Deque< Change > redoable;
+	
+	/**
+	 * Most changes kept for undo.
+	 */
+	private final int limit;
+	
+	/**
+	 * True while undo or redo changes the heap, so the change is not recorded as a new one.
+	 */
+	private boolean replaying;
+	
+	/**
+	 * Number of times tasks have been loaded from a partition. Versions made before the latest load do not hold every task.
+	 */
+	private int loads;
+	
+	/**
+	 * The task being completed, from when the heap reports the completion until the change that removes or reschedules it
+	 * is published, or null.
+	 */
+	private Task completing;
+	
+	/**
+	 * Constructor for the TaskHistory.
+	 * Makes the first version from every task already in the heap, and starts following changes to the heap.
+	 * Changes made before this, such as loading the task file, cannot be undone.
+	 * 
+	 * @param h The heap to follow.
+	 * @param limit The most changes to keep for undo.
+	 */
+	public TaskHistory( Heap< Task > h, int limit ) {
+		this.h = h;
+		this.limit = limit;
+		this.current = new AtomicReference< PersistentHeap< Task > >( PersistentHeap.ofSorted( h.sortedSnapshot() ) );
+		this.undoable = new ArrayDeque< Change >();
+		this.redoable = new ArrayDeque< Change >();
+		h.addHeapListener( this );
+	}
+	
+	/**
+	 * Gets the latest version of the tasks. Can be called from any thread, and never waits.
+	 * 
+	 * @return The latest version, which never changes once returned.
+	 */
+	public PersistentHeap< Task > snapshot() {
+		return current.get();
+	}
+	
+	/**
+	 * Checks if there is a change to undo.
+	 * 
+	 * @return True if undo would change the heap, false otherwise.
+	 */
+	public boolean canUndo() {
+		return !undoable.isEmpty();
+	}
+	
+	/**
+	 * Checks if there is an undone change to make again.
+	 * 
+	 * @return True if redo would change the heap, false otherwise.
+	 */
+	public boolean canRedo() {
+		return !redoable.isEmpty();
+	}
+	
+	/**
+	 * Undoes the latest change that has not been undone.
+	 * 
+	 * @return True if a change was undone, false if there was none.
+	 */
+	public boolean undo() {
+		// If there is nothing to undo, do nothing.
+		if ( undoable.isEmpty() ) {
+			return false;
+		}
+		Change c = undoable.removeLast();
+		replaying = true;
+		try {
+			// Apply the opposite of the change to the heap.
+			for ( Task t : c.added ) {
+				// If the task was added by a postpone, the removed copy moves it back instead.
+				if ( !c.moves( t ) ) {
+					h.remove( t.getId() );
+				}
+			}
+			for ( Task t : c.removed ) {
+				// If the task was removed by a postpone, move it back. Otherwise, add it back.
+				if ( c.moves( t ) ) {
+					h.replace( h.getHandle( t.getId() ), t );
+				} else {
+					h.addItem( t );
+				}
+			}
+		} finally {
+			replaying = false;
+		}
+		// If the change completed a task, take the completion back out of the archive.
+		if ( c.completed != null ) {
+			h.retractCompletion( c.completed.getId() );
+		}
+		// If no tasks have been loaded since the change, publish the version before it. Otherwise, keep the version built by undoing it.
+		if ( c.loads == loads ) {
+			current.set( c.before );
+		}
+		redoable.addLast( c );
+		return true;
+	}
+	
+	/**
+	 * Makes the latest undone change again.
+	 * 
+	 * @return True if a change was made again, false if there was none.
+	 */
+	public boolean redo() {
+		// If there is nothing to redo, do nothing.
+		if ( redoable.isEmpty() ) {
+			return false;
+		}
+		Change c = redoable.removeLast();
+		replaying = true;
+		try {
+			// If the change completed a task, complete it again, so the archive records it. Otherwise, apply the change to the heap again.
+			if ( c.completed != null ) {
+				h.complete( c.completed.getId() );
+			} else {
+				for ( Task t : c.removed ) {
+					// If the task was removed by a postpone, the added copy moves it instead.
+					if ( !c.moves( t ) ) {
+						h.remove( t.getId() );
+					}
+				}
+				for ( Task t : c.added ) {
+					// If the task was added by a postpone, move it. Otherwise, add it.
+					if ( c.moves( t ) ) {
+						h.replace( h.getHandle( t.getId() ), t );
+					} else {
+						h.addItem( t );
+					}
+				}
+			}
+		} finally {
+			replaying = false;
+		}
+		// If no tasks have been loaded since the change, publish the version after it. Otherwise, keep the version built by making it.
+		if ( c.loads == loads ) {
+			current.set( c.after );
+		}
+		undoable.addLast( c );
+		return true;
+	}
+	
+	/**
+	 * Publishes a version with the task added.
+	 */
+	@Override
+	public void itemAdded( Task item ) {
+		List< Task > added = new ArrayList< Task >( 1 );
+		added.add( item );
+		publish( current.get().insert( item ), added, new ArrayList< Task >( 0 ) );
+	}
+	
+	/**
+	 * Publishes one version with every task of the batch added.
+	 */
+	@Override
+	public void itemsAdded( Collection< ? extends Task > items ) {
+		PersistentHeap< Task > next = current.get();
+		for ( Task t : items ) {
+			next = next.insert( t );
+		}
+		publish( next, new ArrayList< Task >( items ), new ArrayList< Task >( 0 ) );
+	}
+	
+	/**
+	 * Publishes one version with every loaded task added, without recording it as a change.
+	 */
+	@Override
+	public void itemsLoaded( Collection< ? extends Task > items ) {
+		PersistentHeap< Task > next = current.get();
+		for ( Task t : items ) {
+			next = next.insert( t );
+		}
+		current.set( next );
+		loads++;
+	}
+	
+	/**
+	 * Publishes a version without the task.
+	 */
+	@Override
+	public void itemRemoved( Task item ) {
+		List< Task > removed = new ArrayList< Task >( 1 );
+		removed.add( item );
+		publish( current.get().remove( item ), new ArrayList< Task >( 0 ), removed );
+	}
+	
+	/**
+	 * Publishes one version with the task in its new place, so readers never see it missing.
+	 */
+	@Override
+	public void itemRescheduled( Task old, Task item ) {
+		List< Task > added = new ArrayList< Task >( 1 );
+		List< Task > removed = new ArrayList< Task >( 1 );
+		added.add( item );
+		removed.add( old );
+		publish( current.get().replace( old, item ), added, removed );
+	}
+	
+	/**
+	 * Notes the completed task, so the change that removes or reschedules it can be undone as a completion.
+	 */
+	@Override
+	public void itemCompleted( Task item ) {
+		// If redo is completing the task again, it is not a new change.
+		if ( !replaying ) {
+			completing = item;
+		}
+	}
+	
+	/**
+	 * Publishes a new version, and records the change for undo unless it is being made by undo or redo.
+	 * 
+	 * @param next The new version.
+	 * @param added The tasks the change added.
+	 * @param removed The tasks the change removed.
+	 */
+	private void publish( PersistentHeap< Task > next, List< Task > added, List< Task > removed ) {
+		PersistentHeap< Task > before = current.getAndSet( next );
+		// If undo or redo is making the change, it publishes the version it already has once it is done.
+		if ( replaying ) {
+			return;
+		}
+		undoable.addLast( new Change( before, next, added, removed, loads, completing ) );
+		completing = null;
+		// If too many changes are kept, forget the oldest.
+		if ( undoable.size() > limit ) {
+			undoable.removeFirst();
+		}
+		redoable.clear();
+	}
+	
+	/**
+	 * One change to the heap, with the versions before and after it.
+	 */
+	private static class Change {
+		/**
+		 * The version before the change.
+		 */
+		private final PersistentHeap< Task > before;
+		/**
+		 * The version after the change.
+		 */
+		private final PersistentHeap< Task > after;
+		/**
+		 * The tasks the change added, including the new copy of a postponed task.
+		 */
+		private final List< Task > added;
+		/**
+		 * The tasks the change removed, including the old copy of a postponed task.
+		 */
+		private final List< Task > removed;
+		/**
+		 * Number of loads before the change, to tell if its versions still hold every task.
+		 */
+		private final int loads;
+		/**
+		 * The task the change completed, or null if it did not complete one.
+		 */
+		private final Task completed;
+		
+		/**
+		 * Constructor for a Change.
+		 * 
+		 * @param before The version before the change.
+		 * @param after The version after the change.
+		 * @param added The tasks the change added.
+		 * @param removed The tasks the change removed.
+		 * @param loads The number of loads before the change.
+		 * @param completed The task the change completed, or null if it did not complete one.
+		 */
+		Change( PersistentHeap< Task > before, PersistentHeap< Task > after, List< Task > added, List< Task > removed, int loads, Task completed ) {
+			this.before = before;
+			this.after = after;
+			this.added = added;
+			this.removed = removed;
+			this.loads = loads;
+			this.completed = completed;
+		}
+		
+		/**
+		 * Checks if a task was only moved by a postpone: a copy of it with the same id was both removed and added.
+		 * 
+		 * @param t A task the change added or removed.
+		 * @return True if the change postponed the task, false if it only added or only removed it.
+		 */
+		boolean moves( Task t ) {
+			return hasId( added, t.getId() ) && hasId( removed, t.getId() );
+		}
+		
+		/**
+		 * Checks if a list holds a task with an id.
+		 * 
+		 * @param tasks The tasks.
+		 * @param id The id to look for.
+		 * @return True if one of the tasks has the id, false otherwise.
+		 */
+		private static boolean hasId( List< Task > tasks, long id ) {
+			for ( Task t : tasks ) {
+				if ( t.getId() == id ) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
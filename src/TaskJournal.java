@@ -0,0 +1,546 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of changes made to a Heap of Tasks since its last snapshot.
+ * 
+ * Every added or removed task appends a small record to an in-memory buffer. A background thread writes the buffer
+ * to the journal file and forces it to disk every few milliseconds, so many changes share one fsync.
+ * The heap's completion archive is synced just before each batch, so a completed task is never removed on disk
+ * without its completion also being there.
+ * Once the journal grows past the size of the snapshot, the heap is saved as a new snapshot. The journal only marks the
+ * compaction as due, and the heap starts it once the change that grew the journal is done.
+ * 
+ * The journal is split into numbered generations, one file each. When a snapshot is taken the journal rotates to
+ * a new generation, and once the snapshot is on disk every older generation is deleted. Records made while a
+ * snapshot is being written are kept in the new generation, so nothing is lost if the snapshot is written in the background.
+ * Rotating only seals the pending records of the old generation in memory. The next flush writes them to the old
+ * generation's file and opens the new one, so the thread taking the snapshot never waits on the disk.
+ * 
+ * Each record is stored as its payload length, the payload, and a CRC32 of the payload.
+ * An add record holds the task's id, due date and name. A remove record holds the task's id and due date.
+ * A repeating task is added with its own payload type, which follows the name with the task's recurrence rule.
+ * A retract record holds the task's id and the archive row of a completion that was undone. Retractions are written to
+ * the archive once the batch holding their records is on disk, and are applied to the archive again when replayed.
+ * Due dates are stored in epoch minutes. Records written by older versions, which stored epoch milliseconds,
+ * have their own payload types and are converted when replayed.
+ */
+public class TaskJournal implements HeapListener< Task > {
+	/**
+	 * Payload type of a record for an added task.
+	 */
+	private static final byte ADD = 'a';
+	
+	/**
+	 * Payload type of a record for a removed task.
+	 */
+	private static final byte REMOVE = 'r';
+	
+	/**
+	 * Payload type of a record for an added task, with the due time in epoch milliseconds.
+	 */
+	private static final byte ADD_MILLIS = 'A';
+	
+	/**
+	 * Payload type of a record for an added task that repeats.
+	 */
+	private static final byte ADD_RECURRING = 'e';
+	
+	/**
+	 * Payload type of a record for a completion taken back by undo.
+	 */
+	private static final byte RETRACT = 'u';
+	
+	/**
+	 * How often buffered records are written and forced to disk, in milliseconds.
+	 */
+	private static final long GROUP_COMMIT_MILLIS = 10;
+	
+	/**
+	 * Smallest journal size that triggers a compaction, in bytes.
+	 */
+	private static final long MIN_COMPACT_SIZE = 1 << 20;
+	
+	/**
+	 * The heap whose changes are recorded.
+	 */
+	private final Heap< Task > heap;
+	
+	/**
+	 * The archive of the heap's completed tasks, or null if there is none.
+	 */
+	private final CompletionArchive archive;
+	
+	/**
+	 * Path of the journal files without their generation number.
+	 */
+	private final File baseFile;
+	
+	/**
+	 * Generation number that new records belong to. Guarded by this journal's lock.
+	 */
+	private int generation;
+	
+	/**
+	 * Generation number of the journal file being written. Guarded by ioLock.
+	 */
+	private int channelGeneration;
+	
+	/**
+	 * The journal file being written. Guarded by ioLock.
+	 */
+	private FileChannel channel;
+	
+	/**
+	 * Records waiting to be written. Guarded by this journal's lock.
+	 */
+	private ByteBuffer pending;
+	
+	/**
+	 * Second buffer, swapped with pending while a batch is written.
+	 */
+	private ByteBuffer writing;
+	
+	/**
+	 * Records of generations that were rotated away before they were written, one buffer per generation, oldest first.
+	 * Guarded by this journal's lock.
+	 */
+	private List< ByteBuffer > sealed;
+	
+	/**
+	 * Archive rows of the retractions recorded in pending, or replayed from the journal files, that are not yet
+	 * written to the archive. Guarded by this journal's lock.
+	 */
+	private List< Long > retractions;
+	
+	/**
+	 * Size of the journal, including pending records, in bytes. Guarded by this journal's lock.
+	 */
+	private long journalSize;
+	
+	/**
+	 * Journal size that triggers the next compaction, in bytes.
+	 */
+	private long compactSize;
+	
+	/**
+	 * True once the journal has grown past compactSize, until the heap takes the compaction. Guarded by this journal's lock.
+	 */
+	private boolean compactDue;
+	
+	/**
+	 * Serializes writes to the journal file with compaction.
+	 */
+	private final Object ioLock = new Object();
+	
+	/**
+	 * Checksum used when encoding records.
+	 */
+	private final CRC32 crc = new CRC32();
+	
+	/**
+	 * Runs the group commit.
+	 */
+	private final ScheduledExecutorService flusher;
+	
+	/**
+	 * Replays every journal generation of a heap into the heap, then starts recording the heap's changes in a new generation.
+	 * The heap should already hold the contents of its last snapshot.
+	 * 
+	 * @param heap The heap to record.
+	 * @param archive The archive of the heap's completed tasks, synced before each batch is written, or null if there is none.
+	 * @param baseFile Path of the journal files without their generation number.
+	 * @param snapshotSize The size of the last snapshot in bytes.
+	 * @throws IOException If a journal file cannot be opened or read.
+	 */
+	public TaskJournal( Heap< Task > heap, CompletionArchive archive, File baseFile, long snapshotSize ) throws IOException {
+		this.heap = heap;
+		this.archive = archive;
+		this.baseFile = baseFile;
+		this.pending = ByteBuffer.allocate( 1 << 16 );
+		this.writing = ByteBuffer.allocate( 1 << 16 );
+		this.retractions = new ArrayList< Long >();
+		this.sealed = new ArrayList< ByteBuffer >();
+		// Replay every existing generation, oldest first.
+		for ( int gen : generations() ) {
+			try ( FileChannel old = FileChannel.open( generationFile( gen ).toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE ) ) {
+				this.journalSize += replay( old );
+			}
+			this.generation = gen + 1;
+		}
+		this.channelGeneration = generation;
+		this.channel = openGeneration( generation );
+		this.compactSize = Math.max( MIN_COMPACT_SIZE, snapshotSize );
+		this.flusher = Executors.newSingleThreadScheduledExecutor( r -> {
+			Thread t = new Thread( r, "task-journal" );
+			t.setDaemon( true );
+			return t;
+		} );
+		flusher.scheduleWithFixedDelay( this::flushQuietly, GROUP_COMMIT_MILLIS, GROUP_COMMIT_MILLIS, TimeUnit.MILLISECONDS );
+		heap.addHeapListener( this );
+	}
+	
+	/**
+	 * Gets the journal file of a generation.
+	 * Generation -1 is the single unnumbered journal file written by older versions.
+	 * 
+	 * @param gen The generation number.
+	 * @return The journal file.
+	 */
+	private File generationFile( int gen ) {
+		return gen < 0 ? baseFile : new File( baseFile.getPath() + "." + gen );
+	}
+	
+	/**
+	 * Creates and opens the journal file of a generation for writing.
+	 * 
+	 * @param gen The generation number.
+	 * @return The opened journal file.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	private FileChannel openGeneration( int gen ) throws IOException {
+		FileChannel opened = FileChannel.open( generationFile( gen ).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+		opened.position( opened.size() );
+		return opened;
+	}
+	
+	/**
+	 * Lists the generation numbers of every journal file on disk.
+	 * 
+	 * @return The generation numbers, in increasing order.
+	 */
+	private List< Integer > generations() {
+		List< Integer > gens = new ArrayList< Integer >();
+		// Include the unnumbered journal file of older versions, if there is one.
+		if ( baseFile.exists() ) {
+			gens.add( -1 );
+		}
+		File dir = baseFile.getAbsoluteFile().getParentFile();
+		String prefix = baseFile.getName() + ".";
+		String[] names = dir == null ? null : dir.list();
+		// Collect the number of every file named like a journal generation.
+		if ( names != null ) {
+			for ( String name : names ) {
+				if ( name.startsWith( prefix ) && name.length() > prefix.length() && name.substring( prefix.length() ).matches( "[0-9]{1,9}" ) ) {
+					gens.add( Integer.parseInt( name.substring( prefix.length() ) ) );
+				}
+			}
+		}
+		Collections.sort( gens );
+		return gens;
+	}
+	
+	/**
+	 * Applies every complete record in a journal file to the heap.
+	 * An add record replaces any task with the same id. Reading stops at the first torn or corrupt record,
+	 * which is cut off.
+	 * 
+	 * @param file The journal file to read.
+	 * @return The size of the good part of the journal file in bytes.
+	 * @throws IOException If the journal file cannot be read.
+	 */
+	private long replay( FileChannel file ) throws IOException {
+		long size = file.size();
+		ByteBuffer buf = ByteBuffer.allocate( ( int ) Math.min( size, Integer.MAX_VALUE - 8 ) );
+		while ( buf.hasRemaining() && file.read( buf, buf.position() ) > 0 ) {
+		}
+		buf.flip();
+		CRC32 check = new CRC32();
+		long good = 0;
+		// While there is room for a record header:
+		while ( buf.remaining() >= 4 ) {
+			int len = buf.getInt();
+			// If the record is cut off, stop reading.
+			if ( len < 17 || buf.remaining() < len + 4 ) {
+				break;
+			}
+			ByteBuffer payload = buf.slice();
+			payload.limit( len );
+			check.reset();
+			check.update( payload.duplicate() );
+			buf.position( buf.position() + len );
+			// If the record is corrupt, stop reading.
+			if ( ( int ) check.getValue() != buf.getInt() ) {
+				break;
+			}
+			apply( payload );
+			good = buf.position();
+		}
+		file.truncate( good );
+		return good;
+	}
+	
+	/**
+	 * Applies one record to the heap.
+	 * 
+	 * @param payload The payload of the record.
+	 */
+	private void apply( ByteBuffer payload ) {
+		byte type = payload.get();
+		long id = payload.getLong();
+		long due = payload.getLong();
+		// If the record takes back a completion, retract it in the archive again. The second field is the archive row.
+		if ( type == RETRACT ) {
+			// If the archive has not written the retraction yet, write it once the journal is flushed.
+			if ( archive != null && archive.retractRow( due ) ) {
+				retractions.add( due );
+			}
+			return;
+		}
+		// Load the partition of the record's due date first, so a stored copy of the task is replaced now instead of loaded back later.
+		heap.ensureLoaded( type == ADD_MILLIS ? DueDates.fromEpochMilli( due ) : due );
+		heap.remove( id );		// Both kinds of record replace whatever the heap holds for this id.
+		// If the record is for an added task, add it back.
+		if ( type == ADD || type == ADD_MILLIS || type == ADD_RECURRING ) {
+			byte[] name = new byte[ payload.getShort() & 0xFFFF ];
+			payload.get( name );
+			// If the record was written by an older version, convert the due time from epoch milliseconds.
+			if ( type == ADD_MILLIS ) {
+				due = DueDates.fromEpochMilli( due );
+			}
+			Recurrence rule = null;
+			// If the task repeats, read its rule.
+			if ( type == ADD_RECURRING ) {
+				rule = new Recurrence( Recurrence.Unit.values()[ payload.get() ], payload.getInt(), payload.getInt(), payload.getLong(), payload.getInt() );
+			}
+			heap.addItem( Task.recurring( id, new String( name, StandardCharsets.UTF_8 ), due, rule ) );
+		}
+	}
+	
+	/**
+	 * Records an added task.
+	 */
+	@Override
+	public void itemAdded( Task item ) {
+		byte[] name = item.getName().getBytes( StandardCharsets.UTF_8 );
+		int nameLen = Math.min( name.length, 0xFFFF );
+		Recurrence rule = item.getRecurrence();
+		ByteBuffer payload = ByteBuffer.allocate( 19 + nameLen + ( rule == null ? 0 : 21 ) );
+		payload.put( rule == null ? ADD : ADD_RECURRING ).putLong( item.getId() ).putLong( item.getDue() );
+		payload.putShort( ( short ) nameLen ).put( name, 0, nameLen );
+		// If the task repeats, store its rule after the name.
+		if ( rule != null ) {
+			payload.put( ( byte ) rule.getUnit().ordinal() ).putInt( rule.getInterval() ).putInt( rule.getDays() );
+			payload.putLong( rule.getUntil() ).putInt( rule.getCount() );
+		}
+		append( payload );
+	}
+	
+	/**
+	 * Ignores tasks loaded from a partition, since they are already stored.
+	 */
+	@Override
+	public void itemsLoaded( Collection< ? extends Task > items ) {
+	}
+	
+	/**
+	 * Records a removed task.
+	 */
+	@Override
+	public void itemRemoved( Task item ) {
+		ByteBuffer payload = ByteBuffer.allocate( 17 );
+		payload.put( REMOVE ).putLong( item.getId() ).putLong( item.getDue() );
+		append( payload );
+	}
+	
+	/**
+	 * Records that a completion was taken back by undo. The retraction is written to the archive once this record,
+	 * and the records of the changes made before it, are on disk.
+	 * 
+	 * @param id The id of the task.
+	 * @param row The archive row of the retracted completion.
+	 */
+	public void recordRetraction( long id, long row ) {
+		ByteBuffer payload = ByteBuffer.allocate( 17 );
+		payload.put( RETRACT ).putLong( id ).putLong( row );
+		append( payload );
+		// Add the row after the record, so a flush that writes the row has written the record.
+		synchronized ( this ) {
+			retractions.add( row );
+		}
+	}
+	
+	/**
+	 * Adds a record to the pending buffer, and marks a compaction as due if the journal has grown too large.
+	 * 
+	 * @param payload The filled payload of the record.
+	 */
+	private void append( ByteBuffer payload ) {
+		payload.flip();
+		synchronized ( this ) {
+			crc.reset();
+			crc.update( payload.duplicate() );
+			int recordSize = payload.remaining() + 8;
+			// Grow the pending buffer if the record does not fit.
+			if ( pending.remaining() < recordSize ) {
+				ByteBuffer grown = ByteBuffer.allocate( Math.max( pending.capacity() * 2, pending.position() + recordSize ) );
+				pending.flip();
+				grown.put( pending );
+				pending = grown;
+			}
+			pending.putInt( payload.remaining() ).put( payload ).putInt( ( int ) crc.getValue() );
+			journalSize += recordSize;
+			// If the journal is now bigger than a snapshot would be, it should be folded into a new snapshot.
+			if ( journalSize > compactSize ) {
+				compactDue = true;
+			}
+		}
+	}
+	
+	/**
+	 * Checks if the journal has grown enough to be folded into a new snapshot, and clears the mark if so.
+	 * Called by the heap once a change is done, rather than from inside the change.
+	 * 
+	 * @return True if a snapshot should be taken, false otherwise.
+	 */
+	public synchronized boolean takeCompaction() {
+		boolean due = compactDue;
+		compactDue = false;
+		return due;
+	}
+	
+	/**
+	 * Writes every pending record to the journal file and forces it to disk.
+	 * Records sealed by a rotation are written to their own generation's file first, and the new generation's file is opened.
+	 * The completions recorded before those records are forced to the archive first, and the retractions among them
+	 * are written to the archive after.
+	 * 
+	 * @throws IOException If the journal file or the archive cannot be written.
+	 */
+	public void flush() throws IOException {
+		synchronized ( ioLock ) {
+			ByteBuffer batch;
+			List< ByteBuffer > older;
+			List< Long > retracted;
+			synchronized ( this ) {
+				// Swap the buffers so new records can be added while this batch is written.
+				batch = pending;
+				pending = writing;
+				writing = batch;
+				older = sealed;
+				sealed = new ArrayList< ByteBuffer >();
+				retracted = retractions;
+				retractions = new ArrayList< Long >();
+			}
+			// A task completed before its removal was recorded, so syncing the archive now puts the completion of every removal in this batch on disk first.
+			if ( archive != null ) {
+				archive.sync();
+			}
+			// Finish the file of each generation rotated away since the last flush, then move on to the next one.
+			for ( ByteBuffer old : older ) {
+				write( old );
+				channel.force( false );
+				channel.close();
+				channelGeneration++;
+				channel = openGeneration( channelGeneration );
+			}
+			// If nothing is pending, there is nothing to force.
+			if ( batch.position() > 0 ) {
+				write( batch );
+				channel.force( false );
+			}
+			batch.clear();
+			// The records of these retractions are on disk now, and so is every change made before them, such as putting the task back.
+			if ( archive != null && !retracted.isEmpty() ) {
+				archive.persistRetractions( retracted );
+			}
+		}
+	}
+	
+	/**
+	 * Writes a buffer of records to the journal file being written.
+	 * 
+	 * @param records The records, from the start of the buffer to its position.
+	 * @throws IOException If the journal file cannot be written.
+	 */
+	private void write( ByteBuffer records ) throws IOException {
+		records.flip();
+		while ( records.hasRemaining() ) {
+			channel.write( records );
+		}
+	}
+	
+	/**
+	 * Flushes the journal from the background thread, reporting any error.
+	 */
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch ( IOException e ) {
+			System.out.println( "Error writing to journal: " + e.getMessage() );
+		}
+	}
+	
+	/**
+	 * Starts a new generation. Called when a snapshot of the heap is taken, so that the snapshot holds every change
+	 * in the generations up to the one returned, and none of the changes in the new one.
+	 * Does not touch the disk: the pending records are sealed for the old generation and written by the next flush,
+	 * which must finish before the snapshot is saved.
+	 * 
+	 * @param snapshotSize The expected size of the snapshot in bytes.
+	 * @return The generation number of the last generation covered by the snapshot.
+	 */
+	public synchronized int rotate( long snapshotSize ) {
+		sealed.add( pending );
+		pending = ByteBuffer.allocate( 1 << 16 );
+		int covered = generation;
+		generation++;
+		journalSize = 0;
+		compactSize = Math.max( MIN_COMPACT_SIZE, snapshotSize );
+		compactDue = false;
+		return covered;
+	}
+	
+	/**
+	 * Deletes every generation up to the given one, after a snapshot holding their changes has been saved.
+	 * 
+	 * @param covered The generation number of the last generation covered by the snapshot.
+	 */
+	public void deleteThrough( int covered ) {
+		synchronized ( ioLock ) {
+			for ( int gen : generations() ) {
+				if ( gen <= covered ) {
+					generationFile( gen ).delete();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Stops recording the heap's changes. Changes made while paused are only kept by the next snapshot.
+	 */
+	public void pause() {
+		heap.removeHeapListener( this );
+	}
+	
+	/**
+	 * Starts recording the heap's changes again after pause. Call after a snapshot holding the changes made while paused has been saved.
+	 */
+	public void resume() {
+		heap.addHeapListener( this );
+	}
+	
+	/**
+	 * Writes every pending record, stops the background thread and closes the journal file.
+	 * 
+	 * @throws IOException If the journal file cannot be written or closed.
+	 */
+	public void close() throws IOException {
+		heap.removeHeapListener( this );
+		flusher.shutdown();
+		flush();
+		channel.close();
+	}
+}
@@ -0,0 +1,497 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Task storage split into one partition per month of due dates, so only the near-term tasks have to be read at startup.
+ * 
+ * Each partition is a binary task file in the partition directory, holding every task due in its month.
+ * A small manifest lists every partition with its month, earliest due date and task count, and is all that is
+ * read of the later partitions at startup. Partitions are loaded by month: every partition up to the end of the next month
+ * when the heap is loaded, a later one once the earliest task in memory is due at or after its earliest due date,
+ * and any partition whose month a task is added to or moved into, so every task in memory belongs to a loaded partition.
+ * 
+ * A snapshot rewrites only the partitions that were loaded when it was taken, from the tasks in memory, and leaves the rest
+ * untouched, so saving costs as much as the tasks in memory rather than the whole backlog. Partition files are written first,
+ * each replacing the old one atomically, then the manifest, then files of emptied partitions are deleted.
+ * 
+ * The manifest holds a header of the magic number, format version and partition count; a month, earliest due date
+ * and task count for each partition; and a CRC32 of everything before it. Every number is big-endian.
+ */
+public class TaskPartitions {
+	/**
+	 * First four bytes of every manifest: "TSKP".
+	 */
+	public static final int MAGIC = 0x54534B50;
+	
+	/**
+	 * Version of the manifest format written by this class.
+	 */
+	public static final int VERSION = 1;
+	
+	/**
+	 * Name of the manifest in the partition directory.
+	 */
+	private static final String MANIFEST = "manifest";
+	
+	/**
+	 * Number of months after the current one whose partitions are loaded at startup, along with every earlier one.
+	 */
+	private static final int EAGER_MONTHS = 1;
+	
+	/**
+	 * Size of the manifest header in bytes.
+	 */
+	private static final int HEADER_SIZE = 12;
+	
+	/**
+	 * Size of a manifest entry in bytes.
+	 */
+	private static final int ENTRY_SIZE = 16;
+	
+	/**
+	 * The partition directory.
+	 */
+	private final File dir;
+	
+	/**
+	 * Every partition, by month. A month without a partition has no stored tasks, so it counts as loaded.
+	 */
+	private final TreeMap< Integer, Partition > partitions;
+	
+	/**
+	 * The earliest partition that is not loaded, or null if every partition is loaded.
+	 */
+	private Partition firstUnloaded;
+	
+	/**
+	 * Start of the month of the earliest partition that is not loaded, or Long.MAX_VALUE if every partition is loaded.
+	 * Every task due before it belongs to a loaded partition.
+	 */
+	private long unloadedStart;
+	
+	/**
+	 * Size of the partition files read so far, in bytes.
+	 */
+	private long loadedBytes;
+	
+	/**
+	 * Constructor for the TaskPartitions. Nothing is read until open is called.
+	 * 
+	 * @param dir The partition directory.
+	 */
+	public TaskPartitions( File dir ) {
+		this.dir = dir;
+		this.partitions = new TreeMap< Integer, Partition >();
+		this.unloadedStart = Long.MAX_VALUE;
+	}
+	
+	/**
+	 * Checks if tasks have been stored in partitions.
+	 * 
+	 * @return True if the partition directory has a manifest, false otherwise.
+	 */
+	public boolean exists() {
+		return new File( dir, MANIFEST ).exists();
+	}
+	
+	/**
+	 * Gets the month a due date falls in.
+	 * 
+	 * @param due A due date in epoch minutes.
+	 * @return The month, counted from January of year 0.
+	 */
+	public static int monthOf( long due ) {
+		return DueDates.year( due ) * 12 + DueDates.month( due ) - 1;
+	}
+	
+	/**
+	 * Gets the start of a month.
+	 * 
+	 * @param month A month, counted from January of year 0.
+	 * @return Midnight on the first of the month, in epoch minutes.
+	 */
+	public static long startOf( int month ) {
+		return DueDates.toMinute( Math.floorDiv( month, 12 ), Math.floorMod( month, 12 ) + 1, 1, 0, 0 );
+	}
+	
+	/**
+	 * Reads the manifest, and loads every partition up to the end of the month after a date.
+	 * If every partition is later than that, the earliest one is loaded, so the earliest task is always in memory.
+	 * If there is no manifest, there are no partitions, and every month counts as loaded.
+	 * 
+	 * @param now The current date in epoch minutes.
+	 * @return The tasks of the loaded partitions.
+	 * @throws IOException If the manifest or a partition cannot be read or is corrupt.
+	 */
+	public synchronized List< Task > open( long now ) throws IOException {
+		List< Task > tasks = new ArrayList< Task >();
+		open( now, tasks::addAll );
+		return tasks;
+	}
+	
+	/**
+	 * Reads the manifest, and loads every partition up to the end of the month after a date, as open does,
+	 * handing over the tasks of each partition as soon as it is read.
+	 * 
+	 * @param now The current date in epoch minutes.
+	 * @param sink Receives the tasks of each loaded partition, earliest month first. Called while this object's lock is held.
+	 * @throws IOException If the manifest or a partition cannot be read or is corrupt.
+	 */
+	public synchronized void open( long now, Consumer< List< Task > > sink ) throws IOException {
+		partitions.clear();
+		readManifest();
+		long loaded = 0;
+		int last = monthOf( now ) + EAGER_MONTHS;
+		// Load every partition up to the last eager month, or the earliest one if they are all later.
+		for ( Partition p : partitions.values() ) {
+			if ( p.month > last && loaded > 0 ) {
+				break;
+			}
+			List< Task > tasks = read( p );
+			loaded += tasks.size();
+			sink.accept( tasks );
+		}
+		updateUnloadedStart();
+	}
+	
+	/**
+	 * Checks if the partition a due date falls in is loaded, or has no stored tasks.
+	 * 
+	 * @param due A due date in epoch minutes.
+	 * @return True if every stored task due in the same month is in memory, false otherwise.
+	 */
+	public synchronized boolean isLoaded( long due ) {
+		// If the date is before every unloaded partition, its partition is loaded.
+		if ( due < unloadedStart ) {
+			return true;
+		}
+		Partition p = partitions.get( monthOf( due ) );
+		return p == null || p.loaded;
+	}
+	
+	/**
+	 * Loads the partition a due date falls in.
+	 * 
+	 * @param due A due date in epoch minutes.
+	 * @return The tasks of the partition, or null if it was already loaded or has no stored tasks.
+	 * @throws IOException If the partition cannot be read or is corrupt.
+	 */
+	public synchronized List< Task > load( long due ) throws IOException {
+		// If the date is before every unloaded partition, there is nothing to load.
+		if ( due < unloadedStart ) {
+			return null;
+		}
+		Partition p = partitions.get( monthOf( due ) );
+		// If the partition is loaded or does not exist, there is nothing to load.
+		if ( p == null || p.loaded ) {
+			return null;
+		}
+		List< Task > tasks = read( p );
+		updateUnloadedStart();
+		return tasks;
+	}
+	
+	/**
+	 * Gets the earliest due date in the partitions that are not loaded.
+	 * 
+	 * @return The earliest due date of the earliest unloaded partition, or Long.MAX_VALUE if every partition is loaded.
+	 */
+	public synchronized long nextDue() {
+		return firstUnloaded == null ? Long.MAX_VALUE : firstUnloaded.minDue;
+	}
+	
+	/**
+	 * Loads the earliest partition that is not loaded.
+	 * 
+	 * @return The tasks of the partition, or null if every partition is loaded.
+	 * @throws IOException If the partition cannot be read or is corrupt.
+	 */
+	public synchronized List< Task > loadNext() throws IOException {
+		// If every partition is loaded, there is nothing to load.
+		if ( firstUnloaded == null ) {
+			return null;
+		}
+		List< Task > tasks = read( firstUnloaded );
+		updateUnloadedStart();
+		return tasks;
+	}
+	
+	/**
+	 * Gets the number of partitions, loaded or not.
+	 * 
+	 * @return The number of partitions.
+	 */
+	public synchronized int getPartitionCount() {
+		return partitions.size();
+	}
+	
+	/**
+	 * Gets the number of partitions that are loaded.
+	 * 
+	 * @return The number of loaded partitions.
+	 */
+	public synchronized int getLoadedCount() {
+		int count = 0;
+		for ( Partition p : partitions.values() ) {
+			if ( p.loaded ) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Gets the number of stored tasks in the partitions that are not loaded, as of the last save.
+	 * 
+	 * @return The number of tasks not in memory.
+	 */
+	public synchronized long getUnloadedTaskCount() {
+		long count = 0;
+		for ( Partition p : partitions.values() ) {
+			if ( !p.loaded ) {
+				count += p.count;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Gets the size of the partition files read so far.
+	 * 
+	 * @return The size in bytes.
+	 */
+	public synchronized long getLoadedBytes() {
+		return loadedBytes;
+	}
+	
+	/**
+	 * Gets the months whose partitions are not loaded, to be taken with a snapshot of the tasks in memory.
+	 * Every other month's stored tasks are all in memory, so a snapshot holds all of them.
+	 * 
+	 * @return A copy of the months that are not loaded.
+	 */
+	public synchronized Set< Integer > unloadedMonths() {
+		Set< Integer > months = new HashSet< Integer >();
+		for ( Partition p : partitions.values() ) {
+			if ( !p.loaded ) {
+				months.add( p.month );
+			}
+		}
+		return months;
+	}
+	
+	/**
+	 * Writes a snapshot of the tasks in memory. Every month that was loaded when the snapshot was taken is rewritten
+	 * from the snapshot, and the partitions that were not loaded are left as they are.
+	 * 
+	 * @param snapshot Every task in memory.
+	 * @param unloaded The months that were not loaded when the snapshot was taken.
+	 * @return The size of the partition files written, in bytes.
+	 * @throws IOException If a partition or the manifest cannot be written.
+	 */
+	public long write( List< Task > snapshot, Set< Integer > unloaded ) throws IOException {
+		// Sort the tasks into their months.
+		TreeMap< Integer, List< Task > > months = new TreeMap< Integer, List< Task > >();
+		for ( Task t : snapshot ) {
+			int month = monthOf( t.getDue() );
+			List< Task > tasks = months.get( month );
+			if ( tasks == null ) {
+				tasks = new ArrayList< Task >();
+				months.put( month, tasks );
+			}
+			tasks.add( t );
+		}
+		if ( !dir.isDirectory() && !dir.mkdirs() ) {
+			throw new IOException( "Cannot create partition directory " + dir );
+		}
+		long bytes = 0;
+		// Write the partition of every month with tasks in memory. Nothing else reads these files while they are loaded.
+		for ( Map.Entry< Integer, List< Task > > e : months.entrySet() ) {
+			File file = fileOf( e.getKey() );
+			BinaryTaskFile.write( file, e.getValue() );
+			bytes += file.length();
+		}
+		List< File > emptied = new ArrayList< File >();
+		synchronized ( this ) {
+			// Update the written partitions, and drop the loaded ones that have no tasks left.
+			for ( Map.Entry< Integer, List< Task > > e : months.entrySet() ) {
+				long minDue = Long.MAX_VALUE;
+				for ( Task t : e.getValue() ) {
+					minDue = Math.min( minDue, t.getDue() );
+				}
+				Partition p = partitions.get( e.getKey() );
+				// If the month is new, its tasks are all in memory, so its partition is loaded.
+				if ( p == null ) {
+					p = new Partition( e.getKey(), minDue, e.getValue().size() );
+					p.loaded = true;
+					partitions.put( e.getKey(), p );
+				} else {
+					p.minDue = minDue;
+					p.count = e.getValue().size();
+				}
+			}
+			for ( Partition p : new ArrayList< Partition >( partitions.values() ) ) {
+				if ( !unloaded.contains( p.month ) && !months.containsKey( p.month ) ) {
+					partitions.remove( p.month );
+					emptied.add( fileOf( p.month ) );
+				}
+			}
+			writeManifest();
+			updateUnloadedStart();
+		}
+		// Delete the emptied partitions only once the manifest no longer lists them.
+		for ( File file : emptied ) {
+			file.delete();
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Reads the manifest into the table of partitions, if there is one.
+	 * 
+	 * @throws IOException If the manifest cannot be read or is corrupt.
+	 */
+	private void readManifest() throws IOException {
+		File file = new File( dir, MANIFEST );
+		// If there is no manifest, there are no partitions.
+		if ( !file.exists() ) {
+			return;
+		}
+		ByteBuffer buf = ByteBuffer.wrap( Files.readAllBytes( file.toPath() ) );
+		if ( buf.remaining() < HEADER_SIZE + 4 || buf.getInt( 0 ) != MAGIC ) {
+			throw new IOException( "Not a task partition manifest: " + file );
+		} else if ( buf.getInt( 4 ) != VERSION ) {
+			throw new IOException( "Unsupported task partition manifest version " + buf.getInt( 4 ) );
+		}
+		int count = buf.getInt( 8 );
+		CRC32 crc = new CRC32();
+		crc.update( buf.array(), 0, buf.limit() - 4 );
+		if ( count < 0 || ( long ) HEADER_SIZE + ( long ) count * ENTRY_SIZE + 4 != buf.limit()
+				|| ( int ) crc.getValue() != buf.getInt( buf.limit() - 4 ) ) {
+			throw new IOException( "Corrupt task partition manifest: " + file );
+		}
+		buf.position( HEADER_SIZE );
+		for ( int i = 0; i < count; i++ ) {
+			Partition p = new Partition( buf.getInt(), buf.getLong(), buf.getInt() );
+			partitions.put( p.month, p );
+		}
+	}
+	
+	/**
+	 * Writes the table of partitions to the manifest. The manifest is written to a temporary file first, which then replaces it.
+	 * 
+	 * @throws IOException If the manifest cannot be written.
+	 */
+	private void writeManifest() throws IOException {
+		File file = new File( dir, MANIFEST );
+		File tmp = new File( dir, MANIFEST + ".tmp" );
+		CRC32 crc = new CRC32();
+		try ( FileOutputStream fos = new FileOutputStream( tmp ) ) {
+			DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new CheckedOutputStream( fos, crc ) ) );
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			out.writeInt( partitions.size() );
+			for ( Partition p : partitions.values() ) {
+				out.writeInt( p.month );
+				out.writeLong( p.minDue );
+				out.writeInt( p.count );
+			}
+			out.flush();
+			// The checksum covers everything written so far, so it is written past the checked stream.
+			DataOutputStream tail = new DataOutputStream( fos );
+			tail.writeInt( ( int ) crc.getValue() );
+			tail.flush();
+			fos.getFD().sync();
+		}
+		Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+	
+	/**
+	 * Reads the tasks of a partition and marks it loaded.
+	 * 
+	 * @param p The partition.
+	 * @return The tasks of the partition.
+	 * @throws IOException If the partition cannot be read or is corrupt.
+	 */
+	private List< Task > read( Partition p ) throws IOException {
+		File file = fileOf( p.month );
+		List< Task > tasks = BinaryTaskFile.read( file );
+		loadedBytes += file.length();
+		p.loaded = true;
+		return tasks;
+	}
+	
+	/**
+	 * Finds the earliest partition that is not loaded, and the start of its month.
+	 */
+	private void updateUnloadedStart() {
+		firstUnloaded = null;
+		for ( Partition p : partitions.values() ) {
+			if ( !p.loaded ) {
+				firstUnloaded = p;
+				break;
+			}
+		}
+		unloadedStart = firstUnloaded == null ? Long.MAX_VALUE : startOf( firstUnloaded.month );
+	}
+	
+	/**
+	 * Gets the file of a month's partition.
+	 * 
+	 * @param month A month, counted from January of year 0.
+	 * @return The partition file, named by its year and month.
+	 */
+	private File fileOf( int month ) {
+		return new File( dir, String.format( "%04d-%02d.tasks", Math.floorDiv( month, 12 ), Math.floorMod( month, 12 ) + 1 ) );
+	}
+	
+	/**
+	 * A partition listed in the manifest.
+	 */
+	private static class Partition {
+		/**
+		 * The month of the partition's due dates, counted from January of year 0.
+		 */
+		private final int month;
+		/**
+		 * The earliest due date in the partition, in epoch minutes.
+		 */
+		private long minDue;
+		/**
+		 * The number of tasks in the partition.
+		 */
+		private int count;
+		/**
+		 * True once the partition's tasks have been read into memory.
+		 */
+		private boolean loaded;
+		
+		/**
+		 * Constructor for a Partition.
+		 * 
+		 * @param month The month of the partition.
+		 * @param minDue The earliest due date in the partition.
+		 * @param count The number of tasks in the partition.
+		 */
+		Partition( int month, long minDue, int count ) {
+			this.month = month;
+			this.minDue = minDue;
+			this.count = count;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fires DeadlineListener callbacks when the due dates of the tasks in a heap arrive.
+ * Every task in the heap is registered in a TimingWheel keyed by its due date, and a background thread advances the
+ * wheel once per tick. Adding, removing or postponing a task costs O(1), so millions of pending deadlines stay cheap.
+ */
+public class TaskScheduler implements HeapListener< Task > {
+	/**
+	 * Length of one tick of the wheel, in milliseconds.
+	 */
+	private final long tickMillis;
+	
+	/**
+	 * Holds a timer for every task in the heap that is not yet due.
+	 */
+	private final TimingWheel< Task > wheel;
+	
+	/**
+	 * Maps the id of every task with a pending timer to its timer. Guarded by the wheel's lock.
+	 */
+	private final Map< Long, TimingWheel.Timer< Task > > timers;
+	
+	/**
+	 * Objects notified when tasks become due or overdue.
+	 */
+	private final List< DeadlineListener > listeners;
+	
+	/**
+	 * Advances the wheel.
+	 */
+	private final ScheduledExecutorService ticker;
+	
+	/**
+	 * Constructor for the TaskScheduler.
+	 * Registers every task already in the heap, starts following changes to the heap, and starts the ticker thread.
+	 * 
+	 * @param h The heap whose tasks are scheduled.
+	 * @param tickMillis Length of one tick, in milliseconds. Callbacks fire up to one tick after the due date.
+	 */
+	public TaskScheduler( Heap< Task > h, long tickMillis ) {
+		this.tickMillis = tickMillis;
+		this.wheel = new TimingWheel< Task >( System.currentTimeMillis() / tickMillis );
+		this.timers = new HashMap< Long, TimingWheel.Timer< Task > >();
+		this.listeners = new CopyOnWriteArrayList< DeadlineListener >();
+		h.sortedStream().forEach( this::itemAdded );
+		h.addHeapListener( this );
+		this.ticker = Executors.newSingleThreadScheduledExecutor( r -> {
+			Thread t = new Thread( r, "task-scheduler" );
+			t.setDaemon( true );
+			return t;
+		} );
+		ticker.scheduleAtFixedRate( this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS );
+	}
+	
+	/**
+	 * Registers a listener to be notified when tasks become due or overdue.
+	 * 
+	 * @param l The listener to add.
+	 */
+	public void addDeadlineListener( DeadlineListener l ) {
+		listeners.add( l );
+	}
+	
+	/**
+	 * Stops notifying a listener.
+	 * 
+	 * @param l The listener to remove.
+	 */
+	public void removeDeadlineListener( DeadlineListener l ) {
+		listeners.remove( l );
+	}
+	
+	/**
+	 * Gets the number of tasks waiting for their due date.
+	 * 
+	 * @return The number of pending deadlines.
+	 */
+	public int getPendingCount() {
+		return wheel.getSize();
+	}
+	
+	/**
+	 * Schedules the added task, or reports it as overdue if its due date has passed.
+	 */
+	@Override
+	public void itemAdded( Task item ) {
+		TimingWheel.Timer< Task > timer;
+		synchronized ( wheel ) {
+			timer = wheel.schedule( item, Math.floorDiv( DueDates.toEpochMilli( item.getDue() ), tickMillis ) );
+			// If the task was scheduled, remember its timer so it can be cancelled.
+			if ( timer != null ) {
+				timers.put( item.getId(), timer );
+			}
+		}
+		// If the due date has already passed, the task is overdue.
+		if ( timer == null ) {
+			for ( DeadlineListener l : listeners ) {
+				l.taskOverdue( item );
+			}
+		}
+	}
+	
+	/**
+	 * Cancels the timer of the removed task.
+	 */
+	@Override
+	public void itemRemoved( Task item ) {
+		synchronized ( wheel ) {
+			TimingWheel.Timer< Task > timer = timers.remove( item.getId() );
+			if ( timer != null ) {
+				wheel.cancel( timer );
+			}
+		}
+	}
+	
+	/**
+	 * Advances the wheel to the current time and notifies listeners of every task that became due.
+	 */
+	private void tick() {
+		List< Task > due;
+		synchronized ( wheel ) {
+			due = wheel.advance( System.currentTimeMillis() / tickMillis );
+			for ( Task t : due ) {
+				timers.remove( t.getId() );
+			}
+		}
+		for ( Task t : due ) {
+			for ( DeadlineListener l : listeners ) {
+				l.taskDue( t );
+			}
+		}
+	}
+	
+	/**
+	 * Stops following the heap and stops the ticker thread.
+	 * 
+	 * @param h The heap passed to the constructor.
+	 */
+	public void close( Heap< Task > h ) {
+		h.removeHeapListener( this );
+		ticker.shutdown();
+	}
+}
@@ -0,0 +1,431 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP server on the loopback interface that lets other local programs add, complete and postpone tasks in a heap.
+ * 
+ * GET  /tasks/next								The current task.
+ * GET  /tasks/range?from=DATE&to=DATE[&limit=N]	Tasks due at or after from and before to, in order.
+ * GET  /tasks/completed?from=DATE&to=DATE[&limit=N]	Tasks completed at or after from and before to, in the order they were completed.
+ * GET  /tasks/report?from=DATE&to=DATE			Completions in each week from the start date, then their average lateness in minutes.
+ * POST /tasks/add?name=NAME&due=DATE[&repeat=RULE]	Adds a task, which repeats by the rule if there is one, such as "every week".
+ * POST /tasks/complete[?id=ID]					Completes the task with the id, or the current task. A repeating task moves to its next due date.
+ * POST /tasks/postpone?due=DATE[&id=ID]			Moves the task with the id, or the current task, to a new due date.
+ * POST /tasks/undo								Undoes the last add, complete or postpone.
+ * POST /tasks/redo								Makes the last undone change again.
+ * 
+ * Dates are in the M/D/YYYY H:MM format, and parameters are URL encoded. Every response is plain text, with one
+ * id,Name,M/D/YYYY H:MM line per task. Completed tasks get an id,Name,M/D/YYYY H:MM,M/D/YYYY H:MM line, ending with when
+ * they were completed, and the report has a M/D/YYYY H:MM,N line per week and a lateness,MINUTES line.
+ * Errors get a 4xx status with a message, or a 500 status if the archive or a task partition cannot be read.
+ * 
+ * Each request runs on its own virtual thread when the JVM has them, or on a pooled thread otherwise.
+ * The heap is not thread safe, so every change is queued and applied in order by one writer, such as the EDT.
+ * Changes queued while the writer is busy are applied together in its next pass, so a burst of requests costs one hand-off.
+ * Reads do not go through the writer. The current task is read from the latest version in a TaskHistory, without locks,
+ * and ranges are answered from a DueIndex, which follows the heap and has its own lock, and stops at the limit.
+ * The one exception is a range that reaches past the task partitions loaded so far: it waits for the writer to load them first.
+ * Completed tasks are read from the heap's CompletionArchive, which also has its own lock.
+ */
+public class TaskServer {
+	/**
+	 * Default port to listen on.
+	 */
+	public static final int DEFAULT_PORT = 8278;
+	
+	/**
+	 * Most tasks returned by a range request that does not give a limit.
+	 */
+	private static final int DEFAULT_LIMIT = 1000;
+	
+	/**
+	 * Most changes that can be undone.
+	 */
+	private static final int UNDO_LIMIT = 100;
+	
+	/**
+	 * Counts requests handled.
+	 */
+	private static final LongAdder requestCount = Metrics.get().counter( "server.requests" );
+	
+	/**
+	 * Time taken to handle each request, in microseconds.
+	 */
+	private static final Histogram requestTime = Metrics.get().histogram( "server.request.us" );
+	
+	/**
+	 * The heap the requests work on.
+	 */
+	private final Heap< Task > h;
+	
+	/**
+	 * Index of the heap that reads are answered from.
+	 */
+	private final DueIndex index;
+	
+	/**
+	 * Versions of the heap, for reading the current task without locks and for undo.
+	 */
+	private final TaskHistory history;
+	
+	/**
+	 * The only thread allowed to change the heap.
+	 */
+	private final Executor writer;
+	
+	/**
+	 * Changes waiting for the writer, in the order they arrived.
+	 */
+	private final ConcurrentLinkedQueue< Runnable > writes;
+	
+	/**
+	 * True while a pass of the writer is queued or running.
+	 */
+	private final AtomicBoolean draining;
+	
+	/**
+	 * Runs the requests.
+	 */
+	private final ExecutorService handlers;
+	
+	/**
+	 * The HTTP server.
+	 */
+	private final HttpServer server;
+	
+	/**
+	 * Starts a server on the loopback interface.
+	 * Must not be called from the writer thread, which is used to set up the index and history.
+	 * 
+	 * @param h The heap the requests work on. It should already be loaded.
+	 * @param writer Runs changes to the heap, one at a time and in order, on the thread that owns the heap.
+	 * @param port The port to listen on, or 0 for any free port.
+	 * @throws IOException If the port cannot be bound.
+	 */
+	public TaskServer( Heap< Task > h, Executor writer, int port ) throws IOException {
+		this.h = h;
+		this.writer = writer;
+		this.writes = new ConcurrentLinkedQueue< Runnable >();
+		this.draining = new AtomicBoolean();
+		this.index = CompletableFuture.supplyAsync( () -> new DueIndex( h ), writer ).join();
+		this.history = CompletableFuture.supplyAsync( () -> new TaskHistory( h, UNDO_LIMIT ), writer ).join();
+		this.handlers = newHandlerExecutor();
+		// Send each response as soon as it is written, instead of waiting to acknowledge the headers before the body.
+		if ( System.getProperty( "sun.net.httpserver.nodelay" ) == null ) {
+			System.setProperty( "sun.net.httpserver.nodelay", "true" );
+		}
+		this.server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+		server.createContext( "/tasks/", this::handle );
+		server.setExecutor( handlers );
+		server.start();
+	}
+	
+	/**
+	 * Gets the port the server is listening on.
+	 * 
+	 * @return The port.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	/**
+	 * Stops the server, waiting up to a second for requests in progress to finish.
+	 */
+	public void stop() {
+		server.stop( 1 );
+		handlers.shutdown();
+	}
+	
+	/**
+	 * Handles one request, timing it in the metrics.
+	 * 
+	 * @param exchange The request and its response.
+	 * @throws IOException If the request cannot be read or the response cannot be sent.
+	 */
+	private void handle( HttpExchange exchange ) throws IOException {
+		long start = System.nanoTime();
+		try {
+			exchange.getRequestBody().readAllBytes();		// Read any request body, so the connection can be used for the next request.
+			int status = 200;
+			String body;
+			try {
+				body = route( exchange.getRequestMethod(), exchange.getRequestURI().getPath(), parseQuery( exchange.getRequestURI().getRawQuery() ) );
+			} catch ( RequestException e ) {
+				status = e.status;
+				body = e.getMessage() + "\n";
+			} catch ( IllegalArgumentException e ) {
+				status = 400;
+				body = e.getMessage() + "\n";
+			} catch ( IOException | UncheckedIOException e ) {
+				status = 500;
+				body = e.getMessage() + "\n";
+			}
+			byte[] bytes = body.getBytes( StandardCharsets.UTF_8 );
+			exchange.getResponseHeaders().set( "Content-Type", "text/plain; charset=utf-8" );
+			// If there is a body, send it with its length. Otherwise, say there is none, since a length of 0 would mean chunked.
+			if ( bytes.length > 0 ) {
+				exchange.sendResponseHeaders( status, bytes.length );
+				exchange.getResponseBody().write( bytes );
+			} else {
+				exchange.sendResponseHeaders( status, -1 );
+			}
+		} finally {
+			exchange.close();
+			requestCount.increment();
+			requestTime.recordSince( start );
+		}
+	}
+	
+	/**
+	 * Runs a request.
+	 * 
+	 * @param method The HTTP method.
+	 * @param path The path of the request.
+	 * @param query The query parameters.
+	 * @return The body of the response.
+	 * @throws RequestException If the path or method is wrong, or there is no such task.
+	 * @throws IllegalArgumentException If a parameter is malformed.
+	 * @throws IOException If the completion archive cannot be read.
+	 */
+	private String route( String method, String path, Map< String, String > query ) throws RequestException, IOException {
+		String action = path.substring( "/tasks/".length() );
+		boolean read = action.equals( "next" ) || action.equals( "range" ) || action.equals( "completed" ) || action.equals( "report" );
+		boolean write = action.equals( "add" ) || action.equals( "complete" ) || action.equals( "postpone" )
+				|| action.equals( "undo" ) || action.equals( "redo" );
+		// If the path is not an endpoint, or uses the wrong method, reject it.
+		if ( !read && !write ) {
+			throw new RequestException( 404, "No such endpoint: " + path );
+		} else if ( !method.equals( read ? "GET" : "POST" ) ) {
+			throw new RequestException( 405, action + " needs " + ( read ? "GET" : "POST" ) );
+		}
+		StringBuilder sb = new StringBuilder();
+		if ( action.equals( "next" ) ) {
+			PersistentHeap< Task > tasks = history.snapshot();
+			appendTask( sb, tasks.isEmpty() ? null : tasks.getCurrent() );
+		} else if ( action.equals( "range" ) ) {
+			long from = DueDates.parse( required( query, "from" ) );
+			long to = DueDates.parse( required( query, "to" ) );
+			int limit = query.containsKey( "limit" ) ? Integer.parseInt( query.get( "limit" ) ) : DEFAULT_LIMIT;
+			// If the range reaches tasks that are not loaded yet, have the writer load them.
+			if ( !h.isLoadedThrough( to - 1 ) ) {
+				write( () -> {
+					h.loadThrough( to - 1 );
+					return null;
+				} );
+			}
+			for ( Task t : index.rangeQuery( from, to, limit ) ) {
+				appendTask( sb, t );
+			}
+		} else if ( action.equals( "completed" ) || action.equals( "report" ) ) {
+			CompletionArchive archive = h.getArchive();
+			// If there is no archive, there is no completion history.
+			if ( archive == null ) {
+				throw new RequestException( 404, "No completion archive" );
+			}
+			long from = DueDates.parse( required( query, "from" ) );
+			long to = DueDates.parse( required( query, "to" ) );
+			if ( action.equals( "completed" ) ) {
+				int limit = query.containsKey( "limit" ) ? Integer.parseInt( query.get( "limit" ) ) : DEFAULT_LIMIT;
+				List< CompletionArchive.Entry > entries = archive.rangeQuery( from, to );
+				for ( CompletionArchive.Entry e : entries.subList( 0, Math.max( 0, Math.min( limit, entries.size() ) ) ) ) {
+					e.appendTo( sb.append( e.getId() ).append( ',' ) ).append( '\n' );
+				}
+			} else {
+				int[] weeks = archive.completedPerWeek( from, to );
+				for ( int w = 0; w < weeks.length; w++ ) {
+					DueDates.appendTo( from + w * 7L * 24 * 60, sb ).append( ',' ).append( weeks[ w ] ).append( '\n' );
+				}
+				double lateness = archive.averageLateness( from, to );
+				sb.append( "lateness," ).append( Double.isNaN( lateness ) ? "" : String.format( "%.1f", lateness ) ).append( '\n' );
+			}
+		} else if ( action.equals( "add" ) ) {
+			Recurrence rule = query.containsKey( "repeat" ) ? Recurrence.parse( query.get( "repeat" ) ) : null;
+			Task t = Task.recurring( required( query, "name" ), DueDates.parse( required( query, "due" ) ), rule );
+			write( () -> {
+				h.addItem( t );
+				return t;
+			} );
+			appendTask( sb, t );
+		} else if ( action.equals( "complete" ) ) {
+			Long id = query.containsKey( "id" ) ? Long.valueOf( query.get( "id" ) ) : null;
+			appendTask( sb, write( () -> id != null ? h.complete( id ) : h.isEmpty() ? null : h.complete( h.getCurrent().getId() ) ) );
+		} else if ( action.equals( "undo" ) || action.equals( "redo" ) ) {
+			// If there was nothing to undo or redo, say so.
+			if ( !write( () -> action.equals( "undo" ) ? history.undo() : history.redo() ) ) {
+				throw new RequestException( 409, "Nothing to " + action );
+			}
+		} else {
+			Long id = query.containsKey( "id" ) ? Long.valueOf( query.get( "id" ) ) : null;
+			long due = DueDates.parse( required( query, "due" ) );
+			appendTask( sb, write( () -> {
+				int handle = id != null ? h.getHandle( id ) : h.isEmpty() ? -1 : h.getCurrentHandle();
+				// If there is no such task, there is nothing to postpone.
+				if ( handle < 0 ) {
+					return null;
+				}
+				h.reschedule( handle, due );
+				return h.getItemByHandle( handle );
+			} ) );
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Appends a task to a response as an id,Name,M/D/YYYY H:MM line.
+	 * 
+	 * @param sb The response.
+	 * @param t The task, or null if there is none.
+	 * @throws RequestException If there is no task.
+	 */
+	private static void appendTask( StringBuilder sb, Task t ) throws RequestException {
+		if ( t == null ) {
+			throw new RequestException( 404, "No such task" );
+		}
+		t.appendTo( sb.append( t.getId() ).append( ',' ) ).append( '\n' );
+	}
+	
+	/**
+	 * Queues a change to the heap for the writer, and waits for it to be applied.
+	 * 
+	 * @param change The change. Runs on the writer thread.
+	 * @return The result of the change.
+	 */
+	private < R > R write( Supplier< R > change ) {
+		CompletableFuture< R > done = new CompletableFuture< R >();
+		writes.add( () -> {
+			try {
+				done.complete( change.get() );
+			} catch ( RuntimeException e ) {
+				done.completeExceptionally( e );
+			}
+		} );
+		// If the writer is not already going to make a pass, start one.
+		if ( draining.compareAndSet( false, true ) ) {
+			writer.execute( this::drain );
+		}
+		try {
+			return done.join();
+		} catch ( CompletionException e ) {
+			throw e.getCause() instanceof RuntimeException ? ( RuntimeException ) e.getCause() : e;
+		}
+	}
+	
+	/**
+	 * Applies every queued change, on the writer thread.
+	 */
+	private void drain() {
+		while ( true ) {
+			Runnable change;
+			while ( ( change = writes.poll() ) != null ) {
+				change.run();
+			}
+			draining.set( false );
+			// If a change was queued after the last poll and no other pass was started for it, keep going.
+			if ( writes.isEmpty() || !draining.compareAndSet( false, true ) ) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Gets a required query parameter.
+	 * 
+	 * @param query The query parameters.
+	 * @param name The name of the parameter.
+	 * @return The value of the parameter.
+	 * @throws IllegalArgumentException If the parameter is missing.
+	 */
+	private static String required( Map< String, String > query, String name ) {
+		String value = query.get( name );
+		if ( value == null ) {
+			throw new IllegalArgumentException( "Missing parameter: " + name );
+		}
+		return value;
+	}
+	
+	/**
+	 * Splits a URL encoded query string into its parameters.
+	 * 
+	 * @param rawQuery The query string, or null if there is none.
+	 * @return The decoded parameters, by name.
+	 */
+	private static Map< String, String > parseQuery( String rawQuery ) {
+		Map< String, String > query = new HashMap< String, String >();
+		// If there is no query string, there are no parameters.
+		if ( rawQuery == null ) {
+			return query;
+		}
+		for ( String pair : rawQuery.split( "&" ) ) {
+			int eq = pair.indexOf( '=' );
+			String name = eq < 0 ? pair : pair.substring( 0, eq );
+			String value = eq < 0 ? "" : pair.substring( eq + 1 );
+			query.put( URLDecoder.decode( name, StandardCharsets.UTF_8 ), URLDecoder.decode( value, StandardCharsets.UTF_8 ) );
+		}
+		return query;
+	}
+	
+	/**
+	 * Creates the executor that runs requests: one virtual thread per request if the JVM has virtual threads,
+	 * otherwise a pool of daemon threads. Looked up by reflection, so the program still builds and runs on older JVMs.
+	 * 
+	 * @return The executor.
+	 */
+	private static ExecutorService newHandlerExecutor() {
+		try {
+			Method virtual = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+			return ( ExecutorService ) virtual.invoke( null );
+		} catch ( ReflectiveOperationException e ) {
+			return Executors.newCachedThreadPool( r -> {
+				Thread t = new Thread( r, "task-server" );
+				t.setDaemon( true );
+				return t;
+			} );
+		}
+	}
+	
+	/**
+	 * A request that cannot be answered, with the HTTP status to answer it with.
+	 */
+	private static class RequestException extends Exception {
+		/**
+		 * Serial version of the exception.
+		 */
+		private static final long serialVersionUID = 1L;
+		/**
+		 * The HTTP status.
+		 */
+		private final int status;
+		
+		/**
+		 * Constructor for a RequestException.
+		 * 
+		 * @param status The HTTP status.
+		 * @param message The message sent back.
+		 */
+		RequestException( int status, String message ) {
+			super( message );
+			this.status = status;
+		}
+	}
+}
@@ -0,0 +1,314 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Min heap of tasks stored as primitive columns instead of Task objects.
+ * Due dates are kept in a long array of epoch minutes, ids in a long array and names in an int array of dictionary ids,
+ * so sifting only compares primitives and interned names. Costs 20 bytes per task, plus one name per distinct name.
+ * The rules of repeating tasks are kept apart, by id, so tasks that do not repeat cost nothing more.
+ * 
+ * Tasks are ordered the same way as Task.compareTo: by due date, then by name, then by id.
+ * 
+ * Heap does not use the store. The TaskFootprint benchmark measures it against a list of Task objects.
+ */
+public class TaskStore {
+	/**
+	 * Initial capacity of the columns.
+	 */
+	private static final int DEFAULT_CAPACITY = 16;
+	
+	/**
+	 * Due date of each stored task in epoch minutes, in heap order.
+	 */
+	private long[] dues;
+	
+	/**
+	 * Id of each stored task, in heap order.
+	 */
+	private long[] ids;
+	
+	/**
+	 * Name id of each stored task, in heap order.
+	 */
+	private int[] nameIds;
+	
+	/**
+	 * Number of stored tasks.
+	 */
+	private int size;
+	
+	/**
+	 * Every distinct name, interned in the shared NameTable, indexed by name id.
+	 */
+	private List< NameTable.Entry > names;
+	
+	/**
+	 * Maps each distinct name to its name id.
+	 */
+	private Map< String, Integer > nameLookup;
+	
+	/**
+	 * Rule of each stored task that repeats, by task id.
+	 */
+	private Map< Long, Recurrence > rules;
+	
+	/**
+	 * Default constructor. Creates an empty store.
+	 */
+	public TaskStore() {
+		this( DEFAULT_CAPACITY );
+	}
+	
+	/**
+	 * Creates an empty store with room for the given number of tasks.
+	 * 
+	 * @param capacity The number of tasks to make room for.
+	 */
+	public TaskStore( int capacity ) {
+		dues = new long[ Math.max( capacity, 1 ) ];
+		ids = new long[ Math.max( capacity, 1 ) ];
+		nameIds = new int[ Math.max( capacity, 1 ) ];
+		names = new ArrayList< NameTable.Entry >();
+		nameLookup = new HashMap< String, Integer >();
+		rules = new HashMap< Long, Recurrence >();
+	}
+	
+	/**
+	 * Get the number of stored tasks.
+	 * 
+	 * @return The number of stored tasks.
+	 */
+	public int getSize() {
+		return size;
+	}
+	
+	/**
+	 * Checks if the store has no tasks.
+	 * 
+	 * @return True if the store has no tasks, false otherwise.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Gets the id of a name, adding the name to the dictionary if it is new.
+	 * 
+	 * @param name The name to look up.
+	 * @return The id of the name.
+	 */
+	public int nameId( String name ) {
+		Integer id = nameLookup.get( name );
+		// If the name is new, give it the next id.
+		if ( id == null ) {
+			id = names.size();
+			names.add( NameTable.getShared().intern( name ) );
+			nameLookup.put( name, id );
+		}
+		return id;
+	}
+	
+	/**
+	 * Gets the name with the given id.
+	 * 
+	 * @param id The id of the name.
+	 * @return The name.
+	 */
+	public String name( int id ) {
+		return names.get( id ).getName();
+	}
+	
+	/**
+	 * Adds a task to the store, keeping its id and, if it repeats, its rule.
+	 * 
+	 * @param t The task to add.
+	 */
+	public void addItem( Task t ) {
+		// If the task repeats, keep its rule.
+		if ( t.getRecurrence() != null ) {
+			rules.put( t.getId(), t.getRecurrence() );
+		}
+		add( t.getId(), t.getDue(), nameId( t.getName() ) );
+	}
+	
+	/**
+	 * Adds a task that does not repeat to the store without creating a Task object.
+	 * 
+	 * @param id The id of the task.
+	 * @param due The due date of the task in epoch minutes.
+	 * @param nameId The id of the task's name, from nameId( String ).
+	 */
+	public void add( long id, long due, int nameId ) {
+		// Grow the columns if they are full.
+		if ( size == dues.length ) {
+			grow();
+		}
+		int index = size++;
+		// While the current index is not the root and its parent comes after the new task, move the parent down.
+		while ( index > 0 && compare( ( index - 1 ) / 2, due, nameId, id ) > 0 ) {
+			int parent = ( index - 1 ) / 2;
+			move( parent, index );
+			index = parent;
+		}
+		dues[ index ] = due;
+		ids[ index ] = id;
+		nameIds[ index ] = nameId;
+	}
+	
+	/**
+	 * Gets the due time of the earliest task.
+	 * 
+	 * @return The due date of the earliest task in epoch minutes.
+	 */
+	public long peekDue() {
+		checkNotEmpty();
+		return dues[ 0 ];
+	}
+	
+	/**
+	 * Gets the id of the earliest task.
+	 * 
+	 * @return The id of the earliest task.
+	 */
+	public long peekId() {
+		checkNotEmpty();
+		return ids[ 0 ];
+	}
+	
+	/**
+	 * Gets the name id of the earliest task.
+	 * 
+	 * @return The name id of the earliest task.
+	 */
+	public int peekNameId() {
+		checkNotEmpty();
+		return nameIds[ 0 ];
+	}
+	
+	/**
+	 * Get the earliest task as a Task object.
+	 * 
+	 * @return A Task holding the earliest task's id, name, due date and rule.
+	 */
+	public Task getCurrent() {
+		checkNotEmpty();
+		return Task.recurring( ids[ 0 ], names.get( nameIds[ 0 ] ), dues[ 0 ], rules.get( ids[ 0 ] ) );
+	}
+	
+	/**
+	 * Removes the earliest task and returns it as a Task object.
+	 * 
+	 * @return A Task holding the removed task's id, name, due date and rule.
+	 */
+	public Task removeItem() {
+		Task current = getCurrent();
+		removeFirst();
+		return current;
+	}
+	
+	/**
+	 * Removes the earliest task without creating a Task object.
+	 */
+	public void removeFirst() {
+		checkNotEmpty();
+		// If rules are kept, drop the removed task's rule.
+		if ( !rules.isEmpty() ) {
+			rules.remove( ids[ 0 ] );
+		}
+		size--;
+		// If there are tasks left, move the last task to the root and sift it down.
+		if ( size > 0 ) {
+			siftDown( 0, dues[ size ], nameIds[ size ], ids[ size ] );
+		}
+	}
+	
+	/**
+	 * Moves a task down from the given index until neither child comes before it.
+	 * 
+	 * @param index The index to start at.
+	 * @param due The due time of the task being placed.
+	 * @param nameId The name id of the task being placed.
+	 * @param id The id of the task being placed.
+	 */
+	private void siftDown( int index, long due, int nameId, long id ) {
+		int half = size / 2;		// Indexes at or past this one have no children.
+		while ( index < half ) {
+			int child = ( 2 * index ) + 1;
+			int right = child + 1;
+			// If the right child comes before the left child, use the right child.
+			if ( right < size && compare( right, dues[ child ], nameIds[ child ], ids[ child ] ) < 0 ) {
+				child = right;
+			}
+			// If the task does not come after the child, stop moving down.
+			if ( compare( child, due, nameId, id ) >= 0 ) {
+				break;
+			}
+			move( child, index );
+			index = child;
+		}
+		dues[ index ] = due;
+		ids[ index ] = id;
+		nameIds[ index ] = nameId;
+	}
+	
+	/**
+	 * Copies the task at one index over the task at another.
+	 * 
+	 * @param from The index to copy from.
+	 * @param to The index to copy to.
+	 */
+	private void move( int from, int to ) {
+		dues[ to ] = dues[ from ];
+		ids[ to ] = ids[ from ];
+		nameIds[ to ] = nameIds[ from ];
+	}
+	
+	/**
+	 * Compares a stored task with another task the same way Task.compareTo does: by due time, then by name, then by id.
+	 * 
+	 * @param index The index of the stored task.
+	 * @param due The due time of the other task.
+	 * @param nameId The name id of the other task.
+	 * @param id The id of the other task.
+	 * @return <0 if the stored task comes first, 0 if they are the same task, >0 if the other task comes first.
+	 */
+	private int compare( int index, long due, int nameId, long id ) {
+		// If due times are not the same, compare by due time.
+		if ( dues[ index ] != due ) {
+			return dues[ index ] < due ? -1 : 1;
+		}
+		// If the names are not the same, compare by name.
+		if ( nameIds[ index ] != nameId ) {
+			return NameTable.compare( names.get( nameIds[ index ] ), names.get( nameId ) );
+		}
+		return Long.compare( ids[ index ], id );
+	}
+	
+	/**
+	 * Doubles the capacity of the columns.
+	 */
+	private void grow() {
+		int capacity = dues.length * 2;
+		long[] newDues = new long[ capacity ];
+		long[] newIds = new long[ capacity ];
+		int[] newNameIds = new int[ capacity ];
+		System.arraycopy( dues, 0, newDues, 0, size );
+		System.arraycopy( ids, 0, newIds, 0, size );
+		System.arraycopy( nameIds, 0, newNameIds, 0, size );
+		dues = newDues;
+		ids = newIds;
+		nameIds = newNameIds;
+	}
+	
+	/**
+	 * Throws an exception if the store is empty.
+	 */
+	private void checkNotEmpty() {
+		if ( size == 0 ) {
+			throw new NoSuchElementException();
+		}
+	}
+}
@@ -0,0 +1,262 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel that holds timers keyed by an expiry tick.
+ * Scheduling and cancelling take O(1), and advancing the clock by one tick takes O(1) plus the timers it fires,
+ * no matter how many timers are pending.
+ * 
+ * There are LEVELS wheels of 64 slots each. Level l holds timers that expire between 64^l and 64^(l+1) ticks from now,
+ * in the slot picked by bits 6l to 6l+5 of their expiry tick. Each time the clock reaches the start of a slot on a
+ * higher level, the timers in that slot are moved down to the lower levels.
+ * 
+ * @param <E> The type of object attached to each timer.
+ */
+public class TimingWheel < E > {
+	/**
+	 * Number of bits of the expiry tick used to pick a slot on each level.
+	 */
+	private static final int SLOT_BITS = 6;
+	
+	/**
+	 * Number of slots on each level.
+	 */
+	private static final int SLOTS = 1 << SLOT_BITS;
+	
+	/**
+	 * Number of levels. Covers 2^48 ticks, so timers further away than that are clamped to the last slot.
+	 */
+	private static final int LEVELS = 8;
+	
+	/**
+	 * Sentinel head of the timer list in each slot of each level.
+	 */
+	private final Timer< E >[][] slots;
+	
+	/**
+	 * The tick the wheel has advanced to.
+	 */
+	private long currentTick;
+	
+	/**
+	 * Number of pending timers.
+	 */
+	private int size;
+	
+	/**
+	 * Creates an empty wheel.
+	 * 
+	 * @param startTick The tick to start at.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public TimingWheel( long startTick ) {
+		this.currentTick = startTick;
+		this.slots = ( Timer< E >[][] ) new Timer< ? >[ LEVELS ][ SLOTS ];
+		// Give every slot an empty circular list.
+		for ( int l = 0; l < LEVELS; l++ ) {
+			for ( int s = 0; s < SLOTS; s++ ) {
+				Timer< E > head = new Timer< E >( null, 0 );
+				head.next = head;
+				head.prev = head;
+				slots[ l ][ s ] = head;
+			}
+		}
+	}
+	
+	/**
+	 * Gets the tick the wheel has advanced to.
+	 * 
+	 * @return The current tick.
+	 */
+	public synchronized long getCurrentTick() {
+		return currentTick;
+	}
+	
+	/**
+	 * Gets the number of pending timers.
+	 * 
+	 * @return The number of pending timers.
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+	
+	/**
+	 * Adds a timer to the wheel.
+	 * 
+	 * @param item The object to attach to the timer.
+	 * @param expiryTick The tick the timer fires on.
+	 * @return The timer, which can be cancelled, or null if the tick has already passed and the timer was not added.
+	 */
+	public synchronized Timer< E > schedule( E item, long expiryTick ) {
+		// If the tick has already passed, do not add the timer.
+		if ( expiryTick < currentTick ) {
+			return null;
+		}
+		Timer< E > timer = new Timer< E >( item, expiryTick );
+		place( timer );
+		size++;
+		return timer;
+	}
+	
+	/**
+	 * Removes a pending timer from the wheel.
+	 * 
+	 * @param timer The timer to cancel.
+	 * @return True if the timer was pending, false if it had already fired or been cancelled.
+	 */
+	public synchronized boolean cancel( Timer< E > timer ) {
+		// If the timer is not in a slot, it is not pending.
+		if ( timer.next == null ) {
+			return false;
+		}
+		unlink( timer );
+		size--;
+		return true;
+	}
+	
+	/**
+	 * Advances the wheel up to and including a tick, and removes every timer that expires on the way.
+	 * 
+	 * @param tick The tick to advance to.
+	 * @return The objects attached to the expired timers, in expiry order.
+	 */
+	public synchronized List< E > advance( long tick ) {
+		List< E > expired = new ArrayList< E >();
+		// Fire the timers in the slot for the current tick before moving past it.
+		while ( currentTick <= tick ) {
+			fire( slots[ 0 ][ ( int ) ( currentTick & ( SLOTS - 1 ) ) ], expired );
+			// If nothing is pending, jump straight to the end.
+			if ( size == 0 ) {
+				currentTick = tick + 1;
+				break;
+			}
+			currentTick++;
+			// At the start of each slot on a higher level, move its timers down to the lower levels.
+			for ( int l = 1; l < LEVELS && ( currentTick & ( ( 1L << ( SLOT_BITS * l ) ) - 1 ) ) == 0; l++ ) {
+				cascade( slots[ l ][ ( int ) ( ( currentTick >>> ( SLOT_BITS * l ) ) & ( SLOTS - 1 ) ) ] );
+			}
+		}
+		return expired;
+	}
+	
+	/**
+	 * Puts a timer into the slot for its expiry tick.
+	 * 
+	 * @param timer The timer to place.
+	 */
+	private void place( Timer< E > timer ) {
+		long delta = timer.expiryTick - currentTick;
+		int level = 0;
+		// Find the lowest level whose range covers the timer.
+		while ( level < LEVELS - 1 && delta >= ( 1L << ( SLOT_BITS * ( level + 1 ) ) ) ) {
+			level++;
+		}
+		long expiry = Math.min( timer.expiryTick, currentTick + ( 1L << ( SLOT_BITS * LEVELS ) ) - 1 );
+		Timer< E > head = slots[ level ][ ( int ) ( ( expiry >>> ( SLOT_BITS * level ) ) & ( SLOTS - 1 ) ) ];
+		timer.prev = head.prev;
+		timer.next = head;
+		head.prev.next = timer;
+		head.prev = timer;
+	}
+	
+	/**
+	 * Removes a timer from its slot.
+	 * 
+	 * @param timer The timer to remove.
+	 */
+	private void unlink( Timer< E > timer ) {
+		timer.prev.next = timer.next;
+		timer.next.prev = timer.prev;
+		timer.next = null;
+		timer.prev = null;
+	}
+	
+	/**
+	 * Removes every timer in a level 0 slot that has expired.
+	 * 
+	 * @param head The head of the slot.
+	 * @param expired Receives the objects attached to the expired timers.
+	 */
+	private void fire( Timer< E > head, List< E > expired ) {
+		Timer< E > timer = head.next;
+		while ( timer != head ) {
+			Timer< E > next = timer.next;
+			// Timers clamped to this slot from further away stay until their tick.
+			if ( timer.expiryTick <= currentTick ) {
+				unlink( timer );
+				size--;
+				expired.add( timer.item );
+			}
+			timer = next;
+		}
+	}
+	
+	/**
+	 * Moves every timer in a higher level slot down to the level that now covers it.
+	 * 
+	 * @param head The head of the slot.
+	 */
+	private void cascade( Timer< E > head ) {
+		Timer< E > timer = head.next;
+		while ( timer != head ) {
+			Timer< E > next = timer.next;
+			unlink( timer );
+			place( timer );
+			timer = next;
+		}
+	}
+	
+	/**
+	 * A pending timer in a TimingWheel.
+	 * 
+	 * @param <E> The type of object attached to the timer.
+	 */
+	public static class Timer < E > {
+		/**
+		 * The object attached to the timer.
+		 */
+		private final E item;
+		/**
+		 * The tick the timer fires on.
+		 */
+		private final long expiryTick;
+		/**
+		 * Next timer in the same slot, or null if the timer is not pending.
+		 */
+		private Timer< E > next;
+		/**
+		 * Previous timer in the same slot, or null if the timer is not pending.
+		 */
+		private Timer< E > prev;
+		
+		/**
+		 * Constructor for a Timer.
+		 * 
+		 * @param item The object attached to the timer.
+		 * @param expiryTick The tick the timer fires on.
+		 */
+		Timer( E item, long expiryTick ) {
+			this.item = item;
+			this.expiryTick = expiryTick;
+		}
+		
+		/**
+		 * Gets the object attached to the timer.
+		 * 
+		 * @return The attached object.
+		 */
+		public E getItem() {
+			return item;
+		}
+		
+		/**
+		 * Gets the tick the timer fires on.
+		 * 
+		 * @return The expiry tick.
+		 */
+		public long getExpiryTick() {
+			return expiryTick;
+		}
+	}
+}
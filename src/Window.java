@@ -1,8 +1,13 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.awt.event.*;
-import java.util.Date;
-import java.util.Vector;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Used as the user interface for the program.
@@ -11,9 +16,19 @@ import java.util.Vector;
  */
 public class Window extends JFrame {
 	/**
-	 * Holds all objects that are in the heap, in order. Used for updating the JList.
+	 * How long typing in the search box must pause before a search runs, in milliseconds.
 	 */
-	private Vector <String > tasks;
+	private static final int SEARCH_DELAY = 150;
+	
+	/**
+	 * Most changes that can be undone.
+	 */
+	private static final int UNDO_LIMIT = 100;
+	
+	/**
+	 * Holds all objects that are in the heap, in order. Follows the heap and updates the JList.
+	 */
+	private HeapListModel tasks;
 	/**
 	 * Holds all Task objects in a minheap.
 	 */
@@ -29,11 +44,15 @@ public class Window extends JFrame {
 	/**
 	 * Displays all currently open tasks.
 	 */
-	private JList < String > taskList;
+	private JList < Task > taskList;
 	/**
 	 * Allows for scrolling through the JList.
 	 */
 	private JScrollPane listScrollPane;
+	/**
+	 * Tells the user how many tasks due later are not in the JList or its searches, because their partitions are not loaded yet.
+	 */
+	private JLabel unloadedLabel;
 	/**
 	 * Label for the name of the current task.
 	 */
@@ -51,7 +70,7 @@ public class Window extends JFrame {
 	 */
 	private JTextField compByTxt;
 	/**
-	 * Button that marsk the current task as complete.
+	 * Button that marks the selected task, or the current task if none is selected, as complete.
 	 */
 	private JButton completeButton;
 	/**
@@ -98,6 +117,10 @@ public class Window extends JFrame {
 	 * User input for the task name in the add task form
 	 */
 	private JTextField nameTxt;
+	/**
+	 * Choice of how often a task in the add task form repeats.
+	 */
+	private JComboBox< String > repeatBox;
 	/**
 	 * Button to submit the addition of postponing of a task.
 	 */
@@ -106,26 +129,69 @@ public class Window extends JFrame {
 	 * Used to verify the inputs of the form fields.
 	 */
 	private TextInputVerifier vrf;
+	/**
+	 * Fires when the due dates of tasks in the heap arrive, so overdue rows can be highlighted.
+	 */
+	private TaskScheduler scheduler;
+	/**
+	 * True while a repaint of the JList for newly due tasks is waiting to run.
+	 */
+	private AtomicBoolean dueRepaintPending = new AtomicBoolean();
+	/**
+	 * Indexes the names of the tasks in the heap, for the search box.
+	 */
+	private NameIndex names;
+	/**
+	 * User input for filtering the JList by task name.
+	 */
+	private JTextField searchTxt;
+	/**
+	 * Starts a search once typing in the search box pauses.
+	 */
+	private Timer searchTimer;
+	/**
+	 * Runs searches off the EDT.
+	 */
+	private ExecutorService searcher;
+	/**
+	 * Keeps versions of the heap for undo and redo. Null until the heap has been loaded, so loading cannot be undone.
+	 */
+	private TaskHistory history;
+	/**
+	 * Button that undoes the last add, complete or postpone.
+	 */
+	private JButton undoButton;
+	/**
+	 * Button that makes the last undone change again.
+	 */
+	private JButton redoButton;
 	
 	/**
 	 * Constructor for the Window class.
-	 * Populates tasks vector with elements of the heap.
+	 * Creates the list model that shows the elements of the heap.
 	 * Creates a new JFrame object and populates it with JPanels.
+	 * If the heap has not been loaded yet, the window is shown right away and the heap is loaded in the background.
 	 * 
-	 * @param h The heap used to populate the tasks vector.
+	 * @param h The heap shown by the tasks list model.
 	 */
 	public Window( Heap < Task > h ) {
 		setTitle( "Task List" );			// Sets the title of the JFrame to "Task List".
 		
 		this.h = h;
-		tasks = new Vector< String >();		// Create new String vector.
+		tasks = new HeapListModel( h );		// Create a list model that follows the heap.
+		names = new NameIndex( h );			// Index the task names for searching.
+		searcher = Executors.newSingleThreadExecutor( r -> {
+			Thread t = new Thread( r, "name-search" );
+			t.setDaemon( true );
+			return t;
+		} );
+		searchTimer = new Timer( SEARCH_DELAY, e -> startSearch() );
+		searchTimer.setRepeats( false );
 		vrf = new TextInputVerifier();		// Create new TextInputVerifier object.
-
-		// Adds all element names of the heap to the tasks vector.
-		for ( int i = 0; i < h.getSize(); i++ ) {
-			tasks.addElement( h.toString().split( "=" )[ i ].split( "," )[ 0 ] );
-		}
-
+		scheduler = new TaskScheduler( h, 1000 );		// Track the due dates of the tasks with a one second tick.
+		scheduler.addDeadlineListener( new DueHighlighter() );
+		h.addHeapListener( new UnloadedNotice() );
+		
 		UIManager.put( "Label.disabledForeground", Color.BLACK );	// Set the disabled Component text color to black instead of gray.
 		
 		TaskListPanel tlPanel = new TaskListPanel();
@@ -142,6 +208,218 @@ public class Window extends JFrame {
 		this.setLayout( null );									// Set window layout as null
 		this.setDefaultCloseOperation( JFrame.EXIT_ON_CLOSE );	// Close window when exit button clicked.
 		this.setVisible( true );								// Set window as visible.
+		
+		// Undo and redo with Ctrl+Z and Ctrl+Y as well as the buttons.
+		JRootPane root = getRootPane();
+		root.getInputMap( JComponent.WHEN_IN_FOCUSED_WINDOW ).put( KeyStroke.getKeyStroke( KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK ), "undo" );
+		root.getInputMap( JComponent.WHEN_IN_FOCUSED_WINDOW ).put( KeyStroke.getKeyStroke( KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK ), "redo" );
+		root.getActionMap().put( "undo", new AbstractAction() {
+			@Override
+			public void actionPerformed( ActionEvent e ) {
+				undoButton.doClick();
+			}
+		} );
+		root.getActionMap().put( "redo", new AbstractAction() {
+			@Override
+			public void actionPerformed( ActionEvent e ) {
+				redoButton.doClick();
+			}
+		} );
+		
+		// If the heap has not been loaded, load it in the background. Otherwise, start keeping versions for undo now.
+		if ( !h.isLoaded() ) {
+			setLoading( true );
+			new LoadWorker().execute();
+		} else {
+			history = new TaskHistory( h, UNDO_LIMIT );
+			showUnloaded();
+		}
+		updateUndoButtons();
+	}
+	
+	/**
+	 * Shows how many stored tasks are left out of the JList and its searches, or hides the notice if none are.
+	 * The JList only holds the tasks in the heap, and tasks due far enough ahead stay in their partitions until the heap reaches them.
+	 */
+	private void showUnloaded() {
+		// If every stored task is in the heap, hide the notice and give its space to the JList.
+		if ( h.isLoadedThrough( Long.MAX_VALUE ) ) {
+			unloadedLabel.setVisible( false );
+			listScrollPane.setSize( 175, 280 );
+			return;
+		}
+		long count = h.getUnloadedCount();
+		unloadedLabel.setText( count + " later task" + ( count == 1 ? "" : "s" ) + ( tasks.getFilter() == null ? " not shown" : " not searched" ) );
+		unloadedLabel.setToolTipText( "Tasks due from " + DueDates.format( h.getUnloadedDue() )
+				+ " on are loaded as the list reaches them, and are not listed or searched until then." );
+		unloadedLabel.setVisible( true );
+		listScrollPane.setSize( 175, 258 );
+	}
+	
+	/**
+	 * Enables the undo and redo buttons only when there is something to undo or redo.
+	 */
+	private void updateUndoButtons() {
+		undoButton.setEnabled( history != null && history.canUndo() );
+		redoButton.setEnabled( history != null && history.canRedo() );
+	}
+	
+	/**
+	 * Shows the current task in the current task fields, and in the postpone form if it is showing.
+	 * Reads the latest version from the history, which is the same as the heap on the EDT.
+	 */
+	private void showCurrent() {
+		PersistentHeap< Task > tasks = history.snapshot();
+		// If there are no tasks, clear the current task fields.
+		if ( tasks.isEmpty() ) {
+			curTaskTxt.setText( "" );
+			compByTxt.setText( "" );
+			return;
+		}
+		long due = tasks.getCurrent().getDue();
+		curTaskTxt.setText( tasks.getCurrent().getName() );
+		compByTxt.setText( DueDates.format( due ) );
+		// If the postpone/add button form is toggled to postponing, fill it with the date of the current task.
+		if ( postponeAddButton.getText().equals( "Add Task" ) ) {
+			monthTxt.setText( Integer.toString( DueDates.month( due ) ) );
+			dayTxt.setText( Integer.toString( DueDates.day( due ) ) );
+			yearTxt.setText( Integer.toString( DueDates.year( due ) ) );
+			timeHrTxt.setText( Integer.toString( DueDates.hours( due ) ) );
+			timeMinTxt.setText( ( DueDates.mins( due ) < 10 ? "0" : "" ) + DueDates.mins( due ) );
+		}
+	}
+	
+	/**
+	 * Searches the task names for the text in the search box on a background thread, then filters the JList.
+	 * If the search box is empty, every task is shown again.
+	 */
+	private void startSearch() {
+		String text = searchTxt.getText().trim();
+		// If the search box is empty, stop filtering.
+		if ( text.isEmpty() ) {
+			if ( tasks.getFilter() != null ) {
+				taskList.clearSelection();
+				tasks.setFilter( null, null );
+				showUnloaded();
+			}
+			return;
+		}
+		searcher.execute( () -> {
+			// Read the change count before searching, so the EDT can tell if the result is out of date.
+			// The search sees at least every change counted, and the index never makes the EDT wait for it.
+			int version = names.getModCount();
+			DueIndex matches = new DueIndex( names.search( text, false, Integer.MAX_VALUE ) );		// Sorted here, so the EDT only swaps it in.
+			SwingUtilities.invokeLater( () -> showSearch( text, version, matches ) );
+		} );
+	}
+	
+	/**
+	 * Filters the JList with the result of a background search.
+	 * 
+	 * @param text The text that was searched for.
+	 * @param version The change count of the name index when the search ran.
+	 * @param matches An index of the tasks whose names contain the text.
+	 */
+	private void showSearch( String text, int version, DueIndex matches ) {
+		// If the search box has changed since, a newer search is on its way.
+		if ( !text.equals( searchTxt.getText().trim() ) ) {
+			return;
+		}
+		// If the heap has changed since, the result may be missing tasks, so search again.
+		if ( version != names.getModCount() ) {
+			startSearch();
+			return;
+		}
+		taskList.clearSelection();
+		tasks.setFilter( text, matches );
+		showUnloaded();		// Say that the search left out the tasks not loaded yet.
+	}
+	
+	/**
+	 * Runs a button handler, timing how long it blocks the EDT in the metrics and as a Flight Recorder event.
+	 * 
+	 * @param panel The name of the panel the handler belongs to.
+	 * @param e The ActionEvent to handle.
+	 * @param handler The handler to run.
+	 */
+	private void timeHandler( String panel, ActionEvent e, ActionListener handler ) {
+		TaskEvents.Handler event = new TaskEvents.Handler();
+		long start = System.nanoTime();
+		event.begin();
+		try {
+			handler.actionPerformed( e );
+		} finally {
+			Metrics.get().histogram( "edt." + panel + ".us" ).recordSince( start );
+			event.end();
+			// If handler events are being recorded, record this one.
+			if ( event.shouldCommit() ) {
+				event.panel = panel;
+				event.command = e.getActionCommand();
+				event.commit();
+			}
+		}
+	}
+	
+	/**
+	 * Disables the buttons that change or save the heap while it is being loaded, and enables them afterwards.
+	 * 
+	 * @param loading True while the heap is being loaded, false once it is done.
+	 */
+	private void setLoading( boolean loading ) {
+		setTitle( loading ? "Task List (Loading...)" : "Task List" );
+		quitButton.setEnabled( !loading );
+		completeButton.setEnabled( !loading );
+		postponeAddButton.setEnabled( !loading );
+		submitButton.setEnabled( !loading );
+	}
+	
+	/**
+	 * Loads the heap on a background thread.
+	 * Tasks are added to the heap on the EDT as soon as they are read: one partition, or one chunk of the task file, at a time,
+	 * so the list fills in while the rest is still being read. Each batch is moved into place or the heap rebuilt, whichever costs less.
+	 */
+	private class LoadWorker extends SwingWorker< Void, List< Task > > {
+		/**
+		 * Reads the task file and publishes its tasks as they are read.
+		 */
+		@Override
+		protected Void doInBackground() throws Exception {
+			h.readTasks( this::publish );
+			return null;
+		}
+		
+		/**
+		 * Adds published batches of tasks to the heap on the EDT.
+		 */
+		@Override
+		protected void process( List< List< Task > > batches ) {
+			for ( List< Task > batch : batches ) {
+				h.addAll( batch );
+			}
+		}
+		
+		/**
+		 * Replays the journal, fills in the current task and enables the buttons once every task has been added.
+		 */
+		@Override
+		protected void done() {
+			try {
+				get();
+			} catch ( Exception e ) {
+				System.out.println( "Error reading task file: " + e.getMessage() );
+				System.exit( 0 );
+			}
+			h.openJournal();
+			history = new TaskHistory( h, UNDO_LIMIT );		// Start keeping versions for undo once loading is done.
+			showUnloaded();
+			// If the heap is nonempty, show the current task.
+			if ( h.getSize() > 0 ) {
+				curTaskTxt.setText( h.getCurrent().getName() );
+				compByTxt.setText( DueDates.format( h.getCurrent().getDue() ) );
+			}
+			setLoading( false );
+			updateUndoButtons();
+		}
 	}
 	
 	/**
@@ -163,26 +441,64 @@ public class Window extends JFrame {
 			taskListLabel.setBounds( 10, 5, 50, 30 );	// Set (x,y) position to (10,5) on the JPanel, size to 50x30.
 			add( taskListLabel );						// Add this component to the JPanel.
 			
-			taskList = new JList < String > ( tasks );	// Create a new JList and populate it with the values in tasks vector.
-			taskList.setEnabled( false );				// Set JList an non-interactable.
+			searchTxt = new JTextField();
+			searchTxt.setToolTipText( "Search tasks by name" );
+			searchTxt.setBounds( 60, 10, 135, 22 );							// Set (x,y) position to (60,10) on the JPanel, size to 135x22.
+			searchTxt.getDocument().addDocumentListener( new SearchListener() );	// Search again whenever the text changes.
+			add( searchTxt );													// Add this component to the JPanel.
+			
+			taskList = new JList < Task > ( tasks );	// Create a new JList that shows the values in the tasks list model.
+			taskList.setCellRenderer( new TaskCellRenderer() );	// Show only the name of each task.
+			taskList.setSelectionMode( ListSelectionModel.SINGLE_SELECTION );	// Allow one task to be selected for completion.
 			
 			listScrollPane = new JScrollPane( taskList );	// Create a JScrollPane to allow for scrolling through the list.
 			listScrollPane.setBounds( 20, 35, 175, 280 );	// Set (x,y) position to (20,35) on the JPanel, size to 175x280.
 			add( listScrollPane );							// Add this component to the JPanel
 			
+			unloadedLabel = new JLabel();
+			unloadedLabel.setBounds( 20, 295, 175, 20 );	// Set (x,y) position to (20,295) on the JPanel, size to 175x20. Shown under a shortened JList.
+			unloadedLabel.setVisible( false );				// Hidden until some tasks are known not to be loaded.
+			add( unloadedLabel );							// Add this component to the JPanel.
+			
 			quitButton = new JButton( "Quit" );
 			quitButton.setBounds( 70, 325, 80, 25 );	// Set (x,y) position to (70,325) on the JPanel, size to 80,25.
 			quitButton.addActionListener( this );		// Add an ActionListener to this Component.
 			add( quitButton );							// Add this component to the JPanel.
 		}
-
+		
 		/**
-		 * When an ActionEvent occurs in this JPanel, saves the contents of the heap to a textfile and quits the program.
+		 * When an ActionEvent occurs in this JPanel, saves the contents of the heap to a file and quits the program.
+		 * The save runs in the background, and the program exits once it is done.
+		 * If the save fails, the window is shown again and the user chooses whether to quit anyway.
 		 */
 		@Override
 		public void actionPerformed( ActionEvent e ) {
 			if ( e.getSource() == quitButton ) {
-				h.saveHeap();
+				quitButton.setEnabled( false );							// Ignore further clicks while saving.
+				setVisible( false );									// Hide the window while saving.
+				h.saveHeapAsync().whenComplete( ( r, ex ) -> {
+					// If the save worked, quit.
+					if ( ex == null ) {
+						System.exit( 0 );
+					}
+					SwingUtilities.invokeLater( () -> saveFailed( ex ) );
+				} );
+			}
+		}
+		
+		/**
+		 * Shows the window again after a failed save, and quits if the user chooses to quit without saving.
+		 * Changes already recorded in the journal are kept either way.
+		 * 
+		 * @param ex Why the save failed.
+		 */
+		private void saveFailed( Throwable ex ) {
+			setVisible( true );
+			quitButton.setEnabled( true );
+			int choice = JOptionPane.showConfirmDialog( Window.this, "The task list could not be saved: " + ex.getMessage()
+					+ "\nQuit anyway?", "Save Error", JOptionPane.YES_NO_OPTION, JOptionPane.ERROR_MESSAGE );
+			// If the user chose to quit anyway, quit.
+			if ( choice == JOptionPane.YES_OPTION ) {
 				System.exit( 0 );
 			}
 		}
@@ -210,7 +526,7 @@ public class Window extends JFrame {
 			curTaskTxt = new JTextField();
 			// If heap size > 0
 			if ( h.getSize() > 0 ) {
-				curTaskTxt.setText( h.getCurrent().toString().split( "," )[ 0 ] );	// Set the contents of this text field to the name of the current task.
+				curTaskTxt.setText( h.getCurrent().getName() );	// Set the contents of this text field to the name of the current task.
 			// If heap size = 0
 			} else {
 				curTaskTxt.setText( "" );											// Set the contents of this text field to the name of the current task.
@@ -227,7 +543,7 @@ public class Window extends JFrame {
 			compByTxt = new JTextField();
 			// If heap size > 0
 			if ( h.getSize() > 0 ) {
-				compByTxt.setText( h.getCurrent().toString().split( "," )[ 1 ] );	// Set the contents of this text field to the date of the current task.
+				compByTxt.setText( DueDates.format( h.getCurrent().getDue() ) );	// Set the contents of this text field to the date of the current task.
 			// If heap size = 0
 			} else {
 				compByTxt.setText( "" );											// Set the contents of this text field to an empty string.
@@ -246,38 +562,67 @@ public class Window extends JFrame {
 			postponeAddButton.setBounds( 160, 120, 125, 25 );	// Set (x,y) position to (160, 120) on the JPanel, size to 125x25.
 			postponeAddButton.addActionListener( this );		// Add an ActionListener to this component.
 			this.add( postponeAddButton );						// Add this component to the JPanel.
+			
+			undoButton = new JButton( "Undo" );
+			undoButton.setToolTipText( "Undo the last add, complete or postpone (Ctrl+Z)" );
+			undoButton.setBounds( 25, 150, 125, 25 );			// Set (x,y) position to (25,150) on the JPanel, size to 125x25.
+			undoButton.addActionListener( this );				// Add an ActionListener to this component.
+			this.add( undoButton );								// Add this component to the JPanel.
+			
+			redoButton = new JButton( "Redo" );
+			redoButton.setToolTipText( "Redo the last undone change (Ctrl+Y)" );
+			redoButton.setBounds( 160, 150, 125, 25 );			// Set (x,y) position to (160,150) on the JPanel, size to 125x25.
+			redoButton.addActionListener( this );				// Add an ActionListener to this component.
+			this.add( redoButton );								// Add this component to the JPanel.
 		}
-
+		
 		/**
-		 * Performs a set of actions depending on what component triggered an ActionEvent.
+		 * Performs a set of actions depending on what component triggered an ActionEvent, and times them.
 		 */
 		@Override
 		public void actionPerformed( ActionEvent e ) {
+			timeHandler( "CurTaskPanel", e, this::handleAction );
+		}
+		
+		/**
+		 * Performs a set of actions depending on what component triggered an ActionEvent.
+		 * 
+		 * @param e The ActionEvent to handle.
+		 */
+		private void handleAction( ActionEvent e ) {
+			// If the undo or redo button triggered the ActionEvent, undo or redo the change. The tasks list model follows the heap.
+			if ( e.getSource() == undoButton || e.getSource() == redoButton ) {
+				if ( e.getSource() == undoButton ? history.undo() : history.redo() ) {
+					taskList.clearSelection();
+					showCurrent();
+				}
 			// If the complete task button triggered the ActionEvent:
-			if ( e.getSource() == completeButton ) {
+			} else if ( e.getSource() == completeButton ) {
 				// If the heap is nonempty:
 				if ( h.getSize() != 0 ) {
-					String removedItem = ( ( Task ) h.removeItem() ).getName();				// Remove the root of the heap and get its name.
-					tasks.removeElement( removedItem );										// Remove the same item from the tasks vector.
+					Task selected = taskList.getSelectedValue();	// Get the task selected in the JList, if any.
+					// Complete the selected task, or the root of the heap if none is selected. The tasks list model removes its row,
+					// or moves it if the task repeats.
+					h.complete( selected != null ? selected.getId() : h.getCurrent().getId() );
+					taskList.clearSelection();
 					// If the heap is still nonempty:
 					if ( h.getSize() != 0 ) {
-						curTaskTxt.setText( h.getCurrent().toString().split( "," )[ 0 ] );	// Fill the current task textbox with the name of the current task.
-						compByTxt.setText( h.getCurrent().toString().split( "," )[ 1 ] );	// Fill the complete by textbox with the date of the current task.
+						curTaskTxt.setText( h.getCurrent().getName() );	// Fill the current task textbox with the name of the current task.
+						compByTxt.setText( DueDates.format( h.getCurrent().getDue() ) );	// Fill the complete by textbox with the date of the current task.
 						// If the postpone/add button form is toggled to postponing:
 						if ( postponeAddButton.getText().equals( "Add Task" ) ) {
-							monthTxt.setText( Integer.toString( h.getCurrent().getDate().getMonth() + 1 ) );	// Fill the postpone month textbox with the month of the current task. 
-							dayTxt.setText( Integer.toString( h.getCurrent().getDate().getDate() ) );			// Fill the postpone date textbox with the date of the current task.
-							yearTxt.setText( Integer.toString( h.getCurrent().getDate().getYear() + 1900 ) );	// Fill the postpone year textbox with the year of the current task.
-							timeHrTxt.setText( Integer.toString( h.getCurrent().getDate().getHours() ) );		// Fill the postpone hours textbox with the hour of the current task.
+							monthTxt.setText( Integer.toString( DueDates.month( h.getCurrent().getDue() ) ) );	// Fill the postpone month textbox with the month of the current task. 
+							dayTxt.setText( Integer.toString( DueDates.day( h.getCurrent().getDue() ) ) );			// Fill the postpone date textbox with the date of the current task.
+							yearTxt.setText( Integer.toString( DueDates.year( h.getCurrent().getDue() ) ) );	// Fill the postpone year textbox with the year of the current task.
+							timeHrTxt.setText( Integer.toString( DueDates.hours( h.getCurrent().getDue() ) ) );		// Fill the postpone hours textbox with the hour of the current task.
 							// Fill the postpone minutes textbox with the minutes of the current task. If-statements are for formatting purposes.
-							if ( h.getCurrent().getDate().getMinutes() < 10 ) {
-								timeMinTxt.setText( "0" + h.getCurrent().getDate().getMinutes() );
+							if ( DueDates.mins( h.getCurrent().getDue() ) < 10 ) {
+								timeMinTxt.setText( "0" + DueDates.mins( h.getCurrent().getDue() ) );
 							} else {
-								timeMinTxt.setText( Integer.toString( h.getCurrent().getDate().getMinutes() ) );
+								timeMinTxt.setText( Integer.toString( DueDates.mins( h.getCurrent().getDue() ) ) );
 							}
 						}
 					}
-					taskList.setListData( tasks );		// Fill the JList with the new vector values.
 				// If the heap is empty, fill the current task and complete by textboxes with empty strings. 
 				} else {
 					curTaskTxt.setText( "" );
@@ -291,19 +636,20 @@ public class Window extends JFrame {
 					postponeAddButton.setText( "Add Task" );				// Set the text of the postpone/add toggle button to "Add Task".
 					postponeAddLabel.setText( "Postpone:" );				// Set the postpone/add panel label text to "Postpone".
 					// Get the information about the current task and put the information into the date data fields.
-					monthTxt.setText( Integer.toString( curTask.getDate().getMonth() + 1 ) );
-					dayTxt.setText( Integer.toString( curTask.getDate().getDate() ) );
-					yearTxt.setText( Integer.toString( curTask.getDate().getYear() + 1900 ) );
-					timeHrTxt.setText( Integer.toString( curTask.getDate().getHours() ) );
+					monthTxt.setText( Integer.toString( DueDates.month( curTask.getDue() ) ) );
+					dayTxt.setText( Integer.toString( DueDates.day( curTask.getDue() ) ) );
+					yearTxt.setText( Integer.toString( DueDates.year( curTask.getDue() ) ) );
+					timeHrTxt.setText( Integer.toString( DueDates.hours( curTask.getDue() ) ) );
 					// If-statement for formatting the minutes.
-					if ( curTask.getDate().getMinutes() < 10 ) {
-						timeMinTxt.setText( "0" + Integer.toString( curTask.getDate().getMinutes() ) );
+					if ( DueDates.mins( curTask.getDue() ) < 10 ) {
+						timeMinTxt.setText( "0" + Integer.toString( DueDates.mins( curTask.getDue() ) ) );
 					} else {
-						timeMinTxt.setText( Integer.toString( curTask.getDate().getMinutes() ) );
+						timeMinTxt.setText( Integer.toString( DueDates.mins( curTask.getDue() ) ) );
 					}
 					// Hide the name label and text box.
 					nameLabel.setVisible( false );
 					nameTxt.setVisible( false );
+					repeatBox.setVisible( false );
 				// If the postpone/add panel is toggled to postponing a task:
 				} else if ( postponeAddLabel.getText().equals( "Postpone:" ) ) {
 					postponeAddButton.setText( "Postpone" );		// Set postpone/add toggle button text.
@@ -315,8 +661,10 @@ public class Window extends JFrame {
 					timeMinTxt.setText( "MM" );						// Set minutes textbox text.
 					nameLabel.setVisible( true );					// Set new task name level as visible.
 					nameTxt.setVisible( true );						// Set new task name textbox as visible.
+					repeatBox.setVisible( true );					// Set new task repeat choice as visible.
 				}
 			}
+			updateUndoButtons();
 		}
 	}
 	
@@ -367,6 +715,11 @@ public class Window extends JFrame {
 			timeMinTxt.setBounds( 95, 60, 40, 25 );			// Set (x,y) position to (95,60) on the JPanel, size to 40x25.
 			this.add( timeMinTxt );							// Add this component to the JPanel.
 			
+			repeatBox = new JComboBox< String >( new String[] { "Once", "Daily", "Weekly", "Monthly", "Yearly" } );
+			repeatBox.setBounds( 145, 60, 105, 25 );		// Set (x,y) position to (145,60) on the JPanel, size to 105x25.
+			repeatBox.setToolTipText( "How often the new task repeats" );
+			this.add( repeatBox );							// Add this component to the JPanel.
+			
 			nameLabel = new JLabel( "Task:" );
 			nameLabel.setBounds( 10, 86, 40, 25 );			// Set (x,y) position to (10,86) on the JPanel, size to 40x25.
 			this.add( nameLabel );							// Add this component to the JPanel.
@@ -380,13 +733,21 @@ public class Window extends JFrame {
 			submitButton.addActionListener( this );			// Add an ActionListener to this component.
 			this.add( submitButton );						// Add this component to the JPanel.
 		}
-
+		
 		/**
-		 * Performs a set of actions depending on the component that triggered an ActionEvent.
+		 * Performs a set of actions depending on the component that triggered an ActionEvent, and times them.
 		 */
 		@Override
 		public void actionPerformed( ActionEvent e ) {
-			Task curTask;										// Used to hold the current task.
+			timeHandler( "PostponeAddPanel", e, this::handleAction );
+		}
+		
+		/**
+		 * Performs a set of actions depending on the component that triggered an ActionEvent.
+		 * 
+		 * @param e The ActionEvent to handle.
+		 */
+		private void handleAction( ActionEvent e ) {
 			int newYear, newMonth, newDate, newHours, newMins;	// Used to hold the new date information.
 			String newName;										// Used to hold the new task name.
 			// If the submit button fired the ActionEvent:
@@ -395,32 +756,25 @@ public class Window extends JFrame {
 				if ( postponeAddLabel.getText().equals( "Postpone:" ) ) {
 					// If the date is valid.
 					if ( vrf.verifyMonth() && vrf.verifyDate() && vrf.verifyYear()  && vrf.verifyHours() && vrf.verifyMinutes() ) {
-						curTask = h.removeItem();								// Get the top element of the heap by removing it.
-						newYear = Integer.parseInt( yearTxt.getText() ) - 1900;	// Get the new year.
-						newMonth = Integer.parseInt( monthTxt.getText() ) - 1;	// Get the new month.
+						newYear = Integer.parseInt( yearTxt.getText() );	// Get the new year.
+						newMonth = Integer.parseInt( monthTxt.getText() );	// Get the new month.
 						newDate = Integer.parseInt( dayTxt.getText() );			// Get the new date.
 						newHours = Integer.parseInt( timeHrTxt.getText() );		// Get the new hours.
 						newMins = Integer.parseInt( timeMinTxt.getText() );		// Get the new minutes.
-						// Add the task back to the heap, but with a different date.
-						h.addItem( new Task( curTask.getName(), new Date( newYear, newMonth, newDate, newHours, newMins ) ) );
-						tasks.removeAllElements();								// Remove all elements from the tasks vector.
-						// Add everything from the heap back to the vector, in sorted order.
-						for ( int i = 0; i < h.getSize(); i++ ) {
-							tasks.addElement( h.toString().split( "=" )[ i ].split( "," )[ 0 ] );
-						}
-						taskList.setListData( tasks );				// Set the JList to the values in the vector to update it.
+						// Move the current task to its new place in the heap. The tasks list model moves its row.
+						h.reschedule( h.getCurrentHandle(), DueDates.toMinute( newYear, newMonth, newDate, newHours, newMins ) );
 						
 						// Reset and refresh the contents of the fields.
-						curTaskTxt.setText( h.getCurrent().toString().split( "," )[ 0 ] );
-						compByTxt.setText( h.getCurrent().toString().split( "," )[ 1 ] );
-						monthTxt.setText( Integer.toString( h.getCurrent().getDate().getMonth() + 1) );
-						dayTxt.setText( Integer.toString( h.getCurrent().getDate().getDate() ) );
-						yearTxt.setText( Integer.toString( h.getCurrent().getDate().getYear() + 1900 ) );
-						timeHrTxt.setText( Integer.toString( h.getCurrent().getDate().getHours() ) );
-						if ( h.getCurrent().getDate().getMinutes() < 10 ) {
-							timeMinTxt.setText( "0" + h.getCurrent().getDate().getMinutes() );
+						curTaskTxt.setText( h.getCurrent().getName() );
+						compByTxt.setText( DueDates.format( h.getCurrent().getDue() ) );
+						monthTxt.setText( Integer.toString( DueDates.month( h.getCurrent().getDue() ) ) );
+						dayTxt.setText( Integer.toString( DueDates.day( h.getCurrent().getDue() ) ) );
+						yearTxt.setText( Integer.toString( DueDates.year( h.getCurrent().getDue() ) ) );
+						timeHrTxt.setText( Integer.toString( DueDates.hours( h.getCurrent().getDue() ) ) );
+						if ( DueDates.mins( h.getCurrent().getDue() ) < 10 ) {
+							timeMinTxt.setText( "0" + DueDates.mins( h.getCurrent().getDue() ) );
 						} else {
-							timeMinTxt.setText( Integer.toString( h.getCurrent().getDate().getMinutes() ) );
+							timeMinTxt.setText( Integer.toString( DueDates.mins( h.getCurrent().getDue() ) ) );
 						}
 					}
 				// If the add/postpone panel is toggled to add a task:
@@ -428,37 +782,149 @@ public class Window extends JFrame {
 					// If the date is valid:
 					if ( vrf.verifyMonth() && vrf.verifyDate() && vrf.verifyYear()  && vrf.verifyHours() && vrf.verifyMinutes() ) {
 						// Get the new date and name information.
-						newYear = Integer.parseInt( yearTxt.getText() ) - 1900;
-						newMonth = Integer.parseInt( monthTxt.getText() ) - 1;
+						newYear = Integer.parseInt( yearTxt.getText() );
+						newMonth = Integer.parseInt( monthTxt.getText() );
 						newDate = Integer.parseInt( dayTxt.getText() );
 						newHours = Integer.parseInt( timeHrTxt.getText() );
 						newMins = Integer.parseInt( timeMinTxt.getText() );
 						newName = vrf.verifyName( nameTxt.getText() );
-						// Add the new task to the heap.
-						h.addItem( new Task( newName, new Date( newYear, newMonth, newDate, newHours, newMins ) ) );
-						tasks.removeAllElements();			// Remove all elements from the tasks vector.
-						// Add everything from the heap back to the vector, in sorted order.
-						for ( int i = 0; i < h.getSize(); i++ ) {
-							tasks.addElement( h.toString().split( "=" )[ i ].split( "," )[ 0 ] );
-						}
-						taskList.setListData( tasks );		// Set the JList to the values in the tasks vector to refresh it.
+						// Add the new task to the heap, repeating if a repeat was chosen. The tasks list model inserts its row.
+						h.addItem( Task.recurring( newName, DueDates.toMinute( newYear, newMonth, newDate, newHours, newMins ), repeatRule() ) );
 						
 						// Reset and refresh the contents of fields.
-						curTaskTxt.setText( h.getCurrent().toString().split( "," )[ 0 ] );
-						compByTxt.setText( h.getCurrent().toString().split( "," )[ 1 ] );
-						monthTxt.setText( Integer.toString( h.getCurrent().getDate().getMonth() + 1) );
-						dayTxt.setText( Integer.toString( h.getCurrent().getDate().getDate() ) );
-						yearTxt.setText( Integer.toString( h.getCurrent().getDate().getYear() + 1900 ) );
-						timeHrTxt.setText( Integer.toString( h.getCurrent().getDate().getHours() ) );
-						if ( h.getCurrent().getDate().getMinutes() < 10 ) {
-							timeMinTxt.setText( "0" + h.getCurrent().getDate().getMinutes() );
+						curTaskTxt.setText( h.getCurrent().getName() );
+						compByTxt.setText( DueDates.format( h.getCurrent().getDue() ) );
+						monthTxt.setText( Integer.toString( DueDates.month( h.getCurrent().getDue() ) ) );
+						dayTxt.setText( Integer.toString( DueDates.day( h.getCurrent().getDue() ) ) );
+						yearTxt.setText( Integer.toString( DueDates.year( h.getCurrent().getDue() ) ) );
+						timeHrTxt.setText( Integer.toString( DueDates.hours( h.getCurrent().getDue() ) ) );
+						if ( DueDates.mins( h.getCurrent().getDue() ) < 10 ) {
+							timeMinTxt.setText( "0" + DueDates.mins( h.getCurrent().getDue() ) );
 						} else {
-							timeMinTxt.setText( Integer.toString( h.getCurrent().getDate().getMinutes() ) );
+							timeMinTxt.setText( Integer.toString( DueDates.mins( h.getCurrent().getDue() ) ) );
 						}
 						nameTxt.setText( "New Task" );
+						repeatBox.setSelectedIndex( 0 );
 					}
 				}
 			}
+			updateUndoButtons();
+		}
+		
+		/**
+		 * Gets the rule chosen in the repeat box.
+		 * 
+		 * @return The rule, or null if the task should not repeat.
+		 */
+		private Recurrence repeatRule() {
+			int choice = repeatBox.getSelectedIndex();
+			// If "Once" is chosen, the task does not repeat. Otherwise, the choices follow the order of the units.
+			return choice <= 0 ? null : new Recurrence( Recurrence.Unit.values()[ choice - 1 ], 1 );
+		}
+	}
+	
+	/**
+	 * Renders each Task in the JList by its name.
+	 */
+	private class TaskCellRenderer extends DefaultListCellRenderer {
+		/**
+		 * Serialization version, for the Serializable DefaultListCellRenderer.
+		 */
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * Returns the default list cell, with its text set to the name of the task.
+		 * Repeating tasks are marked, and tasks whose due date has passed are shown in red.
+		 */
+		@Override
+		public Component getListCellRendererComponent( JList < ? > list, Object value, int index, boolean isSelected, boolean cellHasFocus ) {
+			super.getListCellRendererComponent( list, value, index, isSelected, cellHasFocus );
+			Task t = ( Task ) value;
+			setText( t.getRecurrence() == null ? t.getName() : t.getName() + " (repeats)" );	// Show the name of the task, and whether it repeats.
+			// If the task is overdue, show it in red.
+			if ( !isSelected && t.getDue() <= DueDates.now() ) {
+				setForeground( Color.RED );
+			}
+			return this;
+		}
+	}
+	
+	/**
+	 * Restarts the search timer whenever the text in the search box changes, so a search runs once typing pauses.
+	 */
+	private class SearchListener implements DocumentListener {
+		@Override
+		public void insertUpdate( DocumentEvent e ) {
+			searchTimer.restart();
+		}
+		
+		@Override
+		public void removeUpdate( DocumentEvent e ) {
+			searchTimer.restart();
+		}
+		
+		@Override
+		public void changedUpdate( DocumentEvent e ) {
+			searchTimer.restart();
+		}
+	}
+	
+	/**
+	 * Repaints the JList when tasks become due or overdue, so the renderer can highlight them.
+	 * Repaints requested while one is already waiting are dropped, so a burst of deadlines costs one repaint.
+	 */
+	private class DueHighlighter implements DeadlineListener {
+		@Override
+		public void taskDue( Task t ) {
+			requestRepaint();
+		}
+		
+		@Override
+		public void taskOverdue( Task t ) {
+			requestRepaint();
+		}
+		
+		/**
+		 * Schedules a repaint of the JList on the EDT, unless one is already waiting.
+		 */
+		private void requestRepaint() {
+			// If no repaint is waiting, schedule one.
+			if ( dueRepaintPending.compareAndSet( false, true ) ) {
+				SwingUtilities.invokeLater( () -> {
+					dueRepaintPending.set( false );
+					taskList.repaint();
+				} );
+			}
+		}
+	}
+	
+	/**
+	 * Updates the notice of tasks not in the JList whenever a partition of tasks is loaded into the heap.
+	 */
+	private class UnloadedNotice implements HeapListener< Task > {
+		/**
+		 * Ignores added tasks. Only loading a partition changes which stored tasks are left out.
+		 */
+		@Override
+		public void itemAdded( Task item ) {
+		}
+		
+		/**
+		 * Ignores removed tasks. Only loading a partition changes which stored tasks are left out.
+		 */
+		@Override
+		public void itemRemoved( Task item ) {
+		}
+		
+		/**
+		 * Updates the notice, since fewer stored tasks are left out once a partition is loaded.
+		 */
+		@Override
+		public void itemsLoaded( Collection< ? extends Task > items ) {
+			// If the window is still loading, the notice is updated once it is done.
+			if ( history != null ) {
+				showUnloaded();
+			}
 		}
 	}
 	
@@ -492,7 +958,7 @@ public class Window extends JFrame {
 				return false;
 			}
 		}
-
+		
 		/**
 		 * Checks the validity of the date text field.
 		 * Displays an error if invalid.
@@ -517,7 +983,7 @@ public class Window extends JFrame {
 				return false;
 			}
 		}
-
+		
 		/**
 		 * Checks the validity of the year text field.
 		 * Displays an error if invalid.
@@ -542,7 +1008,7 @@ public class Window extends JFrame {
 				return false;
 			}
 		}
-
+		
 		/**
 		 * Checks the validity of the hours text field.
 		 * Displays an error if invalid.
@@ -567,7 +1033,7 @@ public class Window extends JFrame {
 				return false;
 			}
 		}
-
+		
 		/**
 		 * Checks the validity of the minutes text field.
 		 * Displays an error if invalid.
@@ -592,7 +1058,7 @@ public class Window extends JFrame {
 				return false;
 			}
 		}
-
+		
 		/**
 		 * Returns the name parameter without equal signs or commas to ensure safe data entry.
 		 * 
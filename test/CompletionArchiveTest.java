@@ -0,0 +1,257 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that the completion archive's blocks, tail file and retraction file read back what was written,
+ * and that a record or block cut off by a crash is dropped without losing the ones before it.
+ * A crash is simulated by copying the archive's files while it is still open, and opening the copies.
+ */
+public class CompletionArchiveTest {
+	/**
+	 * Folder holding the archive files.
+	 */
+	@TempDir
+	Path dir;
+	
+	/**
+	 * Heap the archives follow. Completions are recorded directly, so it stays empty.
+	 */
+	private Heap< Task > h;
+	
+	/**
+	 * The archive being written.
+	 */
+	private CompletionArchive archive;
+	
+	/**
+	 * Opens an empty archive.
+	 * 
+	 * @throws IOException If the archive cannot be created.
+	 */
+	@BeforeEach
+	void open() throws IOException {
+		h = new Heap< Task >( false );
+		archive = new CompletionArchive( h, file( dir ) );
+	}
+	
+	/**
+	 * Closes the archive being written.
+	 * 
+	 * @throws IOException If the archive cannot be closed.
+	 */
+	@AfterEach
+	void close() throws IOException {
+		archive.close();
+	}
+	
+	/**
+	 * Completions synced to the tail file are read back after a crash, with their fields.
+	 */
+	@Test
+	void tailRoundTrip() throws IOException {
+		record( 3 );
+		archive.sync();
+		CompletionArchive reopened = reopen( crash() );
+		try {
+			assertEquals( 3, reopened.getSize() );
+			assertEquals( 0, reopened.getBlockCount() );
+			assertRows( reopened, 0, 3 );
+		} finally {
+			reopened.close();
+		}
+	}
+	
+	/**
+	 * Completions written as a block are read back from the block.
+	 */
+	@Test
+	void blockRoundTrip() throws IOException {
+		record( 5 );
+		archive.flush();
+		record( 2 );
+		archive.sync();
+		CompletionArchive reopened = reopen( crash() );
+		try {
+			assertEquals( 7, reopened.getSize() );
+			assertEquals( 1, reopened.getBlockCount() );
+			assertRows( reopened, 0, 7 );
+		} finally {
+			reopened.close();
+		}
+	}
+	
+	/**
+	 * A tail record cut off by a crash is dropped, the ones before it are kept, and the tail can be written again.
+	 */
+	@Test
+	void truncatedTail() throws IOException {
+		record( 3 );
+		archive.sync();
+		Path copy = crash();
+		truncate( new File( file( copy ).getPath() + ".tail" ), 5 );
+		CompletionArchive reopened = reopen( copy );
+		try {
+			assertEquals( 2, reopened.getSize() );
+			reopened.record( new Task( 100, "After", 1000 ), 1010 );
+			reopened.sync();
+		} finally {
+			reopened.close();
+		}
+		reopened = reopen( copy );
+		try {
+			assertEquals( 3, reopened.getSize() );
+			assertEquals( "After", reopened.rangeQuery( 0, Long.MAX_VALUE ).get( 2 ).getName() );
+		} finally {
+			reopened.close();
+		}
+	}
+	
+	/**
+	 * A block cut off by a crash is dropped, and its completions are read back from the tail file, which is only started
+	 * over once the block is on disk.
+	 */
+	@Test
+	void truncatedBlock() throws IOException {
+		record( 3 );
+		archive.flush();
+		record( 2 );
+		archive.sync();
+		Path before = crash();		// The tail still holds the last two completions.
+		archive.flush();
+		Path copy = crash();
+		// Put the archive as it was with the second block half written, and the tail as it was before the block.
+		truncate( file( copy ), 10 );
+		Files.copy( new File( file( before ).getPath() + ".tail" ).toPath(), new File( file( copy ).getPath() + ".tail" ).toPath(),
+				StandardCopyOption.REPLACE_EXISTING );
+		CompletionArchive reopened = reopen( copy );
+		try {
+			assertEquals( 5, reopened.getSize() );
+			assertEquals( 1, reopened.getBlockCount() );
+			assertRows( reopened, 0, 5 );
+		} finally {
+			reopened.close();
+		}
+	}
+	
+	/**
+	 * A retraction is read back, and a retraction record cut off by a crash is dropped, so its completion counts again.
+	 */
+	@Test
+	void retractionRoundTrip() throws IOException {
+		record( 3 );
+		archive.sync();
+		long row = archive.retract( 1 );
+		archive.persistRetractions( List.of( row ) );
+		Path copy = crash();
+		CompletionArchive reopened = reopen( copy );
+		try {
+			assertEquals( 2, reopened.getSize() );
+			assertEquals( 2, reopened.countCompleted( 0, Long.MAX_VALUE ) );
+		} finally {
+			reopened.close();
+		}
+		copy = crash();
+		truncate( new File( file( copy ).getPath() + ".undone" ), 3 );
+		reopened = reopen( copy );
+		try {
+			assertEquals( 3, reopened.getSize() );
+		} finally {
+			reopened.close();
+		}
+	}
+	
+	/**
+	 * Records completions of tasks with ids, names and dates that follow from their position.
+	 * 
+	 * @param n The number of completions to record after those already recorded.
+	 * @throws IOException If a full block cannot be written.
+	 */
+	private void record( int n ) throws IOException {
+		int start = archive.getSize();
+		for ( int i = start; i < start + n; i++ ) {
+			archive.record( new Task( i, "Task " + i, 1000 + i ), 1000 + 2 * i );
+		}
+	}
+	
+	/**
+	 * Checks that an archive holds the completions made by record, in order.
+	 * 
+	 * @param a The archive.
+	 * @param from The first completion to check.
+	 * @param to The end of the completions to check, exclusive.
+	 * @throws IOException If the archive cannot be read.
+	 */
+	private static void assertRows( CompletionArchive a, int from, int to ) throws IOException {
+		List< CompletionArchive.Entry > rows = a.rangeQuery( 0, Long.MAX_VALUE );
+		for ( int i = from; i < to; i++ ) {
+			CompletionArchive.Entry e = rows.get( i );
+			assertEquals( i, e.getId() );
+			assertEquals( "Task " + i, e.getName() );
+			assertEquals( 1000 + i, e.getDue() );
+			assertEquals( 1000 + 2 * i, e.getDone() );
+		}
+	}
+	
+	/**
+	 * Copies the archive's files as they are on disk now, as a crash would leave them.
+	 * 
+	 * @return The folder holding the copies.
+	 * @throws IOException If the files cannot be copied.
+	 */
+	private Path crash() throws IOException {
+		Path copy = Files.createTempDirectory( dir, "crash" );
+		for ( String suffix : new String[] { "", ".tail", ".undone" } ) {
+			File f = new File( file( dir ).getPath() + suffix );
+			if ( f.exists() ) {
+				Files.copy( f.toPath(), new File( file( copy ).getPath() + suffix ).toPath() );
+			}
+		}
+		return copy;
+	}
+	
+	/**
+	 * Opens the archive in a folder.
+	 * 
+	 * @param folder The folder.
+	 * @return The archive.
+	 * @throws IOException If the archive cannot be opened.
+	 */
+	private CompletionArchive reopen( Path folder ) throws IOException {
+		return new CompletionArchive( new Heap< Task >( false ), file( folder ) );
+	}
+	
+	/**
+	 * Gets the archive file in a folder.
+	 * 
+	 * @param folder The folder.
+	 * @return The archive file.
+	 */
+	private static File file( Path folder ) {
+		return folder.resolve( "tasks.archive" ).toFile();
+	}
+	
+	/**
+	 * Cuts bytes off the end of a file.
+	 * 
+	 * @param f The file.
+	 * @param bytes The number of bytes to cut off.
+	 * @throws IOException If the file cannot be changed.
+	 */
+	static void truncate( File f, int bytes ) throws IOException {
+		try ( RandomAccessFile raf = new RandomAccessFile( f, "rw" ) ) {
+			raf.setLength( raf.length() - bytes );
+		}
+	}
+}
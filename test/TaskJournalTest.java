@@ -0,0 +1,92 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that replaying the journal rebuilds the heap it recorded, and that a record cut off by a crash is dropped
+ * without losing the records before it.
+ */
+public class TaskJournalTest {
+	/**
+	 * Folder holding the journal files.
+	 */
+	@TempDir
+	Path dir;
+	
+	/**
+	 * Added, removed, postponed and repeating tasks are all replayed into a new heap.
+	 */
+	@Test
+	void replayRoundTrip() throws IOException {
+		Heap< Task > h = new Heap< Task >( false );
+		TaskJournal journal = new TaskJournal( h, null, base(), 0 );
+		Recurrence weekly = new Recurrence( Recurrence.Unit.values()[ 0 ], 2 );
+		h.addItem( new Task( 1, "Once", 1000 ) );
+		h.addItem( Task.recurring( 2, "Repeats", 2000, weekly ) );
+		h.addItem( new Task( 3, "Removed", 3000 ) );
+		h.remove( 3 );
+		h.reschedule( h.getHandle( 1 ), 1500 );
+		journal.close();
+		
+		Heap< Task > replayed = new Heap< Task >( false );
+		journal = new TaskJournal( replayed, null, base(), 0 );
+		try {
+			assertEquals( 2, replayed.getSize() );
+			assertEquals( 1500, replayed.getItemByHandle( replayed.getHandle( 1 ) ).getDue() );
+			Task repeats = replayed.getItemByHandle( replayed.getHandle( 2 ) );
+			assertEquals( "Repeats", repeats.getName() );
+			assertEquals( weekly.anchoredAt( 2000 ), repeats.getRecurrence() );
+			assertTrue( replayed.getHandle( 3 ) < 0 );
+		} finally {
+			journal.close();
+		}
+	}
+	
+	/**
+	 * A record cut off by a crash is dropped and cut off the file, and records made after the next start are kept.
+	 */
+	@Test
+	void tornRecord() throws IOException {
+		Heap< Task > h = new Heap< Task >( false );
+		TaskJournal journal = new TaskJournal( h, null, base(), 0 );
+		h.addItem( new Task( 1, "Kept", 1000 ) );
+		h.addItem( new Task( 2, "Torn", 2000 ) );
+		journal.close();
+		File first = new File( base().getPath() + ".0" );
+		long whole = first.length();
+		CompletionArchiveTest.truncate( first, 3 );
+		
+		Heap< Task > replayed = new Heap< Task >( false );
+		journal = new TaskJournal( replayed, null, base(), 0 );
+		assertEquals( 1, replayed.getSize() );
+		assertEquals( "Kept", replayed.getCurrent().getName() );
+		assertTrue( first.length() < whole - 3, "the torn record is cut off" );
+		replayed.addItem( new Task( 3, "After", 3000 ) );
+		journal.close();
+		
+		Heap< Task > again = new Heap< Task >( false );
+		journal = new TaskJournal( again, null, base(), 0 );
+		try {
+			assertEquals( 2, again.getSize() );
+			assertTrue( again.getHandle( 2 ) < 0 );
+			assertEquals( "After", again.getItemByHandle( again.getHandle( 3 ) ).getName() );
+		} finally {
+			journal.close();
+		}
+	}
+	
+	/**
+	 * Gets the path of the journal files without their generation number.
+	 * 
+	 * @return The path.
+	 */
+	private File base() {
+		return dir.resolve( "tasks.journal" ).toFile();
+	}
+}
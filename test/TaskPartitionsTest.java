@@ -0,0 +1,118 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that the partition manifest and partition files read back what was written, that only the near-term partitions
+ * are loaded at first, and that a damaged manifest or partition is reported rather than read as fewer tasks.
+ */
+public class TaskPartitionsTest {
+	/**
+	 * The partition folder.
+	 */
+	@TempDir
+	Path dir;
+	
+	/**
+	 * Tasks written to the partitions: two in each of four months, starting in January 2030.
+	 */
+	private List< Task > tasks;
+	
+	/**
+	 * Writes the tasks to the partitions.
+	 * 
+	 * @throws IOException If the partitions cannot be written.
+	 */
+	@BeforeEach
+	void write() throws IOException {
+		tasks = new ArrayList< Task >();
+		for ( int month = 1; month <= 4; month++ ) {
+			tasks.add( new Task( month * 10, "Early " + month, DueDates.toMinute( 2030, month, 3, 9, 0 ) ) );
+			tasks.add( new Task( month * 10 + 1, "Late " + month, DueDates.toMinute( 2030, month, 20, 17, 30 ) ) );
+		}
+		TaskPartitions parts = new TaskPartitions( dir.toFile() );
+		parts.open( DueDates.toMinute( 2030, 1, 1, 0, 0 ) );
+		parts.write( tasks, Collections.< Integer >emptySet() );
+	}
+	
+	/**
+	 * The manifest lists every partition, the near-term ones are loaded when opened, and the rest load in order.
+	 */
+	@Test
+	void manifestRoundTrip() throws IOException {
+		TaskPartitions parts = new TaskPartitions( dir.toFile() );
+		assertTrue( parts.exists() );
+		List< Task > loaded = parts.open( DueDates.toMinute( 2030, 1, 15, 0, 0 ) );
+		assertEquals( 4, parts.getPartitionCount() );
+		assertEquals( 2, parts.getLoadedCount() );
+		assertEquals( describe( tasks.subList( 0, 4 ) ), describe( loaded ) );
+		assertEquals( 4, parts.getUnloadedTaskCount() );
+		assertEquals( DueDates.toMinute( 2030, 3, 3, 9, 0 ), parts.nextDue() );
+		assertEquals( describe( tasks.subList( 4, 6 ) ), describe( parts.loadNext() ) );
+		assertEquals( describe( tasks.subList( 6, 8 ) ), describe( parts.loadNext() ) );
+		assertEquals( Long.MAX_VALUE, parts.nextDue() );
+	}
+	
+	/**
+	 * A manifest cut short is reported, rather than read as fewer partitions.
+	 */
+	@Test
+	void truncatedManifest() throws IOException {
+		CompletionArchiveTest.truncate( dir.resolve( "manifest" ).toFile(), 2 );
+		TaskPartitions parts = new TaskPartitions( dir.toFile() );
+		assertThrows( IOException.class, () -> parts.open( DueDates.toMinute( 2030, 1, 15, 0, 0 ) ) );
+	}
+	
+	/**
+	 * A manifest left half written by a crash is only ever the temporary file, so the last whole manifest is read.
+	 */
+	@Test
+	void leftoverTemporaryManifest() throws IOException {
+		Files.write( dir.resolve( "manifest.tmp" ), new byte[] { 0x54, 0x53 } );
+		TaskPartitions parts = new TaskPartitions( dir.toFile() );
+		parts.open( DueDates.toMinute( 2030, 1, 15, 0, 0 ) );
+		assertEquals( 4, parts.getPartitionCount() );
+	}
+	
+	/**
+	 * A partition file cut short is reported when it is loaded, rather than read as fewer tasks.
+	 */
+	@Test
+	void truncatedPartition() throws IOException {
+		File[] files = dir.toFile().listFiles( ( d, name ) -> !name.startsWith( "manifest" ) );
+		assertEquals( 4, files.length );
+		for ( File f : files ) {
+			CompletionArchiveTest.truncate( f, 1 );
+		}
+		TaskPartitions parts = new TaskPartitions( dir.toFile() );
+		assertThrows( IOException.class, () -> parts.open( DueDates.toMinute( 2030, 1, 15, 0, 0 ) ) );
+	}
+	
+	/**
+	 * Describes tasks by their ids, names and due dates, in sorted order, since tasks read back are new objects.
+	 * 
+	 * @param read The tasks.
+	 * @return One description per task, sorted.
+	 */
+	private static List< String > describe( List< Task > read ) {
+		List< Task > copy = new ArrayList< Task >( read );
+		Collections.sort( copy );
+		List< String > described = new ArrayList< String >( copy.size() );
+		for ( Task t : copy ) {
+			described.add( t.getId() + ":" + t );
+		}
+		return described;
+	}
+}